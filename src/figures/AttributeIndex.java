@@ -0,0 +1,525 @@
+package figures;
+
+import java.awt.BasicStroke;
+import java.awt.Paint;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import figures.enums.FigureType;
+import figures.enums.LineType;
+import filters.CompiledFigureFilter;
+import utils.CompressedBitSet;
+
+/**
+ * Index secondaires des figures d'un {@link Drawing} d'après leurs
+ * attributs : pour chaque type de figure, couleur de remplissage, couleur de
+ * trait et type de ligne, l'ensemble ({@link CompressedBitSet}) des
+ * positions des figures ayant cet attribut dans la liste des figures du
+ * dessin.
+ * Les figures filtrées ou regroupées par attribut sont alors obtenues par
+ * intersection et union de ces ensembles plutôt qu'en examinant toutes les
+ * figures.
+ * L'index est maintenu par le dessin lorsque des figures sont ajoutées,
+ * retirées, réordonnées ou changent de style. Pour chaque position l'index
+ * conserve la figure et les attributs qu'elle avait lors de son indexation
+ * afin de pouvoir la retirer des ensembles correspondants.
+ * L'index maintient également la vue matérialisée des positions des figures
+ * satisfaisant le filtre courant du dessin ({@link #getView()}) : elle est
+ * reconstruite (par intersection des ensembles) uniquement lorsque le filtre
+ * change et mise à jour figure par figure lors des autres modifications.
+ * @note les couleurs sont comparées par identité (elles proviennent du
+ * {@link utils.PaintFactory}) et les figures sans remplissage ou sans trait
+ * sont indexées avec une couleur null
+ * @author davidroussel
+ */
+class AttributeIndex
+{
+	/**
+	 * Figure indexée à chaque position
+	 */
+	private final List<Figure> indexed;
+
+	/**
+	 * Position de chaque figure indexée
+	 */
+	private final Map<Figure, Integer> positions;
+
+	/**
+	 * Type de chaque figure indexée lors de son indexation
+	 */
+	private final List<FigureType> types;
+
+	/**
+	 * Couleur de remplissage de chaque figure lors de son indexation
+	 */
+	private final List<Paint> fills;
+
+	/**
+	 * Couleur de trait de chaque figure lors de son indexation
+	 */
+	private final List<Paint> edges;
+
+	/**
+	 * Trait de chaque figure lors de son indexation (dont le type de ligne
+	 * est déduit)
+	 */
+	private final List<BasicStroke> strokes;
+
+	/**
+	 * Positions des figures de chaque type
+	 */
+	private final EnumMap<FigureType, CompressedBitSet> byType;
+
+	/**
+	 * Positions des figures de chaque couleur de remplissage
+	 */
+	private final Map<Paint, CompressedBitSet> byFill;
+
+	/**
+	 * Positions des figures de chaque couleur de trait
+	 */
+	private final Map<Paint, CompressedBitSet> byEdge;
+
+	/**
+	 * Positions des figures de chaque type de ligne
+	 */
+	private final EnumMap<LineType, CompressedBitSet> byLine;
+
+	/**
+	 * Filtre courant ou bien null si les figures ne sont pas filtrées
+	 */
+	private CompiledFigureFilter filter;
+
+	/**
+	 * Positions des figures satisfaisant le {@link #filter} ou bien null si
+	 * les figures ne sont pas filtrées
+	 */
+	private CompressedBitSet view;
+
+	/**
+	 * Constructeur d'un index vide
+	 */
+	AttributeIndex()
+	{
+		indexed = new ArrayList<Figure>();
+		positions = new IdentityHashMap<Figure, Integer>();
+		types = new ArrayList<FigureType>();
+		fills = new ArrayList<Paint>();
+		edges = new ArrayList<Paint>();
+		strokes = new ArrayList<BasicStroke>();
+		byType = new EnumMap<FigureType, CompressedBitSet>(FigureType.class);
+		byFill = new IdentityHashMap<Paint, CompressedBitSet>();
+		byEdge = new IdentityHashMap<Paint, CompressedBitSet>();
+		byLine = new EnumMap<LineType, CompressedBitSet>(LineType.class);
+		filter = null;
+		view = null;
+	}
+
+	/**
+	 * Nombre de figures indexées
+	 * @return le nombre de figures indexées
+	 */
+	int size()
+	{
+		return indexed.size();
+	}
+
+	/**
+	 * Indexation d'une figure ajoutée à la fin de la liste des figures
+	 * @param figure la figure ajoutée
+	 */
+	void append(Figure figure)
+	{
+		int position = indexed.size();
+		indexed.add(figure);
+		positions.put(figure, Integer.valueOf(position));
+		types.add(figure.getType());
+		fills.add(figure.getFillPaint());
+		edges.add(figure.getEdgePaint());
+		strokes.add(figure.getStroke());
+		set(position);
+		if ((filter != null) && filter.test(figure))
+		{
+			view.add(position);
+		}
+	}
+
+	/**
+	 * Retrait des figures indexées à partir d'une position
+	 * @param size le nombre de figures conservées
+	 */
+	void truncate(int size)
+	{
+		int from = Math.max(size, 0);
+		if (from >= indexed.size())
+		{
+			return;
+		}
+		for (Figure figure : indexed.subList(from, indexed.size()))
+		{
+			positions.remove(figure);
+		}
+		truncate(byType, from);
+		truncate(byFill, from);
+		truncate(byEdge, from);
+		truncate(byLine, from);
+		if (view != null)
+		{
+			view.clearFrom(from);
+		}
+		indexed.subList(from, indexed.size()).clear();
+		types.subList(from, types.size()).clear();
+		fills.subList(from, fills.size()).clear();
+		edges.subList(from, edges.size()).clear();
+		strokes.subList(from, strokes.size()).clear();
+	}
+
+	/**
+	 * Réindexation des figures à partir d'une position (lorsque des figures
+	 * y ont été insérées, retirées ou réordonnées)
+	 * @param from la première position modifiée
+	 * @param figures la liste complète des figures du dessin
+	 */
+	void reindexFrom(int from, List<Figure> figures)
+	{
+		int start = Math.min(Math.max(from, 0), indexed.size());
+		truncate(start);
+		for (int i = start; i < figures.size(); i++)
+		{
+			append(figures.get(i));
+		}
+	}
+
+	/**
+	 * Réindexation des figures à partir de la première position où la liste
+	 * des figures diffère des figures indexées (lorsque des figures ont été
+	 * retirées, remplacées ou réordonnées)
+	 * @param figures la liste complète des figures du dessin
+	 */
+	void synchronize(List<Figure> figures)
+	{
+		int common = Math.min(indexed.size(), figures.size());
+		int from = 0;
+		while ((from < common) && (indexed.get(from) == figures.get(from)))
+		{
+			from++;
+		}
+		reindexFrom(from, figures);
+	}
+
+	/**
+	 * Mise à jour de l'index après un éventuel changement de style d'une
+	 * figure indexée
+	 * @param figure la figure dont le style a pu changer (ignorée si elle
+	 * n'est pas indexée)
+	 */
+	void restyle(Figure figure)
+	{
+		Integer index = positions.get(figure);
+		if (index == null)
+		{
+			return;
+		}
+		int position = index.intValue();
+		Paint fill = figure.getFillPaint();
+		Paint edge = figure.getEdgePaint();
+		BasicStroke stroke = figure.getStroke();
+		if ((fills.get(position) != fill) || (edges.get(position) != edge)
+		    || (strokes.get(position) != stroke))
+		{
+			clear(position);
+			fills.set(position, fill);
+			edges.set(position, edge);
+			strokes.set(position, stroke);
+			set(position);
+			if (filter != null)
+			{
+				if (filter.test(figure))
+				{
+					view.add(position);
+				}
+				else
+				{
+					view.remove(position);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mise en place du filtre courant et reconstruction de la vue des
+	 * figures qui le satisfont
+	 * @param filter le nouveau filtre ou bien null si les figures ne sont
+	 * plus filtrées
+	 */
+	void setFilter(CompiledFigureFilter filter)
+	{
+		this.filter = filter;
+		view = filter != null ? matching(filter) : null;
+	}
+
+	/**
+	 * Vue matérialisée des figures satisfaisant le filtre courant
+	 * @return l'ensemble (maintenu par cet index et qui ne doit donc pas
+	 * être modifié) des positions des figures satisfaisant le filtre courant
+	 * ou bien null si les figures ne sont pas filtrées
+	 */
+	CompressedBitSet getView()
+	{
+		return view;
+	}
+
+	/**
+	 * Positions des figures satisfaisant un filtre compilé
+	 * @param filter le filtre compilé
+	 * @return un nouvel ensemble contenant les positions des figures
+	 * satisfaisant le filtre
+	 */
+	CompressedBitSet matching(CompiledFigureFilter filter)
+	{
+		CompressedBitSet result = null;
+		EnumSet<FigureType> acceptedTypes = filter.getTypes();
+		if (acceptedTypes != null)
+		{
+			result = and(result, union(byType, acceptedTypes));
+		}
+		if (filter.isFillFiltered())
+		{
+			result = and(result, bucket(byFill, filter.getFill()));
+		}
+		if (filter.isEdgeFiltered())
+		{
+			result = and(result, bucket(byEdge, filter.getEdge()));
+		}
+		EnumSet<LineType> acceptedLines = filter.getLines();
+		if (acceptedLines != null)
+		{
+			result = and(result, union(byLine, acceptedLines));
+		}
+		return result != null ? result : CompressedBitSet.range(0, size());
+	}
+
+	/**
+	 * Regroupement de figures par type
+	 * @param selection les positions des figures à regrouper ou bien null
+	 * pour toutes les figures
+	 * @return les listes des figures de chaque type (dans l'ordre des types
+	 * et des figures) en omettant les types sans figures
+	 */
+	Map<FigureType, List<Figure>> groupByType(CompressedBitSet selection)
+	{
+		return group(byType, selection,
+		             new EnumMap<FigureType, List<Figure>>(FigureType.class));
+	}
+
+	/**
+	 * Regroupement de figures par couleur de remplissage
+	 * @param selection les positions des figures à regrouper ou bien null
+	 * pour toutes les figures
+	 * @return les listes des figures de chaque couleur de remplissage (dans
+	 * l'ordre des figures, les couleurs étant dans un ordre quelconque) en
+	 * omettant les couleurs sans figures
+	 */
+	Map<Paint, List<Figure>> groupByFill(CompressedBitSet selection)
+	{
+		return group(byFill, selection,
+		             new LinkedHashMap<Paint, List<Figure>>());
+	}
+
+	/**
+	 * Regroupement de figures par couleur de trait
+	 * @param selection les positions des figures à regrouper ou bien null
+	 * pour toutes les figures
+	 * @return les listes des figures de chaque couleur de trait (dans
+	 * l'ordre des figures, les couleurs étant dans un ordre quelconque) en
+	 * omettant les couleurs sans figures
+	 */
+	Map<Paint, List<Figure>> groupByEdge(CompressedBitSet selection)
+	{
+		return group(byEdge, selection,
+		             new LinkedHashMap<Paint, List<Figure>>());
+	}
+
+	/**
+	 * Regroupement de figures par type de ligne
+	 * @param selection les positions des figures à regrouper ou bien null
+	 * pour toutes les figures
+	 * @return les listes des figures de chaque type de ligne (dans l'ordre
+	 * des types de ligne et des figures) en omettant les types sans figures
+	 */
+	Map<LineType, List<Figure>> groupByLine(CompressedBitSet selection)
+	{
+		return group(byLine, selection,
+		             new EnumMap<LineType, List<Figure>>(LineType.class));
+	}
+
+	/**
+	 * Ajout d'une position aux ensembles correspondant aux attributs
+	 * enregistrés pour cette position
+	 * @param position la position
+	 */
+	private void set(int position)
+	{
+		bucket(byType, types.get(position), true).add(position);
+		bucket(byFill, fills.get(position), true).add(position);
+		bucket(byEdge, edges.get(position), true).add(position);
+		bucket(byLine, LineType.fromStroke(strokes.get(position)), true)
+		    .add(position);
+	}
+
+	/**
+	 * Retrait d'une position des ensembles correspondant aux attributs
+	 * enregistrés pour cette position
+	 * @param position la position
+	 */
+	private void clear(int position)
+	{
+		remove(byType, types.get(position), position);
+		remove(byFill, fills.get(position), position);
+		remove(byEdge, edges.get(position), position);
+		remove(byLine, LineType.fromStroke(strokes.get(position)), position);
+	}
+
+	/**
+	 * Ensemble des positions associées à une valeur
+	 * @param map l'index
+	 * @param key la valeur
+	 * @param create indique s'il faut créer l'ensemble s'il n'existe pas
+	 * @return l'ensemble des positions associées à la valeur ou bien null
+	 * s'il n'existe pas et qu'il ne doit pas être créé
+	 */
+	private static <K> CompressedBitSet bucket(Map<K, CompressedBitSet> map,
+	                                           K key,
+	                                           boolean create)
+	{
+		CompressedBitSet positions = map.get(key);
+		if ((positions == null) && create)
+		{
+			positions = new CompressedBitSet();
+			map.put(key, positions);
+		}
+		return positions;
+	}
+
+	/**
+	 * Ensemble des positions associées à une valeur (pour une requête)
+	 * @param map l'index
+	 * @param key la valeur
+	 * @return l'ensemble des positions associées à la valeur (vide si
+	 * aucune figure n'a cette valeur)
+	 */
+	private static <K> CompressedBitSet bucket(Map<K, CompressedBitSet> map,
+	                                           K key)
+	{
+		CompressedBitSet positions = map.get(key);
+		return positions != null ? positions : new CompressedBitSet();
+	}
+
+	/**
+	 * Retrait d'une position de l'ensemble associé à une valeur (qui est
+	 * retiré de l'index lorsqu'il devient vide)
+	 * @param map l'index
+	 * @param key la valeur
+	 * @param position la position à retirer
+	 */
+	private static <K> void remove(Map<K, CompressedBitSet> map,
+	                               K key,
+	                               int position)
+	{
+		CompressedBitSet positions = map.get(key);
+		if (positions != null)
+		{
+			positions.remove(position);
+			if (positions.isEmpty())
+			{
+				map.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Retrait des positions supérieures ou égales à une position de tous
+	 * les ensembles d'un index
+	 * @param map l'index
+	 * @param from la première position retirée
+	 */
+	private static <K> void truncate(Map<K, CompressedBitSet> map, int from)
+	{
+		map.values().removeIf((CompressedBitSet positions) ->
+		{
+			positions.clearFrom(from);
+			return positions.isEmpty();
+		});
+	}
+
+	/**
+	 * Union des ensembles associés à plusieurs valeurs
+	 * @param map l'index
+	 * @param keys les valeurs
+	 * @return un nouvel ensemble contenant les positions associées à l'une
+	 * des valeurs
+	 */
+	private static <K extends Enum<K>> CompressedBitSet union(EnumMap<K, CompressedBitSet> map,
+	                                                          EnumSet<K> keys)
+	{
+		CompressedBitSet result = new CompressedBitSet();
+		for (K key : keys)
+		{
+			CompressedBitSet positions = map.get(key);
+			if (positions != null)
+			{
+				result = result.or(positions);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Intersection de deux ensembles dont le premier peut être null
+	 * @param first le premier ensemble (éventuellement null)
+	 * @param second le second ensemble
+	 * @return un nouvel ensemble contenant l'intersection des deux ensembles
+	 * ou bien une copie du second si le premier est null (le second pouvant
+	 * être l'un des ensembles de l'index, il ne doit pas être partagé avec
+	 * la vue)
+	 */
+	private static CompressedBitSet and(CompressedBitSet first,
+	                                    CompressedBitSet second)
+	{
+		return first == null ? new CompressedBitSet(second) : first.and(second);
+	}
+
+	/**
+	 * Regroupement de figures d'après un index
+	 * @param map l'index
+	 * @param selection les positions des figures à regrouper ou bien null
+	 * pour toutes les figures
+	 * @param groups la map à remplir
+	 * @return la map groups remplie avec les listes non vides des figures
+	 * associées à chaque valeur de l'index
+	 */
+	private <K> Map<K, List<Figure>> group(Map<K, CompressedBitSet> map,
+	                                       CompressedBitSet selection,
+	                                       Map<K, List<Figure>> groups)
+	{
+		for (Map.Entry<K, CompressedBitSet> entry : map.entrySet())
+		{
+			CompressedBitSet positions = selection == null ?
+			    entry.getValue() : entry.getValue().and(selection);
+			if (!positions.isEmpty())
+			{
+				List<Figure> figures =
+				    new ArrayList<Figure>(positions.cardinality());
+				positions.forEach((int position) ->
+				    figures.add(indexed.get(position)));
+				groups.put(entry.getKey(), figures);
+			}
+		}
+		return groups;
+	}
+}
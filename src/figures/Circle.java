@@ -4,19 +4,20 @@ import java.awt.BasicStroke;
 import java.awt.Paint;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Point2D;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import figures.enums.FigureType;
 
 public class Circle extends Figure {
 
 	public final static double DEFAULT_RADIUS = 2.0f;
-	private static int counter = 0;
+	private static final AtomicInteger counter = new AtomicInteger();
 
 	public Circle(BasicStroke stroke, Paint edge, Paint fill, Point2D center,
 			double rayon)
 	{
 		super(stroke, edge, fill);
-		instanceNumber = ++counter;
+		instanceNumber = counter.incrementAndGet();
 		double width = rayon * 2.0f;
 		double height = width;
 		double x = center.getX() - rayon;
@@ -26,12 +27,19 @@ public class Circle extends Figure {
 
 	public Circle(Circle circle)
 	{
+		// la forme est partagée avec circle jusqu'à sa modification
 		super(circle);
-		Ellipse2D oldEllipse = (Ellipse2D) circle.shape;
-		shape = new Ellipse2D.Double(oldEllipse.getMinX(),
-									 oldEllipse.getMinY(),
-									 oldEllipse.getWidth(),
-									 oldEllipse.getHeight());
+	}
+
+	/**
+	 * Constructeur d'un prototype (utilisé par {@link FigureCodec}) : sans
+	 * style ni géométrie significative et sans incrémenter le compteur
+	 * d'instances
+	 */
+	Circle()
+	{
+		super(null, null, null);
+		shape = new Ellipse2D.Double();
 	}
 
 	@Override
@@ -42,15 +50,18 @@ public class Circle extends Figure {
 
 	@Override
 	public void setLastPoint(Point2D p) {
+		// la forme peut être partagée avec une copie
+		ownShape();
 		// TODO 自动生成的方法存根
 		if (shape != null)
 		{
-			Ellipse2D.Double ellipse = (Ellipse2D.Double) shape;
+			Ellipse2D.Double ellipse = (Ellipse2D.Double) getShape();
 			Double newWidth = p.getX() - ellipse.x;
 			Double newHeight = p.getY() - ellipse.y;
 			Double dia = Math.min(Math.abs(newWidth), Math.abs(newHeight));
 			ellipse.width = dia;
 			ellipse.height = dia;
+			invalidateBounds();
 		}
 		else
 		{
@@ -61,12 +72,16 @@ public class Circle extends Figure {
 
 	@Override
 	public void normalize() {
+		// la forme et les transformations peuvent être partagées avec une copie
+		ownShape();
+		ownTransforms();
 		// TODO 自动生成的方法存根
 		Point2D center = getCenter();
 		double centerX = center.getX();
 		double centerY = center.getY();
-		Ellipse2D.Double circle = (Ellipse2D.Double) shape;
+		Ellipse2D.Double circle = (Ellipse2D.Double) getShape();
 		translation.translate(centerX, centerY);
+		invalidateTransform();
 		circle.setFrame(circle.x - centerX,
 						circle.y - centerY,
 						circle.width,
@@ -76,7 +91,7 @@ public class Circle extends Figure {
 	@Override
 	public Point2D getCenter() {
 		// TODO 自动生成的方法存根
-		Ellipse2D ellipse = (Ellipse2D.Double) shape;
+		Ellipse2D ellipse = (Ellipse2D.Double) getShape();
 		Point2D center = new Point2D.Double(ellipse.getCenterX(), ellipse.getCenterY());
 		Point2D tCenter = new Point2D.Double();
 		getTransform().transform(center, tCenter);
@@ -3,33 +3,87 @@ package figures;
 import java.awt.BasicStroke;
 import java.awt.Paint;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 import figures.enums.FigureType;
 import figures.enums.LineType;
+import filters.CompiledFigureFilter;
 import filters.EdgeColorFilter;
 import filters.FigureFilters;
 import filters.FillColorFilter;
 import filters.ShapeFilter;
 import filters.LineFilter;
+import history.HistoryManager;
 import history.Memento;
-import history.Originator;
+import history.IncrementalOriginator;
+import utils.CompressedBitSet;
 import utils.PaintFactory;
+import utils.RTree;
 import utils.StrokeFactory;
 
 /**
  * Classe contenant l'ensemble des figures à dessiner (LE MODELE)
+ * @note Le modèle décrit ses modifications à l'historique sous forme de
+ * mementos partiels ({@link IncrementalOriginator}) : seules les figures
+ * ajoutées, retirées ou modifiées depuis le dernier enregistrement sont
+ * copiées.
+ * @note Plusieurs modifications peuvent être regroupées dans une transaction
+ * ({@link #beginTransaction()}, {@link #commit()}, {@link #rollback()}) :
+ * les observateurs ne sont alors notifiés qu'une seule fois à la fin de la
+ * transaction et l'historique n'enregistre qu'une seule entrée.
  * @author davidroussel
  */
-public class Drawing extends Observable implements Originator<Figure>
+public class Drawing extends Observable implements IncrementalOriginator<Figure>
 {
+	/**
+	 * Ecart entre les ordres de deux figures consécutives dans le
+	 * {@link #spatialIndex} lors de sa reconstruction, permettant d'y insérer
+	 * des figures entre deux figures existantes sans tout renuméroter
+	 */
+	private static final long OrderSpacing = 1L << 16;
+
+	/**
+	 * Etat d'une figure au dernier point de contrôle de l'historique : la
+	 * figure, sa version et une copie (qui ne sera plus modifiée) de son état
+	 * à ce moment là
+	 * @see Drawing#checkpoint()
+	 */
+	private static class Checkpoint
+	{
+		final Figure figure;
+		final long version;
+		final Figure state;
+
+		Checkpoint(Figure figure, Figure state)
+		{
+			this.figure = figure;
+			version = figure.getVersion();
+			this.state = state;
+		}
+
+		/**
+		 * Teste si une figure est celle de ce point de contrôle et n'a pas
+		 * été modifiée depuis
+		 */
+		boolean isCurrent(Figure f)
+		{
+			return (f == figure) && (f.getVersion() == version);
+		}
+	}
+
 	/**
 	 * Liste des figures à dessiner (protected pour que les classes du même
 	 * package puissent y accéder)
@@ -41,6 +95,80 @@ public class Drawing extends Observable implements Originator<Figure>
 	 */
 	protected SortedSet<Integer> selectionIndex;
 
+	/**
+	 * Index spatial des figures d'après les zones qu'elles dessinent
+	 * ({@link Figure#getPaintBounds()}).
+	 * L'ordre de chaque figure dans l'index respecte l'ordre des figures
+	 * dans {@link #figures} (la plus grande valeur est dessinée en dernier)
+	 * @see #getFigureAt(Point2D)
+	 */
+	private RTree<Figure> spatialIndex;
+
+	/**
+	 * Index des positions des figures d'après leurs attributs (type,
+	 * couleurs et type de ligne) permettant d'obtenir les figures filtrées
+	 * ou regroupées sans examiner toutes les figures.
+	 * Mis à jour à chaque ajout, retrait, réordonnancement ou changement de
+	 * style des figures.
+	 * @see #stream()
+	 */
+	private AttributeIndex attributeIndex;
+
+	/**
+	 * Prochain ordre à attribuer à une figure placée au dessus de toutes
+	 * les autres dans le {@link #spatialIndex}
+	 */
+	private long topOrder;
+
+	/**
+	 * Prochain ordre à attribuer à une figure placée en dessous de toutes
+	 * les autres dans le {@link #spatialIndex}
+	 */
+	private long bottomOrder;
+
+	/**
+	 * Etat des figures au dernier point de contrôle de l'historique (dans
+	 * l'ordre de {@link #figures}) à partir duquel sont calculées les
+	 * modifications
+	 * @see #checkpoint()
+	 */
+	private List<Checkpoint> baseline;
+
+	/**
+	 * Figure en cours d'édition interactive (création ou transformation) par
+	 * un contrôleur, ou bien null s'il n'y en a pas.
+	 * Pendant une édition interactive seule cette figure est modifiée, ce qui
+	 * permet aux vues de conserver le rendu des autres figures.
+	 * @see #setActiveFigure(Figure)
+	 */
+	private Figure activeFigure;
+
+	/**
+	 * Le gestionnaire d'historique enregistrant les modifications de ce
+	 * dessin (ou bien null)
+	 * @see #setHistory(HistoryManager)
+	 */
+	private HistoryManager<Figure> history;
+
+	/**
+	 * Profondeur d'imbrication des transactions en cours (0 s'il n'y a pas de
+	 * transaction en cours)
+	 * @see #beginTransaction()
+	 */
+	private int transactionDepth;
+
+	/**
+	 * Indique si une notification complète des observateurs a été demandée
+	 * pendant la transaction en cours
+	 */
+	private boolean pendingUpdate;
+
+	/**
+	 * Les modifications de figures accumulées pendant la transaction en cours
+	 * (ou bien null s'il n'y en a pas eu)
+	 */
+	private DrawingChange pendingChange;
+
 	/**
 	 * Figure située sous le curseur.
 	 * Déterminé par {@link #getFigureAt(Point2D)}
@@ -117,6 +245,13 @@ public class Drawing extends Observable implements Originator<Figure>
 	 */
 	private FigureFilters<LineType> lineFilters;
 
+	/**
+	 * Prédicat unique compilé à partir des filtres actifs (cf.
+	 * {@link #compileFilters()}) ou bien null lorsque les figures ne sont pas
+	 * filtrées
+	 */
+	private CompiledFigureFilter compiledFilter;
+
 	/**
 	 * Constructeur de modèle de dessin
 	 */
@@ -124,6 +259,16 @@ public class Drawing extends Observable implements Originator<Figure>
 	{
 		figures = new Vector<Figure>();
 		selectionIndex = new TreeSet<Integer>(Integer::compare);
+		spatialIndex = new RTree<Figure>();
+		attributeIndex = new AttributeIndex();
+		activeFigure = null;
+		history = null;
+		transactionDepth = 0;
+		pendingUpdate = false;
+		pendingChange = null;
+		baseline = new ArrayList<Checkpoint>();
+		topOrder = 0;
+		bottomOrder = -OrderSpacing;
 		shapeFilters = new FigureFilters<FigureType>();
 
 		fillColorFilter = null; // décommenter lorsque prêt
@@ -136,6 +281,7 @@ public class Drawing extends Observable implements Originator<Figure>
 		edgeType = LineType.SOLID;
 		stroke = StrokeFactory.getStroke(edgeType, edgeWidth);
 		filtering = false;
+		compiledFilter = null;
 		selectedFigure = null;
 		System.out.println("Drawing model created");
 	}
@@ -151,6 +297,9 @@ public class Drawing extends Observable implements Originator<Figure>
 		figures = null;
 		selectionIndex.clear();
 		selectionIndex = null;
+		spatialIndex.clear();
+		spatialIndex = null;
+		attributeIndex = null;
 		fillPaint = null;
 		edgePaint = null;
 		edgeType = null;
@@ -161,18 +310,217 @@ public class Drawing extends Observable implements Originator<Figure>
 		edgeColorFilter = null; // TODO décommenter lorsque prêt
 		lineFilters.clear();
 		lineFilters = null;
+		compiledFilter = null;
 	}
 
 	/**
 	 * Mise à jour du ou des {@link Observer} qui observent ce modèle. On place
 	 * le modèle dans un état "changé" puis on notifie les observateurs.
+	 * Pendant une transaction la notification est différée jusqu'à la fin de
+	 * la transaction.
 	 */
 	public void update()
 	{
+		if (transactionDepth > 0)
+		{
+			pendingUpdate = true;
+			return;
+		}
 		setChanged();
 		notifyObservers(); // pour que les observateurs soient mis à jour
 	}
 
+	/**
+	 * Mise à jour des observateurs après la modification d'une figure
+	 * (géométrie ou transformation) : la position de cette figure dans
+	 * l'index spatial est d'abord mise à jour.
+	 * A utiliser par les contrôleurs qui modifient directement une figure
+	 * du dessin.
+	 * @param figure la figure modifiée
+	 */
+	public void update(Figure figure)
+	{
+		if ((figure != null) && spatialIndex.contains(figure))
+		{
+			attributeIndex.restyle(figure);
+			Rectangle2D before = spatialIndex.boundsOf(figure);
+			Rectangle2D after = figure.getPaintBounds();
+			spatialIndex.update(figure, after);
+			update(new DrawingChange(figure, before, after));
+		}
+		else
+		{
+			update();
+		}
+	}
+
+	/**
+	 * Mise à jour des observateurs en leur transmettant la description des
+	 * figures modifiées afin qu'ils puissent se limiter aux zones endommagées.
+	 * Pendant une transaction les modifications sont accumulées et
+	 * transmises en une seule fois à la fin de la transaction.
+	 * @param change la description des figures modifiées
+	 */
+	protected void update(DrawingChange change)
+	{
+		if (transactionDepth > 0)
+		{
+			if (pendingChange == null)
+			{
+				pendingChange = new DrawingChange();
+			}
+			List<Figure> changed = change.getFigures();
+			for (int i = 0; i < changed.size(); i++)
+			{
+				pendingChange.add(changed.get(i),
+				                  change.getOldBounds(i),
+				                  change.getNewBounds(i));
+			}
+			return;
+		}
+		setChanged();
+		notifyObservers(change);
+	}
+
+	/**
+	 * Mise en place du gestionnaire d'historique enregistrant les
+	 * modifications de ce dessin, afin que chaque transaction y soit
+	 * enregistrée comme une seule entrée.
+	 * @param history le gestionnaire d'historique (ou bien null)
+	 * @note si un gestionnaire d'historique utilise ce dessin comme
+	 * originator, il doit être déclaré ici pour que les transactions
+	 * n'interfèrent pas avec ses enregistrements.
+	 */
+	public void setHistory(HistoryManager<Figure> history)
+	{
+		this.history = history;
+	}
+
+	/**
+	 * Début d'une transaction : les modifications effectuées jusqu'au
+	 * {@link #commit()} correspondant ne sont notifiées aux observateurs
+	 * qu'une seule fois et forment une seule entrée de l'historique.
+	 * Les transactions peuvent être imbriquées : seule la transaction la plus
+	 * externe est prise en compte.
+	 */
+	public void beginTransaction()
+	{
+		if (transactionDepth++ == 0)
+		{
+			// clôture des modifications précédant la transaction
+			if (history != null)
+			{
+				history.record();
+			}
+			else
+			{
+				checkpoint();
+			}
+			pendingUpdate = false;
+			pendingChange = null;
+		}
+	}
+
+	/**
+	 * Indique si une transaction est en cours
+	 * @return true si une transaction est en cours
+	 */
+	public boolean isInTransaction()
+	{
+		return transactionDepth > 0;
+	}
+
+	/**
+	 * Fin d'une transaction : à la fin de la transaction la plus externe les
+	 * observateurs sont notifiés une seule fois de l'ensemble des
+	 * modifications effectuées pendant la transaction.
+	 */
+	public void commit()
+	{
+		if (transactionDepth == 0)
+		{
+			System.err.println(getClass().getSimpleName()
+			    + "::commit : no transaction");
+			return;
+		}
+		if (--transactionDepth == 0)
+		{
+			firePending();
+		}
+	}
+
+	/**
+	 * Annulation de la transaction en cours : les figures sont remises dans
+	 * l'état où elles étaient au début de la transaction la plus externe
+	 * (le seul état conservé) et aucune entrée n'est ajoutée à l'historique.
+	 * Une transaction englobante reste ouverte : elle doit toujours être
+	 * terminée par {@link #commit()} (ou {@link #rollback()}), qui notifiera
+	 * alors les observateurs.
+	 */
+	public void rollback()
+	{
+		if (transactionDepth == 0)
+		{
+			System.err.println(getClass().getSimpleName()
+			    + "::rollback : no transaction");
+			return;
+		}
+
+		Memento<Figure> changes = checkpoint();
+		if (changes != null)
+		{
+			setMemento(changes.inverse());
+			pendingUpdate = true;
+		}
+		if (--transactionDepth == 0)
+		{
+			firePending();
+		}
+	}
+
+	/**
+	 * Notification des observateurs des modifications accumulées pendant une
+	 * transaction
+	 */
+	private void firePending()
+	{
+		DrawingChange change = pendingChange;
+		boolean full = pendingUpdate;
+		pendingChange = null;
+		pendingUpdate = false;
+		if (full)
+		{
+			update();
+		}
+		else if (change != null)
+		{
+			update(change);
+		}
+	}
+
+	/**
+	 * Accesseur de la figure en cours d'édition interactive
+	 * @return la figure en cours d'édition ou bien null s'il n'y en a pas
+	 */
+	public Figure getActiveFigure()
+	{
+		return activeFigure;
+	}
+
+	/**
+	 * Mise en place de la figure en cours d'édition interactive. A utiliser
+	 * par les contrôleurs au début (avec la figure éditée) et à la fin (avec
+	 * null) d'une édition.
+	 * @param figure la figure en cours d'édition ou bien null lorsque
+	 * l'édition est terminée
+	 * @post le modèle de dessin a été mis à jour
+	 */
+	public void setActiveFigure(Figure figure)
+	{
+		activeFigure = figure;
+		update();
+	}
+
 	/**
 	 * Mise en place d'un nouveau type de figure à générer
 	 * @param type le nouveau type de figure
@@ -279,12 +627,68 @@ public class Drawing extends Observable implements Originator<Figure>
 		 * TODO Ajout de la figure à #figures
 		 */
 		if (newFigure != null)
+		{
 			figures.add(newFigure);
-		/* TODO Notification des observers */
-		update();
+			spatialIndex.insert(newFigure, newFigure.getPaintBounds(), nextTopOrder());
+			attributeIndex.append(newFigure);
+			/* TODO Notification des observers */
+			update(new DrawingChange(newFigure, null,
+			                         spatialIndex.boundsOf(newFigure)));
+		}
 		return newFigure;
 	}
 
+	/**
+	 * Ajout d'une figure déjà construite (lors du chargement d'un dessin par
+	 * exemple) au dessus de toutes les autres figures
+	 * @param figure la figure à ajouter
+	 */
+	public void addFigure(Figure figure)
+	{
+		if (figure != null)
+		{
+			figures.add(figure);
+			spatialIndex.insert(figure, figure.getPaintBounds(), nextTopOrder());
+			attributeIndex.append(figure);
+			update(new DrawingChange(figure, null,
+			                         spatialIndex.boundsOf(figure)));
+		}
+	}
+
+	/**
+	 * Ajout en bloc de figures déjà construites (lors du chargement d'un
+	 * dessin par exemple) au dessus de toutes les autres figures, dans
+	 * l'ordre de la liste. Les observateurs ne sont notifiés qu'une seule
+	 * fois et l'index spatial est entièrement reconstruit (plutôt que
+	 * complété figure par figure) lorsque le dessin était vide.
+	 * @param added les figures à ajouter
+	 */
+	public void addFigures(List<Figure> added)
+	{
+		if (added.isEmpty())
+		{
+			return;
+		}
+		boolean wasEmpty = figures.isEmpty();
+		figures.addAll(added);
+		if (wasEmpty)
+		{
+			rebuildSpatialIndex();
+		}
+		else
+		{
+			for (Figure figure : added)
+			{
+				spatialIndex.insert(figure, figure.getPaintBounds(), nextTopOrder());
+			}
+		}
+		for (Figure figure : added)
+		{
+			attributeIndex.append(figure);
+		}
+		update();
+	}
+
 	/**
 	 * Obtention de la dernière figure (implicitement celle qui est en cours de
 	 * dessin)
@@ -309,16 +713,15 @@ public class Drawing extends Observable implements Originator<Figure>
 	 */
 	public Figure getFigureAt(Point2D p)
 	{
-		selectedFigure = null;
-
 		/*
-		 * TODO Recherche dans le flux des figures de la DERNIERE figure
-		 * contenant le point p.
+		 * Recherche dans l'index spatial de la figure la plus haute (la
+		 * DERNIERE dans l'ordre des figures) contenant le point p et
+		 * satisfaisant les filtres courants.
 		 */
-		stream().forEach((Figure figure) -> {
-			if (figure.contains(p))
-				selectedFigure = figure;
-		});
+		Predicate<Figure> filter = filterPredicate();
+		selectedFigure = spatialIndex.top(p.getX(), p.getY(),
+		    (Figure figure) -> ((filter == null) || filter.test(figure))
+		        && figure.contains(p));
 
 		return selectedFigure;
 	}
@@ -332,8 +735,15 @@ public class Drawing extends Observable implements Originator<Figure>
 		// TODO Compléter ...
 		if (!figures.isEmpty())
 		{
-			figures.remove(figures.size() - 1);
-			update();
+			Figure last = figures.remove(figures.size() - 1);
+			if (last == activeFigure)
+			{
+				activeFigure = null;
+			}
+			Rectangle2D before = spatialIndex.boundsOf(last);
+			spatialIndex.remove(last);
+			attributeIndex.truncate(figures.size());
+			update(new DrawingChange(last, before, null));
 		}
 	}
 
@@ -343,12 +753,15 @@ public class Drawing extends Observable implements Originator<Figure>
 	 */
 	public void clear()
 	{
-		// TODO Compléter ...
 		if (!figures.isEmpty())
 		{
+			beginTransaction();
 			figures.clear();
-			// TODO use history instead.
+			spatialIndex.clear();
+			attributeIndex.truncate(0);
+			activeFigure = null;
 			update();
+			commit();
 		}
 	}
 
@@ -370,6 +783,7 @@ public class Drawing extends Observable implements Originator<Figure>
 	{
 		// TODO ... filtering ...
 		this.filtering = filtering;
+		compileFilters();
 		// TODO history
 		update();
 	}
@@ -391,6 +805,7 @@ public class Drawing extends Observable implements Originator<Figure>
 
 		if (added)
 		{
+			compileFilters();
 			update();
 		}
 
@@ -412,6 +827,7 @@ public class Drawing extends Observable implements Originator<Figure>
 
 		if (removed)
 		{
+			compileFilters();
 			update();
 		}
 
@@ -429,6 +845,7 @@ public class Drawing extends Observable implements Originator<Figure>
 	{
 		// TODO ... fillColorFilter ...
 		fillColorFilter = filter;
+		compileFilters();
 		update();
 	}
 
@@ -443,6 +860,7 @@ public class Drawing extends Observable implements Originator<Figure>
 	{
 		// TODO ... edgeColorFilter ...
 		edgeColorFilter = filter;
+		compileFilters();
 		update();
 	}
 
@@ -461,6 +879,7 @@ public class Drawing extends Observable implements Originator<Figure>
 
 		if (added)
 		{
+			compileFilters();
 			update();
 		}
 
@@ -482,6 +901,7 @@ public class Drawing extends Observable implements Originator<Figure>
 
 		if (removed)
 		{
+			compileFilters();
 			update();
 		}
 
@@ -510,18 +930,25 @@ public class Drawing extends Observable implements Originator<Figure>
 	 */
 	public void updateSelection()
 	{
-		// TODO Compléter ...
 		selectionIndex.clear();
 
-		stream().forEach((Figure figure) -> {
+		// parcours indexé plutôt que figures.indexOf(...) pour chaque figure
+		// sélectionnée (quadratique sur les grands dessins chargés), limité
+		// aux figures de la vue filtrée lorsque les figures sont filtrées
+		CompressedBitSet view = attributeIndex.getView();
+		for (int index = view == null ? 0 : view.nextSetBit(0);
+		     (index >= 0) && (index < figures.size());
+		     index = view == null ? index + 1 : view.nextSetBit(index + 1))
+		{
+			Figure figure = figures.get(index);
 			if (figure.isSelected())
 			{
-				int index = figures.indexOf(figure);
 				System.out.println("Figure #" + index + " : "
-				    + figures.get(index) + " is selected");
+				    + figure + " is selected");
 				selectionIndex.add(new Integer(index));
 			}
-		});
+		}
+
 		
 		update();
 	}
@@ -542,17 +969,18 @@ public class Drawing extends Observable implements Originator<Figure>
 	 */
 	public void deleteSelected()
 	{
-		// TODO Compléter ...
+		beginTransaction();
 		while (hasSelection())
 		{
 			Integer lastIndex = selectionIndex.last();
-			figures.removeElementAt(lastIndex.intValue());
+			spatialIndex.remove(figures.remove(lastIndex.intValue()));
 			selectionIndex.remove(lastIndex);
 		}
+		attributeIndex.synchronize(figures);
 
 		clearSelection();
-		// TODO History
 		update();
+		commit();
 	}
 
 	/**
@@ -563,7 +991,7 @@ public class Drawing extends Observable implements Originator<Figure>
 	 */
 	public void applyStyleToSelected(Paint fill, Paint edge, BasicStroke stroke)
 	{
-		// TODO Compléter ...
+		beginTransaction();
 		for (Iterator<Integer> indexIt = selectionIndex.iterator(); indexIt.hasNext();)
 			{
 				try
@@ -576,7 +1004,14 @@ public class Drawing extends Observable implements Originator<Figure>
 						selectedFigure.setEdgePaint(edge);
 
 					if (stroke != null)
+					{
 						selectedFigure.setStroke(stroke);
+						// l'épaisseur du trait change la zone dessinée
+						spatialIndex.update(selectedFigure,
+						                    selectedFigure.getPaintBounds());
+					}
+
+					attributeIndex.restyle(selectedFigure);
 
 				}
 				catch (ArrayIndexOutOfBoundsException e)
@@ -586,6 +1021,7 @@ public class Drawing extends Observable implements Originator<Figure>
 				}
 			}
 			update();
+		commit();
 	}
 
 	/**
@@ -594,7 +1030,7 @@ public class Drawing extends Observable implements Originator<Figure>
 	 */
 	public void moveSelectedUp()
 	{
-		// TODO Compléter ...
+		beginTransaction();
 		Vector<Figure> newFigures = new Vector<Figure>();
 		Iterator<Figure> it = figures.iterator();
 		while (it.hasNext())
@@ -607,37 +1043,172 @@ public class Drawing extends Observable implements Originator<Figure>
 			}
 		}
 		figures.addAll(newFigures);
+		for (Figure f : newFigures)
+		{
+			spatialIndex.update(f, f.getPaintBounds(), nextTopOrder());
+		}
+		attributeIndex.synchronize(figures);
 		updateSelection();
+		commit();
+	}
+
+	/**
+	 * Accès à toutes les figures (sans filtrage) dans l'ordre dans lequel
+	 * elles sont dessinées, pour les enregistrer par exemple
+	 * @return le flux de toutes les figures
+	 */
+	public Stream<Figure> streamAll()
+	{
+		return figures.stream();
+	}
+
+	/**
+	 * Accès en lecture à la liste de toutes les figures (sans filtrage) dans
+	 * l'ordre dans lequel elles sont dessinées, pour suivre ses
+	 * modifications par exemple (cf. {@link io.DrawingJournal})
+	 * @return une vue non modifiable de la liste des figures
+	 * @note certaines opérations remplacent la liste des figures : la vue
+	 * doit donc être obtenue à nouveau après chaque notification
+	 */
+	public List<Figure> getFigures()
+	{
+		return Collections.unmodifiableList(figures);
 	}
 
 	/**
 	 * Accès aux figures dans un stream afin que l'on puisse y appliquer
-	 * de filtres
+	 * de filtres.
+	 * Lorsque les figures sont filtrées, le flux parcourt la vue des figures
+	 * satisfaisant les filtres maintenue par l'{@link #attributeIndex} sans
+	 * examiner les autres figures.
 	 * @return le flux des figures éventuellement filtrés par les différents
 	 * filtres
+	 * @note le flux doit être consommé avant toute modification de la liste
+	 * des figures ou de leurs styles
 	 */
 	public Stream<Figure> stream()
 	{
-		Stream<Figure> figuresStream = figures.stream();
-		if (filtering)
+		CompressedBitSet view = attributeIndex.getView();
+		if (view == null)
 		{
-			// TODO Compléter avec ...
-			if (shapeFilters.size() > 0)
-				figuresStream = figuresStream.filter(shapeFilters);
+			return figures.stream();
+		}
 
-			if (fillColorFilter != null)
-				figuresStream = figuresStream.filter(x->fillColorFilter.test(x));
+		List<Figure> current = figures;
+		return view.stream().mapToObj(current::get);
+	}
+
+	/**
+	 * Regroupement des figures (éventuellement filtrées) par type de figure
+	 * @return les listes des figures de chaque type (dans l'ordre des types
+	 * et dans l'ordre de dessin des figures) en omettant les types sans
+	 * figure
+	 */
+	public Map<FigureType, List<Figure>> groupByType()
+	{
+		return attributeIndex.groupByType(filteredPositions());
+	}
+
+	/**
+	 * Regroupement des figures (éventuellement filtrées) par couleur de
+	 * remplissage
+	 * @return les listes des figures de chaque couleur de remplissage (null
+	 * pour les figures sans remplissage) dans l'ordre de dessin des figures
+	 * en omettant les couleurs sans figure
+	 */
+	public Map<Paint, List<Figure>> groupByFillPaint()
+	{
+		return attributeIndex.groupByFill(filteredPositions());
+	}
+
+	/**
+	 * Regroupement des figures (éventuellement filtrées) par couleur de trait
+	 * @return les listes des figures de chaque couleur de trait (null pour
+	 * les figures sans trait) dans l'ordre de dessin des figures en omettant
+	 * les couleurs sans figure
+	 */
+	public Map<Paint, List<Figure>> groupByEdgePaint()
+	{
+		return attributeIndex.groupByEdge(filteredPositions());
+	}
+
+	/**
+	 * Regroupement des figures (éventuellement filtrées) par type de ligne
+	 * @return les listes des figures de chaque type de ligne (dans l'ordre
+	 * des types de ligne et dans l'ordre de dessin des figures) en omettant
+	 * les types sans figure
+	 */
+	public Map<LineType, List<Figure>> groupByLineType()
+	{
+		return attributeIndex.groupByLine(filteredPositions());
+	}
 
-			if (edgeColorFilter != null)
-				figuresStream = figuresStream.filter(edgeColorFilter);
+	/**
+	 * Positions des figures satisfaisant les filtres actifs
+	 * @return l'ensemble des positions des figures satisfaisant les filtres
+	 * ou bien null si les figures ne sont pas filtrées
+	 */
+	private CompressedBitSet filteredPositions()
+	{
+		return attributeIndex.getView();
+	}
 
-			if (lineFilters.size() > 0)
-				figuresStream = figuresStream.filter(lineFilters);
+	/**
+	 * Accès aux figures dessinées (au moins en partie) dans une zone, dans
+	 * l'ordre de dessin, au travers d'un stream.
+	 * Seules les figures dont la zone dessinée intersecte la zone demandée
+	 * sont obtenues grâce à l'index spatial.
+	 * @param area la zone dans laquelle on cherche des figures
+	 * @return le flux des figures présentes dans la zone, éventuellement
+	 * filtrés par les différents filtres
+	 */
+	public Stream<Figure> stream(Rectangle2D area)
+	{
+		Stream<Figure> figuresStream = spatialIndex.search(area).stream();
+		Predicate<Figure> filter = filterPredicate();
+		if (filter != null)
+		{
+			figuresStream = figuresStream.filter(filter);
 		}
 
 		return figuresStream;
 	}
 
+	/**
+	 * Compilation des différents filtres actifs en un seul prédicat
+	 * ({@link #compiledFilter}). A appeler à chaque changement de l'état de
+	 * filtrage ou des filtres.
+	 * @see CompiledFigureFilter#compile(FigureFilters, FillColorFilter,
+	 * EdgeColorFilter, FigureFilters)
+	 */
+	private void compileFilters()
+	{
+		if (filtering)
+		{
+			compiledFilter = CompiledFigureFilter.compile(shapeFilters,
+			                                              fillColorFilter,
+			                                              edgeColorFilter,
+			                                              lineFilters);
+		}
+		else
+		{
+			compiledFilter = null;
+		}
+		attributeIndex.setFilter(compiledFilter);
+	}
+
+	/**
+	 * Prédicat combinant les différents filtres actifs
+	 * @return le prédicat compilé à partir de {@link #shapeFilters},
+	 * {@link #fillColorFilter}, {@link #edgeColorFilter} et
+	 * {@link #lineFilters} ou bien null si le {@link #filtering} est inactif
+	 * ou qu'aucun filtre n'est présent
+	 */
+	private Predicate<Figure> filterPredicate()
+	{
+		return compiledFilter;
+	}
+
 	/* (non-Javadoc)
 	 * @see history.Originator#createMemento()
 	 */
@@ -647,33 +1218,182 @@ public class Drawing extends Observable implements Originator<Figure>
 		return new Memento<Figure>(figures);
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Mise en place de l'état contenu dans un memento.
+	 * Un memento complet remplace toutes les figures, alors qu'un memento
+	 * partiel ne remplace que les figures qu'il décrit (ce qui suppose que le
+	 * dessin n'a pas été modifié depuis le dernier {@link #checkpoint()}).
+	 * Dans les deux cas le point de contrôle est déplacé sur l'état obtenu.
+	 * Les figures installées partagent leur forme, leurs transformations et
+	 * leurs caches avec les figures (figées) du memento : elles ne sont
+	 * réellement copiées que lorsqu'elles sont modifiées par la suite.
+	 * @param memento le memento contenant l'état à mettre en place
 	 * @see history.Originator#setMemento(history.Memento)
 	 */
 	@Override
 	public void setMemento(Memento<Figure> memento)
 	{
-		if (memento != null)
+		if (memento == null)
+		{
+			System.err.println("Drawing::setMemento(null)");
+		}
+		else if (memento.isPartial())
+		{
+			int index = memento.getIndex();
+			int count = memento.getReplacedState().size();
+			if ((index < 0) || ((index + count) > figures.size()))
+			{
+				System.err.println(getClass().getSimpleName()
+				    + "::setMemento : invalid range " + index + " + " + count);
+				return;
+			}
+
+			// Retrait des figures remplacées
+			List<Figure> replaced = figures.subList(index, index + count);
+			for (Figure f : replaced)
+			{
+				spatialIndex.remove(f);
+			}
+			replaced.clear();
+
+			// Installation de copies des figures du memento
+			List<Figure> savedFigures = memento.getState();
+			List<Checkpoint> states =
+			    new ArrayList<Checkpoint>(savedFigures.size());
+			for (Figure elt : savedFigures)
+			{
+				Figure f = Figure.restore(elt);
+				states.add(new Checkpoint(f, elt));
+			}
+			for (int i = 0; i < states.size(); i++)
+			{
+				figures.add(index + i, states.get(i).figure);
+			}
+			indexRange(index, index + states.size());
+			attributeIndex.synchronize(figures);
+
+			// Déplacement du point de contrôle
+			List<Checkpoint> baselineRange =
+			    baseline.subList(index, index + count);
+			baselineRange.clear();
+			baselineRange.addAll(states);
+
+			activeFigure = null;
+			updateSelection();
+		}
+		else
 		{
 			List<Figure> savedFigures = memento.getState();
-			System.out.println("Drawing::setMemento(" + savedFigures + ")");
+			System.out.println("Drawing::setMemento(" + savedFigures.size()
+			    + " figures)");
 
 			figures.clear();
+			baseline.clear();
 			for (Figure elt : savedFigures)
 			{
-				figures.add(elt.clone());
+				Figure f = Figure.restore(elt);
+				figures.add(f);
+				baseline.add(new Checkpoint(f, elt));
 			}
+			rebuildSpatialIndex();
+			attributeIndex.reindexFrom(0, figures);
+			activeFigure = null;
 
-			update();
+			updateSelection();
 		}
-		else
+	}
+
+	/**
+	 * Création d'un memento partiel décrivant les figures ajoutées, retirées
+	 * ou modifiées depuis le dernier point de contrôle.
+	 * Les figures inchangées au début et à la fin de {@link #figures} (même
+	 * référence et même version) sont écartées : seules les figures
+	 * comprises entre ces deux parties communes sont décrites, et seules
+	 * celles qui ont effectivement changé sont copiées.
+	 * Les modifications sans effet (une figure dont la version a changé mais
+	 * qui est restée égale à son état précédent) ne produisent pas de
+	 * memento.
+	 * @return le memento partiel décrivant les modifications depuis le
+	 * dernier point de contrôle ou bien null s'il n'y en a pas eu
+	 * @see history.IncrementalOriginator#checkpoint()
+	 */
+	@Override
+	public Memento<Figure> checkpoint()
+	{
+		int baseSize = baseline.size();
+		int size = figures.size();
+
+		// Partie commune au début
+		int prefix = 0;
+		while ((prefix < baseSize) && (prefix < size)
+		    && baseline.get(prefix).isCurrent(figures.get(prefix)))
 		{
-			System.err.println("Drawing::setMemento(null)");
+			prefix++;
+		}
+
+		if ((prefix == baseSize) && (prefix == size))
+		{
+			return null;
+		}
+
+		// Partie commune à la fin
+		int suffix = 0;
+		while ((suffix < (baseSize - prefix)) && (suffix < (size - prefix))
+		    && baseline.get(baseSize - 1 - suffix)
+		        .isCurrent(figures.get(size - 1 - suffix)))
+		{
+			suffix++;
 		}
+
+		List<Checkpoint> baselineRange =
+		    baseline.subList(prefix, baseSize - suffix);
+
+		// Figures remplacées et figures inchangées dans l'intervalle
+		List<Figure> replaced = new ArrayList<Figure>(baselineRange.size());
+		Map<Figure, Checkpoint> unchanged =
+		    new IdentityHashMap<Figure, Checkpoint>();
+		for (Checkpoint c : baselineRange)
+		{
+			replaced.add(c.state);
+			if (c.isCurrent(c.figure))
+			{
+				unchanged.put(c.figure, c);
+			}
+		}
+
+		// Figures remplaçantes : seules les figures modifiées sont copiées
+		List<Checkpoint> states =
+		    new ArrayList<Checkpoint>(size - suffix - prefix);
+		List<Figure> things = new ArrayList<Figure>(size - suffix - prefix);
+		for (Figure f : figures.subList(prefix, size - suffix))
+		{
+			Checkpoint c = unchanged.get(f);
+			if (c == null)
+			{
+				c = new Checkpoint(f, f.snapshot());
+			}
+			states.add(c);
+			things.add(c.state);
+		}
+
+		baselineRange.clear();
+		baselineRange.addAll(states);
+
+		if (replaced.equals(things))
+		{
+			// modifications sans effet
+			return null;
+		}
+
+		return new Memento<Figure>(prefix, replaced, things);
 	}
 
+	/**
+	 * Déplacement des figures sélectionnées en bas de la liste des figures.
+	 * En conservant l'ordre des figures sélectionnées
+	 */
 	public void moveSelectedDown() {
-		// TODO Auto-generated method stub
+		beginTransaction();
 		Vector<Figure> newFigures = new Vector<Figure>();
 		for (Iterator<Integer> indexIt = selectionIndex.iterator(); indexIt.hasNext();)
 				newFigures.add(figures.get(indexIt.next()));
@@ -683,12 +1403,109 @@ public class Drawing extends Observable implements Originator<Figure>
 			if (!selectionIndex.contains(Integer.valueOf(i)))
 				newFigures.add(figures.get(i));
 		}
+
+		// Les figures descendues passent sous toutes les autres dans l'index
+		int nbSelected = selectionIndex.size();
+		for (int i = nbSelected - 1; i >= 0; i--)
+		{
+			Figure f = newFigures.get(i);
+			spatialIndex.update(f, f.getPaintBounds(), nextBottomOrder());
+		}
 		
 		figures.clear();
 		figures = newFigures;
+		attributeIndex.synchronize(figures);
 
 		// Mise à jour des index des figures sélectionnées & notif observers
 		
 		updateSelection();
+		commit();
+	}
+
+	/**
+	 * Reconstruction complète de l'{@link #spatialIndex} d'après
+	 * {@link #figures} (lorsque toutes les figures ont été remplacées)
+	 */
+	private void rebuildSpatialIndex()
+	{
+		spatialIndex.load(figures, Figure::getPaintBounds, OrderSpacing);
+		topOrder = figures.size() * OrderSpacing;
+		bottomOrder = -OrderSpacing;
+	}
+
+	/**
+	 * Prochain ordre à attribuer à une figure placée au dessus de toutes
+	 * les autres dans le {@link #spatialIndex}
+	 * @return un ordre supérieur à tous ceux déjà attribués
+	 */
+	private long nextTopOrder()
+	{
+		long order = topOrder;
+		topOrder += OrderSpacing;
+		return order;
+	}
+
+	/**
+	 * Prochain ordre à attribuer à une figure placée en dessous de toutes
+	 * les autres dans le {@link #spatialIndex}
+	 * @return un ordre inférieur à tous ceux déjà attribués
+	 */
+	private long nextBottomOrder()
+	{
+		long order = bottomOrder;
+		bottomOrder -= OrderSpacing;
+		return order;
+	}
+
+	/**
+	 * Indexation dans le {@link #spatialIndex} des figures de {@link #figures}
+	 * situées dans l'intervalle [from, to[ (qui viennent d'y être insérées)
+	 * avec des ordres compris entre ceux de leurs voisines. Si l'écart entre
+	 * les ordres des voisines est insuffisant l'index est reconstruit.
+	 * @param from l'index de la première figure à indexer
+	 * @param to l'index suivant la dernière figure à indexer
+	 */
+	private void indexRange(int from, int to)
+	{
+		int count = to - from;
+		if (count <= 0)
+		{
+			return;
+		}
+
+		long low;
+		long high;
+		if (from > 0)
+		{
+			low = spatialIndex.orderOf(figures.get(from - 1));
+			high = (to < figures.size() ?
+			    spatialIndex.orderOf(figures.get(to)) :
+			    Math.max(topOrder, low + ((count + 1) * OrderSpacing)));
+		}
+		else if (to < figures.size())
+		{
+			high = spatialIndex.orderOf(figures.get(to));
+			low = Math.min(bottomOrder, high - ((count + 1) * OrderSpacing));
+		}
+		else
+		{
+			rebuildSpatialIndex();
+			return;
+		}
+
+		long step = (high - low) / (count + 1);
+		if (step < 1)
+		{
+			rebuildSpatialIndex();
+			return;
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			Figure f = figures.get(from + i);
+			spatialIndex.insert(f, f.getPaintBounds(), low + (step * (i + 1)));
+		}
+		topOrder = Math.max(topOrder, high + OrderSpacing);
+		bottomOrder = Math.min(bottomOrder, low - OrderSpacing);
 	}
 }
@@ -0,0 +1,159 @@
+package figures;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Description des figures modifiées lors d'une mise à jour du modèle de
+ * dessin ({@link Drawing}). Transmise aux observateurs du modèle en tant que
+ * données de {@link java.util.Observable#notifyObservers(Object)} afin qu'ils
+ * puissent se limiter aux zones endommagées.
+ * Pour chaque figure modifiée on dispose de la zone qu'elle occupait avant
+ * la modification et de celle qu'elle occupe après (null si la figure vient
+ * d'être ajoutée ou bien si elle a été retirée).
+ * @note Lorsque les observateurs sont notifiés sans données, l'ensemble du
+ * dessin doit être considéré comme modifié.
+ * @author davidroussel
+ */
+public class DrawingChange
+{
+	/**
+	 * Les figures modifiées
+	 */
+	private List<Figure> figures;
+
+	/**
+	 * Les zones occupées par les figures avant leur modification
+	 */
+	private List<Rectangle2D> oldBounds;
+
+	/**
+	 * Les zones occupées par les figures après leur modification
+	 */
+	private List<Rectangle2D> newBounds;
+
+	/**
+	 * L'union de toutes les zones avant et après modification (ou null si
+	 * aucune zone n'a été endommagée)
+	 */
+	private Rectangle2D damagedArea;
+
+	/**
+	 * Constructeur d'un changement vide
+	 */
+	public DrawingChange()
+	{
+		figures = new ArrayList<Figure>();
+		oldBounds = new ArrayList<Rectangle2D>();
+		newBounds = new ArrayList<Rectangle2D>();
+		damagedArea = null;
+	}
+
+	/**
+	 * Constructeur d'un changement concernant une seule figure
+	 * @param figure la figure modifiée
+	 * @param before la zone occupée par la figure avant la modification (ou
+	 * null si la figure a été ajoutée)
+	 * @param after la zone occupée par la figure après la modification (ou
+	 * null si la figure a été retirée)
+	 */
+	public DrawingChange(Figure figure, Rectangle2D before, Rectangle2D after)
+	{
+		this();
+		add(figure, before, after);
+	}
+
+	/**
+	 * Ajout d'une figure modifiée à ce changement
+	 * @param figure la figure modifiée
+	 * @param before la zone occupée par la figure avant la modification (ou
+	 * null si la figure a été ajoutée)
+	 * @param after la zone occupée par la figure après la modification (ou
+	 * null si la figure a été retirée)
+	 */
+	public void add(Figure figure, Rectangle2D before, Rectangle2D after)
+	{
+		figures.add(figure);
+		oldBounds.add(before);
+		newBounds.add(after);
+		damage(before);
+		damage(after);
+	}
+
+	/**
+	 * Accesseur des figures modifiées
+	 * @return la liste (non modifiable) des figures modifiées
+	 */
+	public List<Figure> getFigures()
+	{
+		return Collections.unmodifiableList(figures);
+	}
+
+	/**
+	 * Zone occupée par la ième figure modifiée avant sa modification
+	 * @param i l'index de la figure dans {@link #getFigures()}
+	 * @return la zone occupée avant modification ou null si la figure a été
+	 * ajoutée
+	 */
+	public Rectangle2D getOldBounds(int i)
+	{
+		return oldBounds.get(i);
+	}
+
+	/**
+	 * Zone occupée par la ième figure modifiée après sa modification
+	 * @param i l'index de la figure dans {@link #getFigures()}
+	 * @return la zone occupée après modification ou null si la figure a été
+	 * retirée
+	 */
+	public Rectangle2D getNewBounds(int i)
+	{
+		return newBounds.get(i);
+	}
+
+	/**
+	 * Zone endommagée par ce changement
+	 * @return l'union des zones occupées avant et après modification par
+	 * toutes les figures de ce changement ou bien null s'il n'y en a aucune
+	 */
+	public Rectangle2D getDamagedArea()
+	{
+		return damagedArea;
+	}
+
+	/**
+	 * Indique si ce changement ne contient aucune figure
+	 * @return true si aucune figure n'a été ajoutée à ce changement
+	 */
+	public boolean isEmpty()
+	{
+		return figures.isEmpty();
+	}
+
+	/**
+	 * Ajout d'une zone à la zone endommagée
+	 * @param area la zone à ajouter (ignorée si null)
+	 */
+	private void damage(Rectangle2D area)
+	{
+		if (area != null)
+		{
+			if (damagedArea == null)
+			{
+				damagedArea = (Rectangle2D) area.clone();
+			}
+			else
+			{
+				damagedArea.add(area);
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + figures + " in " + damagedArea;
+	}
+}
@@ -4,17 +4,18 @@ import java.awt.BasicStroke;
 import java.awt.Paint;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Point2D;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import figures.enums.FigureType;
 
 public class Ellipse extends Figure {
-	private static int counter = 0;
+	private static final AtomicInteger counter = new AtomicInteger();
 
 	public Ellipse(BasicStroke stroke, Paint edge, Paint fill, Point2D topLeft,
 			Point2D bottomRight)
 	{
 		super(stroke, edge, fill);
-		instanceNumber = ++counter;
+		instanceNumber = counter.incrementAndGet();
 		double x = topLeft.getX();
 		double y = topLeft.getY();
 		double w = bottomRight.getX() - x;
@@ -25,12 +26,19 @@ public class Ellipse extends Figure {
 
 	public Ellipse(Ellipse ellipse)
 	{
+		// la forme est partagée avec ellipse jusqu'à sa modification
 		super(ellipse);
-		Ellipse2D oldEllipse = (Ellipse2D) ellipse.shape;
-		shape = new Ellipse2D.Double(oldEllipse.getMinX(),
-									 oldEllipse.getMinY(),
-									 oldEllipse.getWidth(),
-									 oldEllipse.getHeight());
+	}
+
+	/**
+	 * Constructeur d'un prototype (utilisé par {@link FigureCodec}) : sans
+	 * style ni géométrie significative et sans incrémenter le compteur
+	 * d'instances
+	 */
+	Ellipse()
+	{
+		super(null, null, null);
+		shape = new Ellipse2D.Double();
 	}
 
 	@Override
@@ -41,14 +49,17 @@ public class Ellipse extends Figure {
 
 	@Override
 	public void setLastPoint(Point2D p) {
+		// la forme peut être partagée avec une copie
+		ownShape();
 		// TODO 自动生成的方法存根
 		if (shape != null)
 		{
-			Ellipse2D.Double ellipse = (Ellipse2D.Double) shape;
+			Ellipse2D.Double ellipse = (Ellipse2D.Double) getShape();
 			double newWidth = p.getX() - ellipse.x;
 			double newHeight = p.getY() - ellipse.y;
 			ellipse.width = newWidth;
 			ellipse.height = newHeight;
+			invalidateBounds();
 		}
 		else
 		{
@@ -59,12 +70,16 @@ public class Ellipse extends Figure {
 
 	@Override
 	public void normalize() {
+		// la forme et les transformations peuvent être partagées avec une copie
+		ownShape();
+		ownTransforms();
 		// TODO 自动生成的方法存根
 		Point2D center = getCenter();
 		double cx = center.getX();
 		double cy = center.getY();
-		Ellipse2D.Double ellipse = (Ellipse2D.Double) shape;
+		Ellipse2D.Double ellipse = (Ellipse2D.Double) getShape();
 		translation.translate(cx, cy);
+		invalidateTransform();
 		ellipse.setFrame(ellipse.x - cx,
 						 ellipse.y - cy,
 						 ellipse.width,
@@ -74,7 +89,7 @@ public class Ellipse extends Figure {
 	@Override
 	public Point2D getCenter() {
 		// TODO 自动生成的方法存根
-		Ellipse2D.Double ellipse = (Ellipse2D.Double) shape;
+		Ellipse2D.Double ellipse = (Ellipse2D.Double) getShape();
 		Point2D center = new Point2D.Double(ellipse.getCenterX(), ellipse.getCenterY());
 		Point2D tCenter = new Point2D.Double();
 		getTransform().transform(center, tCenter);
@@ -7,8 +7,12 @@ import java.awt.Paint;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.geom.RectangularShape;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
 
 import figures.enums.FigureType;
 import figures.enums.LineType;
@@ -26,9 +30,68 @@ public abstract class Figure implements Prototype<Figure>
 {
 	/**
 	 * La forme à dessiner
+	 * @note la forme peut être partagée avec des copies de cette figure
+	 * (copie sur écriture) : les classes filles doivent appeler
+	 * {@link #ownShape()} avant toute modification directe de la forme.
+	 * @note la forme peut aussi être chargée à la demande (elle est alors
+	 * null) : les classes filles doivent la lire au travers de
+	 * {@link #getShape()}.
 	 */
 	protected Shape shape;
 
+	/**
+	 * Indique que la {@link #shape} est (peut-être) partagée avec une autre
+	 * figure et doit être copiée avant d'être modifiée
+	 */
+	private boolean shapeShared;
+
+	/**
+	 * Source de la forme lorsque celle-ci est chargée à la demande (à partir
+	 * d'un fichier projeté en mémoire par exemple), ou bien null lorsque la
+	 * forme est dans {@link #shape}
+	 * @see #getShape()
+	 */
+	private ShapeSource shapeSource;
+
+	/**
+	 * Dernière forme chargée à partir de {@link #shapeSource} (cache) : une
+	 * référence souple afin que les formes chargées puissent être libérées
+	 * lorsque la mémoire vient à manquer (elles seront alors rechargées).
+	 * Volatile car le cache peut être rempli par les tâches de rendu qui
+	 * dessinent la même figure en parallèle (cf. {@link #getShape()}).
+	 */
+	private volatile SoftReference<Shape> loadedShape;
+
+	/**
+	 * Indique que {@link #translation}, {@link #rotation} et {@link #scale}
+	 * sont (peut-être) partagées avec une autre figure et doivent être
+	 * copiées avant d'être modifiées
+	 */
+	private boolean transformsShared;
+
+	/**
+	 * Code de hachage du contenu de cette figure (cache) calculé par
+	 * {@link #hashCode()} pour la version {@link #hashVersion}
+	 */
+	private int hash;
+
+	/**
+	 * Version de cette figure lors du calcul de {@link #hash} (ou -1 si
+	 * celui-ci n'a pas encore été calculé)
+	 */
+	private long hashVersion;
+
+	/**
+	 * Dernière copie figée de cette figure (cache) fournie par
+	 * {@link #snapshot()}
+	 */
+	private Figure snapshot;
+
+	/**
+	 * Version de cette figure lors de la création du {@link #snapshot}
+	 */
+	private long snapshotVersion;
+
 	/**
 	 * Couleur du bord de la figure
 	 */
@@ -81,6 +144,58 @@ public abstract class Figure implements Prototype<Figure>
 	 */
 	protected AffineTransform scale;
 
+	/**
+	 * La transformation complète de cet objet (cache) :
+	 * {@link #translation} * {@link #scale} * {@link #rotation}.
+	 * Recalculée seulement lorsque {@link #transformChanged} est vrai
+	 * @see #getTransform()
+	 */
+	private AffineTransform transform;
+
+	/**
+	 * L'inverse de la {@link #transform} (cache) ou null si celle-ci n'est pas
+	 * inversible
+	 * @see #getInverseTransform()
+	 */
+	private AffineTransform inverseTransform;
+
+	/**
+	 * Indique que {@link #translation}, {@link #rotation} ou {@link #scale}
+	 * ont changé depuis le dernier calcul de {@link #transform} et
+	 * {@link #inverseTransform}
+	 */
+	private boolean transformChanged;
+
+	/**
+	 * Le rectangle englobant de cet objet dans le repère du dessin (cache).
+	 * Recalculé seulement lorsque {@link #boundsChanged} est vrai
+	 * @see #getBounds2D()
+	 */
+	private Rectangle2D bounds;
+
+	/**
+	 * Indique que la forme ou la transformation de cet objet ont changé
+	 * depuis le dernier calcul de {@link #bounds}
+	 */
+	private boolean boundsChanged;
+
+	/**
+	 * Numéro de version du rectangle englobant : incrémenté à chaque fois que
+	 * celui-ci est invalidé de manière à ce que des index externes puissent
+	 * détecter les changements
+	 * @see #getBoundsVersion()
+	 */
+	private long boundsVersion;
+
+	/**
+	 * Numéro de version de cette figure : incrémenté à chaque modification de
+	 * sa géométrie, de sa transformation ou de son style (mais pas de son
+	 * état de sélection, qui n'intervient pas non plus dans
+	 * {@link #equals(Object)}).
+	 * @see #getVersion()
+	 */
+	private long version;
+
 	/**
 	 * Le numéro d'instance de cette figure.
 	 * 1 si c'est la première figure de ce type, etc.
@@ -115,6 +230,18 @@ public abstract class Figure implements Prototype<Figure>
 		rotation.setToIdentity();
 		scale = new AffineTransform();
 		scale.setToIdentity();
+		transform = new AffineTransform();
+		inverseTransform = new AffineTransform();
+		transformChanged = true;
+		bounds = new Rectangle2D.Double();
+		boundsChanged = true;
+		boundsVersion = 0;
+		version = 0;
+		shapeShared = false;
+		transformsShared = false;
+		hashVersion = -1;
+		snapshot = null;
+		snapshotVersion = -1;
 		selected = false;
 	}
 
@@ -124,13 +251,49 @@ public abstract class Figure implements Prototype<Figure>
 	 */
 	protected Figure(Figure f)
 	{
-		shape = null; // Shapes must be copied in subclasses
+		// La forme et les transformations sont partagées (copie sur écriture)
+		// : elles ne seront copiées que lorsque l'une des deux figures les
+		// modifiera (cf. ownShape() et ownTransforms())
+		shape = f.shape;
+		shapeSource = f.shapeSource;
+		loadedShape = f.loadedShape;
+		shapeShared = true;
+		f.shapeShared = true;
+		translation = f.translation;
+		rotation = f.rotation;
+		scale = f.scale;
+		transformsShared = true;
+		f.transformsShared = true;
+		snapshot = null;
+		snapshotVersion = -1;
 		edge = PaintFactory.getPaint(f.edge);
 		fill = PaintFactory.getPaint(f.fill);
 		stroke = StrokeFactory.getStroke(f.stroke);
-		translation = new AffineTransform(f.translation);
-		rotation = new AffineTransform(f.rotation);
-		scale = new AffineTransform(f.scale);
+		version = 0;
+		boundsVersion = 0;
+
+		// Les caches à jour de f sont repris plutôt que recalculés
+		transformChanged = f.transformChanged;
+		if (transformChanged)
+		{
+			transform = new AffineTransform();
+			inverseTransform = new AffineTransform();
+		}
+		else
+		{
+			transform = new AffineTransform(f.transform);
+			inverseTransform = (f.inverseTransform != null ?
+			    new AffineTransform(f.inverseTransform) : null);
+		}
+		boundsChanged = f.boundsChanged;
+		bounds = new Rectangle2D.Double();
+		if (!boundsChanged)
+		{
+			bounds.setFrame(f.bounds);
+		}
+		hash = f.hash;
+		hashVersion = (f.hashVersion == f.version ? version : -1);
+
 		instanceNumber = f.instanceNumber;
 		selected = f.selected;
 	}
@@ -141,6 +304,223 @@ public abstract class Figure implements Prototype<Figure>
 	@Override
 	public abstract Figure clone();
 
+	/**
+	 * Copie figée de la figure : une copie qui ne devra plus être modifiée et
+	 * qui partage sa forme avec cette figure. Tant que la figure n'est pas
+	 * modifiée (même {@link #getVersion()} et même état de sélection) la même
+	 * copie est renvoyée, ce qui permet à des états successifs (mementos) de
+	 * partager les figures inchangées.
+	 * @return une copie figée de la figure dans son état actuel
+	 * @see history.Prototype#snapshot()
+	 */
+	@Override
+	public Figure snapshot()
+	{
+		if ((snapshot == null) || (snapshotVersion != version)
+		    || (snapshot.selected != selected))
+		{
+			snapshot = clone();
+			snapshotVersion = version;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Création d'une figure à partir d'une copie figée (obtenue par
+	 * {@link #snapshot()}) : la copie figée devient la copie figée de la
+	 * figure créée tant que celle-ci n'est pas modifiée.
+	 * La figure créée partage la forme et les transformations de la copie
+	 * figée (copie sur écriture) et reprend ses caches (transformation
+	 * complète, rectangle englobant, code de hachage) : restaurer une figure
+	 * ne coûte donc qu'une enveloppe.
+	 * @param state la copie figée à restaurer
+	 * @return une nouvelle figure dans l'état de la copie figée
+	 */
+	static Figure restore(Figure state)
+	{
+		Figure figure = state.clone();
+		figure.snapshot = state;
+		figure.snapshotVersion = figure.version;
+		return figure;
+	}
+
+	/**
+	 * Obtention d'un exemplaire propre de la {@link #shape} avant sa
+	 * modification : si la forme est partagée avec une autre figure elle est
+	 * d'abord copiée.
+	 * Doit être appelée par les classes filles avant toute modification
+	 * directe de la forme.
+	 */
+	protected void ownShape()
+	{
+		if (shapeSource != null)
+		{
+			// une forme modifiée n'est plus chargée à la demande
+			shape = getShape();
+			shapeSource = null;
+			loadedShape = null;
+		}
+		if (shapeShared && (shape != null))
+		{
+			shape = copyShape(shape);
+		}
+		shapeShared = false;
+	}
+
+	/**
+	 * Remplacement de la forme par une forme propre à cette figure (non
+	 * partagée), par exemple lors du décodage d'une figure par
+	 * {@link FigureCodec}
+	 * @param s la nouvelle forme
+	 */
+	void replaceShape(Shape s)
+	{
+		shape = s;
+		shapeShared = false;
+		shapeSource = null;
+		loadedShape = null;
+		invalidateTransform();
+	}
+
+	/**
+	 * Remplacement de la forme par une forme chargée à la demande :
+	 * la forme ne sera chargée à partir de sa source que lorsqu'elle sera
+	 * nécessaire (dessin, test d'appartenance, modification), et pourra
+	 * être libérée puis rechargée tant qu'elle n'est pas modifiée.
+	 * @param source la source de la forme
+	 * @param shapeBounds le rectangle englobant (dans le repère du dessin)
+	 * de la forme chargée avec les transformations actuelles de la figure,
+	 * afin que celle-ci puisse être indexée sans charger sa forme
+	 */
+	void replaceShape(ShapeSource source, Rectangle2D shapeBounds)
+	{
+		shape = null;
+		shapeShared = false;
+		shapeSource = source;
+		loadedShape = null;
+		invalidateTransform();
+		bounds.setFrame(shapeBounds);
+		boundsChanged = false;
+	}
+
+	/**
+	 * Indique si la forme de cette figure est chargée à la demande
+	 * @return true si la forme de cette figure est chargée à la demande à
+	 * partir d'une {@link ShapeSource}
+	 */
+	public boolean isShapeLazy()
+	{
+		return shapeSource != null;
+	}
+
+	/**
+	 * Indique si cette figure partage sa forme avec une autre figure : même
+	 * forme ou bien même source de forme chargée à la demande. Les formes
+	 * étant partagées par copie sur écriture, deux figures partageant leur
+	 * forme ont la même géométrie (aux transformations près).
+	 * @param other l'autre figure
+	 * @return true si les deux figures partagent la même forme ou la même
+	 * source de forme
+	 */
+	public boolean sharesShapeWith(Figure other)
+	{
+		if (shapeSource != null)
+		{
+			return shapeSource == other.shapeSource;
+		}
+		return (other.shapeSource == null) && (shape == other.shape);
+	}
+
+	/**
+	 * Accès à la forme de la figure en lecture : la forme est éventuellement
+	 * (re)chargée à partir de sa source.
+	 * Les classes filles doivent utiliser cette méthode plutôt que
+	 * {@link #shape} lorsqu'elles ne modifient pas la forme (sinon elles
+	 * doivent appeler {@link #ownShape()} au préalable).
+	 * @return la forme de la figure (dans le repère de la figure, sans sa
+	 * transformation)
+	 * @note la forme renvoyée peut être partagée avec des copies de la figure
+	 * et ne doit pas être modifiée
+	 * @note une forme chargée à la demande peut être lue par plusieurs tâches
+	 * à la fois (rendu par tuiles ou par bandes) : chacune peut alors la
+	 * charger et la publier dans le cache (volatile), les formes chargées
+	 * étant identiques peu importe laquelle y reste
+	 */
+	public final Shape getShape()
+	{
+		if (shapeSource == null)
+		{
+			return shape;
+		}
+		SoftReference<Shape> cached = loadedShape;
+		Shape s = (cached != null ? cached.get() : null);
+		if (s == null)
+		{
+			s = shapeSource.loadShape();
+			loadedShape = new SoftReference<Shape>(s);
+		}
+		return s;
+	}
+
+	/**
+	 * Forme de la figure lue sans modifier la figure : contrairement à
+	 * {@link #getShape()}, une forme chargée à la demande n'est pas conservée
+	 * en cache. Permet à une autre tâche de lire la forme d'une figure
+	 * partagée (cf. {@link FigureCodec}).
+	 * @return la forme de la figure (dans le repère de la figure, sans sa
+	 * transformation)
+	 */
+	final Shape peekShape()
+	{
+		if (shapeSource == null)
+		{
+			return shape;
+		}
+		SoftReference<Shape> cached = loadedShape;
+		Shape s = (cached != null ? cached.get() : null);
+		return (s != null ? s : shapeSource.loadShape());
+	}
+
+	/**
+	 * Obtention d'exemplaires propres de {@link #translation},
+	 * {@link #rotation} et {@link #scale} avant leur modification : si elles
+	 * sont partagées avec une autre figure elles sont d'abord copiées.
+	 * Doit être appelée par les classes filles avant toute modification
+	 * directe de ces transformations.
+	 */
+	protected void ownTransforms()
+	{
+		if (transformsShared)
+		{
+			translation = new AffineTransform(translation);
+			rotation = new AffineTransform(rotation);
+			scale = new AffineTransform(scale);
+		}
+		transformsShared = false;
+	}
+
+	/**
+	 * Copie distincte d'une forme
+	 * @param s la forme à copier
+	 * @return une copie distincte de la forme, de même type pour les formes
+	 * rectangulaires et les polygones
+	 */
+	private static Shape copyShape(Shape s)
+	{
+		if (s instanceof RectangularShape)
+		{
+			return (Shape) ((RectangularShape) s).clone();
+		}
+		if (s instanceof java.awt.Polygon)
+		{
+			java.awt.Polygon p = (java.awt.Polygon) s;
+			return new java.awt.Polygon(Arrays.copyOf(p.xpoints, p.npoints),
+			                            Arrays.copyOf(p.ypoints, p.npoints),
+			                            p.npoints);
+		}
+		return new Path2D.Double(s);
+	}
+
 	/**
 	 * Comparaison de deux figures
 	 * @param Object o l'objet à comparer
@@ -219,6 +599,71 @@ public abstract class Figure implements Prototype<Figure>
 		return false;
 	}
 
+	/**
+	 * Code de hachage de la figure cohérent avec {@link #equals(Object)} :
+	 * calculé d'après la classe, le numéro d'instance, les paints et le stroke
+	 * (uniques car fournis par des flyweights), les transformations et le
+	 * rectangle englobant. Il n'est recalculé que lorsque la figure a changé
+	 * (cf. {@link #getVersion()}), ce qui permet de décider rapidement que
+	 * deux figures (ou deux états composés de figures) sont différentes.
+	 * @return le code de hachage du contenu de la figure
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		if (hashVersion != version)
+		{
+			final int prime = 31;
+			int h = getClass().hashCode();
+			h = (prime * h) + instanceNumber;
+			h = (prime * h) + System.identityHashCode(edge);
+			h = (prime * h) + System.identityHashCode(fill);
+			h = (prime * h) + System.identityHashCode(stroke);
+			h = (prime * h) + hash(translation);
+			h = (prime * h) + hash(rotation);
+			h = (prime * h) + hash(scale);
+			Rectangle2D b = getBounds2D();
+			h = (prime * h) + hash(b.getX());
+			h = (prime * h) + hash(b.getY());
+			h = (prime * h) + hash(b.getWidth());
+			h = (prime * h) + hash(b.getHeight());
+			hash = h;
+			hashVersion = version;
+		}
+		return hash;
+	}
+
+	/**
+	 * Code de hachage d'une transformation cohérent avec
+	 * {@link AffineTransform#equals(Object)} (qui compare les coefficients
+	 * avec ==, contrairement à {@link AffineTransform#hashCode()} qui
+	 * distingue 0.0 et -0.0)
+	 * @param t la transformation
+	 * @return le code de hachage des coefficients de la transformation
+	 */
+	private static int hash(AffineTransform t)
+	{
+		int h = hash(t.getScaleX());
+		h = (31 * h) + hash(t.getShearY());
+		h = (31 * h) + hash(t.getShearX());
+		h = (31 * h) + hash(t.getScaleY());
+		h = (31 * h) + hash(t.getTranslateX());
+		h = (31 * h) + hash(t.getTranslateY());
+		return h;
+	}
+
+	/**
+	 * Code de hachage d'un réel cohérent avec == (0.0 et -0.0 ont le même
+	 * code)
+	 * @param v le réel
+	 * @return le code de hachage du réel
+	 */
+	private static int hash(double v)
+	{
+		return Double.hashCode(v == 0.0 ? 0.0 : v);
+	}
+
 	/**
 	 * Déplacement du dernier point de la figure (utilisé lors du dessin d'une
 	 * figure tant que l'on déplace le dernier point)
@@ -247,13 +692,13 @@ public abstract class Figure implements Prototype<Figure>
 		if (fill != null)
 		{
 			g2D.setPaint(fill);
-			g2D.fill(shape);
+			g2D.fill(getShape());
 		}
 		if ((edge != null) && (stroke != null))
 		{
 			g2D.setStroke(stroke);
 			g2D.setPaint(edge);
-			g2D.draw(shape);
+			g2D.draw(getShape());
 		}
 
 		// Restore original transform
@@ -287,27 +732,39 @@ public abstract class Figure implements Prototype<Figure>
 	/**
 	 * Accesseur en lecture de la translation courante
 	 * @return la translation courante
+	 * @note si cette translation est modifiée directement il faut ensuite
+	 * appeler {@link #invalidateTransform()}
 	 */
 	public AffineTransform getTranslation()
 	{
+		// la transformation renvoyée peut être modifiée directement
+		ownTransforms();
 		return translation;
 	}
 
 	/**
 	 * Accesseur en lecture de la rotation courante
 	 * @return la rotation courante
+	 * @note si cette rotation est modifiée directement il faut ensuite
+	 * appeler {@link #invalidateTransform()}
 	 */
 	public AffineTransform getRotation()
 	{
+		// la transformation renvoyée peut être modifiée directement
+		ownTransforms();
 		return rotation;
 	}
 
 	/**
 	 * Accesseur en lecture de l'échelle courante
 	 * @return l'échelle courante
+	 * @note si cette échelle est modifiée directement il faut ensuite
+	 * appeler {@link #invalidateTransform()}
 	 */
 	public AffineTransform getScale()
 	{
+		// la transformation renvoyée peut être modifiée directement
+		ownTransforms();
 		return scale;
 	}
 
@@ -316,14 +773,113 @@ public abstract class Figure implements Prototype<Figure>
 	 * (facteur d'échelle)*(rotation)*(translation)
 	 * @return la transformation combinant le facteur d'échelle, la rotation et
 	 * la translation de cette figure.
+	 * @note la transformation renvoyée est conservée en cache par la figure
+	 * et ne doit pas être modifiée
 	 */
 	public AffineTransform getTransform()
 	{
-		AffineTransform transform = (AffineTransform) translation.clone();
+		if (transformChanged)
+		{
+			updateTransform();
+		}
+
+		return transform;
+	}
+
+	/**
+	 * Produit l'inverse de la transformation complète de cet objet
+	 * @return l'inverse de la transformation complète de cette figure ou
+	 * bien null si celle-ci n'est pas inversible (échelle nulle par exemple)
+	 * @note la transformation renvoyée est conservée en cache par la figure
+	 * et ne doit pas être modifiée
+	 */
+	public AffineTransform getInverseTransform()
+	{
+		if (transformChanged)
+		{
+			updateTransform();
+		}
+
+		return inverseTransform;
+	}
+
+	/**
+	 * Indique que {@link #translation}, {@link #rotation} ou {@link #scale}
+	 * ont été modifiées et que la transformation complète devra être
+	 * recalculée.
+	 * Doit être appelée par toute méthode modifiant directement l'une de ces
+	 * transformations (comme {@link #normalize()} dans les classes filles)
+	 */
+	protected void invalidateTransform()
+	{
+		transformChanged = true;
+		invalidateBounds();
+	}
+
+	/**
+	 * Indique que la forme de cette figure a été modifiée et que son
+	 * rectangle englobant devra être recalculé.
+	 * Doit être appelée par toute méthode modifiant la géométrie de la
+	 * figure (comme {@link #setLastPoint(Point2D)} dans les classes filles)
+	 */
+	protected void invalidateBounds()
+	{
+		boundsChanged = true;
+		boundsVersion++;
+		version++;
+	}
+
+	/**
+	 * Accesseur du numéro de version du rectangle englobant.
+	 * Ce numéro change à chaque fois que la forme ou la transformation de la
+	 * figure change, ce qui permet aux index externes (comme un index
+	 * spatial) de savoir si leur copie du rectangle englobant est à jour.
+	 * @return le numéro de version courant du rectangle englobant
+	 */
+	public long getBoundsVersion()
+	{
+		return boundsVersion;
+	}
+
+	/**
+	 * Accesseur du numéro de version de la figure.
+	 * Ce numéro change à chaque modification de la géométrie, de la
+	 * transformation ou du style de la figure, ce qui permet (à l'historique
+	 * par exemple) de savoir si une figure a changé depuis un instant donné
+	 * sans avoir à la comparer à une copie.
+	 * @return le numéro de version courant de la figure
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Recalcul de la transformation complète et de son inverse dans
+	 * {@link #transform} et {@link #inverseTransform} (sans allocation
+	 * lorsque la transformation est inversible)
+	 */
+	private void updateTransform()
+	{
+		transform.setTransform(translation);
 		transform.concatenate(scale);
 		transform.concatenate(rotation);
 
-		return transform;
+		try
+		{
+			if (inverseTransform == null)
+			{
+				inverseTransform = new AffineTransform();
+			}
+			inverseTransform.setTransform(transform);
+			inverseTransform.invert();
+		}
+		catch (NoninvertibleTransformException e)
+		{
+			inverseTransform = null;
+		}
+
+		transformChanged = false;
 	}
 
 	/**
@@ -333,6 +889,7 @@ public abstract class Figure implements Prototype<Figure>
 	public void setTranslation(AffineTransform translation)
 	{
 		this.translation = translation;
+		invalidateTransform();
 	}
 
 	/**
@@ -342,7 +899,9 @@ public abstract class Figure implements Prototype<Figure>
 	 */
 	public void translate(double dx, double dy)
 	{
+		ownTransforms();
 		translation.translate(dx, dy);
+		invalidateTransform();
 	}
 
 	/**
@@ -352,6 +911,7 @@ public abstract class Figure implements Prototype<Figure>
 	public void setRotation(AffineTransform rotation)
 	{
 		this.rotation = rotation;
+		invalidateTransform();
 	}
 
 	/**
@@ -360,7 +920,9 @@ public abstract class Figure implements Prototype<Figure>
 	 */
 	public void rotate(double deltaAngle)
 	{
+		ownTransforms();
 		rotation.rotate(deltaAngle);
+		invalidateTransform();
 	}
 
 	/**
@@ -370,6 +932,7 @@ public abstract class Figure implements Prototype<Figure>
 	public void setScale(AffineTransform scale)
 	{
 		this.scale = scale;
+		invalidateTransform();
 	}
 
 	/**
@@ -378,65 +941,97 @@ public abstract class Figure implements Prototype<Figure>
 	 */
 	public void scale(double deltaScale)
 	{
+		ownTransforms();
 		scale.scale(deltaScale, deltaScale);
+		invalidateTransform();
 	}
 
 	/**
 	 * Obtention du rectangle englobant de la figure.
 	 * Obtenu grâce au {@link Shape#getBounds2D()}
 	 * @return le rectangle englobant de la figure
+	 * @note le rectangle renvoyé est conservé en cache par la figure et ne
+	 * doit pas être modifié
 	 */
 	public Rectangle2D getBounds2D()
+	{
+		if (boundsChanged)
+		{
+			updateBounds();
+		}
+
+		return bounds;
+	}
+
+	/**
+	 * Recalcul du rectangle englobant {@link #bounds}
+	 */
+	private void updateBounds()
 	{
 		/*
 		 * Attention, il faut appliquer la transformation affine courante
 		 * au Rectangle2D résultant de l'appel à shape.getBounds2D();
 		 */
-		Rectangle2D bounds = shape.getBounds2D();
-		double minX = bounds.getMinX();
-		double minY = bounds.getMinY();
-		double maxX = bounds.getMaxX();
-		double maxY = bounds.getMaxY();
-		Point2D[] corners = new Point2D[] {
-			new Point2D.Double(minX, minY),
-			new Point2D.Double(maxX, minY),
-			new Point2D.Double(maxX, maxY),
-			new Point2D.Double(minX, maxY)
+		Rectangle2D shapeBounds = getShape().getBounds2D();
+		double minX = shapeBounds.getMinX();
+		double minY = shapeBounds.getMinY();
+		double maxX = shapeBounds.getMaxX();
+		double maxY = shapeBounds.getMaxY();
+		double[] corners = new double[] {
+			minX, minY,
+			maxX, minY,
+			maxX, maxY,
+			minX, maxY
 		};
-		Point2D[] tCorners = new Point2D[4];
-		for (int i = 0; i < 4; i++)
-		{
-			tCorners[i] = new Point2D.Double();
-		}
 
-		getTransform().transform(corners, 0, tCorners, 0, corners.length);
+		getTransform().transform(corners, 0, corners, 0, 4);
 
-		double x = tCorners[0].getX();
-		double y = tCorners[0].getY();
-		double w = 0.0;
-		double h = 0.0;
+		double x = corners[0];
+		double y = corners[1];
+		double x2 = x;
+		double y2 = y;
 
-		for (int i = 0; i < 4; i++)
+		for (int i = 2; i < corners.length; i += 2)
 		{
-			double tx = tCorners[i].getX();
+			double tx = corners[i];
 			x = (x < tx ? x : tx);
+			x2 = (x2 > tx ? x2 : tx);
 
-			double ty = tCorners[i].getY();
+			double ty = corners[i + 1];
 			y = (y < ty ? y : ty);
+			y2 = (y2 > ty ? y2 : ty);
 		}
 
-		for (int i = 0; i < 4; i++)
-		{
-			double tw = tCorners[i].getX() - x;
-			w = (tw > w ? tw : w);
+		bounds.setFrame(x, y, x2 - x, y2 - y);
+		boundsChanged = false;
+	}
 
-			double th = tCorners[i].getY() - y;
-			h = (th > h ? th : h);
+	/**
+	 * Obtention du rectangle englobant la zone effectivement dessinée par la
+	 * figure : son {@link #getBounds2D()} élargi de l'épaisseur de son trait
+	 * (transformé), de celle du trait de sélection et d'un pixel
+	 * d'antialiasing.
+	 * @return un nouveau rectangle englobant tout ce que dessinent
+	 * {@link #draw(Graphics2D)} et {@link #drawSelection(Graphics2D)}
+	 */
+	public Rectangle2D getPaintBounds()
+	{
+		double margin = selectedStroke.getLineWidth() / 2.0;
+		if ((edge != null) && (stroke != null))
+		{
+			AffineTransform t = getTransform();
+			double stretch = Math.max(
+			    Math.abs(t.getScaleX()) + Math.abs(t.getShearX()),
+			    Math.abs(t.getShearY()) + Math.abs(t.getScaleY()));
+			margin = Math.max(margin, (stroke.getLineWidth() / 2.0) * stretch);
 		}
+		margin += 1.0;
 
-		bounds.setFrame(x, y, w, h);
-
-		return bounds;
+		Rectangle2D b = getBounds2D();
+		return new Rectangle2D.Double(b.getX() - margin,
+		                              b.getY() - margin,
+		                              b.getWidth() + (2.0 * margin),
+		                              b.getHeight() + (2.0 * margin));
 	}
 
 	/**
@@ -454,20 +1049,18 @@ public abstract class Figure implements Prototype<Figure>
 	public boolean contains(Point2D p)
 	{
 		/*
-		 * TODO Ce point p doit subir la transformation inverse
+		 * Ce point p doit subir la transformation inverse
 		 * de celle subie par la figure pour déterminer si le point p fait
 		 * partie de la figure
 		 */
-		try
+		AffineTransform inverse = getInverseTransform();
+		if (inverse != null)
 		{
-			Point2D transformedPoint = new Point2D.Double();
-			getTransform().inverseTransform(p, transformedPoint);
-			return shape.contains(transformedPoint);
-		}
-		catch (NoninvertibleTransformException e)
-		{
-			return false;
+			Point2D transformedPoint = inverse.transform(p, null);
+			return getShape().contains(transformedPoint);
 		}
+
+		return false;
 	}
 
  	/**
@@ -510,7 +1103,11 @@ public abstract class Figure implements Prototype<Figure>
 	{
 		if (edge != null)
 		{
-			this.edge = edge;
+			if (this.edge != edge)
+			{
+				this.edge = edge;
+				version++;
+			}
 		}
 		else
 		{
@@ -552,7 +1149,11 @@ public abstract class Figure implements Prototype<Figure>
 	{
 		if (fill != null)
 		{
-			this.fill = fill;
+			if (this.fill != fill)
+			{
+				this.fill = fill;
+				version++;
+			}
 		}
 		else
 		{
@@ -588,7 +1189,11 @@ public abstract class Figure implements Prototype<Figure>
 	{
 		if (stroke != null)
 		{
-			this.stroke = stroke;
+			if (this.stroke != stroke)
+			{
+				this.stroke = stroke;
+				version++;
+			}
 		}
 		else
 		{
@@ -0,0 +1,665 @@
+package figures;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import figures.enums.FigureType;
+import history.MementoCodec;
+import utils.PaintFactory;
+import utils.StrokeFactory;
+
+/**
+ * Codeur binaire des {@link Figure} utilisé par le gestionnaire d'historique
+ * pour compresser les mementos les plus anciens.
+ * Les couleurs et les traits décodés sont obtenus auprès de
+ * {@link PaintFactory} et {@link StrokeFactory} afin de conserver le partage
+ * des flyweights. Les figures décodées sont obtenues par copie d'un prototype
+ * de chaque type (construit avec le codeur) afin de ne pas modifier les
+ * compteurs d'instances des différentes figures.
+ * L'encodage ne fait que lire les figures (sans les copier ni remplir leurs
+ * caches) : il peut donc être effectué par une autre tâche sur des figures
+ * partagées avec les mementos de l'historique.
+ * @author davidroussel
+ */
+public class FigureCodec implements MementoCodec<Figure>
+{
+	/**
+	 * Formes codées
+	 */
+	private static final byte NoShape = 0;
+	private static final byte EllipseShape = 1;
+	private static final byte RectangleShape = 2;
+	private static final byte RoundRectangleShape = 3;
+	private static final byte PolygonShape = 4;
+
+	/**
+	 * Prototypes de chaque type de figure
+	 */
+	private final Map<FigureType, Figure> prototypes;
+
+	/**
+	 * Constructeur d'un codeur de figures
+	 */
+	public FigureCodec()
+	{
+		prototypes = new EnumMap<FigureType, Figure>(FigureType.class);
+		for (FigureType type : FigureType.values())
+		{
+			prototypes.put(type, prototype(type));
+		}
+	}
+
+	/**
+	 * Création du prototype d'un type de figure (sans incrémenter le compteur
+	 * d'instances de ce type)
+	 * @param type le type de figure
+	 * @return un nouveau prototype du type de figure
+	 * @throws AssertionError si le type de figure est inconnu
+	 */
+	private static Figure prototype(FigureType type) throws AssertionError
+	{
+		switch (type)
+		{
+			case CIRCLE:
+				return new Circle();
+			case ELLIPSE:
+				return new Ellipse();
+			case RECTANGLE:
+				return new Rectangle();
+			case ROUNDED_RECTANGLE:
+				return new RoundedRectangle();
+			case POLYGON:
+				return new Polygon();
+			case NGON:
+				return new NGon();
+			case STAR:
+				return new Star();
+		}
+
+		throw new AssertionError("FigureType unknown assertion: " + type);
+	}
+
+	/**
+	 * Ecriture d'une figure sous forme binaire
+	 * @param figure la figure à écrire
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException si la figure contient une couleur ou une forme
+	 * qui ne peut pas être codée
+	 * @see history.MementoCodec#write(history.Prototype, java.io.DataOutput)
+	 */
+	@Override
+	public void write(Figure figure, DataOutput out) throws IOException
+	{
+		out.writeByte(figure.getType().ordinal());
+		out.writeInt(figure.instanceNumber);
+		out.writeBoolean(figure.selected);
+		writePaint(figure.edge, out);
+		writePaint(figure.fill, out);
+		writeStroke(figure.stroke, out);
+		writeGeometry(figure, out);
+	}
+
+	/**
+	 * Lecture d'une figure écrite par {@link #write(Figure, DataOutput)}
+	 * @param in le flux à partir duquel lire
+	 * @return une nouvelle figure égale à celle qui a été écrite
+	 * @throws IOException si le type de figure lu est inconnu de ce codeur
+	 * @see history.MementoCodec#read(java.io.DataInput)
+	 */
+	@Override
+	public Figure read(DataInput in) throws IOException
+	{
+		int ordinal = in.readUnsignedByte();
+		FigureType[] types = FigureType.values();
+		if (ordinal >= types.length)
+		{
+			throw new IOException("unknown figure type " + ordinal);
+		}
+		Figure prototype = prototypes.get(types[ordinal]);
+		if (prototype == null)
+		{
+			throw new IOException("no prototype for " + types[ordinal]);
+		}
+
+		Figure figure = prototype.clone();
+		figure.instanceNumber = in.readInt();
+		figure.selected = in.readBoolean();
+		figure.edge = readPaint(in);
+		figure.fill = readPaint(in);
+		figure.stroke = readStroke(in);
+		readGeometry(figure, in);
+
+		return figure;
+	}
+
+	/**
+	 * Ecriture de la géométrie d'une figure (ses transformations, sa forme et
+	 * les paramètres propres à son type) sans son style
+	 * @param figure la figure dont on écrit la géométrie
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException si la forme de la figure ne peut pas être codée
+	 */
+	public static void writeGeometry(Figure figure, DataOutput out)
+	    throws IOException
+	{
+		writeTransform(figure.translation, out);
+		writeTransform(figure.rotation, out);
+		writeTransform(figure.scale, out);
+		writeShape(figure.peekShape(), out);
+		writeParameters(figure, out);
+	}
+
+	/**
+	 * Ecriture du placement d'une figure : ses transformations et les
+	 * paramètres propres à son type, mais pas sa forme (qui peut alors être
+	 * écrite à part avec {@link #writeShape(Figure, DataOutput)})
+	 * @param figure la figure dont on écrit le placement
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	public static void writePlacement(Figure figure, DataOutput out)
+	    throws IOException
+	{
+		writeTransform(figure.translation, out);
+		writeTransform(figure.rotation, out);
+		writeTransform(figure.scale, out);
+		writeParameters(figure, out);
+	}
+
+	/**
+	 * Ecriture de la forme d'une figure seule
+	 * @param figure la figure dont on écrit la forme
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException si la forme de la figure ne peut pas être codée
+	 */
+	public static void writeShape(Figure figure, DataOutput out)
+	    throws IOException
+	{
+		writeShape(figure.peekShape(), out);
+	}
+
+	/**
+	 * Ecriture des paramètres propres aux {@link NGon} et aux {@link Star}
+	 * @param figure la figure dont on écrit les paramètres
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private static void writeParameters(Figure figure, DataOutput out)
+	    throws IOException
+	{
+		if (figure instanceof NGon)
+		{
+			NGon ngon = (NGon) figure;
+			writePoint(ngon.getCenter(), out);
+			out.writeInt(ngon.getNbSides());
+			out.writeDouble(ngon.getRadius());
+		}
+		else if (figure instanceof Star)
+		{
+			Star star = (Star) figure;
+			writePoint(star.getCenter(), out);
+			out.writeDouble(star.getRadius());
+		}
+	}
+
+	/**
+	 * Lecture de la géométrie d'une figure écrite par
+	 * {@link #writeGeometry(Figure, DataOutput)} : la géométrie lue remplace
+	 * celle de la figure, qui doit être du même type que la figure écrite.
+	 * @param figure la figure dont on remplace la géométrie
+	 * @param in le flux à partir duquel lire
+	 * @throws IOException si la forme lue est inconnue
+	 */
+	public static void readGeometry(Figure figure, DataInput in)
+	    throws IOException
+	{
+		figure.translation = readTransform(in);
+		figure.rotation = readTransform(in);
+		figure.scale = readTransform(in);
+		figure.replaceShape(readShape(in));
+		readParameters(figure, in);
+	}
+
+	/**
+	 * Lecture du placement d'une figure écrit par
+	 * {@link #writePlacement(Figure, DataOutput)}, la forme de la figure
+	 * étant ensuite chargée à la demande à partir d'une source (qui lira
+	 * par exemple la forme écrite par {@link #writeShape(Figure, DataOutput)}
+	 * avec {@link #readShape(DataInput)})
+	 * @param figure la figure dont on remplace la géométrie
+	 * @param in le flux à partir duquel lire
+	 * @param source la source de la forme de la figure
+	 * @param bounds le rectangle englobant de la figure (dans le repère du
+	 * dessin) tel que fourni par {@link Figure#getBounds2D()} lors de
+	 * l'écriture
+	 * @throws IOException en cas d'erreur de lecture
+	 */
+	public static void readPlacement(Figure figure,
+	                                 DataInput in,
+	                                 ShapeSource source,
+	                                 Rectangle2D bounds)
+	    throws IOException
+	{
+		figure.translation = readTransform(in);
+		figure.rotation = readTransform(in);
+		figure.scale = readTransform(in);
+		figure.replaceShape(source, bounds);
+		readParameters(figure, in);
+	}
+
+	/**
+	 * Lecture du placement d'une figure écrit par
+	 * {@link #writePlacement(Figure, DataOutput)} en conservant sa forme
+	 * actuelle, lorsque seules ses transformations ont changé
+	 * @param figure la figure dont on remplace le placement
+	 * @param in le flux à partir duquel lire
+	 * @throws IOException en cas d'erreur de lecture
+	 */
+	public static void readPlacement(Figure figure, DataInput in)
+	    throws IOException
+	{
+		figure.setTranslation(readTransform(in));
+		figure.setRotation(readTransform(in));
+		figure.setScale(readTransform(in));
+		readParameters(figure, in);
+	}
+
+	/**
+	 * Indique si une transformation peut être décomposée en
+	 * translation * échelle * rotation (cf. {@link Figure#getTransform()}),
+	 * c'est à dire si elle ne comporte pas de cisaillement
+	 * @param transform la transformation
+	 * @return true si la transformation peut être décomposée
+	 */
+	public static boolean isDecomposable(AffineTransform transform)
+	{
+		return decompose(transform) != null;
+	}
+
+	/**
+	 * Mise en place de la géométrie d'une figure à partir d'une forme et de
+	 * la transformation complète à lui appliquer (par exemple lors de
+	 * l'import d'un dessin dans un autre format)
+	 * @param figure la figure dont on remplace la géométrie
+	 * @param shape la nouvelle forme de la figure (qui n'est pas copiée et
+	 * doit être du type attendu par la figure)
+	 * @param transform la transformation complète de la figure
+	 * @throws IllegalArgumentException si la transformation ne peut pas être
+	 * décomposée (cf. {@link #isDecomposable(AffineTransform)})
+	 */
+	public static void setGeometry(Figure figure,
+	                               Shape shape,
+	                               AffineTransform transform)
+	{
+		double[] factors = decompose(transform);
+		if (factors == null)
+		{
+			throw new IllegalArgumentException("sheared transform " + transform);
+		}
+		figure.translation =
+		    AffineTransform.getTranslateInstance(transform.getTranslateX(),
+		                                         transform.getTranslateY());
+		figure.scale = AffineTransform.getScaleInstance(factors[0], factors[1]);
+		figure.rotation = AffineTransform.getRotateInstance(factors[2]);
+		figure.replaceShape(shape);
+	}
+
+	/**
+	 * Décomposition de la partie linéaire d'une transformation en
+	 * échelle * rotation
+	 * @param transform la transformation
+	 * @return les facteurs d'échelle horizontal et vertical et l'angle de
+	 * rotation ou bien null si la transformation comporte un cisaillement
+	 */
+	private static double[] decompose(AffineTransform transform)
+	{
+		double a = transform.getScaleX();
+		double b = transform.getShearY();
+		double c = transform.getShearX();
+		double d = transform.getScaleY();
+		double sx = Math.hypot(a, c);
+		double theta = Math.atan2(-c, a);
+		double cos = Math.cos(theta);
+		double sin = Math.sin(theta);
+		double sy = (b * sin) + (d * cos);
+		double shear = (b * cos) - (d * sin);
+		if (Math.abs(shear) > 1e-9 * Math.max(1.0, Math.max(sx, Math.abs(sy))))
+		{
+			return null;
+		}
+		return new double[] {sx, sy, theta};
+	}
+
+	/**
+	 * Lecture des paramètres propres aux {@link NGon} et aux {@link Star}
+	 * @param figure la figure dont on lit les paramètres
+	 * @param in le flux à partir duquel lire
+	 * @throws IOException en cas d'erreur de lecture
+	 */
+	private static void readParameters(Figure figure, DataInput in)
+	    throws IOException
+	{
+		if (figure instanceof NGon)
+		{
+			Point2D center = readPoint(in);
+			int nbSides = in.readInt();
+			((NGon) figure).setState(center, nbSides, in.readDouble());
+		}
+		else if (figure instanceof Star)
+		{
+			Point2D center = readPoint(in);
+			((Star) figure).setState(center, in.readDouble());
+		}
+	}
+
+	/**
+	 * Estimation de l'occupation mémoire d'une figure : l'objet lui même,
+	 * ses transformations, son rectangle englobant et sa forme (les couleurs
+	 * et les traits sont partagés et ne sont donc pas comptés)
+	 * @param figure la figure
+	 * @return le nombre approximatif d'octets occupés par la figure
+	 * @see history.MementoCodec#footprint(history.Prototype)
+	 */
+	@Override
+	public long footprint(Figure figure)
+	{
+		final long objectSize = 128;
+		final long transformSize = 72;
+		final long rectangleSize = 48;
+		long size = objectSize + (5 * transformSize) + rectangleSize;
+		Shape s = figure.shape; // les formes chargées à la demande ne comptent pas
+		if (s instanceof java.awt.Polygon)
+		{
+			java.awt.Polygon p = (java.awt.Polygon) s;
+			size += 64 + (8L * p.xpoints.length);
+		}
+		else if (s != null)
+		{
+			size += 64;
+		}
+		if ((figure instanceof NGon) || (figure instanceof Star))
+		{
+			size += 32;
+		}
+		return size;
+	}
+
+	/**
+	 * Ecriture d'une couleur (qui peut être null)
+	 * @param paint la couleur à écrire
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException si la couleur n'est pas une {@link Color}
+	 */
+	private static void writePaint(Paint paint, DataOutput out)
+	    throws IOException
+	{
+		if (paint == null)
+		{
+			out.writeBoolean(false);
+			return;
+		}
+		if (!(paint instanceof Color))
+		{
+			throw new IOException("unsupported paint " + paint);
+		}
+		out.writeBoolean(true);
+		out.writeInt(((Color) paint).getRGB());
+	}
+
+	/**
+	 * Lecture d'une couleur
+	 * @param in le flux à partir duquel lire
+	 * @return la couleur partagée de {@link PaintFactory} ou bien null
+	 * @throws IOException en cas d'erreur de lecture
+	 */
+	private static Paint readPaint(DataInput in) throws IOException
+	{
+		if (!in.readBoolean())
+		{
+			return null;
+		}
+		return PaintFactory.getPaint(new Color(in.readInt(), true));
+	}
+
+	/**
+	 * Ecriture d'un style de trait (qui peut être null)
+	 * @param stroke le style de trait à écrire
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	public static void writeStroke(BasicStroke stroke, DataOutput out)
+	    throws IOException
+	{
+		if (stroke == null)
+		{
+			out.writeBoolean(false);
+			return;
+		}
+		out.writeBoolean(true);
+		out.writeFloat(stroke.getLineWidth());
+		out.writeByte(stroke.getEndCap());
+		out.writeByte(stroke.getLineJoin());
+		out.writeFloat(stroke.getMiterLimit());
+		float[] dash = stroke.getDashArray();
+		out.writeShort(dash != null ? dash.length : 0);
+		if (dash != null)
+		{
+			for (float d : dash)
+			{
+				out.writeFloat(d);
+			}
+		}
+		out.writeFloat(stroke.getDashPhase());
+	}
+
+	/**
+	 * Lecture d'un style de trait
+	 * @param in le flux à partir duquel lire
+	 * @return le trait partagé de {@link StrokeFactory} ou bien null
+	 * @throws IOException en cas d'erreur de lecture
+	 */
+	public static BasicStroke readStroke(DataInput in) throws IOException
+	{
+		if (!in.readBoolean())
+		{
+			return null;
+		}
+		float width = in.readFloat();
+		int cap = in.readByte();
+		int join = in.readByte();
+		float miterLimit = in.readFloat();
+		int nbDashes = in.readUnsignedShort();
+		float[] dash = null;
+		if (nbDashes > 0)
+		{
+			dash = new float[nbDashes];
+			for (int i = 0; i < nbDashes; i++)
+			{
+				dash[i] = in.readFloat();
+			}
+		}
+		float phase = in.readFloat();
+		return StrokeFactory.getStroke(
+		    new BasicStroke(width, cap, join, miterLimit, dash, phase));
+	}
+
+	/**
+	 * Ecriture d'une transformation
+	 * @param t la transformation à écrire
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private static void writeTransform(AffineTransform t, DataOutput out)
+	    throws IOException
+	{
+		double[] m = new double[6];
+		t.getMatrix(m);
+		for (double v : m)
+		{
+			out.writeDouble(v);
+		}
+	}
+
+	/**
+	 * Lecture d'une transformation
+	 * @param in le flux à partir duquel lire
+	 * @return une nouvelle transformation
+	 * @throws IOException en cas d'erreur de lecture
+	 */
+	private static AffineTransform readTransform(DataInput in)
+	    throws IOException
+	{
+		double[] m = new double[6];
+		for (int i = 0; i < m.length; i++)
+		{
+			m[i] = in.readDouble();
+		}
+		return new AffineTransform(m);
+	}
+
+	/**
+	 * Ecriture d'un point
+	 * @param p le point à écrire
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private static void writePoint(Point2D p, DataOutput out)
+	    throws IOException
+	{
+		out.writeDouble(p.getX());
+		out.writeDouble(p.getY());
+	}
+
+	/**
+	 * Lecture d'un point
+	 * @param in le flux à partir duquel lire
+	 * @return un nouveau point
+	 * @throws IOException en cas d'erreur de lecture
+	 */
+	private static Point2D readPoint(DataInput in) throws IOException
+	{
+		double x = in.readDouble();
+		return new Point2D.Double(x, in.readDouble());
+	}
+
+	/**
+	 * Ecriture de la forme d'une figure
+	 * @param s la forme à écrire
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException si la forme ne fait pas partie des formes utilisées
+	 * par les figures
+	 */
+	private static void writeShape(Shape s, DataOutput out) throws IOException
+	{
+		if (s == null)
+		{
+			out.writeByte(NoShape);
+		}
+		else if (s instanceof Ellipse2D)
+		{
+			Ellipse2D e = (Ellipse2D) s;
+			out.writeByte(EllipseShape);
+			writeFrame(e.getX(), e.getY(), e.getWidth(), e.getHeight(), out);
+		}
+		else if (s instanceof Rectangle2D)
+		{
+			Rectangle2D r = (Rectangle2D) s;
+			out.writeByte(RectangleShape);
+			writeFrame(r.getX(), r.getY(), r.getWidth(), r.getHeight(), out);
+		}
+		else if (s instanceof RoundRectangle2D)
+		{
+			RoundRectangle2D r = (RoundRectangle2D) s;
+			out.writeByte(RoundRectangleShape);
+			writeFrame(r.getX(), r.getY(), r.getWidth(), r.getHeight(), out);
+			out.writeDouble(r.getArcWidth());
+			out.writeDouble(r.getArcHeight());
+		}
+		else if (s instanceof java.awt.Polygon)
+		{
+			java.awt.Polygon p = (java.awt.Polygon) s;
+			out.writeByte(PolygonShape);
+			out.writeInt(p.npoints);
+			for (int i = 0; i < p.npoints; i++)
+			{
+				out.writeInt(p.xpoints[i]);
+				out.writeInt(p.ypoints[i]);
+			}
+		}
+		else
+		{
+			throw new IOException("unsupported shape " + s.getClass().getName());
+		}
+	}
+
+	/**
+	 * Ecriture du cadre d'une forme rectangulaire
+	 * @param x l'abcisse du coin supérieur gauche
+	 * @param y l'ordonnée du coin supérieur gauche
+	 * @param w la largeur
+	 * @param h la hauteur
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private static void writeFrame(double x, double y, double w, double h,
+	    DataOutput out) throws IOException
+	{
+		out.writeDouble(x);
+		out.writeDouble(y);
+		out.writeDouble(w);
+		out.writeDouble(h);
+	}
+
+	/**
+	 * Lecture de la forme d'une figure
+	 * @param in le flux à partir duquel lire
+	 * @return une nouvelle forme (ou null)
+	 * @throws IOException si le type de forme lu est inconnu
+	 */
+	public static Shape readShape(DataInput in) throws IOException
+	{
+		byte kind = in.readByte();
+		switch (kind)
+		{
+			case NoShape:
+				return null;
+			case EllipseShape:
+				return new Ellipse2D.Double(in.readDouble(), in.readDouble(),
+				                            in.readDouble(), in.readDouble());
+			case RectangleShape:
+				return new Rectangle2D.Double(in.readDouble(), in.readDouble(),
+				                              in.readDouble(), in.readDouble());
+			case RoundRectangleShape:
+				return new RoundRectangle2D.Double(in.readDouble(),
+				                                   in.readDouble(),
+				                                   in.readDouble(),
+				                                   in.readDouble(),
+				                                   in.readDouble(),
+				                                   in.readDouble());
+			case PolygonShape:
+				int n = in.readInt();
+				int[] xs = new int[n];
+				int[] ys = new int[n];
+				for (int i = 0; i < n; i++)
+				{
+					xs[i] = in.readInt();
+					ys[i] = in.readInt();
+				}
+				return new java.awt.Polygon(xs, ys, n);
+			default:
+				throw new IOException("unknown shape " + kind);
+		}
+	}
+}
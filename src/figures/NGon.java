@@ -5,6 +5,7 @@ import java.awt.Paint;
 import java.awt.Polygon;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import figures.enums.FigureType;
 
@@ -18,7 +19,7 @@ public class NGon extends Figure
 	/**
 	 * Le compteur d'instance des NGons
 	 */
-	private static int counter = 0;
+	private static final AtomicInteger counter = new AtomicInteger();
 
 	/**
 	 * Nombre minimum de côtés
@@ -56,7 +57,7 @@ public class NGon extends Figure
 	public NGon(BasicStroke stroke, Paint edge, Paint fill, Point2D p)
 	{
 		super(stroke, edge, fill);
-		instanceNumber = ++counter;
+		instanceNumber = counter.incrementAndGet();
 
 		Polygon poly = new Polygon();
 		center = new Point2D.Double(p.getX(), p.getY());
@@ -81,18 +82,21 @@ public class NGon extends Figure
 		center = new Point2D.Double(ngon.center.getX(), ngon.center.getY());
 		nbSides = ngon.nbSides;
 		radius = ngon.radius;
-		Polygon oldPoly = (Polygon) ngon.shape;
-		int npoints = oldPoly.npoints;
-		int [] xpoints = new int[npoints];
-		int [] ypoints = new int[npoints];
-
-		for (int i = 0; i < npoints; i++)
-		{
-			xpoints[i] = oldPoly.xpoints[i];
-			ypoints[i] = oldPoly.ypoints[i];
-		}
+		// la forme est partagée avec ngon jusqu'à sa modification
+	}
 
-		shape = new Polygon(xpoints, ypoints, npoints);
+	/**
+	 * Constructeur d'un prototype (utilisé par {@link FigureCodec}) : sans
+	 * style ni géométrie significative et sans incrémenter le compteur
+	 * d'instances
+	 */
+	NGon()
+	{
+		super(null, null, null);
+		center = new Point2D.Double();
+		nbSides = minNbSides;
+		radius = 0.0;
+		shape = new Polygon();
 	}
 
 	/**
@@ -105,6 +109,20 @@ public class NGon extends Figure
 		return new NGon(this);
 	}
 
+	/**
+	 * Restauration des paramètres du polygone régulier sans recalculer ses
+	 * points (utilisé lors du décodage par {@link FigureCodec})
+	 * @param center le centre du polygone
+	 * @param nbSides le nombre de côtés du polygone
+	 * @param radius le rayon du polygone
+	 */
+	void setState(Point2D center, int nbSides, double radius)
+	{
+		this.center = new Point2D.Double(center.getX(), center.getY());
+		this.nbSides = nbSides;
+		this.radius = radius;
+	}
+
 	/**
 	 * Accesseur du nombre de côtés du polygone
 	 * @return le nombre de côtés du polygone
@@ -129,6 +147,8 @@ public class NGon extends Figure
 	 */
 	public void setNbSides(int nbSides)
 	{
+		// la forme peut être partagée avec une copie
+		ownShape();
 		System.out.print("Ngon set nb sides with " + nbSides);
 		if (nbSides > maxNbSides)
 		{
@@ -153,7 +173,7 @@ public class NGon extends Figure
 		if (nbSides != this.nbSides)
 		{
 			this.nbSides = nbSides;
-			Polygon poly = (Polygon) shape;
+			Polygon poly = (Polygon) getShape();
 			poly.reset();
 
 			for (int i = 0; i < this.nbSides; i++)
@@ -171,6 +191,8 @@ public class NGon extends Figure
 	 */
 	public void incrementNbSides(int deltaSides)
 	{
+		// la forme peut être partagée avec une copie
+		ownShape();
 		int oldNbSides = nbSides;
 		System.out.print("Ngon set nb sides with " + nbSides);
 		if ((nbSides + deltaSides) > maxNbSides)
@@ -195,7 +217,7 @@ public class NGon extends Figure
 
 		if (nbSides != oldNbSides)
 		{
-			Polygon poly = (Polygon) shape;
+			Polygon poly = (Polygon) getShape();
 			poly.reset();
 
 			for (int i = 0; i < nbSides; i++)
@@ -257,10 +279,13 @@ public class NGon extends Figure
 	@Override
 	public void normalize()
 	{
+		// les transformations peuvent être partagées avec une copie
+		ownTransforms();
 		Point2D center = getCenter();
 		double cx = center.getX();
 		double cy = center.getY();
 		translation.translate(0, 0);
+		invalidateTransform();
 		center.setLocation(cx, cy);
 	}
 
@@ -313,13 +338,15 @@ public class NGon extends Figure
 	 */
 	protected void recomputePoints()
 	{
+		// la forme peut être partagée avec une copie
+		ownShape();
 		// getting nbSides points
 		Point2D[] points = unitPoints(nbSides);
 
 		double cx = center.getX();
 		double cy = center.getY();
 
-		Polygon poly = (java.awt.Polygon) shape;
+		Polygon poly = (java.awt.Polygon) getShape();
 
 		for (int i = 0; i < points.length; i++)
 		{
@@ -331,5 +358,9 @@ public class NGon extends Figure
 			poly.xpoints[i] = Double.valueOf(ix).intValue();
 			poly.ypoints[i] = Double.valueOf(iy).intValue();
 		}
+
+		// les points ont été modifiés directement
+		poly.invalidate();
+		invalidateBounds();
 	}
 }
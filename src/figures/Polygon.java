@@ -5,17 +5,18 @@ import java.awt.Paint;
 import java.awt.Point;
 
 import java.awt.geom.Point2D;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import figures.enums.FigureType;
 
 public class Polygon extends Figure {
-	private static int counter = 0;
+	private static final AtomicInteger counter = new AtomicInteger();
 
 	public Polygon(BasicStroke stroke, Paint edgeColor, Paint fillColor,
 		Point point1, Point point2)
 	{
 		super(stroke, edgeColor, fillColor);
-		instanceNumber = ++counter;
+		instanceNumber = counter.incrementAndGet();
 
 		java.awt.Polygon polygon = new java.awt.Polygon();
 		polygon.addPoint(point1.x, point1.y); 
@@ -25,18 +26,19 @@ public class Polygon extends Figure {
 
 	public Polygon(Polygon polygon)
 	{
+		// la forme est partagée avec polygon jusqu'à sa modification
 		super(polygon);
-		java.awt.Polygon oldPoly = (java.awt.Polygon) polygon.shape;
-		int npoints = oldPoly.npoints;
-		int[] xpoints = new int[npoints];
-		int[] ypoints = new int[npoints];
+	}
 
-		for (int i = 0; i < npoints; i++)
-		{
-			xpoints[i] = oldPoly.xpoints[i];
-			ypoints[i] = oldPoly.ypoints[i];
-		}
-		shape = new java.awt.Polygon(xpoints, ypoints, npoints);
+	/**
+	 * Constructeur d'un prototype (utilisé par {@link FigureCodec}) : sans
+	 * style ni géométrie significative et sans incrémenter le compteur
+	 * d'instances
+	 */
+	Polygon()
+	{
+		super(null, null, null);
+		shape = new java.awt.Polygon();
 	}
 
 	@Override
@@ -47,13 +49,18 @@ public class Polygon extends Figure {
 
 	public void addPoint(int x, int y)
 	{
-		java.awt.Polygon polygon = (java.awt.Polygon) shape;
+		// la forme peut être partagée avec une copie
+		ownShape();
+		java.awt.Polygon polygon = (java.awt.Polygon) getShape();
 		polygon.addPoint(x, y);
+		invalidateBounds();
 	}
 
 	public void removeLastPoint()
 	{
-		java.awt.Polygon polygon = (java.awt.Polygon) shape;
+		// la forme peut être partagée avec une copie
+		ownShape();
+		java.awt.Polygon polygon = (java.awt.Polygon) getShape();
 
 		if (polygon.npoints > 1)
 		{
@@ -71,20 +78,26 @@ public class Polygon extends Figure {
 			{
 				polygon.addPoint(xs[i], ys[i]);
 			}
+			invalidateBounds();
 		}
 	}
 
 	@Override
 	public void setLastPoint(Point2D p) {
+		// la forme peut être partagée avec une copie
+		ownShape();
 		// TODO 自动生成的方法存根
 		if (shape != null)
 		{
-			java.awt.Polygon polygon = (java.awt.Polygon) shape;
+			java.awt.Polygon polygon = (java.awt.Polygon) getShape();
 			int lastIndex = polygon.npoints - 1;
 			if (lastIndex >= 0)
 			{
 				polygon.xpoints[lastIndex] = Double.valueOf(p.getX()).intValue();
 				polygon.ypoints[lastIndex] = Double.valueOf(p.getY()).intValue();
+				// les points ont été modifiés directement
+				polygon.invalidate();
+				invalidateBounds();
 			}
 		}
 		else
@@ -95,13 +108,17 @@ public class Polygon extends Figure {
 
 	@Override
 	public void normalize() {
+		// la forme et les transformations peuvent être partagées avec une copie
+		ownShape();
+		ownTransforms();
 		// TODO 自动生成的方法存根
 		System.out.println("Polygon Normalize");
 		Point2D center = computeCenter();
 		double cx = center.getX();
 		double cy = center.getY();
 		translation.setToTranslation(cx, cy);
-		java.awt.Polygon polygon = (java.awt.Polygon) shape;
+		invalidateTransform();
+		java.awt.Polygon polygon = (java.awt.Polygon) getShape();
 		if (polygon.npoints > 0)
 		{
 			int[] newX = new int[polygon.npoints];
@@ -124,7 +141,7 @@ public class Polygon extends Figure {
 
 	protected Point2D computeCenter()
 	{
-		java.awt.Polygon polygon = (java.awt.Polygon) shape;
+		java.awt.Polygon polygon = (java.awt.Polygon) getShape();
 
 		double[] center = {0.0, 0.0};
 
@@ -163,7 +180,7 @@ public class Polygon extends Figure {
 	public void printPoints()
 	{
 		System.out.print(this + " ");
-		java.awt.Polygon polygon = (java.awt.Polygon) shape;
+		java.awt.Polygon polygon = (java.awt.Polygon) getShape();
 		if (polygon.npoints > 0)
 		{
 			for (int i = 0; i < polygon.npoints; i++)
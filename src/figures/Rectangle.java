@@ -5,6 +5,7 @@ import java.awt.Paint;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RectangularShape;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import figures.enums.FigureType;
 
@@ -19,7 +20,7 @@ public class Rectangle extends Figure
 	 * Le compteur d'instance des cercles.
 	 * Utilisé pour donner un numéro d'instance après l'avoir incrémenté
 	 */
-	private static int counter = 0;
+	private static final AtomicInteger counter = new AtomicInteger();
 
 	/**
 	 * Création d'un rectangle avec les points en haut à gauche et en bas à
@@ -35,7 +36,7 @@ public class Rectangle extends Figure
 			Point2D bottomRight)
 	{
 		super(stroke, edge, fill);
-		instanceNumber = ++counter;
+		instanceNumber = counter.incrementAndGet();
 		double x = topLeft.getX();
 		double y = topLeft.getY();
 		double w = (bottomRight.getX() - x);
@@ -52,21 +53,25 @@ public class Rectangle extends Figure
 	 */
 	public Rectangle(Rectangle rect)
 	{
+		// la forme est partagée avec rect jusqu'à sa modification
 		super(rect);
-		if (rect.getClass() == Rectangle.class)
-		{
-			Rectangle2D oldRectangle = (Rectangle2D) rect.shape;
-			shape = new Rectangle2D.Double(oldRectangle.getMinX(),
-			                               oldRectangle.getMinY(),
-			                               oldRectangle.getWidth(),
-			                               oldRectangle.getHeight());
-		}
-		else
+		if (rect.getClass() != Rectangle.class)
 		{
 			System.out.println("Calling Rectangle(Rectangle) from another class");
 		}
 	}
 
+	/**
+	 * Constructeur d'un prototype (utilisé par {@link FigureCodec}) : sans
+	 * style ni géométrie significative et sans incrémenter le compteur
+	 * d'instances
+	 */
+	Rectangle()
+	{
+		super(null, null, null);
+		shape = new Rectangle2D.Double();
+	}
+
 	/**
 	 * Création d'une copie distincte de la figure
 	 * @see figures.Figure#clone()
@@ -89,8 +94,8 @@ public class Rectangle extends Figure
 		if (super.equals(o))
 		{
 			Rectangle r = (Rectangle) o;
-			RectangularShape r1 = (RectangularShape) shape;
-			RectangularShape r2 = (RectangularShape) r.shape;
+			RectangularShape r1 = (RectangularShape) getShape();
+			RectangularShape r2 = (RectangularShape) r.getShape();
 
 			return ((r1.getX() == r2.getX()) &&
 			        (r1.getY() == r2.getY()) &&
@@ -127,13 +132,16 @@ public class Rectangle extends Figure
 	@Override
 	public void setLastPoint(Point2D p)
 	{
+		// la forme peut être partagée avec une copie
+		ownShape();
 		if (shape != null)
 		{
-			Rectangle2D.Double rect = (Rectangle2D.Double) shape;
+			Rectangle2D.Double rect = (Rectangle2D.Double) getShape();
 			double newWidth = p.getX() - rect.x;
 			double newHeight = p.getY() - rect.y;
 			rect.width = newWidth;
 			rect.height = newHeight;
+			invalidateBounds();
 		}
 		else
 		{
@@ -148,7 +156,7 @@ public class Rectangle extends Figure
 	@Override
 	public Point2D getCenter()
 	{
-		RectangularShape rect = (RectangularShape) shape;
+		RectangularShape rect = (RectangularShape) getShape();
 
 		Point2D center = new Point2D.Double(rect.getCenterX(), rect.getCenterY());
 		Point2D tCenter = new Point2D.Double();
@@ -165,11 +173,15 @@ public class Rectangle extends Figure
 	@Override
 	public void normalize()
 	{
+		// la forme et les transformations peuvent être partagées avec une copie
+		ownShape();
+		ownTransforms();
 		Point2D center = getCenter();
 		double cx = center.getX();
 		double cy = center.getY();
-		RectangularShape rectangle = (RectangularShape) shape;
+		RectangularShape rectangle = (RectangularShape) getShape();
 		translation.translate(cx, cy);
+		invalidateTransform();
 		rectangle.setFrame(rectangle.getX() - cx,
 		                   rectangle.getY() - cy,
 		                   rectangle.getWidth(),
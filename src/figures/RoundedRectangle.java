@@ -5,15 +5,16 @@ import java.awt.Paint;
 import java.awt.geom.Point2D;
 import java.awt.geom.RectangularShape;
 import java.awt.geom.RoundRectangle2D;
+import java.util.concurrent.atomic.AtomicInteger;
 import figures.enums.FigureType;
 
 public class RoundedRectangle extends Figure {
-	private static int counter = 0;
+	private static final AtomicInteger counter = new AtomicInteger();
 
 	public RoundedRectangle(BasicStroke stroke, Paint edge, Paint fill, Point2D topleft,
 			Point2D bottomRight, int arc) {
 				super(stroke, edge, fill);
-				instanceNumber = ++counter;
+				instanceNumber = counter.incrementAndGet();
 				double x = topleft.getX();
 				double y = topleft.getY();
 				double w = (bottomRight.getX() - x);
@@ -27,14 +28,19 @@ public class RoundedRectangle extends Figure {
 	}
 
 	public RoundedRectangle(RoundedRectangle rRect) {
+		// la forme est partagée avec rRect jusqu'à sa modification
 		super(rRect);
-		RoundRectangle2D oldRect = (RoundRectangle2D) rRect.shape;
-		shape = new RoundRectangle2D.Double(oldRect.getMinX(),
-											oldRect.getMinY(),
-											oldRect.getWidth(),
-											oldRect.getHeight(),
-											oldRect.getArcWidth(),
-											oldRect.getArcHeight());
+	}
+
+	/**
+	 * Constructeur d'un prototype (utilisé par {@link FigureCodec}) : sans
+	 * style ni géométrie significative et sans incrémenter le compteur
+	 * d'instances
+	 */
+	RoundedRectangle()
+	{
+		super(null, null, null);
+		shape = new RoundRectangle2D.Double();
 	}
 
 	@Override
@@ -45,14 +51,17 @@ public class RoundedRectangle extends Figure {
 
 	@Override
 	public void setLastPoint(Point2D p) {
+		// la forme peut être partagée avec une copie
+		ownShape();
 		// TODO 自动生成的方法存根
 		if (shape != null)
 		{
-			RoundRectangle2D.Double rect = (RoundRectangle2D.Double) shape;
+			RoundRectangle2D.Double rect = (RoundRectangle2D.Double) getShape();
 			double newWidth = p.getX() - rect.x;
 			double newHeight = p.getY() - rect.y;
 			rect.width = newWidth;
 			rect.height = newHeight;
+			invalidateBounds();
 		}
 		else
 		{
@@ -63,12 +72,16 @@ public class RoundedRectangle extends Figure {
 
 	@Override
 	public void normalize() {
+		// la forme et les transformations peuvent être partagées avec une copie
+		ownShape();
+		ownTransforms();
 		// TODO 自动生成的方法存根
 		Point2D center = getCenter();
 		double cx = center.getX();
 		double cy = center.getY();
-		RectangularShape rect = (RectangularShape) shape;
+		RectangularShape rect = (RectangularShape) getShape();
 		translation.translate(cx, cy);
+		invalidateTransform();
 		rect.setFrame(rect.getX() - cx,
 					  rect.getY() - cy,
 					  rect.getWidth(),
@@ -78,7 +91,7 @@ public class RoundedRectangle extends Figure {
 	@Override
 	public Point2D getCenter() {
 		// TODO 自动生成的方法存根
-		RectangularShape rect = (RectangularShape) shape;
+		RectangularShape rect = (RectangularShape) getShape();
 
 		Point2D center = new Point2D.Double(rect.getCenterX(), rect.getCenterY());
 		Point2D tCenter = new Point2D.Double();
@@ -89,7 +102,9 @@ public class RoundedRectangle extends Figure {
 	
 	public void setArc(Point2D p)
 	{
-		RoundRectangle2D.Double rect = (RoundRectangle2D.Double)shape;
+		// la forme peut être partagée avec une copie
+		ownShape();
+		RoundRectangle2D.Double rect = (RoundRectangle2D.Double)getShape();
 
 		double bottomRightX = rect.getMaxX();
 		double bottomRightY = rect.getMaxY();
@@ -122,6 +137,7 @@ public class RoundedRectangle extends Figure {
 				rect.archeight = 0;
 			}
 		}
+		invalidateBounds();
 	}
 
 	@Override
@@ -0,0 +1,22 @@
+package figures;
+
+import java.awt.Shape;
+
+/**
+ * Source d'une forme de {@link Figure} chargée à la demande (à partir d'un
+ * fichier projeté en mémoire par exemple).
+ * Une même source peut être sollicitée plusieurs fois pour la même figure
+ * lorsque la forme chargée a été libérée : elle doit donc fournir à chaque
+ * fois une nouvelle forme, identique aux précédentes.
+ * @author davidroussel
+ * @see Figure#getShape()
+ */
+public interface ShapeSource
+{
+	/**
+	 * Chargement de la forme
+	 * @return une nouvelle instance de la forme
+	 * @throws java.io.UncheckedIOException si la forme ne peut pas être lue
+	 */
+	public abstract Shape loadShape();
+}
@@ -5,12 +5,13 @@ import java.awt.Paint;
 import java.awt.Polygon;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import figures.enums.FigureType;
 
 public class Star extends Figure {
 
-	private static int counter = 0;
+	private static final AtomicInteger counter = new AtomicInteger();
 	
 	private double radius = 10.0;
 	private Point2D center;
@@ -18,7 +19,7 @@ public class Star extends Figure {
 	public Star(BasicStroke stroke, Paint edge, Paint fill, Point2D p)
 	{		
 		super(stroke, edge, fill);
-		instanceNumber = ++counter;
+		instanceNumber = counter.incrementAndGet();
 		radius = 0.0;
 		center = new Point2D.Double(p.getX(), p.getY());
 		java.awt.Polygon polygon = new Polygon();
@@ -32,17 +33,20 @@ public class Star extends Figure {
 		super(star);
 		radius=star.radius;
 		center = new Point2D.Double(star.center.getX(), star.center.getY());
-		Polygon oldPoly = (Polygon) star.shape;
-		int npoints = oldPoly.npoints;
-		int[] xpoints = new int[npoints];
-		int[] ypoints = new int[npoints];
+		// la forme est partagée avec star jusqu'à sa modification
+	}
 
-		for (int i = 0; i < npoints; i++)
-		{
-			xpoints[i] = oldPoly.xpoints[i];
-			ypoints[i] = oldPoly.ypoints[i];
-		}
-		shape = new Polygon(xpoints, ypoints, npoints);
+	/**
+	 * Constructeur d'un prototype (utilisé par {@link FigureCodec}) : sans
+	 * style ni géométrie significative et sans incrémenter le compteur
+	 * d'instances
+	 */
+	Star()
+	{
+		super(null, null, null);
+		radius = 0.0;
+		center = new Point2D.Double();
+		shape = new Polygon();
 	}
 	
 	@Override
@@ -56,8 +60,23 @@ public class Star extends Figure {
 		return radius;
 	}
 	
+	/**
+	 * Restauration des paramètres de l'étoile sans recalculer ses points
+	 * (utilisé lors du décodage par {@link FigureCodec})
+	 * @param center le centre de l'étoile
+	 * @param radius le rayon de l'étoile
+	 */
+	void setState(Point2D center, double radius)
+	{
+		this.center = new Point2D.Double(center.getX(), center.getY());
+		this.radius = radius;
+	}
+
 	protected void recomputePoints()
-	{	int x0 = (int) getCenter().getX();
+	{
+		// la forme peut être partagée avec une copie
+		ownShape();
+		int x0 = (int) getCenter().getX();
 		int y0 = (int) getCenter().getY();
 		double ch=72*Math.PI/180;
 		double x1=x0,
@@ -71,13 +90,14 @@ public class Star extends Figure {
 		    y4=(double)(y0+Math.cos(ch/2)*radius),
 		    y5=y4; 
 		
-		Polygon poly = (Polygon) shape;
+		Polygon poly = (Polygon) getShape();
 	    poly.reset();
 	    poly.addPoint((int)x1,(int)y1);
 		poly.addPoint((int)x4,(int)y4);
 		poly.addPoint((int)x3,(int)y3);
 		poly.addPoint((int)x2,(int)y2);
 		poly.addPoint((int)x5,(int)y5);
+		invalidateBounds();
 	}
 	
 	public void setRadius(double radius)
@@ -102,11 +122,14 @@ public class Star extends Figure {
 
 	@Override
 	public void normalize() {
+		// les transformations peuvent être partagées avec une copie
+		ownTransforms();
 		// TODO 自动生成的方法存根
 		Point2D center = getCenter();
 		double cX = center.getX();
 		double cY = center.getY();
 		translation.translate(0, 0);
+		invalidateTransform();
 		center.setLocation(cX, cY);
 	}
 
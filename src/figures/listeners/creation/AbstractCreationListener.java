@@ -58,10 +58,11 @@ public abstract class AbstractCreationListener extends AbstractFigureListener
 		history.record();
 		setStartPoint(e);
 		currentFigure = drawingModel.initiateFigure(e.getPoint());
+		drawingModel.setActiveFigure(currentFigure);
 
 		nextStep();
 
-		drawingModel.update();
+		drawingModel.update(currentFigure);
 	}
 
 	/**
@@ -95,13 +96,16 @@ public abstract class AbstractCreationListener extends AbstractFigureListener
 			System.err.println(getClass().getSimpleName() + "::endAction : null figure");
 		}
 
+		// fin de l'édition interactive de la figure
+		drawingModel.setActiveFigure(null);
+
 		if (checkZeroSizeFigure())
 		{
 			// cancel last memento
 			history.cancel();
 		}
 
-		drawingModel.update();
+		drawingModel.update(currentFigure);
 
 		updateTip();
 	}
@@ -126,7 +126,7 @@ public class NGonCreationListener extends AbstractCreationListener
 			// Agrandissement du polygone régulier
 			currentFigure.setLastPoint(e.getPoint());
 
-			drawingModel.update();
+			drawingModel.update(currentFigure);
 		}
 	}
 
@@ -162,7 +162,7 @@ public class NGonCreationListener extends AbstractCreationListener
 //					releasedPoint.setLocation(point.x, point.y);;
 //				}
 
-				drawingModel.update();
+				drawingModel.update(currentFigure);
 			}
 
 		}
@@ -65,7 +65,7 @@ public class PolygonCreationListener extends AbstractCreationListener {
 			}
 		}
 
-		drawingModel.update();
+		drawingModel.update(currentFigure);
 		updateTip();
 	}
 
@@ -113,7 +113,7 @@ public class PolygonCreationListener extends AbstractCreationListener {
 			{
 				System.err.println(getClass().getSimpleName() + "::mouseMoved : null figure");
 			}
-			drawingModel.update();
+			drawingModel.update(currentFigure);
 		}
 	}
 
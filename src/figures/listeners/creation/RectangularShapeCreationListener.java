@@ -134,7 +134,7 @@ public class RectangularShapeCreationListener extends AbstractCreationListener
 				System.err.println(getClass().getSimpleName() + "::mouseDragged : null figure");
 			}
 
-			drawingModel.update();
+			drawingModel.update(currentFigure);
 		}
 	}
 
@@ -77,7 +77,7 @@ public class RoundedRectangleCreationListener extends AbstractCreationListener {
 				System.err.println(getClass().getSimpleName() + "::mouseDragged : null figure");
 			}
 
-			drawingModel.update();
+			drawingModel.update(currentFigure);
 		}
 	}
 
@@ -89,7 +89,7 @@ public class RoundedRectangleCreationListener extends AbstractCreationListener {
 			RoundedRectangle rect = (RoundedRectangle) currentFigure;
 			rect.setArc(e.getPoint());
 
-			drawingModel.update();
+			drawingModel.update(currentFigure);
 		}
 	}
 
@@ -74,7 +74,7 @@ public class StarCreationListener extends AbstractCreationListener {
 				System.err.println(getClass().getSimpleName() + "::mouseDragged : null figure");
 			}
 
-			drawingModel.update();
+			drawingModel.update(currentFigure);
 		}
 	}
 
@@ -121,7 +121,8 @@ public abstract class AbstractTransformShapeListener extends AbstractFigureListe
 
 			nextStep();
 
-			drawingModel.update(); // optionel
+			// notifie aussi les observateurs
+			drawingModel.setActiveFigure(currentFigure);
 		}
 		else
 		{
@@ -161,7 +162,8 @@ public abstract class AbstractTransformShapeListener extends AbstractFigureListe
 
 			currentFigure = null;
 
-			drawingModel.update();
+			// fin de l'édition interactive : notifie aussi les observateurs
+			drawingModel.setActiveFigure(null);
 		}
 	}
 
@@ -265,7 +267,7 @@ public abstract class AbstractTransformShapeListener extends AbstractFigureListe
 			{
 				updateDrag(e);
 
-				drawingModel.update();
+				drawingModel.update(currentFigure);
 			}
 			else
 			{
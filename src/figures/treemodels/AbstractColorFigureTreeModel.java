@@ -0,0 +1,112 @@
+package figures.treemodels;
+
+import java.awt.Paint;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.swing.JTree;
+
+import figures.Drawing;
+import figures.Figure;
+import filters.FigureFilter;
+import utils.CColor;
+
+/**
+ * Arbre des figures regroupées par couleur (de remplissage ou de trait).
+ * Les couleurs des figures sont converties en {@link CColor} afin d'être
+ * triées dans l'arbre, les figures sans couleur étant regroupées sous
+ * {@link CColor#NoColor}.
+ * Les regroupements sont fournis par l'index des attributs du
+ * {@link Drawing} plutôt qu'en examinant chacune des figures.
+ * @author davidroussel
+ */
+public abstract class AbstractColorFigureTreeModel extends AbstractTypedFigureTreeModel<CColor>
+{
+	/**
+	 * Constructeur de l'arbre des couleurs
+	 * @param drawing le modèle de dessin
+	 * @param tree le JTree utilisé pour visualiser cet arbre
+	 * @param title le nom de la racine de cet arbre
+	 * @throws NullPointerException si le dessin ou le JTree sont null
+	 */
+	public AbstractColorFigureTreeModel(Drawing drawing,
+	                                    JTree tree,
+	                                    String title)
+	    throws NullPointerException
+	{
+		super(CColor.class, drawing, tree, title);
+	}
+
+	/**
+	 * Couleur d'une figure utilisée par cet arbre
+	 * @param f la figure à interroger
+	 * @return la couleur de la figure (éventuellement null)
+	 */
+	protected abstract Paint getPaintFrom(Figure f);
+
+	/**
+	 * Regroupement par le dessin des figures (filtrées) par couleur
+	 * @return les listes des figures de chaque couleur
+	 * @see Drawing#groupByFillPaint()
+	 * @see Drawing#groupByEdgePaint()
+	 */
+	protected abstract Map<Paint, List<Figure>> groupPaints();
+
+	/**
+	 * Couleur d'une figure
+	 * @param f la figure à interroger
+	 * @return la couleur comparable de la figure
+	 */
+	@Override
+	public CColor getValueFrom(Figure f)
+	{
+		return CColor.fromPaint(getPaintFrom(f));
+	}
+
+	/**
+	 * Filtre des figures d'une couleur
+	 * @param element la couleur
+	 * @return le filtre des figures de cette couleur
+	 */
+	@Override
+	public FigureFilter<CColor> getFilter(CColor element)
+	{
+		return new FigureFilter<CColor>(element)
+		{
+			@Override
+			public boolean test(Figure f)
+			{
+				return getValueFrom(f).equals(element);
+			}
+		};
+	}
+
+	/**
+	 * Regroupement des figures (filtrées) du dessin par couleur
+	 * @param figures les figures (éventuellement filtrées) du modèle de
+	 * dessin
+	 * @return les listes des figures de chaque couleur
+	 */
+	@Override
+	protected Map<CColor, List<Figure>> groupFigures(List<Figure> figures)
+	{
+		Map<CColor, List<Figure>> groups = new TreeMap<CColor, List<Figure>>();
+		for (Map.Entry<Paint, List<Figure>> entry : groupPaints().entrySet())
+		{
+			if (groups.put(CColor.fromPaint(entry.getKey()),
+			               entry.getValue()) != null)
+			{
+				/*
+				 * Deux couleurs confondues (l'absence de couleur et le blanc
+				 * par exemple) : les figures de ces couleurs doivent être
+				 * fusionnées dans l'ordre du dessin, on se ramène donc au
+				 * regroupement figure par figure
+				 */
+				return super.groupFigures(figures);
+			}
+		}
+
+		return groups;
+	}
+}
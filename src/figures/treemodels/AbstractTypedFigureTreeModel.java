@@ -114,6 +114,38 @@ public abstract class AbstractTypedFigureTreeModel<E> extends AbstractFigureTree
 	 */
 	public abstract FigureFilter<E> getFilter(E element);
 
+	/**
+	 * Regroupement des figures du modèle de dessin d'après leur
+	 * caractéristique de type E.
+	 * Les classes filles dont la caractéristique est indexée par le
+	 * {@link Drawing} (type de figure, couleurs ou type de ligne) peuvent
+	 * redéfinir cette méthode pour utiliser les regroupements fournis par le
+	 * dessin (par exemple {@link Drawing#groupByType()}) plutôt que
+	 * d'examiner chacune des figures.
+	 * @param figures les figures (éventuellement filtrées) du modèle de
+	 * dessin
+	 * @return les listes des figures (dans l'ordre du dessin) associées à
+	 * chaque valeur de la caractéristique
+	 */
+	protected Map<E, List<Figure>> groupFigures(List<Figure> figures)
+	{
+		Map<E, List<Figure>> dmap = new TreeMap<E, List<Figure>>();
+		for (Iterator<Figure> drawIt = figures.iterator(); drawIt.hasNext();)
+		{
+			Figure figure = drawIt.next();
+			E type = getValueFrom(figure);
+			List<Figure> keyFigure = dmap.get(type);
+			if (keyFigure == null)
+			{
+				dmap.put(type, new Vector<Figure>());
+				keyFigure = dmap.get(type);
+			}
+			keyFigure.add(figure);
+		}
+
+		return dmap;
+	}
+
 	/**
 	 * Mise à jour des figures de l'arbre en les comparant une par une aux
 	 * figures du modèle de dessin.
@@ -136,19 +168,8 @@ public abstract class AbstractTypedFigureTreeModel<E> extends AbstractFigureTree
 		 * Construction d'une map du même type que celle utilisée
 		 * dans ce treemodel avec les figures du modèle passées en argument
 		 */
-		Map<E, List<Figure>> dmap = new TreeMap<E, List<Figure>>();
-		for (Iterator<Figure> drawIt = figures.iterator(); drawIt.hasNext();)
-		{
-			Figure figure = drawIt.next();
-			E type = getValueFrom(figure);
-			List<Figure> keyFigure = dmap.get(type);
-			if (keyFigure == null)
-			{
-				dmap.put(type, new Vector<Figure>());
-				keyFigure = dmap.get(type);
-			}
-			keyFigure.add(figure);
-		}
+		Map<E, List<Figure>> dmap =
+		    new TreeMap<E, List<Figure>>(groupFigures(figures));
 
 		TreePath rootPath = new TreePath(new Object[] { rootElement });
 
@@ -1,58 +1,42 @@
 package figures.treemodels;
 
-import java.util.EnumMap;
+import java.awt.Paint;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.JTree;
 
 import figures.Drawing;
 import figures.Figure;
-import figures.enums.FigureType;
 
-public class EdgeColorTreeModel extends AbstractFigureTreeModel {
-	private EnumMap<FigureType, List<Figure>> map;
-
-	public EdgeColorTreeModel(Drawing drawing, JTree tree) throws NullPointerException
+/**
+ * Arbre des figures regroupées par couleur de trait
+ * ({@link Drawing#groupByEdgePaint()})
+ * @author davidroussel
+ */
+public class EdgeColorTreeModel extends AbstractColorFigureTreeModel
+{
+	/**
+	 * Constructeur de l'arbre des couleurs de trait
+	 * @param drawing le modèle de dessin
+	 * @param tree le JTree utilisé pour visualiser cet arbre
+	 * @throws NullPointerException si le dessin ou le JTree sont null
+	 */
+	public EdgeColorTreeModel(Drawing drawing, JTree tree)
+	    throws NullPointerException
 	{
-		super(drawing, tree, "Figure Types");
-		map = new EnumMap<FigureType, List<Figure>>(FigureType.class);
-		update(drawing, null);
-	}
-
-	@Override
-	protected void updateFiguresFromDrawing(List<Figure> figures) {
-		// TODO 自动生成的方法存根
-
-	}
-
-	@Override
-	protected void updateSelectedFigures() {
-		// TODO 自动生成的方法存根
-
+		super(drawing, tree, "Edge Colors");
 	}
 
 	@Override
-	public Object getChild(Object parent, int index) {
-		// TODO 自动生成的方法存根
-		return null;
-	}
-
-	@Override
-	public int getChildCount(Object parent) {
-		// TODO 自动生成的方法存根
-		return 0;
-	}
-
-	@Override
-	public int getIndexOfChild(Object parent, Object child) {
-		// TODO 自动生成的方法存根
-		return 0;
+	protected Paint getPaintFrom(Figure f)
+	{
+		return f.getEdgePaint();
 	}
 
 	@Override
-	public boolean isLeaf(Object node) {
-		// TODO 自动生成的方法存根
-		return false;
+	protected Map<Paint, List<Figure>> groupPaints()
+	{
+		return drawing.groupByEdgePaint();
 	}
-
 }
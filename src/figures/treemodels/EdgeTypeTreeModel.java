@@ -1,58 +1,68 @@
 package figures.treemodels;
 
-import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.JTree;
 
 import figures.Drawing;
 import figures.Figure;
-import figures.enums.FigureType;
+import figures.enums.LineType;
+import filters.FigureFilter;
+import filters.LineFilter;
 
-public class EdgeTypeTreeModel extends AbstractFigureTreeModel {
-	private EnumMap<FigureType, List<Figure>> map;
-
-	public EdgeTypeTreeModel(Drawing drawing, JTree tree) throws NullPointerException
+/**
+ * Arbre des figures regroupées par type de ligne.
+ * Les regroupements sont fournis par l'index des attributs du
+ * {@link Drawing} ({@link Drawing#groupByLineType()}) plutôt qu'en examinant
+ * chacune des figures.
+ * @author davidroussel
+ */
+public class EdgeTypeTreeModel extends AbstractTypedFigureTreeModel<LineType>
+{
+	/**
+	 * Constructeur de l'arbre des types de lignes
+	 * @param drawing le modèle de dessin
+	 * @param tree le JTree utilisé pour visualiser cet arbre
+	 * @throws NullPointerException si le dessin ou le JTree sont null
+	 */
+	public EdgeTypeTreeModel(Drawing drawing, JTree tree)
+	    throws NullPointerException
 	{
-		super(drawing, tree, "Figure Types");
-		map = new EnumMap<FigureType, List<Figure>>(FigureType.class);
-		update(drawing, null);
-	}
-
-	@Override
-	protected void updateFiguresFromDrawing(List<Figure> figures) {
-		// TODO 自动生成的方法存根
-
-	}
-
-	@Override
-	protected void updateSelectedFigures() {
-		// TODO 自动生成的方法存根
-
-	}
-
-	@Override
-	public Object getChild(Object parent, int index) {
-		// TODO 自动生成的方法存根
-		return null;
+		super(LineType.class, drawing, tree, "Edge Types");
 	}
 
+	/**
+	 * Type de ligne d'une figure
+	 * @param f la figure à interroger
+	 * @return le type de ligne de la figure
+	 */
 	@Override
-	public int getChildCount(Object parent) {
-		// TODO 自动生成的方法存根
-		return 0;
+	public LineType getValueFrom(Figure f)
+	{
+		return f.getLineType();
 	}
 
+	/**
+	 * Filtre des figures d'un type de ligne
+	 * @param element le type de ligne
+	 * @return le filtre des figures ayant ce type de ligne
+	 */
 	@Override
-	public int getIndexOfChild(Object parent, Object child) {
-		// TODO 自动生成的方法存根
-		return 0;
+	public FigureFilter<LineType> getFilter(LineType element)
+	{
+		return new LineFilter(element);
 	}
 
+	/**
+	 * Regroupement des figures (filtrées) du dessin par type de ligne
+	 * @param figures les figures (éventuellement filtrées) du modèle de
+	 * dessin (non utilisées : les regroupements sont fournis par le dessin)
+	 * @return les listes des figures de chaque type de ligne
+	 */
 	@Override
-	public boolean isLeaf(Object node) {
-		// TODO 自动生成的方法存根
-		return false;
+	protected Map<LineType, List<Figure>> groupFigures(List<Figure> figures)
+	{
+		return drawing.groupByLineType();
 	}
-
 }
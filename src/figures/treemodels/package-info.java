@@ -11,6 +11,11 @@
  * 	ces couleurs de replissage les noeuds de niveau 2</li>
  * 	etc.
  * </ul>
+ * Les treemodels typés (types de figures, types de lignes, couleurs de
+ * remplissage et de trait) obtiennent leurs regroupements de la vue
+ * matérialisée des figures filtrées du dessin (voir
+ * {@link figures.Drawing#groupByType()} par exemple) plutôt qu'en
+ * réexaminant chacune des figures du dessin à chaque mise à jour.
  * @author davidroussel
  *
  */
@@ -0,0 +1,257 @@
+package filters;
+
+import java.awt.Paint;
+import java.util.EnumSet;
+import java.util.function.Predicate;
+
+import figures.Figure;
+import figures.enums.FigureType;
+import figures.enums.LineType;
+import utils.PaintFactory;
+
+/**
+ * Prédicat unique regroupant l'ensemble des filtres actifs d'un dessin : les
+ * filtres de types de figures, de couleur de remplissage, de couleur de
+ * trait et de types de lignes.
+ * Les filtres étant compilés une fois pour toutes (à chaque changement des
+ * filtres actifs), le test d'une figure se réduit à :
+ * <ul>
+ * 	<li>l'appartenance de son type et de son type de ligne à des
+ * 	{@link EnumSet} (i.e. des masques de bits)</li>
+ * 	<li>la comparaison par identité de ses couleurs avec celles des filtres
+ * 	obtenues du {@link PaintFactory} (les couleurs des figures devant
+ * 	elles-mêmes provenir du {@link PaintFactory})</li>
+ * </ul>
+ * Les critères sont évalués du moins coûteux au plus coûteux et le test
+ * s'arrête au premier critère non satisfait.
+ * @author davidroussel
+ */
+public class CompiledFigureFilter implements Predicate<Figure>
+{
+	/**
+	 * Types de figures acceptés ou bien null si le type des figures n'est
+	 * pas filtré
+	 */
+	private final EnumSet<FigureType> types;
+
+	/**
+	 * Indique si la couleur de remplissage est filtrée
+	 */
+	private final boolean fillFiltered;
+
+	/**
+	 * Couleur de remplissage acceptée (éventuellement null pour les figures
+	 * sans remplissage) lorsque {@link #fillFiltered} est vrai
+	 */
+	private final Paint fill;
+
+	/**
+	 * Indique si la couleur de trait est filtrée
+	 */
+	private final boolean edgeFiltered;
+
+	/**
+	 * Couleur de trait acceptée (éventuellement null pour les figures
+	 * sans trait) lorsque {@link #edgeFiltered} est vrai
+	 */
+	private final Paint edge;
+
+	/**
+	 * Types de lignes acceptés ou bien null si le type de ligne des figures
+	 * n'est pas filtré
+	 */
+	private final EnumSet<LineType> lines;
+
+	/**
+	 * Constructeur privé à partir des critères déjà compilés
+	 * @param types les types de figures acceptés ou null
+	 * @param fillFiltered indique si la couleur de remplissage est filtrée
+	 * @param fill la couleur de remplissage acceptée
+	 * @param edgeFiltered indique si la couleur de trait est filtrée
+	 * @param edge la couleur de trait acceptée
+	 * @param lines les types de lignes acceptés ou null
+	 */
+	private CompiledFigureFilter(EnumSet<FigureType> types,
+	                             boolean fillFiltered,
+	                             Paint fill,
+	                             boolean edgeFiltered,
+	                             Paint edge,
+	                             EnumSet<LineType> lines)
+	{
+		this.types = types;
+		this.fillFiltered = fillFiltered;
+		this.fill = fill;
+		this.edgeFiltered = edgeFiltered;
+		this.edge = edge;
+		this.lines = lines;
+	}
+
+	/**
+	 * Compilation d'un ensemble de filtres en un seul prédicat
+	 * @param shapeFilters les filtres de types de figures (dont l'un au moins
+	 * doit être satisfait) ou bien null
+	 * @param fillColorFilter le filtre de couleur de remplissage ou bien null
+	 * @param edgeColorFilter le filtre de couleur de trait ou bien null
+	 * @param lineFilters les filtres de types de lignes (dont l'un au moins
+	 * doit être satisfait) ou bien null
+	 * @return le prédicat équivalent à la conjonction des filtres ou bien
+	 * null si aucun filtre n'est actif (ou qu'aucun ne restreint les figures)
+	 */
+	public static CompiledFigureFilter compile(FigureFilters<FigureType> shapeFilters,
+	                                           FillColorFilter fillColorFilter,
+	                                           EdgeColorFilter edgeColorFilter,
+	                                           FigureFilters<LineType> lineFilters)
+	{
+		EnumSet<FigureType> types = elements(shapeFilters, FigureType.class);
+		EnumSet<LineType> lines = elements(lineFilters, LineType.class);
+		boolean fillFiltered = fillColorFilter != null;
+		boolean edgeFiltered = edgeColorFilter != null;
+
+		if ((types == null) && !fillFiltered && !edgeFiltered && (lines == null))
+		{
+			return null;
+		}
+
+		return new CompiledFigureFilter(types,
+		                                fillFiltered,
+		                                fillFiltered ?
+		                                    PaintFactory.getPaint(fillColorFilter.getElement()) :
+		                                    null,
+		                                edgeFiltered,
+		                                edgeFiltered ?
+		                                    PaintFactory.getPaint(edgeColorFilter.getElement()) :
+		                                    null,
+		                                lines);
+	}
+
+	/**
+	 * Ensemble des éléments d'une collection de filtres
+	 * @param filters la collection de filtres (éventuellement null)
+	 * @param type la classe des éléments
+	 * @return l'ensemble des éléments des filtres ou bien null si la
+	 * collection est vide ou bien si elle contient tous les éléments possibles
+	 * (auquel cas elle ne restreint pas les figures)
+	 */
+	private static <E extends Enum<E>> EnumSet<E> elements(FigureFilters<E> filters,
+	                                                       Class<E> type)
+	{
+		if ((filters == null) || filters.isEmpty())
+		{
+			return null;
+		}
+
+		EnumSet<E> elements = EnumSet.noneOf(type);
+		for (FigureFilter<E> filter : filters)
+		{
+			if (filter.getElement() != null)
+			{
+				elements.add(filter.getElement());
+			}
+		}
+
+		if (elements.size() == type.getEnumConstants().length)
+		{
+			return null;
+		}
+
+		return elements;
+	}
+
+	/**
+	 * Test du prédicat
+	 * @param f la figure à tester
+	 * @return true si la figure satisfait l'ensemble des critères compilés
+	 * @see java.util.function.Predicate#test(java.lang.Object)
+	 */
+	@Override
+	public boolean test(Figure f)
+	{
+		if ((types != null) && !types.contains(f.getType()))
+		{
+			return false;
+		}
+
+		if (fillFiltered && (f.getFillPaint() != fill))
+		{
+			return false;
+		}
+
+		if (edgeFiltered && (f.getEdgePaint() != edge))
+		{
+			return false;
+		}
+
+		return (lines == null) || lines.contains(f.getLineType());
+	}
+
+	/**
+	 * Accesseur aux types de figures acceptés
+	 * @return les types de figures acceptés ou bien null si le type des
+	 * figures n'est pas filtré
+	 */
+	public EnumSet<FigureType> getTypes()
+	{
+		return types == null ? null : EnumSet.copyOf(types);
+	}
+
+	/**
+	 * Indique si la couleur de remplissage est filtrée
+	 * @return true si la couleur de remplissage est filtrée
+	 */
+	public boolean isFillFiltered()
+	{
+		return fillFiltered;
+	}
+
+	/**
+	 * Accesseur à la couleur de remplissage acceptée
+	 * @return la couleur de remplissage acceptée (significative uniquement
+	 * si {@link #isFillFiltered()})
+	 */
+	public Paint getFill()
+	{
+		return fill;
+	}
+
+	/**
+	 * Indique si la couleur de trait est filtrée
+	 * @return true si la couleur de trait est filtrée
+	 */
+	public boolean isEdgeFiltered()
+	{
+		return edgeFiltered;
+	}
+
+	/**
+	 * Accesseur à la couleur de trait acceptée
+	 * @return la couleur de trait acceptée (significative uniquement si
+	 * {@link #isEdgeFiltered()})
+	 */
+	public Paint getEdge()
+	{
+		return edge;
+	}
+
+	/**
+	 * Accesseur aux types de lignes acceptés
+	 * @return les types de lignes acceptés ou bien null si le type de ligne
+	 * des figures n'est pas filtré
+	 */
+	public EnumSet<LineType> getLines()
+	{
+		return lines == null ? null : EnumSet.copyOf(lines);
+	}
+
+	/**
+	 * Chaîne de caractères représentant le filtre
+	 * @return une chaine de caractère représentant les critères du filtre
+	 */
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "(types = " + types
+		    + (fillFiltered ? ", fill = " + fill : "")
+		    + (edgeFiltered ? ", edge = " + edge : "")
+		    + ", lines = " + lines + ")";
+	}
+}
@@ -1,6 +1,7 @@
 package filters;
 
 import java.awt.Paint;
+import java.util.Objects;
 
 import figures.Figure;
 
@@ -15,7 +16,8 @@ public class EdgeColorFilter extends FigureFilter<Paint> {
 	@Override
 	public boolean test(Figure f) {
 		// TODO 自动生成的方法存根
-		return f.getEdgePaint().equals(element);
+		// la couleur d'une figure peut être null (pas de trait)
+		return Objects.equals(f.getEdgePaint(), element);
 	}
 
 }
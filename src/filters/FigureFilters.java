@@ -1,8 +1,8 @@
 package filters;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Vector;
 import java.util.function.Predicate;
 
 import figures.Figure;
@@ -14,16 +14,17 @@ import figures.Figure;
 public class FigureFilters<T> implements Collection<FigureFilter<T>>, Predicate<Figure>
 {
 	/**
-	 * Vecteur de filtres
+	 * Liste de filtres (non synchronisée : les filtres ne sont modifiés que
+	 * par le dessin qui les contient)
 	 */
-	private Vector<FigureFilter<T>> filters;
+	private ArrayList<FigureFilter<T>> filters;
 		
 	/**
 	 * Constructeur par défaut
 	 */
 	public FigureFilters()
 	{
-		filters = new Vector<FigureFilter<T>>();
+		filters = new ArrayList<FigureFilter<T>>();
 	}
 
 	/**
@@ -36,18 +37,15 @@ public class FigureFilters<T> implements Collection<FigureFilter<T>>, Predicate<
 	@Override
 	public boolean test(Figure f)
 	{
-		boolean result = false;
-		
-		for (FigureFilter<T> ff : this)
+		for (int i = 0; i < filters.size(); i++)
 		{
-			boolean thisResult = ff.test(f);
-			// System.out.println(ff + (thisResult ? "passed": "denied"));
-			result |= thisResult;
+			if (filters.get(i).test(f))
+			{
+				return true;
+			}
 		}
-		
-		// System.out.println(this +  (result ? "passed": "denied"));
-		
-		return result;
+
+		return false;
 	}
 
 	/**
@@ -1,6 +1,7 @@
 package filters;
 
 import java.awt.Paint;
+import java.util.Objects;
 
 import figures.Figure;
 
@@ -14,7 +15,8 @@ public class FillColorFilter extends FigureFilter<Paint> {
 	@Override
 	public boolean test(Figure f) {
 		// TODO 自动生成的方法存根
-		return f.getFillPaint().equals(element);
+		// la couleur d'une figure peut être null (pas de remplissage)
+		return Objects.equals(f.getFillPaint(), element);
 	}
 
 }
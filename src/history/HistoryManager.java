@@ -1,11 +1,33 @@
 package history;
 
+import java.io.UncheckedIOException;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Classe permettant de gérer les piles de Undo et de Redo de E
+ * Lorsque l'originator est un {@link IncrementalOriginator} les piles ne
+ * contiennent que des mementos partiels (des deltas) décrivant chacun les
+ * modifications effectuées entre deux enregistrements, si bien que le coût
+ * d'un enregistrement, d'un undo ou d'un redo est proportionnel à la taille
+ * des modifications et non à la taille de l'état de l'originator.
+ * L'historique peut aussi être limité par un budget mémoire (en octets)
+ * plutôt que par un nombre d'entrées : les entrées les plus anciennes sont
+ * alors compressées grâce à un {@link MementoCodec} et ne sont reconstruites
+ * que lorsque l'on revient aussi loin dans l'historique, et les plus
+ * anciennes sont supprimées tant que le budget est dépassé.
+ * Enfin les entrées compressées peuvent être déplacées dans un fichier
+ * projeté en mémoire ({@link MappedHistoryStore}) : seules les entrées les
+ * plus récentes restent alors dans le tas et l'historique n'est plus limité
+ * que par la taille du fichier.
+ * La compression et le déplacement des entrées sont effectués par une tâche
+ * de fond afin de ne pas ralentir les enregistrements : un undo ou un redo
+ * n'attend la fin d'une compression que si elle concerne l'entrée à
+ * restaurer.
  * @param E l'état à sauvegarder dans les piles
  * @author davidroussel
  */
@@ -16,6 +38,43 @@ public class HistoryManager<E extends Prototype<E>>
 	 */
 	private int size;
 
+	/**
+	 * Le budget mémoire (en octets) de l'historique, ou bien 0 si
+	 * l'historique n'est limité que par {@link #size}
+	 */
+	private long budget;
+
+	/**
+	 * Le codeur permettant de compresser les entrées les plus anciennes et
+	 * d'estimer l'occupation mémoire des entrées (ou bien null)
+	 */
+	private MementoCodec<E> codec;
+
+	/**
+	 * Le stockage dans lequel sont déplacées les entrées compressées (ou
+	 * bien null si elles restent dans le tas)
+	 */
+	private MappedHistoryStore store;
+
+	/**
+	 * La tâche de fond compressant les entrées sortant des
+	 * {@link #LiveEntries} plus récentes (ou bien null s'il n'y a pas de
+	 * {@link #codec})
+	 */
+	private ExecutorService packer;
+
+	/**
+	 * L'occupation mémoire (en octets, avant compression) des entrées
+	 * confiées au {@link #packer} et dont la compression n'est pas terminée
+	 */
+	private AtomicLong packingBytes;
+
+	/**
+	 * Nombre d'entrées les plus récentes de chaque pile conservées non
+	 * compressées lorsqu'un {@link #codec} est fourni
+	 */
+	public static final int LiveEntries = 8;
+
 	/**
 	 * L'originator dont on doit sauvegarder l'état.
 	 * Permet de demander à l'originator de générer un memento ou de
@@ -23,6 +82,12 @@ public class HistoryManager<E extends Prototype<E>>
 	 */
 	private Originator<E> originator;
 
+	/**
+	 * L'{@link #originator} s'il est capable de fournir des mementos partiels
+	 * ou bien null sinon
+	 */
+	private IncrementalOriginator<E> incremental;
+
 	/**
 	 * La pile des Undo
 	 * @note les {@link Deque} permettent d'empiler/dépiler en tête de liste
@@ -36,15 +101,81 @@ public class HistoryManager<E extends Prototype<E>>
 	 */
 	private Deque<Memento<E>> redoStack;
 
+	/**
+	 * L'occupation mémoire (en octets) des entrées de la pile des undo,
+	 * tenue à jour par les entrées elles mêmes lorsqu'elles sont empilées,
+	 * dépilées, compressées, déplacées ou supprimées
+	 * @see Memento#setAccount(AtomicLong, MementoCodec)
+	 */
+	private AtomicLong undoBytes;
+
+	/**
+	 * L'occupation mémoire (en octets) des entrées de la pile des redo
+	 */
+	private AtomicLong redoBytes;
+
 	/**
 	 * Constructeur du manager de Undo/Redo
 	 */
+	@SuppressWarnings("unchecked")
 	public HistoryManager(Originator<E> origin, int size)
 	{
 		this.size = size;
 		originator = origin;
+		incremental = (origin instanceof IncrementalOriginator<?> ?
+		    (IncrementalOriginator<E>) origin : null);
 		undoStack = new LinkedList<Memento<E>>();
 		redoStack = new LinkedList<Memento<E>>();
+		undoBytes = new AtomicLong();
+		redoBytes = new AtomicLong();
+		budget = 0;
+		codec = null;
+		store = null;
+		packer = null;
+		packingBytes = new AtomicLong();
+	}
+
+	/**
+	 * Constructeur du manager de Undo/Redo limité par un budget mémoire
+	 * @param origin l'originator dont on doit sauvegarder l'état
+	 * @param budget le budget mémoire (en octets) de l'historique
+	 * @param codec le codeur permettant de compresser les entrées les plus
+	 * anciennes et d'estimer l'occupation mémoire des entrées
+	 */
+	public HistoryManager(Originator<E> origin, long budget,
+	    MementoCodec<E> codec)
+	{
+		this(origin, budget, codec, null);
+	}
+
+	/**
+	 * Constructeur du manager de Undo/Redo dont les entrées les plus
+	 * anciennes sont compressées puis déplacées dans un fichier projeté en
+	 * mémoire.
+	 * @param origin l'originator dont on doit sauvegarder l'état
+	 * @param budget le budget mémoire (en octets) de l'historique dans le
+	 * tas ou bien 0 pour un historique illimité
+	 * @param codec le codeur permettant de compresser les entrées les plus
+	 * anciennes et d'estimer l'occupation mémoire des entrées
+	 * @param store le stockage dans lequel déplacer les entrées compressées
+	 * (ou bien null pour les conserver dans le tas)
+	 */
+	public HistoryManager(Originator<E> origin, long budget,
+	    MementoCodec<E> codec, MappedHistoryStore store)
+	{
+		this(origin, Integer.MAX_VALUE);
+		this.budget = budget;
+		this.codec = codec;
+		this.store = store;
+		if (codec != null)
+		{
+			packer = Executors.newSingleThreadExecutor((Runnable r) ->
+			{
+				Thread t = new Thread(r, "HistoryManager packer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
 	}
 
 	@Override
@@ -52,32 +183,248 @@ public class HistoryManager<E extends Prototype<E>>
 	{
 		undoStack.clear();
 		redoStack.clear();
+		if (packer != null)
+		{
+			packer.shutdown();
+		}
 		super.finalize();
 	}
 
 	/**
-	 * Nombre d'éléments accumulés dans la pile de undo
-	 * @return Le nombre d'éléments accumulés dans la pile de undo
+	 * Taille de la pile de undo
+	 * @return le nombre approximatif d'octets occupés (dans le tas) par les
+	 * entrées de la pile de undo, ou bien le nombre d'entrées de cette pile
+	 * si aucun codeur permettant d'estimer leur occupation n'a été fourni
+	 */
+	public long undoSize()
+	{
+		return (codec != null ? undoBytes.get() : undoStack.size());
+	}
+
+	/**
+	 * Taille de la pile de redo
+	 * @return le nombre approximatif d'octets occupés (dans le tas) par les
+	 * entrées de la pile de redo, ou bien le nombre d'entrées de cette pile
+	 * si aucun codeur permettant d'estimer leur occupation n'a été fourni
+	 */
+	public long redoSize()
+	{
+		return (codec != null ? redoBytes.get() : redoStack.size());
+	}
+
+	/**
+	 * Estimation de l'occupation mémoire (dans le tas) des piles de undo et
+	 * de redo
+	 * @return le nombre approximatif d'octets occupés par les entrées de
+	 * l'historique (compressées ou non), ou bien 0 si aucun codeur n'a été
+	 * fourni
+	 * @see #storedSize()
+	 */
+	public long footprint()
+	{
+		if (codec == null)
+		{
+			return 0;
+		}
+		return undoBytes.get() + redoBytes.get();
+	}
+
+	/**
+	 * Taille occupée par les entrées déplacées dans le {@link #store}
+	 * @return le nombre d'octets occupés dans le fichier de stockage par les
+	 * entrées encore présentes dans l'historique ou bien 0 s'il n'y a pas de
+	 * stockage
+	 */
+	public long storedSize()
+	{
+		return (store != null ? store.size() : 0);
+	}
+
+	/**
+	 * Compression de l'entrée d'une pile qui vient de sortir des
+	 * {@link #LiveEntries} plus récentes après un empilement, puis
+	 * suppression des entrées les plus anciennes tant que l'occupation
+	 * mémoire dépasse le {@link #budget} (la dernière entrée est toujours
+	 * conservée).
+	 * @param stack la pile dans laquelle un memento vient d'être empilé
+	 * @note la compression (et le déplacement dans le {@link #store}) est
+	 * effectuée par le {@link #packer} : seuls l'estimation de l'occupation
+	 * de l'entrée et son code de hachage sont calculés ici, avant sa
+	 * compression. Une entrée reconstruite (par un undo par exemple) puis
+	 * compressée à nouveau retrouve la forme compressée qu'elle avait déjà
+	 * dans le {@link #store}, sans y être réécrite.
+	 */
+	private void compact(Deque<Memento<E>> stack)
+	{
+		if (codec == null)
+		{
+			return;
+		}
+
+		if (stack.size() > LiveEntries)
+		{
+			Iterator<Memento<E>> it = stack.iterator();
+			for (int i = 0; i < LiveEntries; i++)
+			{
+				it.next();
+			}
+			final Memento<E> m = it.next();
+			final long unpacked = m.footprint(codec);
+			/*
+			 * Les éléments du memento sont partagés avec l'originator et
+			 * les autres mementos : leurs caches (code de hachage, rectangle
+			 * englobant et transformation) sont donc calculés ici, par la
+			 * tâche qui les utilise, avant la compression qui ne fait
+			 * ensuite que les lire
+			 */
+			m.hashCode();
+			packingBytes.addAndGet(unpacked);
+			packer.execute(() ->
+			{
+				try
+				{
+					m.pack(codec);
+					if (store != null)
+					{
+						m.spill(store);
+					}
+				}
+				finally
+				{
+					packingBytes.addAndGet(-unpacked);
+				}
+			});
+		}
+
+		if (budget > 0)
+		{
+			/*
+			 * Les entrées en cours de compression sont encore comptées avec
+			 * leur taille non compressée : elles sont exclues du total
+			 * plutôt que d'attendre la fin de leur compression. Leur taille
+			 * compressée est reportée dans le total à la fin de la
+			 * compression et un éventuel dépassement restant est alors
+			 * résorbé lors de l'empilement suivant.
+			 */
+			while (((footprint() - packingBytes.get()) > budget)
+			    && ((undoStack.size() + redoStack.size()) > 1))
+			{
+				// le plus ancien est en fin de pile
+				removeOldest(undoStack.isEmpty() ? redoStack : undoStack);
+			}
+		}
+	}
+
+	/**
+	 * Le total (en octets) tenu à jour par les entrées d'une pile
+	 * @param stack la pile
+	 * @return le total de la pile ou bien null s'il n'y a pas de codeur
+	 * permettant d'estimer l'occupation des entrées
+	 */
+	private AtomicLong accountOf(Deque<Memento<E>> stack)
+	{
+		if (codec == null)
+		{
+			return null;
+		}
+		return (stack == undoStack ? undoBytes : redoBytes);
+	}
+
+	/**
+	 * Empilage d'une entrée et ajout de son occupation au total de la pile
+	 * @param stack la pile
+	 * @param state l'entrée à empiler
+	 */
+	private void push(Deque<Memento<E>> stack, Memento<E> state)
+	{
+		stack.push(state);
+		state.setAccount(accountOf(stack), codec);
+	}
+
+	/**
+	 * Dépilage d'une entrée et retrait de son occupation du total de la pile
+	 * @param stack la pile
+	 * @return l'entrée qui était en haut de la pile
+	 */
+	private Memento<E> pop(Deque<Memento<E>> stack)
+	{
+		Memento<E> state = stack.pop();
+		state.setAccount(null, null);
+		return state;
+	}
+
+	/**
+	 * Abandon d'une entrée qui quitte l'historique : son occupation est
+	 * retirée du total de sa pile et sa place dans le {@link #store} est
+	 * libérée
+	 * @param state l'entrée abandonnée
+	 */
+	private void discard(Memento<E> state)
+	{
+		state.setAccount(null, null);
+		state.release();
+	}
+
+	/**
+	 * Suppression de l'entrée la plus ancienne (en fin de pile) d'une pile
+	 * @param stack la pile
+	 */
+	private void removeOldest(Deque<Memento<E>> stack)
+	{
+		discard(stack.removeLast());
+	}
+
+	/**
+	 * Suppression de toutes les entrées d'une pile
+	 * @param stack la pile
 	 */
-	public int undoSize()
+	private void clear(Deque<Memento<E>> stack)
 	{
-		return undoStack.size();
+		for (Memento<E> m : stack)
+		{
+			discard(m);
+		}
+		stack.clear();
 	}
 
 	/**
-	 * Nombre d'éléments accumulés dans la pile de redo
-	 * @return Le nombre d'éléments accumulés dans la pile de redo
+	 * Reconstruction des éléments d'une entrée qui vient d'être dépilée.
+	 * Une entrée dont la forme compressée ne peut plus être relue est
+	 * abandonnée ainsi que, avec un {@link IncrementalOriginator}, les
+	 * entrées restant dans sa pile puisqu'elles ne s'appliquent qu'à la
+	 * suite de celle-ci.
+	 * @param state l'entrée dépilée
+	 * @param stack la pile dont elle a été dépilée
+	 * @param method le nom de la méthode appelante (pour le message d'erreur)
+	 * @return true si les éléments de l'entrée sont disponibles, false si
+	 * elle a été abandonnée
 	 */
-	public int redoSize()
+	private boolean restore(Memento<E> state, Deque<Memento<E>> stack,
+	    String method)
 	{
-		return redoStack.size();
+		try
+		{
+			state.getState();
+			return true;
+		}
+		catch (UncheckedIOException e)
+		{
+			System.err.println(getClass().getSimpleName() + "::" + method
+			    + " : " + e.getMessage());
+			state.release();
+			if (incremental != null)
+			{
+				clear(stack);
+			}
+			return false;
+		}
 	}
 
 	/**
 	 * Ajout d'un état dans la pile des undo
 	 * @param state l'état à ajouter dans la pile des undo
-	 * @return true si le memento était non null, différent du dernier
-	 * Memento ajouté à la pile des undo et a été ajouté à la pile des undo
+	 * @return true si le memento était non null, partiel ou bien différent
+	 * du dernier Memento ajouté à la pile et a été ajouté à la pile
 	 * @note si le nombre d'états dans la pile des undo dépasse {@link #size}
 	 * alors le tout premier état empilé est supprimé de la pile
 	 */
@@ -87,19 +434,23 @@ public class HistoryManager<E extends Prototype<E>>
 		{
 			/*
 			 * 	- On vérifie que le memento que l'on cherche à ajouter est
-			 * 	bien différent du dernier ajouté
+			 * 	bien différent du dernier ajouté (sauf s'il est partiel : deux
+			 * 	deltas identiques successifs décrivent deux modifications
+			 * 	distinctes qui doivent être annulées l'une après l'autre)
 			 * 	- On ajoute ce memento à la pile des undo
 			 * 	- Si le nombre de mementos dans la pile dépasse #size alors
 			 * 	on enlève le premier memento de manière à a garder au maximum
 			 * 	#size mementos dans la pile
 			 */
-			if (!state.equals(undoStack.peek()))
+			if (state.isPartial() || !state.equals(undoStack.peek()))
 			{
-				if (undoSize()>size)
+				if (undoStack.size() >= size)
 				{
-					undoStack.removeFirst();
+					// le plus ancien est en fin de pile
+					removeOldest(undoStack);
 				}
-				undoStack.push(state);
+				push(undoStack, state);
+				compact(undoStack);
 				return true;
 			}
 		}
@@ -117,7 +468,7 @@ public class HistoryManager<E extends Prototype<E>>
 	 */
 	private Memento<E> popUndo()
 	{
-		Memento<E> state = undoStack.pop();
+		Memento<E> state = pop(undoStack);
 
 		/*
 		 * dépiler le dernier memento empilé
@@ -129,8 +480,8 @@ public class HistoryManager<E extends Prototype<E>>
 	/**
 	 * Ajout d'un état dans la pile des redo
 	 * @param state l'état à ajouter dans la pile des redo
-	 * @return true si le memento était non null, différent du dernier
-	 * Memento ajouté à la pile des undo et a été ajouté à la pile des undo
+	 * @return true si le memento était non null, partiel ou bien différent
+	 * du dernier Memento ajouté à la pile et a été ajouté à la pile
 	 * @note si le nombre d'états dans la pile des redo dépasse {@link #size}
 	 * alors le tout premier état empilé est supprimé de la pile
 	 */
@@ -141,19 +492,23 @@ public class HistoryManager<E extends Prototype<E>>
 			/*
 			 * 
 			 * 	- On vérifie que le memento que l'on cherche à ajouter est
-			 * 	bien différent du dernier ajouté
+			 * 	bien différent du dernier ajouté (sauf s'il est partiel : deux
+			 * 	deltas identiques successifs décrivent deux modifications
+			 * 	distinctes qui doivent être annulées l'une après l'autre)
 			 * 	- On ajoute ce memento à la pile des redo
 			 * 	- Si le nombre de mementos dans la pile dépasse #size alors
 			 * 	on enlève le premier memento de manière à a garder au maximum
 			 * 	#size mementos dans la pile
 			 */
-			if (!state.equals(redoStack.peek()))
+			if (state.isPartial() || !state.equals(redoStack.peek()))
 			{
-				if (redoSize()>size)
+				if (redoStack.size() >= size)
 				{
-					redoStack.removeFirst();
+					// le plus ancien est en fin de pile
+					removeOldest(redoStack);
 				}
-				redoStack.push(state);
+				push(redoStack, state);
+				compact(redoStack);
 				return true;
 			}
 		}
@@ -171,7 +526,7 @@ public class HistoryManager<E extends Prototype<E>>
 	 */
 	private Memento<E> popRedo()
 	{
-		Memento<E> state = redoStack.pop();
+		Memento<E> state = pop(redoStack);
 
 		/*
 		 * dépiler le dernier memento empilé
@@ -180,12 +535,41 @@ public class HistoryManager<E extends Prototype<E>>
 		return state;
 	}
 
+	/**
+	 * Clôture des modifications de l'{@link #incremental} effectuées depuis
+	 * son dernier point de contrôle : le memento partiel correspondant (s'il
+	 * y en a un) est empilé dans la pile des undo et la pile des redo est
+	 * alors effacée puisqu'elle ne correspond plus à l'état courant.
+	 * @return true s'il y avait des modifications à clôturer
+	 */
+	private boolean checkpoint()
+	{
+		Memento<E> delta = incremental.checkpoint();
+		if (delta != null)
+		{
+			pushUndo(delta);
+			clear(redoStack);
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Enregistre un {@link Memento} de l'{@link #originator} pour pouvoir
 	 * le restituer par la suite.
+	 * Avec un {@link IncrementalOriginator} ce sont les modifications
+	 * effectuées depuis le dernier enregistrement qui sont enregistrées : la
+	 * pile des redo n'est alors effacée que s'il y en a (une transaction
+	 * sans effet après un undo conserve les redo).
 	 */
 	public void record()
 	{
+		if (incremental != null)
+		{
+			checkpoint();
+			return;
+		}
+
 		/*
 		 * 	- Demander à l'originator de créer un memento
 		 * 	- Empiler ce memento dans la pile des undo
@@ -193,13 +577,14 @@ public class HistoryManager<E extends Prototype<E>>
 		 */
 		Memento<E> momento = originator.createMemento();
 		pushUndo(momento);
-		redoStack.clear();
+		clear(redoStack);
 	}
 
 	/**
 	 * Restitue le dernier Memento sauvegardé dans la pile des undo
 	 * @return le dernier memento sauvegardé dans la pile des undo
-	 * ({@link #undoStack}), ou bien null si celle-ci est vide.
+	 * ({@link #undoStack}), ou bien null si celle-ci est vide ou si ce
+	 * memento n'a pas pu être relu (il est alors abandonné).
 	 * @post un {@link Memento} de l'{@link #originator} a été créé au préalable
 	 * dans la pile des redo.
 	 */
@@ -211,10 +596,38 @@ public class HistoryManager<E extends Prototype<E>>
 		 * 	- Tout en sauvegardant l'état courant de l'originator dans la pile
 		 * 	des redo.
 		 */
+		if (incremental != null)
+		{
+			/*
+			 * Les modifications en cours sont clôturées, puis le dernier
+			 * delta est transféré dans la pile des redo et son inverse est
+			 * renvoyé pour être appliqué à l'originator
+			 */
+			checkpoint();
+			if (undoStack.isEmpty())
+			{
+				return null;
+			}
+			Memento<E> delta = popUndo();
+			if (!restore(delta, undoStack, "undo"))
+			{
+				return null;
+			}
+			pushRedo(delta);
+			return delta.inverse();
+		}
 		if (originator!=null)
 		{
+			Memento<E> state = popUndo();
+			if (!restore(state, undoStack, "undo"))
+			{
+				return null;
+			}
+			// ce memento quitte l'historique : il est remplacé par l'état
+			// courant dans la pile des redo
+			state.release();
 			pushRedo(originator.createMemento());
-			return popUndo();
+			return state;
 		}		
 		return null;
 	}
@@ -222,16 +635,22 @@ public class HistoryManager<E extends Prototype<E>>
 	/**
 	 * Annule le dernier {@link Memento} enregistré dans la pile des undo.
 	 * Lorsque l'action n'a pas modifié l'état (par exemple si elle a échoué)
+	 * @note Avec un {@link IncrementalOriginator} il n'y a rien à annuler :
+	 * une action sans effet ne produit aucun delta.
 	 */
 	public void cancel()
 	{
-		popUndo();
+		if (incremental == null)
+		{
+			popUndo().release();
+		}
 	}
 
 	/**
 	 * Restitue de dernier Memento sauvegardé dans la pile des redo
 	 * @return Le dernier Memento sauvegardé dans la pile des redo
-	 * ({@link #redoStack}) ou bien null si celle-ci est vide.
+	 * ({@link #redoStack}) ou bien null si celle-ci est vide ou si ce
+	 * memento n'a pas pu être relu (il est alors abandonné).
 	 * @post un {@link Memento} de l'{@link #originator} a été créé au préalable
 	 * dans la pile des undo.
 	 */
@@ -243,10 +662,36 @@ public class HistoryManager<E extends Prototype<E>>
 		 * 	- Tout en sauvegardant l'état courant de l'originator dans la pile
 		 * 	des undo
 		 */
+		if (incremental != null)
+		{
+			/*
+			 * S'il y a des modifications en cours elles rendent la pile des
+			 * redo caduque (elle est effacée par checkpoint()), sinon le
+			 * dernier delta annulé est retransféré dans la pile des undo et
+			 * renvoyé pour être réappliqué à l'originator
+			 */
+			if (checkpoint() || redoStack.isEmpty())
+			{
+				return null;
+			}
+			Memento<E> delta = popRedo();
+			if (!restore(delta, redoStack, "redo"))
+			{
+				return null;
+			}
+			pushUndo(delta);
+			return delta;
+		}
 		if (originator!=null)
 		{
+			Memento<E> state = popRedo();
+			if (!restore(state, redoStack, "redo"))
+			{
+				return null;
+			}
+			state.release();
 			pushUndo(originator.createMemento());
-			return popRedo();
+			return state;
 		}
 		return null;
 	}
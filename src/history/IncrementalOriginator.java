@@ -0,0 +1,27 @@
+package history;
+
+/**
+ * Interface pour les {@link Originator} capables de décrire leurs
+ * modifications successives sous forme de {@link Memento} partiels (des
+ * deltas) plutôt que par des copies complètes de leur état.
+ * L'originator conserve une référence (un point de contrôle) de son état :
+ * {@link #checkpoint()} produit le memento partiel décrivant les
+ * modifications effectuées depuis le dernier point de contrôle puis déplace
+ * ce point de contrôle sur l'état courant.
+ * {@link #setMemento(Memento)} doit accepter des mementos partiels et les
+ * appliquer à l'état courant (qui doit alors correspondre au point de
+ * contrôle) en déplaçant le point de contrôle sur l'état obtenu.
+ * @author davidroussel
+ */
+public interface IncrementalOriginator<E extends Prototype<E>>
+    extends Originator<E>
+{
+	/**
+	 * Création d'un memento partiel décrivant les modifications depuis le
+	 * dernier point de contrôle, et déplacement du point de contrôle sur
+	 * l'état courant.
+	 * @return le memento partiel décrivant les modifications depuis le
+	 * dernier point de contrôle ou bien null s'il n'y en a pas eu
+	 */
+	public abstract Memento<E> checkpoint();
+}
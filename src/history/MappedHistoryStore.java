@@ -0,0 +1,351 @@
+package history;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stockage des mementos compressés de l'{@link HistoryManager} dans un
+ * fichier projeté en mémoire ({@link FileChannel#map}).
+ * Le fichier est découpé en segments projetés les uns après les autres à
+ * mesure que le fichier grandit : un enregistrement est toujours contenu
+ * dans un seul segment et il est relu directement à partir de la région
+ * projetée, sans copie dans le tas.
+ * Les enregistrements sont ajoutés à la fin du segment courant et libérés
+ * ({@link #free(long, int)}) lorsque les mementos correspondants quittent
+ * l'historique : un segment ne contenant plus d'enregistrement est alors
+ * réutilisé plutôt que d'agrandir le fichier, si bien que la taille du
+ * fichier est bornée par le plus grand nombre d'enregistrements présents à
+ * la fois (et non par le nombre d'enregistrements écrits depuis sa
+ * création).
+ * @note le fichier devant être sur disque pour ne pas occuper la mémoire,
+ * c'est à l'appelant de choisir son répertoire ({@code java.io.tmpdir} est
+ * souvent un système de fichiers en mémoire).
+ * @author davidroussel
+ */
+public class MappedHistoryStore implements Closeable
+{
+	/**
+	 * Taille par défaut des segments projetés
+	 */
+	public static final int SegmentSize = 1 << 26;
+
+	/**
+	 * Le canal du fichier de stockage
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Les segments projetés du fichier
+	 */
+	private List<Segment> segments;
+
+	/**
+	 * Index (dans {@link #segments}) du segment dans lequel sont ajoutés les
+	 * enregistrements ou bien -1 s'il n'y en a pas encore
+	 */
+	private int current;
+
+	/**
+	 * Index des segments ne contenant plus d'enregistrement, à réutiliser
+	 */
+	private Deque<Integer> freeSegments;
+
+	/**
+	 * La position dans le fichier de la fin du dernier segment projeté
+	 */
+	private long fileEnd;
+
+	/**
+	 * Le nombre d'octets des enregistrements non libérés
+	 */
+	private long live;
+
+	/**
+	 * Constructeur d'un stockage dans un fichier
+	 * @param file le fichier de stockage (écrasé s'il existe déjà)
+	 * @throws IOException si le fichier ne peut pas être ouvert
+	 */
+	public MappedHistoryStore(File file) throws IOException
+	{
+		this(file.toPath(), false);
+	}
+
+	/**
+	 * Constructeur d'un stockage dans un fichier
+	 * @param path le chemin du fichier de stockage
+	 * @param temporary indique si le fichier doit être supprimé à la
+	 * fermeture du stockage
+	 * @throws IOException si le fichier ne peut pas être ouvert
+	 */
+	private MappedHistoryStore(Path path, boolean temporary) throws IOException
+	{
+		if (temporary)
+		{
+			channel = FileChannel.open(path, StandardOpenOption.READ,
+			    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+			    StandardOpenOption.DELETE_ON_CLOSE);
+			path.toFile().deleteOnExit();
+		}
+		else
+		{
+			channel = FileChannel.open(path, StandardOpenOption.READ,
+			    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+			    StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		segments = new ArrayList<Segment>();
+		current = -1;
+		freeSegments = new ArrayDeque<Integer>();
+		fileEnd = 0;
+		live = 0;
+	}
+
+	/**
+	 * Création d'un stockage dans un fichier temporaire supprimé à la
+	 * fermeture du stockage
+	 * @param directory le répertoire dans lequel créer le fichier (créé
+	 * s'il n'existe pas encore)
+	 * @return un nouveau stockage
+	 * @throws IOException si le fichier temporaire ne peut pas être créé
+	 */
+	public static MappedHistoryStore createTemporary(Path directory)
+	    throws IOException
+	{
+		Files.createDirectories(directory);
+		return new MappedHistoryStore(
+		    Files.createTempFile(directory, "history", ".bin"), true);
+	}
+
+	/**
+	 * Ajout d'un enregistrement dans le stockage
+	 * @param data les octets à enregistrer
+	 * @return la référence de l'enregistrement à fournir à
+	 * {@link #open(long, int)} pour le relire et à {@link #free(long, int)}
+	 * pour le libérer
+	 * @throws IOException si le stockage est fermé ou si le fichier ne peut
+	 * pas être agrandi
+	 */
+	public synchronized long append(byte[] data) throws IOException
+	{
+		if (!channel.isOpen())
+		{
+			throw new IOException("closed store");
+		}
+
+		Segment segment = (current >= 0 ? segments.get(current) : null);
+		if ((segment == null) || (segment.buffer.remaining() < data.length))
+		{
+			current = takeSegment(data.length);
+			segment = segments.get(current);
+		}
+
+		int offset = segment.buffer.position();
+		segment.buffer.put(data);
+		segment.live += data.length;
+		live += data.length;
+		return ((long) current << 32) | offset;
+	}
+
+	/**
+	 * Obtention d'un segment dans lequel ajouter des enregistrements : un
+	 * segment libéré suffisamment grand s'il y en a un, sinon un nouveau
+	 * segment projeté à la fin du fichier.
+	 * @param length la longueur de l'enregistrement à ajouter
+	 * @return l'index du segment dans {@link #segments}
+	 * @throws IOException si le fichier ne peut pas être agrandi
+	 */
+	private int takeSegment(int length) throws IOException
+	{
+		for (Iterator<Integer> it = freeSegments.iterator(); it.hasNext();)
+		{
+			int index = it.next();
+			Segment segment = segments.get(index);
+			if (segment.buffer.capacity() >= length)
+			{
+				it.remove();
+				segment.buffer.clear();
+				return index;
+			}
+		}
+
+		int capacity = Math.max(SegmentSize, length);
+		segments.add(new Segment(channel.map(FileChannel.MapMode.READ_WRITE,
+		                                     fileEnd, capacity)));
+		fileEnd += capacity;
+		return segments.size() - 1;
+	}
+
+	/**
+	 * Ouverture d'un enregistrement en lecture directement à partir de la
+	 * région projetée
+	 * @param handle la référence de l'enregistrement renvoyée par
+	 * {@link #append(byte[])}
+	 * @param length la longueur de l'enregistrement
+	 * @return un flux de lecture des octets de l'enregistrement
+	 * @throws IOException si le stockage est fermé
+	 */
+	public synchronized InputStream open(long handle, int length)
+	    throws IOException
+	{
+		if (!channel.isOpen())
+		{
+			throw new IOException("closed store");
+		}
+		ByteBuffer region =
+		    segments.get((int) (handle >>> 32)).buffer.duplicate();
+		int offset = (int) handle;
+		region.limit(offset + length);
+		region.position(offset);
+		return new RegionInputStream(region.slice());
+	}
+
+	/**
+	 * Libération d'un enregistrement qui ne sera plus relu. Le segment qui le
+	 * contient est réutilisé dès qu'il ne contient plus d'enregistrement.
+	 * @param handle la référence de l'enregistrement renvoyée par
+	 * {@link #append(byte[])}
+	 * @param length la longueur de l'enregistrement
+	 */
+	public synchronized void free(long handle, int length)
+	{
+		if (!channel.isOpen())
+		{
+			return;
+		}
+		int index = (int) (handle >>> 32);
+		Segment segment = segments.get(index);
+		segment.live -= length;
+		live -= length;
+		if (segment.live == 0)
+		{
+			if (index == current)
+			{
+				// les ajouts suivants reprennent au début du segment
+				segment.buffer.clear();
+			}
+			else
+			{
+				freeSegments.add(index);
+			}
+		}
+	}
+
+	/**
+	 * Taille occupée par les enregistrements dans le fichier
+	 * @return le nombre d'octets des enregistrements non libérés
+	 * @see #capacity()
+	 */
+	public synchronized long size()
+	{
+		return live;
+	}
+
+	/**
+	 * Taille du fichier de stockage
+	 * @return le nombre d'octets des segments projetés (utilisés ou libres)
+	 */
+	public synchronized long capacity()
+	{
+		return fileEnd;
+	}
+
+	/**
+	 * Fermeture du stockage : les enregistrements ne peuvent plus être relus
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		segments.clear();
+		freeSegments.clear();
+		current = -1;
+		live = 0;
+		channel.close();
+	}
+
+	/**
+	 * Segment projeté du fichier
+	 */
+	private static class Segment
+	{
+		/**
+		 * La région projetée, dont la position est celle du prochain ajout
+		 */
+		private final MappedByteBuffer buffer;
+
+		/**
+		 * Le nombre d'octets des enregistrements non libérés de ce segment
+		 */
+		private int live;
+
+		/**
+		 * Constructeur d'un segment vide
+		 * @param buffer la région projetée
+		 */
+		public Segment(MappedByteBuffer buffer)
+		{
+			this.buffer = buffer;
+			live = 0;
+		}
+	}
+
+	/**
+	 * Flux de lecture d'une région projetée
+	 */
+	private static class RegionInputStream extends InputStream
+	{
+		/**
+		 * La région à lire
+		 */
+		private final ByteBuffer region;
+
+		/**
+		 * Constructeur d'un flux de lecture d'une région
+		 * @param region la région à lire
+		 */
+		public RegionInputStream(ByteBuffer region)
+		{
+			this.region = region;
+		}
+
+		@Override
+		public int read()
+		{
+			return (region.hasRemaining() ? (region.get() & 0xff) : -1);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0)
+			{
+				return 0;
+			}
+			if (!region.hasRemaining())
+			{
+				return -1;
+			}
+			int n = Math.min(len, region.remaining());
+			region.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available()
+		{
+			return region.remaining();
+		}
+	}
+}
@@ -1,14 +1,42 @@
 package history;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Un état constitué d'une liste de d'éléments de type E constituant
  * l'état à sauvegarder dans le Memento.
+ * Un Memento peut être complet (il contient alors tout l'état de
+ * l'{@link Originator}) ou bien partiel : il décrit alors une modification
+ * de l'état de l'originator en indiquant que les éléments situés à partir de
+ * l'index {@link #getIndex()} et décrits par {@link #getReplacedState()}
+ * doivent être remplacés par les éléments de {@link #getState()}.
  * @note les élements doivent dériver de {@link Prototype} pour pouvoir
- * être effectivement clonés (Deep Copy) dans l'état du Memento.
+ * être effectivement copiés ({@link Prototype#snapshot()}) dans l'état du
+ * Memento.
+ * @note les éléments contenus dans un memento ne doivent jamais être modifiés
+ * : l'originator doit en installer des copies.
+ * @note un memento peut être compressé ({@link #pack(MementoCodec)}) : ses
+ * éléments sont alors conservés sous forme binaire compressée et ne sont
+ * reconstruits que lorsqu'on y accède. Un memento compressé peut aussi
+ * être déplacé dans un {@link MappedHistoryStore} ({@link
+ * #spill(MappedHistoryStore)}) afin de ne plus occuper le tas.
+ * La compression pouvant être effectuée par une autre tâche que celle qui
+ * utilise le memento, l'accès aux éléments est synchronisé : il attend, si
+ * nécessaire, la fin d'une compression en cours.
  * @author davidroussel
  */
 public class Memento<E extends Prototype<E>>
@@ -18,38 +46,535 @@ public class Memento<E extends Prototype<E>>
 	 */
 	private List<E> state;
 
+	/**
+	 * Index (dans l'état de l'originator) du premier élément remplacé par un
+	 * memento partiel, ou -1 pour un memento complet
+	 */
+	private int index;
+
+	/**
+	 * Les éléments remplacés par {@link #state} dans un memento partiel ou
+	 * bien null pour un memento complet
+	 */
+	private List<E> replacedState;
+
+	/**
+	 * Les éléments de {@link #replacedState} et de {@link #state} sous forme
+	 * binaire compressée lorsque ce memento est compressé (ou bien null)
+	 */
+	private byte[] packed;
+
+	/**
+	 * Le stockage contenant la forme compressée de ce memento lorsqu'il y a
+	 * été déplacé (ou bien null).
+	 * Il est conservé lorsque les éléments sont reconstruits : un memento
+	 * n'étant jamais modifié, sa forme compressée reste valide et il suffira
+	 * de libérer à nouveau ses éléments lors de la prochaine compression.
+	 */
+	private MappedHistoryStore store;
+
+	/**
+	 * La référence de la forme compressée de ce memento dans {@link #store}
+	 */
+	private long handle;
+
+	/**
+	 * La longueur de la forme compressée de ce memento dans {@link #store}
+	 */
+	private int storedLength;
+
+	/**
+	 * Le codeur ayant servi à compresser ce memento (ou bien null)
+	 */
+	private MementoCodec<E> codec;
+
+	/**
+	 * Indique si ce memento a quitté l'historique ({@link #release()}) : il
+	 * ne doit alors plus être déplacé dans un stockage
+	 */
+	private boolean released;
+
+	/**
+	 * Estimation de l'occupation mémoire de ce memento (cache) ou -1 si elle
+	 * n'a pas encore été calculée.
+	 * Lue sans verrou afin de ne pas attendre la fin d'une compression en
+	 * cours : c'est alors l'estimation précédant la compression qui est lue.
+	 */
+	private volatile long footprint;
+
+	/**
+	 * Le total (en octets) de la pile d'historique contenant ce memento, tenu
+	 * à jour à chaque changement de {@link #footprint} (ou bien null)
+	 * @see #setAccount(AtomicLong, MementoCodec)
+	 */
+	private AtomicLong account;
+
+	/**
+	 * Le codeur permettant d'estimer l'occupation des éléments pour
+	 * {@link #account}
+	 */
+	private MementoCodec<E> estimator;
+
+	/**
+	 * Code de hachage du contenu de ce memento (cache). Un memento n'étant
+	 * jamais modifié il n'est calculé qu'une fois.
+	 */
+	private int hash;
+
+	/**
+	 * Indique si {@link #hash} a déjà été calculé
+	 */
+	private boolean hashed;
+
 	/**
 	 * Constructeur par défaut d'un état
 	 */
 	public Memento(List<E> things)
 	{
-		this.state = new ArrayList<E>();
+		this.state = new ArrayList<E>(things.size());
 		for (E elt : things)
 		{
-			this.state.add(elt.clone());
+			// les éléments inchangés sont partagés avec les mementos précédents
+			this.state.add(elt.snapshot());
+		}
+		index = -1;
+		replacedState = null;
+		hashed = false;
+		packed = null;
+		store = null;
+		codec = null;
+		released = false;
+		footprint = -1;
+		account = null;
+		estimator = null;
+	}
+
+	/**
+	 * Constructeur d'un memento partiel décrivant le remplacement d'une
+	 * partie de l'état de l'originator.
+	 * @param index l'index du premier élément remplacé
+	 * @param replaced les éléments remplacés (tels qu'ils étaient avant le
+	 * remplacement)
+	 * @param things les éléments remplaçants
+	 * @note les éléments fournis ne sont pas copiés : il doivent donc déjà
+	 * être des copies qui ne seront plus modifiées
+	 */
+	public Memento(int index, List<E> replaced, List<E> things)
+	{
+		this.index = index;
+		replacedState = new ArrayList<E>(replaced);
+		state = new ArrayList<E>(things);
+		hashed = false;
+		packed = null;
+		store = null;
+		codec = null;
+		released = false;
+		footprint = -1;
+		account = null;
+		estimator = null;
+	}
+
+	/**
+	 * Indique si ce memento est partiel
+	 * @return true si ce memento ne décrit que le remplacement d'une partie
+	 * de l'état de l'originator
+	 */
+	public boolean isPartial()
+	{
+		return index >= 0;
+	}
+
+	/**
+	 * Accesseur à l'index du premier élément remplacé par un memento partiel
+	 * @return l'index du premier élément remplacé ou -1 pour un memento
+	 * complet
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * Accesseur aux éléments remplacés par un memento partiel
+	 * @return les éléments remplacés par {@link #getState()} ou bien null
+	 * pour un memento complet
+	 */
+	public synchronized List<E> getReplacedState()
+	{
+		unpack();
+		return replacedState;
+	}
+
+	/**
+	 * Memento partiel inverse de celui-ci : celui qui annule ce remplacement
+	 * @return un nouveau memento partiel remplaçant les éléments de
+	 * {@link #getState()} par ceux de {@link #getReplacedState()}, ou bien
+	 * null s'il s'agit d'un memento complet
+	 */
+	public Memento<E> inverse()
+	{
+		if (isPartial())
+		{
+			return new Memento<E>(index, getState(), getReplacedState());
+		}
+		return null;
+	}
+
+	/**
+	 * Indique si ce memento est compressé
+	 * @return true si les éléments de ce memento sont conservés sous forme
+	 * binaire compressée
+	 */
+	public synchronized boolean isPacked()
+	{
+		return state == null;
+	}
+
+	/**
+	 * Indique si ce memento compressé a été déplacé dans un
+	 * {@link MappedHistoryStore}
+	 * @return true si la forme compressée de ce memento est dans un stockage
+	 * externe au tas
+	 */
+	public synchronized boolean isSpilled()
+	{
+		return (state == null) && (store != null);
+	}
+
+	/**
+	 * Déplacement de la forme compressée de ce memento dans un stockage
+	 * projeté en mémoire. Le memento sera relu directement à partir de la
+	 * région projetée lors du prochain accès à ses éléments.
+	 * @param store le stockage dans lequel déplacer ce memento
+	 * @return true si le memento a été déplacé, false s'il n'était pas
+	 * compressé, s'il était déjà déplacé, s'il a quitté l'historique ou bien
+	 * s'il n'a pas pu être écrit
+	 */
+	public synchronized boolean spill(MappedHistoryStore store)
+	{
+		if ((packed == null) || (store == null) || released)
+		{
+			return false;
+		}
+
+		try
+		{
+			handle = store.append(packed);
+		}
+		catch (IOException e)
+		{
+			System.err.println(getClass().getSimpleName() + "::spill : "
+			    + e.getMessage());
+			return false;
+		}
+
+		storedLength = packed.length;
+		this.store = store;
+		packed = null;
+		updateFootprint();
+		return true;
+	}
+
+	/**
+	 * Libération de la forme compressée de ce memento dans son stockage
+	 * lorsqu'il quitte l'historique, et interdiction de l'y déplacer à
+	 * nouveau (une compression en cours peut encore se terminer après sa
+	 * sortie de l'historique).
+	 * @note les éléments d'un memento libéré alors qu'il était déplacé sont
+	 * perdus : un memento qui doit encore être utilisé doit avoir été
+	 * reconstruit au préalable
+	 */
+	public synchronized void release()
+	{
+		released = true;
+		if (store != null)
+		{
+			store.free(handle, storedLength);
+			store = null;
+		}
+	}
+
+	/**
+	 * Compression de ce memento : ses éléments sont écrits sous forme
+	 * binaire grâce au codeur puis compressés, et les éléments eux mêmes sont
+	 * libérés. Ils seront reconstruits lors du prochain accès à
+	 * {@link #getState()} ou {@link #getReplacedState()}.
+	 * @param codec le codeur des éléments
+	 * @return true si le memento a été compressé, false s'il l'était déjà
+	 * ou bien si l'un de ses éléments n'a pas pu être écrit
+	 */
+	public synchronized boolean pack(MementoCodec<E> codec)
+	{
+		if (isPacked() || (codec == null))
+		{
+			return false;
+		}
+
+		// Le code de hachage est conservé pour les comparaisons
+		hashCode();
+
+		if (store != null)
+		{
+			// Memento reconstruit à partir du stockage : sa forme compressée
+			// y est toujours
+			state = null;
+			replacedState = null;
+			updateFootprint();
+			return true;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try
+		{
+			DataOutputStream out =
+			    new DataOutputStream(new DeflaterOutputStream(bytes, deflater));
+			if (isPartial())
+			{
+				writeElements(replacedState, codec, out);
+			}
+			writeElements(state, codec, out);
+			out.close();
+		}
+		catch (IOException e)
+		{
+			System.err.println(getClass().getSimpleName() + "::pack : "
+			    + e.getMessage());
+			return false;
 		}
+		finally
+		{
+			deflater.end();
+		}
+
+		packed = bytes.toByteArray();
+		this.codec = codec;
+		state = null;
+		replacedState = null;
+		updateFootprint();
+		return true;
+	}
+
+	/**
+	 * Reconstruction des éléments d'un memento compressé (sans effet si le
+	 * memento n'est pas compressé). Un memento déplacé dans un stockage
+	 * conserve sa référence dans ce stockage afin d'y être replacé sans
+	 * réécriture lors de sa prochaine compression.
+	 * @throws UncheckedIOException si la forme compressée ne peut pas être
+	 * relue : le memento reste alors compressé et ses éléments sont perdus
+	 */
+	private synchronized void unpack()
+	{
+		if (!isPacked())
+		{
+			return;
+		}
+
+		Inflater inflater = new Inflater();
+		try
+		{
+			if ((store == null) && (packed == null))
+			{
+				throw new IOException("released memento");
+			}
+			InputStream source = (store != null ? store.open(handle, storedLength)
+			    : new ByteArrayInputStream(packed));
+			DataInputStream in = new DataInputStream(
+			    new InflaterInputStream(source, inflater));
+			List<E> replaced = (isPartial() ? readElements(codec, in) : null);
+			List<E> things = readElements(codec, in);
+			replacedState = replaced;
+			state = things;
+			packed = null;
+			if (store == null)
+			{
+				codec = null;
+			}
+			updateFootprint();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(getClass().getSimpleName()
+			    + "::unpack : " + e.getMessage(), e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Ecriture d'une liste d'éléments
+	 * @param elements les éléments à écrire
+	 * @param codec le codeur des éléments
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException si l'un des éléments ne peut pas être écrit
+	 */
+	private static <E extends Prototype<E>> void writeElements(
+	    List<E> elements, MementoCodec<E> codec, DataOutputStream out)
+	    throws IOException
+	{
+		out.writeInt(elements.size());
+		for (E elt : elements)
+		{
+			codec.write(elt, out);
+		}
+	}
+
+	/**
+	 * Lecture d'une liste d'éléments écrite par
+	 * {@link #writeElements(List, MementoCodec, DataOutputStream)}
+	 * @param codec le codeur des éléments
+	 * @param in le flux à partir duquel lire
+	 * @return la liste des éléments lus
+	 * @throws IOException si l'un des éléments ne peut pas être lu
+	 */
+	private static <E extends Prototype<E>> List<E> readElements(
+	    MementoCodec<E> codec, DataInputStream in) throws IOException
+	{
+		int size = in.readInt();
+		List<E> elements = new ArrayList<E>(size);
+		for (int i = 0; i < size; i++)
+		{
+			elements.add(codec.read(in));
+		}
+		return elements;
+	}
+
+	/**
+	 * Estimation de l'occupation mémoire (dans le tas) de ce memento : rien
+	 * de plus que le memento lui même s'il a été déplacé dans un stockage
+	 * externe, la taille de sa forme compressée s'il est compressé, sinon la
+	 * somme des estimations de ses éléments (les éléments partagés avec
+	 * d'autres mementos sont donc comptés plusieurs fois).
+	 * @param codec le codeur permettant d'estimer l'occupation des éléments
+	 * @return le nombre approximatif d'octets occupés par ce memento
+	 */
+	public long footprint(MementoCodec<E> codec)
+	{
+		long result = footprint;
+		if (result < 0)
+		{
+			synchronized (this)
+			{
+				if (footprint < 0)
+				{
+					footprint = estimateFootprint(codec);
+				}
+				result = footprint;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Rattachement de ce memento au total (en octets) d'une pile
+	 * d'historique : son estimation est retirée du total précédent et ajoutée
+	 * au nouveau, puis chaque compression, déplacement ou reconstruction de ce
+	 * memento met à jour ce total.
+	 * @param account le total de la pile contenant désormais ce memento, ou
+	 * bien null lorsqu'il est retiré de l'historique
+	 * @param codec le codeur permettant d'estimer l'occupation des éléments
+	 */
+	public synchronized void setAccount(AtomicLong account,
+	    MementoCodec<E> codec)
+	{
+		if (this.account != null)
+		{
+			this.account.addAndGet(-footprint);
+		}
+		this.account = account;
+		estimator = codec;
+		if (account != null)
+		{
+			account.addAndGet(footprint(codec));
+		}
+	}
+
+	/**
+	 * Invalidation de l'estimation de l'occupation mémoire de ce memento
+	 * après un changement de représentation, et report de la différence sur
+	 * le total de la pile qui le contient.
+	 */
+	private void updateFootprint()
+	{
+		long previous = footprint;
+		footprint = -1;
+		if (account != null)
+		{
+			account.addAndGet(footprint(estimator) - previous);
+		}
+	}
+
+	/**
+	 * Calcul de l'estimation de l'occupation mémoire de ce memento
+	 * @param codec le codeur permettant d'estimer l'occupation des éléments
+	 * @return le nombre approximatif d'octets occupés par ce memento
+	 * @see #footprint(MementoCodec)
+	 */
+	private long estimateFootprint(MementoCodec<E> codec)
+	{
+		final long overhead = 64;
+		if (isSpilled())
+		{
+			return overhead;
+		}
+		if (isPacked())
+		{
+			return overhead + packed.length;
+		}
+		long total = overhead;
+		for (E elt : state)
+		{
+			total += 8 + (elt != null ? codec.footprint(elt) : 0);
+		}
+		if (isPartial())
+		{
+			for (E elt : replacedState)
+			{
+				total += 8 + (elt != null ? codec.footprint(elt) : 0);
+			}
+		}
+		return total;
 	}
 
 	/**
 	 * Accesseur à l'état du memento
 	 * @return l'état stocké dans le memento
 	 */
-	public List<E> getState()
+	public synchronized List<E> getState()
 	{
+		unpack();
 		return state;
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Code de hachage du contenu du memento, calculé une seule fois à partir
+	 * des codes de hachage (eux mêmes conservés) de ses éléments.
+	 * @return le code de hachage du contenu du memento
 	 * @see java.lang.Object#hashCode()
 	 */
 	@Override
-	public int hashCode()
+	public synchronized int hashCode()
 	{
-		final int prime = 31;
-		int hash = 1;
-		for (E elt : state)
+		if (!hashed)
 		{
-			hash += (prime * hash) + (elt != null ? elt.hashCode() : 0);
+			final int prime = 31;
+			int h = 1;
+			for (E elt : state)
+			{
+				h += (prime * h) + (elt != null ? elt.hashCode() : 0);
+			}
+			if (isPartial())
+			{
+				h = (prime * h) + index;
+				for (E elt : replacedState)
+				{
+					h += (prime * h) + (elt != null ? elt.hashCode() : 0);
+				}
+			}
+			hash = h;
+			hashed = true;
 		}
 		return hash;
 	}
@@ -57,13 +582,15 @@ public class Memento<E extends Prototype<E>>
 	/**
 	 * Comparaison entre deux memento.
 	 * Permet de vérifier que les memento stockés dans l'History manager
-	 * ne sont pas identiques
+	 * ne sont pas identiques. Les codes de hachage (conservés) sont comparés
+	 * en premier : le contenu n'est comparé élément par élément que
+	 * lorsqu'ils sont égaux.
 	 * @param obj l'objet à comparer
 	 * @return true si les deux memento sont identiques en terme de contenu
 	 * @see java.lang.Object#equals(java.lang.Object)
 	 */
 	@Override
-	public boolean equals(Object obj)
+	public synchronized boolean equals(Object obj)
 	{
 		if (obj == null)
 		{
@@ -78,14 +605,27 @@ public class Memento<E extends Prototype<E>>
 		if (obj instanceof Memento<?>)
 		{
 			Memento<?> as = (Memento<?>) obj;
-			if (!as.state.isEmpty() && !state.isEmpty())
+			if (hashCode() != as.hashCode())
+			{
+				return false;
+			}
+			if ((index != as.index) || (isPartial() != as.isPartial()))
+			{
+				return false;
+			}
+			unpack();
+			List<?> asReplaced = as.getReplacedState();
+			List<?> asState = as.getState();
+			if (isPartial() && !replacedState.equals(asReplaced))
+			{
+				return false;
+			}
+			if (!asState.isEmpty() && !state.isEmpty())
 			{
-				if (state.get(0).getClass() == as.state.get(0).getClass())
+				if (state.get(0).getClass() == asState.get(0).getClass())
 				{
-					@SuppressWarnings("unchecked")
-					Memento<E> s = (Memento<E>) obj;
 					Iterator<E> it1 = state.iterator();
-					Iterator<E> it2 = s.state.iterator();
+					Iterator<?> it2 = asState.iterator();
 
 					for(; it1.hasNext() && it2.hasNext();)
 					{
@@ -100,7 +640,7 @@ public class Memento<E extends Prototype<E>>
 			}
 			else
 			{
-				if (as.state.isEmpty() && state.isEmpty())
+				if (asState.isEmpty() && state.isEmpty())
 				{
 					return true;
 				}
@@ -114,10 +654,25 @@ public class Memento<E extends Prototype<E>>
 	 * @see java.lang.Object#toString()
 	 */
 	@Override
-	public String toString()
+	public synchronized String toString()
 	{
 		StringBuilder sb = new StringBuilder();
 
+		if (isSpilled())
+		{
+			return "[spilled " + storedLength + " bytes]";
+		}
+		if (isPacked())
+		{
+			return "[packed " + packed.length + " bytes]";
+		}
+		if (isPartial())
+		{
+			sb.append('@');
+			sb.append(index);
+			sb.append(replacedState);
+			sb.append(" -> ");
+		}
 		sb.append('[');
 		for (Iterator<E> it = state.iterator(); it.hasNext();)
 		{
@@ -0,0 +1,39 @@
+package history;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Interface des codeurs permettant de convertir les éléments d'un
+ * {@link Memento} sous une forme binaire compacte (pour compresser les
+ * mementos les plus anciens de l'{@link HistoryManager}) et d'estimer
+ * l'occupation mémoire de ces éléments.
+ * @param <E> le type des éléments des mementos
+ * @author davidroussel
+ */
+public interface MementoCodec<E extends Prototype<E>>
+{
+	/**
+	 * Ecriture d'un élément sous forme binaire
+	 * @param element l'élément à écrire
+	 * @param out le flux dans lequel écrire l'élément
+	 * @throws IOException si l'élément ne peut pas être écrit
+	 */
+	public abstract void write(E element, DataOutput out) throws IOException;
+
+	/**
+	 * Lecture d'un élément écrit par {@link #write(Prototype, DataOutput)}
+	 * @param in le flux à partir duquel lire l'élément
+	 * @return un nouvel élément égal à celui qui a été écrit
+	 * @throws IOException si l'élément ne peut pas être lu
+	 */
+	public abstract E read(DataInput in) throws IOException;
+
+	/**
+	 * Estimation de l'occupation mémoire (en octets) d'un élément
+	 * @param element l'élément
+	 * @return le nombre approximatif d'octets occupés par l'élément
+	 */
+	public abstract long footprint(E element);
+}
@@ -12,4 +12,17 @@ public interface Prototype<E>
 	 * @return la copie de l'opjet à cloner
 	 */
 	public E clone();
+
+	/**
+	 * Création d'une copie figée (qui ne sera plus modifiée) de l'objet.
+	 * Contrairement à {@link #clone()} une copie figée peut partager ses
+	 * données internes avec l'original, et la même copie peut être renvoyée
+	 * tant que l'original n'a pas changé : des états successifs peuvent
+	 * ainsi partager les objets inchangés.
+	 * @return une copie figée de l'objet (par défaut un clone)
+	 */
+	public default E snapshot()
+	{
+		return clone();
+	}
 }
@@ -0,0 +1,276 @@
+package io;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Flux de données binaires ({@link DataInput}) lu à partir d'un canal NIO au
+ * travers d'un unique tampon direct rempli au fur et à mesure des lectures.
+ * @author davidroussel
+ */
+public class ChannelInput implements DataInput, Closeable
+{
+	/**
+	 * Taille par défaut du tampon
+	 */
+	public static final int DefaultBufferSize = 64 * 1024;
+
+	/**
+	 * Le canal à partir duquel lire (ou null lorsque l'on lit directement
+	 * le contenu d'un tampon)
+	 */
+	private final ReadableByteChannel channel;
+
+	/**
+	 * Le tampon de lecture (toujours en mode lecture entre deux appels)
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Constructeur d'un flux de données sur un canal avec un tampon de taille
+	 * par défaut
+	 * @param channel le canal à partir duquel lire
+	 */
+	public ChannelInput(ReadableByteChannel channel)
+	{
+		this(channel, DefaultBufferSize);
+	}
+
+	/**
+	 * Constructeur d'un flux de données sur un canal
+	 * @param channel le canal à partir duquel lire
+	 * @param bufferSize la taille du tampon (au moins 8 octets)
+	 */
+	public ChannelInput(ReadableByteChannel channel, int bufferSize)
+	{
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, Long.BYTES));
+		buffer.flip();
+	}
+
+	/**
+	 * Constructeur d'un flux de données lisant directement le contenu d'un
+	 * tampon (un fichier projeté en mémoire par exemple) sans canal
+	 * @param data le tampon à lire (ni sa position ni sa limite ne sont
+	 * modifiées)
+	 * @param position la position à partir de laquelle lire dans le tampon
+	 */
+	public ChannelInput(ByteBuffer data, int position)
+	{
+		channel = null;
+		buffer = data.duplicate();
+		buffer.position(position);
+	}
+
+	/**
+	 * Assure qu'au moins n octets sont disponibles dans le tampon en le
+	 * complétant à partir du canal si nécessaire
+	 * @param n le nombre d'octets requis (inférieur à la taille du tampon)
+	 * @throws EOFException si le canal se termine avant n octets
+	 * @throws IOException en cas d'erreur de lecture dans le canal
+	 */
+	private void ensure(int n) throws IOException
+	{
+		if (buffer.remaining() >= n)
+		{
+			return;
+		}
+		if (channel == null)
+		{
+			throw new EOFException();
+		}
+		buffer.compact();
+		try
+		{
+			while (buffer.position() < n)
+			{
+				if (channel.read(buffer) < 0)
+				{
+					throw new EOFException();
+				}
+			}
+		}
+		finally
+		{
+			buffer.flip();
+		}
+	}
+
+	/**
+	 * Fermeture du canal (s'il y en a un)
+	 * @throws IOException en cas d'erreur de fermeture
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (channel != null)
+		{
+			channel.close();
+		}
+	}
+
+	@Override
+	public void readFully(byte[] b) throws IOException
+	{
+		readFully(b, 0, b.length);
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			ensure(1);
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public int skipBytes(int n) throws IOException
+	{
+		int skipped = 0;
+		while (skipped < n)
+		{
+			ensure(1);
+			int k = Math.min(n - skipped, buffer.remaining());
+			buffer.position(buffer.position() + k);
+			skipped += k;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean readBoolean() throws IOException
+	{
+		return readByte() != 0;
+	}
+
+	@Override
+	public byte readByte() throws IOException
+	{
+		ensure(1);
+		return buffer.get();
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException
+	{
+		return readByte() & 0xFF;
+	}
+
+	@Override
+	public short readShort() throws IOException
+	{
+		ensure(Short.BYTES);
+		return buffer.getShort();
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException
+	{
+		return readShort() & 0xFFFF;
+	}
+
+	@Override
+	public char readChar() throws IOException
+	{
+		ensure(Character.BYTES);
+		return buffer.getChar();
+	}
+
+	@Override
+	public int readInt() throws IOException
+	{
+		ensure(Integer.BYTES);
+		return buffer.getInt();
+	}
+
+	@Override
+	public long readLong() throws IOException
+	{
+		ensure(Long.BYTES);
+		return buffer.getLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException
+	{
+		ensure(Float.BYTES);
+		return buffer.getFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException
+	{
+		ensure(Double.BYTES);
+		return buffer.getDouble();
+	}
+
+	/**
+	 * Lecture d'une ligne de texte octet par octet (comme
+	 * {@link DataInputStream#readLine()}) : chaque octet est converti en un
+	 * caractère et la ligne se termine par '\n', '\r', "\r\n" ou par la fin
+	 * des données
+	 * @return la ligne lue (sans son terminateur) ou bien null si la fin des
+	 * données est atteinte avant le premier octet
+	 * @throws IOException en cas d'erreur de lecture dans le canal
+	 */
+	@Override
+	public String readLine() throws IOException
+	{
+		StringBuilder line = new StringBuilder();
+		while (available())
+		{
+			int c = buffer.get() & 0xFF;
+			if (c == '\n')
+			{
+				return line.toString();
+			}
+			if (c == '\r')
+			{
+				if (available() && (buffer.get(buffer.position()) == '\n'))
+				{
+					buffer.get();
+				}
+				return line.toString();
+			}
+			line.append((char) c);
+		}
+
+		return line.length() > 0 ? line.toString() : null;
+	}
+
+	/**
+	 * Indique s'il reste au moins un octet à lire (en complétant le tampon à
+	 * partir du canal si nécessaire)
+	 * @return true s'il reste au moins un octet à lire, false si la fin des
+	 * données est atteinte
+	 * @throws IOException en cas d'erreur de lecture dans le canal
+	 */
+	private boolean available() throws IOException
+	{
+		try
+		{
+			ensure(1);
+			return true;
+		}
+		catch (EOFException e)
+		{
+			return false;
+		}
+	}
+
+	@Override
+	public String readUTF() throws IOException
+	{
+		return DataInputStream.readUTF(this);
+	}
+}
@@ -0,0 +1,237 @@
+package io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Flux de données binaires ({@link DataOutput}) écrit dans un canal NIO au
+ * travers d'un unique tampon direct : les données sont directement placées
+ * dans le tampon, lequel est vidé dans le canal lorsqu'il est plein.
+ * @author davidroussel
+ */
+public class ChannelOutput implements DataOutput, Closeable
+{
+	/**
+	 * Taille par défaut du tampon
+	 */
+	public static final int DefaultBufferSize = 64 * 1024;
+
+	/**
+	 * Le canal dans lequel écrire
+	 */
+	private final WritableByteChannel channel;
+
+	/**
+	 * Le tampon d'écriture
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Nombre d'octets déjà transmis au canal
+	 */
+	private long drained;
+
+	/**
+	 * Constructeur d'un flux de données sur un canal avec un tampon de taille
+	 * par défaut
+	 * @param channel le canal dans lequel écrire
+	 */
+	public ChannelOutput(WritableByteChannel channel)
+	{
+		this(channel, DefaultBufferSize);
+	}
+
+	/**
+	 * Constructeur d'un flux de données sur un canal
+	 * @param channel le canal dans lequel écrire
+	 * @param bufferSize la taille du tampon (au moins 8 octets)
+	 */
+	public ChannelOutput(WritableByteChannel channel, int bufferSize)
+	{
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, Long.BYTES));
+		drained = 0;
+	}
+
+	/**
+	 * Nombre d'octets écrits depuis la création de ce flux (transmis au canal
+	 * ou encore dans le tampon)
+	 * @return la position courante dans le flux
+	 */
+	public long position()
+	{
+		return drained + buffer.position();
+	}
+
+	/**
+	 * Assure qu'il reste au moins n octets disponibles dans le tampon en le
+	 * vidant dans le canal si nécessaire
+	 * @param n le nombre d'octets requis (inférieur à la taille du tampon)
+	 * @throws IOException en cas d'erreur d'écriture dans le canal
+	 */
+	private void ensure(int n) throws IOException
+	{
+		if (buffer.remaining() < n)
+		{
+			drain();
+		}
+	}
+
+	/**
+	 * Vidage du tampon dans le canal
+	 * @throws IOException en cas d'erreur d'écriture dans le canal
+	 */
+	private void drain() throws IOException
+	{
+		buffer.flip();
+		drained += buffer.remaining();
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Vidage du tampon dans le canal
+	 * @throws IOException en cas d'erreur d'écriture dans le canal
+	 */
+	public void flush() throws IOException
+	{
+		drain();
+	}
+
+	/**
+	 * Vidage du tampon puis fermeture du canal
+	 * @throws IOException en cas d'erreur d'écriture ou de fermeture
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			drain();
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		ensure(1);
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException
+	{
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			ensure(1);
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void writeBoolean(boolean v) throws IOException
+	{
+		write(v ? 1 : 0);
+	}
+
+	@Override
+	public void writeByte(int v) throws IOException
+	{
+		write(v);
+	}
+
+	@Override
+	public void writeShort(int v) throws IOException
+	{
+		ensure(Short.BYTES);
+		buffer.putShort((short) v);
+	}
+
+	@Override
+	public void writeChar(int v) throws IOException
+	{
+		ensure(Character.BYTES);
+		buffer.putChar((char) v);
+	}
+
+	@Override
+	public void writeInt(int v) throws IOException
+	{
+		ensure(Integer.BYTES);
+		buffer.putInt(v);
+	}
+
+	@Override
+	public void writeLong(long v) throws IOException
+	{
+		ensure(Long.BYTES);
+		buffer.putLong(v);
+	}
+
+	@Override
+	public void writeFloat(float v) throws IOException
+	{
+		ensure(Float.BYTES);
+		buffer.putFloat(v);
+	}
+
+	@Override
+	public void writeDouble(double v) throws IOException
+	{
+		ensure(Double.BYTES);
+		buffer.putDouble(v);
+	}
+
+	@Override
+	public void writeBytes(String s) throws IOException
+	{
+		for (int i = 0; i < s.length(); i++)
+		{
+			write(s.charAt(i));
+		}
+	}
+
+	@Override
+	public void writeChars(String s) throws IOException
+	{
+		for (int i = 0; i < s.length(); i++)
+		{
+			writeChar(s.charAt(i));
+		}
+	}
+
+	/**
+	 * Ecriture d'une chaîne au format UTF-8 modifié de {@link DataOutput}
+	 * (les chaînes sont rares dans les dessins : on passe par un flux
+	 * intermédiaire)
+	 * @see java.io.DataOutput#writeUTF(java.lang.String)
+	 */
+	@Override
+	public void writeUTF(String s) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+		new DataOutputStream(bytes).writeUTF(s);
+		write(bytes.toByteArray());
+	}
+}
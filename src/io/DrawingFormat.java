@@ -0,0 +1,135 @@
+package io;
+
+/**
+ * Constantes du format binaire des dessins.
+ * Un fichier de dessin est constitué de :
+ * <ul>
+ * 	<li>un en-tête : le nombre magique {@link #Magic} (int), la version du
+ * 	format {@link #Version} (short) et des drapeaux réservés (short)</li>
+ * 	<li>une suite d'enregistrements commençant chacun par un octet
+ * 	d'étiquette :
+ * 	<ul>
+ * 		<li>{@link #PaintTag} : une couleur de la table des styles (int ARGB)
+ * 		</li>
+ * 		<li>{@link #StrokeTag} : un trait de la table des styles
+ * 		(cf. {@link figures.FigureCodec#writeStroke})</li>
+ * 		<li>{@link #FigureTag} : une figure : son type (octet), les indices
+ * 		dans la table des styles de sa couleur de trait, de sa couleur de
+ * 		remplissage et de son trait (int, {@link #NoStyle} pour null), son
+ * 		état de sélection (booléen) puis sa géométrie
+ * 		(cf. {@link figures.FigureCodec#writeGeometry})</li>
+ * 		<li>{@link #EndTag} : la fin du dessin suivie du nombre de figures
+ * 		écrites (long)</li>
+ * 	</ul>
+ * 	</li>
+ * </ul>
+ * Les couleurs et les traits reçoivent leurs indices (à partir de 0, une
+ * numérotation pour les couleurs et une pour les traits) dans l'ordre de
+ * leurs enregistrements, lesquels précèdent la première figure qui les
+ * utilise : le fichier peut ainsi être écrit et lu en un seul passage.
+ * Tous les nombres sont écrits en big endian (comme par
+ * {@link java.io.DataOutput}).
+ * <p>
+ * La version indexée du format ({@link #IndexedVersion}) est destinée à être
+ * projetée en mémoire afin que les formes des figures ne soient lues qu'à
+ * la demande. Elle est constituée de :
+ * <ul>
+ * 	<li>un en-tête de taille fixe ({@link #HeaderSize} octets) : le nombre
+ * 	magique (int), la version (short), des drapeaux réservés (short), le
+ * 	nombre de figures (long), la position de la table des styles (long) et
+ * 	la position de l'index (long)</li>
+ * 	<li>les enregistrements des figures, les uns à la suite des autres :
+ * 	le type (octet), les indices des styles (3 int), l'état de sélection
+ * 	(booléen), le placement de la figure
+ * 	(cf. {@link figures.FigureCodec#writePlacement}) puis sa forme
+ * 	(cf. {@link figures.FigureCodec#writeShape(figures.Figure, java.io.DataOutput)})
+ * 	</li>
+ * 	<li>la table des styles : le nombre de couleurs (int) suivi des couleurs
+ * 	(int ARGB) puis le nombre de traits (int) suivi des traits</li>
+ * 	<li>l'index : une entrée de taille fixe ({@link #IndexEntrySize}
+ * 	octets) par figure contenant la position de son enregistrement (long),
+ * 	la position de sa forme relativement à l'enregistrement (int) et son
+ * 	rectangle englobant (4 double : x, y, largeur, hauteur) afin que les
+ * 	figures puissent être indexées sans lire leurs formes</li>
+ * 	<li>lorsque le drapeau {@link #ChunkedFlag} est présent dans l'en-tête,
+ * 	la table des blocs (juste après l'index) : le nombre de blocs (int)
+ * 	suivi d'une entrée de taille fixe ({@link #ChunkEntrySize} octets) par
+ * 	bloc contenant la position (long) et la taille (int) des
+ * 	enregistrements du bloc ainsi que son nombre de figures (int). Les
+ * 	enregistrements d'un bloc sont contigus et ne dépendent que de la table
+ * 	des styles : chaque bloc peut donc être écrit et lu indépendamment des
+ * 	autres (en parallèle)</li>
+ * </ul>
+ * </p>
+ * @author davidroussel
+ */
+public final class DrawingFormat
+{
+	/**
+	 * Nombre magique en tête des fichiers de dessin ("DRAW")
+	 */
+	public static final int Magic = 0x44524157;
+
+	/**
+	 * Version courante du format
+	 */
+	public static final short Version = 1;
+
+	/**
+	 * Version indexée du format (projetable en mémoire)
+	 */
+	public static final short IndexedVersion = 2;
+
+	/**
+	 * Taille de l'en-tête de la version indexée
+	 */
+	public static final int HeaderSize = 32;
+
+	/**
+	 * Taille d'une entrée de l'index de la version indexée
+	 */
+	public static final int IndexEntrySize = 44;
+
+	/**
+	 * Drapeau de l'en-tête de la version indexée indiquant la présence de la
+	 * table des blocs
+	 */
+	public static final short ChunkedFlag = 1;
+
+	/**
+	 * Taille d'une entrée de la table des blocs de la version indexée
+	 */
+	public static final int ChunkEntrySize = 16;
+
+	/**
+	 * Etiquette de fin de dessin
+	 */
+	public static final byte EndTag = 0;
+
+	/**
+	 * Etiquette d'une couleur de la table des styles
+	 */
+	public static final byte PaintTag = 1;
+
+	/**
+	 * Etiquette d'un trait de la table des styles
+	 */
+	public static final byte StrokeTag = 2;
+
+	/**
+	 * Etiquette d'une figure
+	 */
+	public static final byte FigureTag = 3;
+
+	/**
+	 * Indice de style représentant l'absence de style (null)
+	 */
+	public static final int NoStyle = -1;
+
+	/**
+	 * Constructeur privé : classe de constantes
+	 */
+	private DrawingFormat()
+	{
+	}
+}
@@ -0,0 +1,1339 @@
+package io;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import figures.Drawing;
+import figures.DrawingChange;
+import figures.Figure;
+import figures.FigureCodec;
+import figures.enums.FigureType;
+import utils.PaintFactory;
+
+/**
+ * Journal des modifications d'un dessin permettant de le reconstruire après
+ * un arrêt brutal de l'éditeur (au format décrit par {@link JournalFormat}).
+ * Le journal observe le dessin et compare à chaque notification les figures
+ * du dessin aux copies figées ({@link Figure#snapshot()}) de leur état lors
+ * de la notification précédente : seules les figures ajoutées, retirées,
+ * réordonnées, transformées, restylées ou (dé)sélectionnées sont écrites, à
+ * la fin du segment courant, dans une trame par notification (une seule
+ * pour toute une transaction du dessin).
+ * Lorsque le segment courant dépasse une certaine taille, un nouveau
+ * segment est commencé et l'état du dessin à ce moment là (les copies
+ * figées, qui ne sont plus modifiées) est écrit en tâche de fond dans un
+ * instantané : une fois celui-ci complet les instantanés et les segments
+ * précédents sont supprimés, sans jamais bloquer l'édition.
+ * Les ajouts massifs (les figures d'un dessin indexé dont les formes sont
+ * chargées à la demande, ou plus de {@link #MaxJournaledAdditions} figures)
+ * ne sont pas écrits dans une trame, ce qui chargerait toutes leurs formes
+ * en mémoire : un nouveau segment est commencé à partir d'un instantané
+ * écrit en tâche de fond (cf. {@link JournalFormat#SnapshotRequired}).
+ * Au démarrage de l'éditeur, {@link #recover(Drawing, Path)} reconstruit le
+ * dessin à partir du dernier instantané et des segments qui le suivent.
+ * @author davidroussel
+ */
+public class DrawingJournal implements Observer, Closeable
+{
+	/**
+	 * Taille par défaut (en octets) du segment courant au delà de laquelle
+	 * un instantané est pris
+	 */
+	public static final long DefaultSnapshotThreshold = 8L * 1024L * 1024L;
+
+	/**
+	 * Nombre maximum de figures ajoutées par une même notification écrites
+	 * dans une trame : au delà, un instantané est pris à la place
+	 */
+	public static final int MaxJournaledAdditions = 1 << 16;
+
+	/**
+	 * Tampon des enregistrements d'une trame donnant accès à son contenu
+	 * sans le copier
+	 */
+	private static class FrameBuffer extends ByteArrayOutputStream
+	{
+		FrameBuffer()
+		{
+			super(4096);
+		}
+
+		byte[] buffer()
+		{
+			return buf;
+		}
+	}
+
+	/**
+	 * Le dessin journalisé
+	 */
+	private final Drawing drawing;
+
+	/**
+	 * Le répertoire des segments et des instantanés
+	 */
+	private final Path directory;
+
+	/**
+	 * Taille du segment courant au delà de laquelle un instantané est pris
+	 */
+	private final long snapshotThreshold;
+
+	/**
+	 * Figures du dessin lors de la dernière notification (dans l'ordre du
+	 * dessin)
+	 */
+	private final List<Figure> live;
+
+	/**
+	 * Copies figées des figures de {@link #live} lors de la dernière
+	 * notification : l'état du dessin décrit par le journal
+	 */
+	private final List<Figure> states;
+
+	/**
+	 * Positions des figures de {@link #live} (construites à la demande, et
+	 * invalidées lorsque des figures sont ajoutées, retirées ou réordonnées)
+	 */
+	private Map<Figure, Integer> positions;
+
+	/**
+	 * Numéro du segment courant
+	 */
+	private long segment;
+
+	/**
+	 * Le flux du segment courant (ou bien null lorsque le journal est fermé)
+	 */
+	private ChannelOutput out;
+
+	/**
+	 * Indices des couleurs déjà écrites dans le segment courant
+	 */
+	private final Map<Paint, Integer> paints;
+
+	/**
+	 * Indices des traits déjà écrits dans le segment courant
+	 */
+	private final Map<BasicStroke, Integer> strokes;
+
+	/**
+	 * Les enregistrements de la trame en cours
+	 */
+	private final FrameBuffer frame;
+
+	/**
+	 * Le flux d'écriture des enregistrements de la trame en cours
+	 */
+	private final DataOutputStream data;
+
+	/**
+	 * Somme de contrôle des trames
+	 */
+	private final CRC32 crc;
+
+	/**
+	 * Exécuteur (un seul thread) des écritures des instantanés et des
+	 * compactages du journal
+	 */
+	private final ExecutorService snapshotter;
+
+	/**
+	 * Instantané en cours d'écriture (ou bien null)
+	 */
+	private Future<?> snapshotting;
+
+	/**
+	 * Constructeur d'un journal d'un dessin avec une taille de segment par
+	 * défaut
+	 * @param drawing le dessin à journaliser
+	 * @param directory le répertoire du journal
+	 * @throws IOException si le journal ne peut pas être créé
+	 * @see #DrawingJournal(Drawing, Path, long)
+	 */
+	public DrawingJournal(Drawing drawing, Path directory) throws IOException
+	{
+		this(drawing, directory, DefaultSnapshotThreshold);
+	}
+
+	/**
+	 * Constructeur d'un journal d'un dessin : commence un nouveau segment
+	 * dans le répertoire du journal (à la suite des segments existants,
+	 * lesquels doivent donc avoir été rejoués dans le dessin par
+	 * {@link #recover(Drawing, Path)}), écrit en tâche de fond un instantané
+	 * de l'état actuel du dessin puis observe le dessin
+	 * @param drawing le dessin à journaliser
+	 * @param directory le répertoire du journal (créé si besoin)
+	 * @param snapshotThreshold la taille (en octets) du segment courant au
+	 * delà de laquelle un instantané est pris
+	 * @throws IOException si le journal ne peut pas être créé
+	 */
+	public DrawingJournal(Drawing drawing, Path directory,
+	    long snapshotThreshold) throws IOException
+	{
+		this.drawing = drawing;
+		this.directory = directory;
+		this.snapshotThreshold = snapshotThreshold;
+		paints = new IdentityHashMap<Paint, Integer>();
+		strokes = new IdentityHashMap<BasicStroke, Integer>();
+		frame = new FrameBuffer();
+		data = new DataOutputStream(frame);
+		crc = new CRC32();
+		positions = null;
+
+		List<Figure> figures = drawing.getFigures();
+		live = new ArrayList<Figure>(figures);
+		states = new ArrayList<Figure>(figures.size());
+		for (Figure f : figures)
+		{
+			states.add(f.snapshot());
+		}
+
+		Files.createDirectories(directory);
+		long last = -1;
+		for (long n : list(directory, JournalFormat.SegmentPrefix,
+		                   JournalFormat.SegmentSuffix).keySet())
+		{
+			last = Math.max(last, n);
+		}
+		for (long n : list(directory, JournalFormat.SnapshotPrefix,
+		                   JournalFormat.SnapshotSuffix).keySet())
+		{
+			last = Math.max(last, n);
+		}
+		segment = last + 1;
+		openSegment((short) 0);
+
+		snapshotter = Executors.newSingleThreadExecutor((Runnable r) ->
+		{
+			Thread t = new Thread(r, "DrawingJournal snapshotter");
+			t.setDaemon(true);
+			return t;
+		});
+		startSnapshot();
+		drawing.addObserver(this);
+	}
+
+	/**
+	 * Numéro du segment courant
+	 * @return le numéro du segment courant
+	 */
+	public long getSegment()
+	{
+		return segment;
+	}
+
+	/**
+	 * Enregistrement des modifications du dessin depuis la notification
+	 * précédente dans une nouvelle trame du segment courant.
+	 * Lorsque la notification décrit les figures modifiées (sans ajout ni
+	 * retrait) seules ces figures sont examinées, sinon toutes les figures
+	 * du dessin sont comparées à leurs états précédents.
+	 * En cas d'erreur d'écriture le journal est fermé.
+	 * @param o le dessin observé
+	 * @param arg les modifications ({@link DrawingChange}) ou bien null
+	 */
+	@Override
+	public void update(Observable o, Object arg)
+	{
+		if (out == null)
+		{
+			return;
+		}
+		try
+		{
+			if (!(arg instanceof DrawingChange)
+			    || !recordChanges((DrawingChange) arg))
+			{
+				recordDifferences();
+			}
+			if (frame.size() > 0)
+			{
+				writeFrame();
+			}
+			if ((out.position() >= snapshotThreshold)
+			    && ((snapshotting == null) || snapshotting.isDone()))
+			{
+				snapshot();
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println(getClass().getSimpleName() + "::update : "
+			    + e.getMessage());
+			try
+			{
+				close();
+			}
+			catch (IOException ce)
+			{
+				System.err.println(getClass().getSimpleName()
+				    + "::update : " + ce.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Prise d'un instantané : le segment courant est terminé, un nouveau
+	 * segment est commencé et l'état actuel du dessin est écrit en tâche de
+	 * fond. Une fois l'instantané complet, les instantanés et les segments
+	 * précédents sont supprimés.
+	 * @throws IOException en cas d'erreur lors du changement de segment
+	 */
+	public void snapshot() throws IOException
+	{
+		if (out == null)
+		{
+			return;
+		}
+		closeSegment();
+		segment++;
+		openSegment((short) 0);
+		startSnapshot();
+	}
+
+	/**
+	 * Reprise du journal à partir de l'état actuel du dessin, sans écrire
+	 * ses modifications : un nouveau segment est commencé, qui ne pourra
+	 * être rejoué qu'à partir de l'instantané de l'état actuel du dessin
+	 * écrit en tâche de fond (cf. {@link JournalFormat#SnapshotRequired}).
+	 * @param figures les figures du dessin
+	 * @throws IOException en cas d'erreur lors du changement de segment
+	 */
+	private void restart(List<Figure> figures) throws IOException
+	{
+		frame.reset();
+		live.clear();
+		live.addAll(figures);
+		states.clear();
+		for (Figure f : figures)
+		{
+			// les formes chargées à la demande ne sont pas chargées
+			states.add(f.snapshot());
+		}
+		positions = null;
+		closeSegment();
+		segment++;
+		openSegment(JournalFormat.SnapshotRequired);
+		startSnapshot();
+	}
+
+	/**
+	 * Indique si les figures ajoutées par une notification doivent être
+	 * écrites dans un instantané plutôt que dans une trame
+	 * @param current les figures du dessin
+	 * @param origins les positions précédentes de ces figures (négatives
+	 * pour les figures ajoutées)
+	 * @return true s'il y a plus de {@link #MaxJournaledAdditions} figures
+	 * ajoutées ou si l'une d'entre elles a une forme chargée à la demande
+	 */
+	private static boolean isBulkAddition(List<Figure> current, int[] origins)
+	{
+		int added = 0;
+		for (int j = 0; j < origins.length; j++)
+		{
+			if (origins[j] < 0)
+			{
+				if (current.get(j).isShapeLazy()
+				    || (++added > MaxJournaledAdditions))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fermeture du journal : le dessin n'est plus observé, le segment
+	 * courant est terminé et l'instantané en cours d'écriture éventuel est
+	 * attendu. Les fichiers du journal sont conservés afin que le dessin
+	 * puisse être reconstruit au prochain démarrage.
+	 * @throws IOException en cas d'erreur lors de la fermeture du segment
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (out == null)
+		{
+			return;
+		}
+		drawing.deleteObserver(this);
+		try
+		{
+			closeSegment();
+		}
+		finally
+		{
+			snapshotter.shutdown();
+			awaitSnapshot();
+		}
+	}
+
+	/**
+	 * Enregistrement des modifications des figures décrites par une
+	 * notification lorsqu'elle ne porte que sur des figures modifiées (ni
+	 * ajoutées, ni retirées) qui sont toujours à leurs places
+	 * @param change les modifications notifiées
+	 * @return true si les modifications ont été enregistrées, false si
+	 * toutes les figures doivent être comparées
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private boolean recordChanges(DrawingChange change) throws IOException
+	{
+		List<Figure> figures = drawing.getFigures();
+		List<Figure> changed = change.getFigures();
+		if (changed.isEmpty() || (figures.size() != live.size()))
+		{
+			return false;
+		}
+		if (positions == null)
+		{
+			positions = new IdentityHashMap<Figure, Integer>(live.size());
+			for (int i = 0; i < live.size(); i++)
+			{
+				positions.put(live.get(i), Integer.valueOf(i));
+			}
+		}
+		int[] indices = new int[changed.size()];
+		for (int i = 0; i < indices.length; i++)
+		{
+			Figure f = changed.get(i);
+			Integer index = positions.get(f);
+			if ((change.getOldBounds(i) == null)
+			    || (change.getNewBounds(i) == null) || (index == null)
+			    || (figures.get(index.intValue()) != f))
+			{
+				return false;
+			}
+			indices[i] = index.intValue();
+		}
+		for (int i = 0; i < indices.length; i++)
+		{
+			Figure state = changed.get(i).snapshot();
+			Figure before = states.get(indices[i]);
+			if (state != before)
+			{
+				writeChanges(indices[i], before, state);
+				states.set(indices[i], state);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Enregistrement des différences entre les figures du dessin et leurs
+	 * états lors de la notification précédente.
+	 * Les figures inchangées au début et à la fin du dessin sont écartées ;
+	 * entre les deux, les figures précédentes absentes du dessin sont
+	 * retirées, les figures restantes sont réordonnées si besoin, les
+	 * nouvelles figures sont ajoutées puis les modifications des figures
+	 * restantes sont enregistrées. Une figure remplacée à la même place par
+	 * une figure du même type (lors d'une annulation par exemple) est
+	 * considérée comme modifiée plutôt que retirée puis ajoutée.
+	 * Lors d'un ajout massif, le journal est repris à partir d'un instantané
+	 * (cf. {@link #restart(List)}).
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void recordDifferences() throws IOException
+	{
+		List<Figure> figures = drawing.getFigures();
+		int baseSize = states.size();
+		int size = figures.size();
+
+		// Partie commune au début
+		int prefix = 0;
+		for (int n = Math.min(baseSize, size); prefix < n; prefix++)
+		{
+			Figure f = figures.get(prefix);
+			if (f.snapshot() != states.get(prefix))
+			{
+				break;
+			}
+			live.set(prefix, f);
+		}
+		if ((prefix == baseSize) && (prefix == size))
+		{
+			return;
+		}
+
+		// Partie commune à la fin
+		int suffix = 0;
+		for (int n = Math.min(baseSize, size) - prefix; suffix < n; suffix++)
+		{
+			Figure f = figures.get(size - 1 - suffix);
+			if (f.snapshot() != states.get(baseSize - 1 - suffix))
+			{
+				break;
+			}
+			live.set(baseSize - 1 - suffix, f);
+		}
+
+		List<Figure> oldLive = live.subList(prefix, baseSize - suffix);
+		List<Figure> oldStates = states.subList(prefix, baseSize - suffix);
+		List<Figure> current = figures.subList(prefix, size - suffix);
+		int oldCount = oldLive.size();
+		int count = current.size();
+
+		// Correspondance entre les nouvelles figures et les précédentes
+		Map<Figure, Integer> oldPositions =
+		    new IdentityHashMap<Figure, Integer>(oldCount);
+		for (int k = 0; k < oldCount; k++)
+		{
+			oldPositions.put(oldLive.get(k), Integer.valueOf(k));
+		}
+		boolean[] kept = new boolean[oldCount];
+		int[] origins = new int[count];
+		for (int j = 0; j < count; j++)
+		{
+			Integer k = oldPositions.get(current.get(j));
+			if ((k != null) && !kept[k.intValue()])
+			{
+				kept[k.intValue()] = true;
+				origins[j] = k.intValue();
+			}
+			else
+			{
+				origins[j] = -1;
+			}
+		}
+		if (oldCount == count)
+		{
+			for (int j = 0; j < count; j++)
+			{
+				if ((origins[j] < 0) && !kept[j]
+				    && (current.get(j).getType() == oldStates.get(j).getType()))
+				{
+					kept[j] = true;
+					origins[j] = j;
+				}
+			}
+		}
+
+		if (isBulkAddition(current, origins))
+		{
+			restart(figures);
+			return;
+		}
+
+		// Retraits (en commençant par la fin pour conserver les indices)
+		for (int k = oldCount - 1; k >= 0;)
+		{
+			if (kept[k])
+			{
+				k--;
+				continue;
+			}
+			int last = k;
+			while ((k >= 0) && !kept[k])
+			{
+				k--;
+			}
+			data.writeByte(JournalFormat.RemoveTag);
+			data.writeInt(prefix + k + 1);
+			data.writeInt(last - k);
+		}
+
+		// Réordonnancement des figures restantes
+		int[] ranks = new int[oldCount];
+		int remaining = 0;
+		for (int k = 0; k < oldCount; k++)
+		{
+			if (kept[k])
+			{
+				ranks[k] = remaining++;
+			}
+		}
+		int[] order = new int[remaining];
+		boolean moved = false;
+		for (int j = 0, n = 0; j < count; j++)
+		{
+			if (origins[j] >= 0)
+			{
+				order[n] = ranks[origins[j]];
+				moved |= (order[n] != n);
+				n++;
+			}
+		}
+		if (moved)
+		{
+			data.writeByte(JournalFormat.OrderTag);
+			data.writeInt(prefix);
+			data.writeInt(remaining);
+			for (int rank : order)
+			{
+				data.writeInt(rank);
+			}
+		}
+
+		// Ajouts (en commençant par le début pour que les figures suivantes
+		// soient à leurs places)
+		for (int j = 0; j < count;)
+		{
+			if (origins[j] >= 0)
+			{
+				j++;
+				continue;
+			}
+			int first = j;
+			while ((j < count) && (origins[j] < 0))
+			{
+				j++;
+			}
+			// les nouveaux styles précèdent l'enregistrement des figures
+			for (int i = first; i < j; i++)
+			{
+				Figure f = current.get(i);
+				paintId(f.getEdgePaint());
+				paintId(f.getFillPaint());
+				strokeId(f.getStroke());
+			}
+			data.writeByte(JournalFormat.AddTag);
+			data.writeInt(prefix + first);
+			data.writeInt(j - first);
+			for (int i = first; i < j; i++)
+			{
+				writeFigure(current.get(i).snapshot());
+			}
+		}
+
+		// Modifications des figures restantes
+		List<Figure> newStates = new ArrayList<Figure>(count);
+		for (int j = 0; j < count; j++)
+		{
+			Figure state = current.get(j).snapshot();
+			if (origins[j] >= 0)
+			{
+				Figure before = oldStates.get(origins[j]);
+				if (state != before)
+				{
+					writeChanges(prefix + j, before, state);
+				}
+			}
+			newStates.add(state);
+		}
+
+		oldLive.clear();
+		oldLive.addAll(current);
+		oldStates.clear();
+		oldStates.addAll(newStates);
+		if (moved || (remaining != oldCount) || (remaining != count))
+		{
+			positions = null;
+		}
+		else if (positions != null)
+		{
+			for (int j = 0; j < count; j++)
+			{
+				positions.put(current.get(j), Integer.valueOf(prefix + j));
+			}
+		}
+	}
+
+	/**
+	 * Enregistrement des modifications d'une figure restée à sa place (de
+	 * même type que son état précédent)
+	 * @param index l'indice de la figure dans le dessin
+	 * @param before la copie figée de l'état précédent de la figure
+	 * @param after la copie figée de l'état actuel de la figure
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void writeChanges(int index, Figure before, Figure after)
+	    throws IOException
+	{
+		if (((after.getEdgePaint() == null) && (before.getEdgePaint() != null))
+		    || ((after.getFillPaint() == null) && (before.getFillPaint() != null))
+		    || ((after.getStroke() == null) && (before.getStroke() != null)))
+		{
+			// un style ne pouvant pas être retiré d'une figure (cf.
+			// Figure#setFillPaint) la figure est remplacée
+			paintId(after.getEdgePaint());
+			paintId(after.getFillPaint());
+			strokeId(after.getStroke());
+			data.writeByte(JournalFormat.RemoveTag);
+			data.writeInt(index);
+			data.writeInt(1);
+			data.writeByte(JournalFormat.AddTag);
+			data.writeInt(index);
+			data.writeInt(1);
+			writeFigure(after);
+			return;
+		}
+
+		if ((before.getEdgePaint() != after.getEdgePaint())
+		    || (before.getFillPaint() != after.getFillPaint())
+		    || (before.getStroke() != after.getStroke()))
+		{
+			int edgeId = paintId(after.getEdgePaint());
+			int fillId = paintId(after.getFillPaint());
+			int strokeId = strokeId(after.getStroke());
+			data.writeByte(JournalFormat.StyleTag);
+			data.writeInt(index);
+			data.writeInt(edgeId);
+			data.writeInt(fillId);
+			data.writeInt(strokeId);
+		}
+
+		// Les formes sont partagées par copie sur écriture : une forme
+		// modifiée a toujours été copiée au préalable (et une forme chargée
+		// à la demande n'a jamais été modifiée, mais deux figures chargées
+		// à partir de fichiers différents ont des sources différentes)
+		if (!before.sharesShapeWith(after))
+		{
+			data.writeByte(JournalFormat.ShapeTag);
+			data.writeInt(index);
+			FigureCodec.writeGeometry(after, data);
+		}
+		else if (!before.getTransform().equals(after.getTransform()))
+		{
+			data.writeByte(JournalFormat.TransformTag);
+			data.writeInt(index);
+			FigureCodec.writePlacement(after, data);
+		}
+
+		if (before.isSelected() != after.isSelected())
+		{
+			data.writeByte(JournalFormat.SelectTag);
+			data.writeInt(index);
+			data.writeBoolean(after.isSelected());
+		}
+	}
+
+	/**
+	 * Ecriture d'une figure complète comme dans les enregistrements
+	 * {@link DrawingFormat#FigureTag}, sans étiquette (ses styles doivent
+	 * avoir été écrits au préalable)
+	 * @param figure la figure à écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void writeFigure(Figure figure) throws IOException
+	{
+		int edgeId = paintId(figure.getEdgePaint());
+		int fillId = paintId(figure.getFillPaint());
+		int strokeId = strokeId(figure.getStroke());
+		data.writeByte(figure.getType().ordinal());
+		data.writeInt(edgeId);
+		data.writeInt(fillId);
+		data.writeInt(strokeId);
+		data.writeBoolean(figure.isSelected());
+		FigureCodec.writeGeometry(figure, data);
+	}
+
+	/**
+	 * Indice d'une couleur dans la table des styles du segment courant, en
+	 * l'y ajoutant (et en l'écrivant) si elle n'y est pas encore
+	 * @param paint la couleur (éventuellement null)
+	 * @return l'indice de la couleur ou {@link DrawingFormat#NoStyle}
+	 * @throws IOException si la couleur n'est pas une {@link Color} ou en cas
+	 * d'erreur d'écriture
+	 */
+	private int paintId(Paint paint) throws IOException
+	{
+		if (paint == null)
+		{
+			return DrawingFormat.NoStyle;
+		}
+		Integer id = paints.get(paint);
+		if (id == null)
+		{
+			if (!(paint instanceof Color))
+			{
+				throw new IOException("unsupported paint " + paint);
+			}
+			id = Integer.valueOf(paints.size());
+			paints.put(paint, id);
+			data.writeByte(DrawingFormat.PaintTag);
+			data.writeInt(((Color) paint).getRGB());
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Indice d'un trait dans la table des styles du segment courant, en l'y
+	 * ajoutant (et en l'écrivant) s'il n'y est pas encore
+	 * @param stroke le trait (éventuellement null)
+	 * @return l'indice du trait ou {@link DrawingFormat#NoStyle}
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private int strokeId(BasicStroke stroke) throws IOException
+	{
+		if (stroke == null)
+		{
+			return DrawingFormat.NoStyle;
+		}
+		Integer id = strokes.get(stroke);
+		if (id == null)
+		{
+			id = Integer.valueOf(strokes.size());
+			strokes.put(stroke, id);
+			data.writeByte(DrawingFormat.StrokeTag);
+			FigureCodec.writeStroke(stroke, data);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Ecriture de la trame en cours à la fin du segment courant. La trame
+	 * est transmise au système (mais pas forcément au disque) : elle survit
+	 * donc à un arrêt brutal de l'éditeur.
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void writeFrame() throws IOException
+	{
+		int length = frame.size();
+		crc.reset();
+		crc.update(frame.buffer(), 0, length);
+		out.writeInt(length);
+		out.writeInt((int) crc.getValue());
+		out.write(frame.buffer(), 0, length);
+		out.flush();
+		frame.reset();
+	}
+
+	/**
+	 * Ouverture du segment {@link #segment} (remplacé s'il existe déjà) et
+	 * écriture de son en-tête
+	 * @param flags les drapeaux du segment
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void openSegment(short flags) throws IOException
+	{
+		Path path = directory.resolve(JournalFormat.SegmentPrefix + segment
+		    + JournalFormat.SegmentSuffix);
+		out = new ChannelOutput(FileChannel.open(path,
+		                                         StandardOpenOption.CREATE,
+		                                         StandardOpenOption.WRITE,
+		                                         StandardOpenOption.TRUNCATE_EXISTING));
+		paints.clear();
+		strokes.clear();
+		out.writeInt(JournalFormat.Magic);
+		out.writeShort(JournalFormat.Version);
+		out.writeShort(flags);
+		out.writeLong(segment);
+		out.flush();
+	}
+
+	/**
+	 * Fermeture du segment courant
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void closeSegment() throws IOException
+	{
+		ChannelOutput closed = out;
+		out = null;
+		closed.close();
+	}
+
+	/**
+	 * Ecriture en tâche de fond de l'instantané correspondant au début du
+	 * segment courant (les copies figées des figures ne sont plus modifiées
+	 * et peuvent donc être écrites pendant que le dessin est modifié), puis
+	 * suppression des instantanés et des segments précédents
+	 */
+	private void startSnapshot()
+	{
+		long number = segment;
+		List<Figure> figures = new ArrayList<Figure>(states);
+		snapshotting = snapshotter.submit(() ->
+		{
+			try
+			{
+				writeSnapshot(number, figures);
+				compact(number);
+			}
+			catch (IOException e)
+			{
+				System.err.println("DrawingJournal::snapshot " + number
+				    + " : " + e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Ecriture d'un instantané dans un fichier temporaire renommé une fois
+	 * l'instantané complet et écrit sur le disque
+	 * @param number le numéro de l'instantané
+	 * @param figures les figures de l'instantané
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void writeSnapshot(long number, List<Figure> figures)
+	    throws IOException
+	{
+		String name = JournalFormat.SnapshotPrefix + number
+		    + JournalFormat.SnapshotSuffix;
+		Path partial = directory.resolve(name + JournalFormat.PartialSuffix);
+		FileChannel channel = FileChannel.open(partial,
+		                                       StandardOpenOption.CREATE,
+		                                       StandardOpenOption.WRITE,
+		                                       StandardOpenOption.TRUNCATE_EXISTING);
+		try (DrawingWriter writer = new DrawingWriter(channel))
+		{
+			for (Figure f : figures)
+			{
+				writer.write(f);
+			}
+		}
+		// le canal est fermé par l'écrivain : rouvert pour l'écrire sur
+		// le disque avant de le renommer
+		try (FileChannel written = FileChannel.open(partial,
+		                                             StandardOpenOption.WRITE))
+		{
+			written.force(true);
+		}
+		Files.move(partial, directory.resolve(name),
+		           StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Compactage du journal : suppression des instantanés et des segments
+	 * précédant un instantané complet
+	 * @param number le numéro de l'instantané complet
+	 * @throws IOException en cas d'erreur de suppression
+	 */
+	private void compact(long number) throws IOException
+	{
+		for (Map.Entry<Long, Path> entry :
+		    list(directory, JournalFormat.SnapshotPrefix,
+		         JournalFormat.SnapshotSuffix).entrySet())
+		{
+			if (entry.getKey().longValue() < number)
+			{
+				Files.deleteIfExists(entry.getValue());
+			}
+		}
+		for (Map.Entry<Long, Path> entry :
+		    list(directory, JournalFormat.SegmentPrefix,
+		         JournalFormat.SegmentSuffix).entrySet())
+		{
+			if (entry.getKey().longValue() < number)
+			{
+				Files.deleteIfExists(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Attente de la fin de l'écriture de l'instantané en cours
+	 */
+	private void awaitSnapshot()
+	{
+		if (snapshotting == null)
+		{
+			return;
+		}
+		try
+		{
+			snapshotting.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			System.err.println(getClass().getSimpleName()
+			    + "::awaitSnapshot : " + e.getCause());
+		}
+		snapshotting = null;
+	}
+
+	/**
+	 * Reconstruction d'un dessin à partir d'un journal : le dernier
+	 * instantané complet est lu puis les segments suivants sont rejoués dans
+	 * l'ordre. La lecture d'un segment s'arrête à sa première trame
+	 * incomplète ou corrompue (la fin d'une session interrompue).
+	 * Le dessin reconstruit remplace le contenu du dessin dans une
+	 * transaction (une seule notification), sauf si le journal est vide.
+	 * @param drawing le dessin à reconstruire
+	 * @param directory le répertoire du journal
+	 * @return le nombre de trames rejouées ou bien -1 s'il n'y a pas de
+	 * journal dans le répertoire
+	 * @throws IOException si l'instantané ou les trames sont invalides ou en
+	 * cas d'erreur de lecture
+	 */
+	public static long recover(Drawing drawing, Path directory)
+	    throws IOException
+	{
+		if (!Files.isDirectory(directory))
+		{
+			return -1;
+		}
+		TreeMap<Long, Path> snapshots = list(directory,
+		                                     JournalFormat.SnapshotPrefix,
+		                                     JournalFormat.SnapshotSuffix);
+		TreeMap<Long, Path> segments = list(directory,
+		                                    JournalFormat.SegmentPrefix,
+		                                    JournalFormat.SegmentSuffix);
+		if (snapshots.isEmpty() && segments.isEmpty())
+		{
+			return -1;
+		}
+
+		List<Figure> figures;
+		long first = Long.MIN_VALUE;
+		if (snapshots.isEmpty())
+		{
+			figures = new ArrayList<Figure>();
+		}
+		else
+		{
+			Map.Entry<Long, Path> latest = snapshots.lastEntry();
+			first = latest.getKey().longValue();
+			try (DrawingReader reader =
+			    new DrawingReader(FileChannel.open(latest.getValue(),
+			                                       StandardOpenOption.READ)))
+			{
+				figures = reader.readAll();
+			}
+		}
+
+		long frames = 0;
+		for (Map.Entry<Long, Path> entry :
+		    segments.tailMap(Long.valueOf(first)).entrySet())
+		{
+			long replayed = replay(entry.getValue(), figures,
+			                       entry.getKey().longValue() == first);
+			if (replayed < 0)
+			{
+				// segment suivant un ajout massif dont l'instantané n'a
+				// pas été terminé : le dessin est reconstruit tel qu'il
+				// était avant l'ajout
+				break;
+			}
+			frames += replayed;
+		}
+
+		drawing.beginTransaction();
+		try
+		{
+			drawing.clear();
+			drawing.addFigures(figures);
+			drawing.updateSelection();
+		}
+		catch (RuntimeException e)
+		{
+			drawing.rollback();
+			throw e;
+		}
+		drawing.commit();
+		return frames;
+	}
+
+	/**
+	 * Application des trames complètes d'un segment à une liste de figures
+	 * @param path le chemin du segment
+	 * @param figures les figures auxquelles appliquer les trames
+	 * @param fromSnapshot indique si les figures proviennent de l'instantané
+	 * du segment
+	 * @return le nombre de trames appliquées ou bien -1 si le segment ne
+	 * peut être rejoué qu'à partir de son instantané
+	 * ({@link JournalFormat#SnapshotRequired}) et que les figures n'en
+	 * proviennent pas
+	 * @throws IOException si le segment est invalide ou en cas d'erreur de
+	 * lecture
+	 */
+	private static long replay(Path path,
+	                           List<Figure> figures,
+	                           boolean fromSnapshot)
+	    throws IOException
+	{
+		List<Paint> paints = new ArrayList<Paint>();
+		List<BasicStroke> strokes = new ArrayList<BasicStroke>();
+		CRC32 crc = new CRC32();
+		long frames = 0;
+		try (FileChannel channel = FileChannel.open(path,
+		                                            StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size < JournalFormat.HeaderSize)
+			{
+				// en-tête interrompu : segment vide
+				return 0;
+			}
+			ChannelInput in = new ChannelInput(channel);
+			if (in.readInt() != JournalFormat.Magic)
+			{
+				throw new IOException(path + " is not a journal segment");
+			}
+			short version = in.readShort();
+			if (version != JournalFormat.Version)
+			{
+				throw new IOException("unsupported version " + version);
+			}
+			short flags = in.readShort();
+			in.readLong(); // numéro du segment
+			if (((flags & JournalFormat.SnapshotRequired) != 0)
+			    && !fromSnapshot)
+			{
+				return -1;
+			}
+
+			long position = JournalFormat.HeaderSize;
+			while ((size - position) >= JournalFormat.FrameHeaderSize)
+			{
+				int length = in.readInt();
+				int sum = in.readInt();
+				position += JournalFormat.FrameHeaderSize;
+				if ((length <= 0) || (length > (size - position)))
+				{
+					break;
+				}
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				position += length;
+				crc.reset();
+				crc.update(payload, 0, length);
+				if ((int) crc.getValue() != sum)
+				{
+					break;
+				}
+				apply(new ChannelInput(ByteBuffer.wrap(payload), 0), figures,
+				      paints, strokes);
+				frames++;
+			}
+		}
+		catch (EOFException e)
+		{
+			// trame interrompue : fin du segment
+		}
+		return frames;
+	}
+
+	/**
+	 * Application des enregistrements d'une trame à une liste de figures
+	 * @param in le flux des enregistrements de la trame
+	 * @param figures les figures auxquelles appliquer les enregistrements
+	 * @param paints la table des couleurs du segment
+	 * @param strokes la table des traits du segment
+	 * @throws IOException si un enregistrement est invalide
+	 */
+	private static void apply(ChannelInput in,
+	                          List<Figure> figures,
+	                          List<Paint> paints,
+	                          List<BasicStroke> strokes)
+	    throws IOException
+	{
+		try
+		{
+			while (true)
+			{
+				byte tag = in.readByte();
+				switch (tag)
+				{
+					case DrawingFormat.PaintTag:
+						paints.add(PaintFactory.getPaint(new Color(in.readInt(), true)));
+						break;
+					case DrawingFormat.StrokeTag:
+						strokes.add(FigureCodec.readStroke(in));
+						break;
+					case JournalFormat.AddTag:
+					{
+						int index = checkIndex(in.readInt(), figures.size() + 1);
+						int count = in.readInt();
+						List<Figure> added = new ArrayList<Figure>(count);
+						for (int i = 0; i < count; i++)
+						{
+							added.add(readFigure(in, paints, strokes));
+						}
+						figures.addAll(index, added);
+						break;
+					}
+					case JournalFormat.RemoveTag:
+					{
+						int index = in.readInt();
+						int count = in.readInt();
+						checkIndex(index + count - 1, figures.size());
+						figures.subList(checkIndex(index, figures.size()),
+						                index + count).clear();
+						break;
+					}
+					case JournalFormat.OrderTag:
+					{
+						int index = in.readInt();
+						int count = in.readInt();
+						checkIndex(index + count - 1, figures.size());
+						List<Figure> range = figures.subList(
+						    checkIndex(index, figures.size()), index + count);
+						List<Figure> previous = new ArrayList<Figure>(range);
+						for (int i = 0; i < count; i++)
+						{
+							range.set(i, previous.get(checkIndex(in.readInt(),
+							                                     count)));
+						}
+						break;
+					}
+					case JournalFormat.TransformTag:
+						FigureCodec.readPlacement(figure(figures, in.readInt()),
+						                          in);
+						break;
+					case JournalFormat.StyleTag:
+					{
+						Figure figure = figure(figures, in.readInt());
+						figure.setEdgePaint(style(paints, in.readInt()));
+						figure.setFillPaint(style(paints, in.readInt()));
+						figure.setStroke(style(strokes, in.readInt()));
+						break;
+					}
+					case JournalFormat.ShapeTag:
+						FigureCodec.readGeometry(figure(figures, in.readInt()),
+						                         in);
+						break;
+					case JournalFormat.SelectTag:
+						figure(figures, in.readInt())
+						    .setSelected(in.readBoolean());
+						break;
+					default:
+						throw new IOException("unknown tag " + tag);
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			// fin de la trame
+		}
+	}
+
+	/**
+	 * Lecture d'une figure complète écrite par
+	 * {@link #writeFigure(Figure)}
+	 * @param in le flux à partir duquel lire
+	 * @param paints la table des couleurs du segment
+	 * @param strokes la table des traits du segment
+	 * @return la figure lue
+	 * @throws IOException si l'enregistrement est invalide
+	 */
+	private static Figure readFigure(ChannelInput in,
+	                                 List<Paint> paints,
+	                                 List<BasicStroke> strokes)
+	    throws IOException
+	{
+		int typeIndex = in.readUnsignedByte();
+		FigureType[] types = FigureType.values();
+		if (typeIndex >= types.length)
+		{
+			throw new IOException("unknown figure type " + typeIndex);
+		}
+		Paint edge = style(paints, in.readInt());
+		Paint fill = style(paints, in.readInt());
+		BasicStroke stroke = style(strokes, in.readInt());
+		boolean selected = in.readBoolean();
+
+		Figure figure = types[typeIndex].getFigure(stroke,
+		                                           edge,
+		                                           fill,
+		                                           new Point2D.Double());
+		figure.setSelected(selected);
+		FigureCodec.readGeometry(figure, in);
+		return figure;
+	}
+
+	/**
+	 * Obtention de la figure d'une liste à un indice lu
+	 * @param figures la liste des figures
+	 * @param index l'indice lu
+	 * @return la figure à cet indice
+	 * @throws IOException si l'indice est invalide
+	 */
+	private static Figure figure(List<Figure> figures, int index)
+	    throws IOException
+	{
+		return figures.get(checkIndex(index, figures.size()));
+	}
+
+	/**
+	 * Vérification d'un indice lu
+	 * @param index l'indice lu
+	 * @param size le nombre d'indices valides
+	 * @return l'indice s'il est compris entre 0 et size exclus
+	 * @throws IOException si l'indice est invalide
+	 */
+	private static int checkIndex(int index, int size) throws IOException
+	{
+		if ((index < 0) || (index >= size))
+		{
+			throw new IOException("invalid index " + index);
+		}
+		return index;
+	}
+
+	/**
+	 * Obtention d'un style à partir de son indice dans une table
+	 * @param table la table des styles
+	 * @param id l'indice du style
+	 * @return le style correspondant ou bien null pour
+	 * {@link DrawingFormat#NoStyle}
+	 * @throws IOException si l'indice n'a pas encore été défini
+	 */
+	private static <T> T style(List<T> table, int id) throws IOException
+	{
+		if (id == DrawingFormat.NoStyle)
+		{
+			return null;
+		}
+		if ((id < 0) || (id >= table.size()))
+		{
+			throw new IOException("undefined style " + id);
+		}
+		return table.get(id);
+	}
+
+	/**
+	 * Fichiers numérotés d'un répertoire (segments ou instantanés)
+	 * @param directory le répertoire
+	 * @param prefix le préfixe des noms des fichiers
+	 * @param suffix le suffixe des noms des fichiers
+	 * @return les fichiers indexés par leurs numéros
+	 * @throws IOException en cas d'erreur de lecture du répertoire
+	 */
+	private static TreeMap<Long, Path> list(Path directory,
+	                                        String prefix,
+	                                        String suffix)
+	    throws IOException
+	{
+		TreeMap<Long, Path> files = new TreeMap<Long, Path>();
+		try (DirectoryStream<Path> stream =
+		    Files.newDirectoryStream(directory, prefix + "*" + suffix))
+		{
+			for (Path path : stream)
+			{
+				String name = path.getFileName().toString();
+				try
+				{
+					files.put(Long.valueOf(name.substring(prefix.length(),
+					    name.length() - suffix.length())), path);
+				}
+				catch (NumberFormatException e)
+				{
+					// fichier étranger au journal
+				}
+			}
+		}
+		return files;
+	}
+}
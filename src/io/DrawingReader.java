@@ -0,0 +1,273 @@
+package io;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import figures.Drawing;
+import figures.Figure;
+import figures.FigureCodec;
+import figures.enums.FigureType;
+import utils.PaintFactory;
+
+/**
+ * Lecture en flux d'un dessin au format décrit par {@link DrawingFormat}.
+ * Les figures sont lues une à une à partir d'un canal NIO : seules les
+ * tables des styles (qui contiennent les flyweights partagés de
+ * {@link PaintFactory} et {@link utils.StrokeFactory}) sont conservées
+ * entre deux figures.
+ * @author davidroussel
+ */
+public class DrawingReader implements FigureInput
+{
+	/**
+	 * Le flux de données à partir duquel lire
+	 */
+	private final ChannelInput in;
+
+	/**
+	 * Table des couleurs lues
+	 */
+	private final List<Paint> paints;
+
+	/**
+	 * Table des traits lus
+	 */
+	private final List<BasicStroke> strokes;
+
+	/**
+	 * Nombre de figures lues
+	 */
+	private long count;
+
+	/**
+	 * Indique si la fin du dessin a été atteinte
+	 */
+	private boolean ended;
+
+	/**
+	 * Constructeur d'un lecteur de dessin à partir d'un canal : lit et
+	 * vérifie l'en-tête du fichier
+	 * @param channel le canal à partir duquel lire
+	 * @throws IOException si le canal ne contient pas un dessin dans une
+	 * version connue ou en cas d'erreur de lecture
+	 */
+	public DrawingReader(ReadableByteChannel channel) throws IOException
+	{
+		in = new ChannelInput(channel);
+		paints = new ArrayList<Paint>();
+		strokes = new ArrayList<BasicStroke>();
+		count = 0;
+		ended = false;
+
+		try
+		{
+			if (in.readInt() != DrawingFormat.Magic)
+			{
+				throw new IOException("not a drawing");
+			}
+			short version = in.readShort();
+			if (version != DrawingFormat.Version)
+			{
+				throw new IOException("unsupported version " + version);
+			}
+			in.readShort(); // drapeaux réservés
+		}
+		catch (IOException e)
+		{
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Lecture de la figure suivante (ainsi que des styles qui la précèdent)
+	 * @return la figure suivante ou bien null si la fin du dessin est
+	 * atteinte
+	 * @throws IOException si le contenu du dessin est invalide ou en cas
+	 * d'erreur de lecture
+	 */
+	@Override
+	public Figure read() throws IOException
+	{
+		while (!ended)
+		{
+			byte tag = in.readByte();
+			switch (tag)
+			{
+				case DrawingFormat.PaintTag:
+					paints.add(PaintFactory.getPaint(new Color(in.readInt(), true)));
+					break;
+				case DrawingFormat.StrokeTag:
+					strokes.add(FigureCodec.readStroke(in));
+					break;
+				case DrawingFormat.FigureTag:
+					return readFigure();
+				case DrawingFormat.EndTag:
+					ended = true;
+					long expected = in.readLong();
+					if (expected != count)
+					{
+						throw new IOException("expected " + expected
+						    + " figures but read " + count);
+					}
+					break;
+				default:
+					throw new IOException("unknown tag " + tag);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Nombre de figures lues jusqu'à présent
+	 * @return le nombre de figures lues
+	 */
+	@Override
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Fermeture du canal
+	 * @throws IOException en cas d'erreur de fermeture
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * Lecture d'un enregistrement de figure (après son étiquette)
+	 * @return la figure lue
+	 * @throws IOException si l'enregistrement est invalide
+	 */
+	private Figure readFigure() throws IOException
+	{
+		int typeIndex = in.readUnsignedByte();
+		FigureType[] types = FigureType.values();
+		if (typeIndex >= types.length)
+		{
+			throw new IOException("unknown figure type " + typeIndex);
+		}
+		Paint edge = style(paints, in.readInt());
+		Paint fill = style(paints, in.readInt());
+		BasicStroke stroke = style(strokes, in.readInt());
+		boolean selected = in.readBoolean();
+
+		Figure figure = types[typeIndex].getFigure(stroke,
+		                                           edge,
+		                                           fill,
+		                                           new Point2D.Double());
+		figure.setSelected(selected);
+		FigureCodec.readGeometry(figure, in);
+		count++;
+		return figure;
+	}
+
+	/**
+	 * Obtention d'un style à partir de son indice dans une table
+	 * @param table la table des styles
+	 * @param id l'indice du style
+	 * @return le style correspondant ou bien null pour
+	 * {@link DrawingFormat#NoStyle}
+	 * @throws IOException si l'indice n'a pas encore été défini
+	 */
+	private static <T> T style(List<T> table, int id) throws IOException
+	{
+		if (id == DrawingFormat.NoStyle)
+		{
+			return null;
+		}
+		if ((id < 0) || (id >= table.size()))
+		{
+			throw new IOException("undefined style " + id);
+		}
+		return table.get(id);
+	}
+
+	/**
+	 * Chargement d'un fichier de dessin à la place du contenu d'un dessin.
+	 * Les fichiers dans la version indexée du format sont lus par un
+	 * {@link IndexedDrawingReader} (les formes des figures sont alors
+	 * chargées à la demande à partir du fichier projeté en mémoire, et les
+	 * blocs de figures sont décodés en parallèle).
+	 * Le chargement est effectué dans une transaction du dessin : il ne
+	 * produit qu'une seule notification (et une seule entrée d'historique),
+	 * et le dessin est restauré si le fichier est invalide.
+	 * @param drawing le dessin à remplir
+	 * @param path le chemin du fichier
+	 * @return le nombre de figures lues
+	 * @throws IOException si le fichier est invalide ou en cas d'erreur de
+	 * lecture
+	 */
+	public static long load(Drawing drawing, Path path) throws IOException
+	{
+		long loaded;
+		drawing.beginTransaction();
+		try (FigureInput reader = open(path))
+		{
+			List<Figure> figures = reader.readAll();
+			drawing.clear();
+			drawing.addFigures(figures);
+			drawing.updateSelection();
+			loaded = reader.getCount();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			drawing.rollback();
+			throw e;
+		}
+		drawing.commit();
+		return loaded;
+	}
+
+	/**
+	 * Ouverture d'un fichier de dessin avec le lecteur correspondant à la
+	 * version de son format
+	 * @param path le chemin du fichier
+	 * @return le lecteur des figures du fichier
+	 * @throws IOException si le fichier ne contient pas un dessin ou en cas
+	 * d'erreur de lecture
+	 */
+	private static FigureInput open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Short.BYTES);
+			// lecture du nombre magique et de la version
+			int n = 0;
+			while (header.hasRemaining() && (n >= 0))
+			{
+				n = channel.read(header);
+			}
+			header.flip();
+			if ((header.remaining() == header.capacity())
+			    && (header.getInt() == DrawingFormat.Magic)
+			    && (header.getShort() == DrawingFormat.IndexedVersion))
+			{
+				channel.close();
+				return new IndexedDrawingReader(path);
+			}
+			channel.position(0);
+			return new DrawingReader(channel);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+}
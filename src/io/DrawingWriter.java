@@ -0,0 +1,194 @@
+package io;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import figures.Drawing;
+import figures.Figure;
+import figures.FigureCodec;
+
+/**
+ * Ecriture en flux d'un dessin au format décrit par {@link DrawingFormat}.
+ * Les figures sont écrites au fur et à mesure dans un canal NIO sans
+ * construire de représentation intermédiaire du dessin. Les couleurs et les
+ * traits étant des flyweights (cf. {@link utils.PaintFactory} et
+ * {@link utils.StrokeFactory}), les tables des styles sont indexées par
+ * identité : chaque style n'est écrit qu'une seule fois, juste avant la
+ * première figure qui l'utilise.
+ * @author davidroussel
+ */
+public class DrawingWriter implements Closeable
+{
+	/**
+	 * Le flux de données dans lequel écrire
+	 */
+	private final ChannelOutput out;
+
+	/**
+	 * Indices des couleurs déjà écrites
+	 */
+	private final Map<Paint, Integer> paints;
+
+	/**
+	 * Indices des traits déjà écrits
+	 */
+	private final Map<BasicStroke, Integer> strokes;
+
+	/**
+	 * Nombre de figures écrites
+	 */
+	private long count;
+
+	/**
+	 * Constructeur d'un écrivain de dessin dans un canal : écrit l'en-tête
+	 * du fichier
+	 * @param channel le canal dans lequel écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	public DrawingWriter(WritableByteChannel channel) throws IOException
+	{
+		out = new ChannelOutput(channel);
+		paints = new IdentityHashMap<Paint, Integer>();
+		strokes = new IdentityHashMap<BasicStroke, Integer>();
+		count = 0;
+
+		out.writeInt(DrawingFormat.Magic);
+		out.writeShort(DrawingFormat.Version);
+		out.writeShort(0);
+	}
+
+	/**
+	 * Ecriture d'une figure (précédée si besoin de ses nouveaux styles)
+	 * @param figure la figure à écrire
+	 * @throws IOException en cas d'erreur d'écriture ou si l'une des couleurs
+	 * de la figure n'est pas une {@link Color}
+	 */
+	public void write(Figure figure) throws IOException
+	{
+		int edgeId = paintId(figure.getEdgePaint());
+		int fillId = paintId(figure.getFillPaint());
+		int strokeId = strokeId(figure.getStroke());
+
+		out.writeByte(DrawingFormat.FigureTag);
+		out.writeByte(figure.getType().ordinal());
+		out.writeInt(edgeId);
+		out.writeInt(fillId);
+		out.writeInt(strokeId);
+		out.writeBoolean(figure.isSelected());
+		FigureCodec.writeGeometry(figure, out);
+		count++;
+	}
+
+	/**
+	 * Nombre de figures écrites jusqu'à présent
+	 * @return le nombre de figures écrites
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Ecriture de la fin du dessin puis fermeture du canal
+	 * @throws IOException en cas d'erreur d'écriture ou de fermeture
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			out.writeByte(DrawingFormat.EndTag);
+			out.writeLong(count);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Indice d'une couleur dans la table des styles, en l'y ajoutant (et en
+	 * l'écrivant) si elle n'y est pas encore
+	 * @param paint la couleur (éventuellement null)
+	 * @return l'indice de la couleur ou {@link DrawingFormat#NoStyle}
+	 * @throws IOException si la couleur n'est pas une {@link Color} ou en cas
+	 * d'erreur d'écriture
+	 */
+	private int paintId(Paint paint) throws IOException
+	{
+		if (paint == null)
+		{
+			return DrawingFormat.NoStyle;
+		}
+		Integer id = paints.get(paint);
+		if (id == null)
+		{
+			if (!(paint instanceof Color))
+			{
+				throw new IOException("unsupported paint " + paint);
+			}
+			id = Integer.valueOf(paints.size());
+			paints.put(paint, id);
+			out.writeByte(DrawingFormat.PaintTag);
+			out.writeInt(((Color) paint).getRGB());
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Indice d'un trait dans la table des styles, en l'y ajoutant (et en
+	 * l'écrivant) s'il n'y est pas encore
+	 * @param stroke le trait (éventuellement null)
+	 * @return l'indice du trait ou {@link DrawingFormat#NoStyle}
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private int strokeId(BasicStroke stroke) throws IOException
+	{
+		if (stroke == null)
+		{
+			return DrawingFormat.NoStyle;
+		}
+		Integer id = strokes.get(stroke);
+		if (id == null)
+		{
+			id = Integer.valueOf(strokes.size());
+			strokes.put(stroke, id);
+			out.writeByte(DrawingFormat.StrokeTag);
+			FigureCodec.writeStroke(stroke, out);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Enregistrement de toutes les figures d'un dessin dans un fichier
+	 * @param drawing le dessin à enregistrer
+	 * @param path le chemin du fichier (remplacé s'il existe déjà)
+	 * @return le nombre de figures écrites
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	public static long save(Drawing drawing, Path path) throws IOException
+	{
+		try (DrawingWriter writer =
+		    new DrawingWriter(FileChannel.open(path,
+		                                       StandardOpenOption.CREATE,
+		                                       StandardOpenOption.WRITE,
+		                                       StandardOpenOption.TRUNCATE_EXISTING)))
+		{
+			for (Iterator<Figure> it = drawing.streamAll().iterator(); it.hasNext();)
+			{
+				writer.write(it.next());
+			}
+			return writer.getCount();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import figures.Figure;
+
+/**
+ * Lecteur de figures d'un fichier de dessin (quelle que soit la version de
+ * son format)
+ * @author davidroussel
+ */
+interface FigureInput extends Closeable
+{
+	/**
+	 * Lecture de la figure suivante
+	 * @return la figure suivante ou bien null si la fin du dessin est
+	 * atteinte
+	 * @throws IOException si le contenu du dessin est invalide ou en cas
+	 * d'erreur de lecture
+	 */
+	public abstract Figure read() throws IOException;
+
+	/**
+	 * Nombre de figures lues jusqu'à présent
+	 * @return le nombre de figures lues
+	 */
+	public abstract long getCount();
+
+	/**
+	 * Lecture de toutes les figures restantes
+	 * @return la liste des figures restantes dans l'ordre du dessin
+	 * @throws IOException si le contenu du dessin est invalide ou en cas
+	 * d'erreur de lecture
+	 */
+	public default List<Figure> readAll() throws IOException
+	{
+		List<Figure> figures = new ArrayList<Figure>();
+		for (Figure figure = read(); figure != null; figure = read())
+		{
+			figures.add(figure);
+		}
+		return figures;
+	}
+}
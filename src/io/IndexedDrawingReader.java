@@ -0,0 +1,492 @@
+package io;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import figures.Figure;
+import figures.FigureCodec;
+import figures.enums.FigureType;
+import utils.PaintFactory;
+
+/**
+ * Lecture d'un dessin dans la version indexée du format décrit par
+ * {@link DrawingFormat} ({@link DrawingFormat#IndexedVersion}) projeté en
+ * mémoire. Seuls les styles, le placement et le rectangle englobant (lu
+ * dans l'index) des figures sont décodés lors de la lecture : les formes
+ * des figures ne sont décodées à partir du fichier projeté que lorsqu'elles
+ * sont nécessaires (dessin, test d'appartenance, modification) et peuvent
+ * être libérées lorsque la mémoire vient à manquer
+ * (cf. {@link figures.ShapeSource}).
+ * Le fichier est projeté par segments d'au plus {@link #SegmentSize}
+ * octets (un enregistrement n'étant jamais à cheval sur deux segments),
+ * qui restent valides après la fermeture de ce lecteur.
+ * Lorsque le fichier contient une table des blocs, {@link #readAll()}
+ * décode les blocs en parallèle sur le {@link ForkJoinPool} commun (chaque
+ * bloc étant alors projeté dans son propre segment).
+ * @author davidroussel
+ */
+public class IndexedDrawingReader implements FigureInput
+{
+	/**
+	 * Taille maximale d'un segment projeté en mémoire
+	 */
+	public static final int SegmentSize = 1 << 30;
+
+	/**
+	 * Nombre d'entrées de l'index par segment d'index projeté
+	 */
+	private static final int IndexEntriesPerSegment =
+	    SegmentSize / DrawingFormat.IndexEntrySize;
+
+	/**
+	 * Le canal du fichier
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Nombre de figures du dessin
+	 */
+	private final long size;
+
+	/**
+	 * Position de la table des styles (qui est aussi la fin des
+	 * enregistrements des figures)
+	 */
+	private final long stylesOffset;
+
+	/**
+	 * Position de l'index
+	 */
+	private final long indexOffset;
+
+	/**
+	 * Table des couleurs
+	 */
+	private final Paint[] paints;
+
+	/**
+	 * Table des traits
+	 */
+	private final BasicStroke[] strokes;
+
+	/**
+	 * Table des blocs : position des enregistrements, taille des
+	 * enregistrements, numéro de la première figure et nombre de figures de
+	 * chaque bloc (ou null si le fichier n'a pas de table des blocs)
+	 */
+	private final long[][] chunks;
+
+	/**
+	 * Segment courant de l'index
+	 */
+	private ByteBuffer indexSegment;
+
+	/**
+	 * Numéro du segment courant de l'index (ou -1)
+	 */
+	private long indexSegmentNumber;
+
+	/**
+	 * Segment courant des enregistrements
+	 */
+	private ByteBuffer records;
+
+	/**
+	 * Position dans le fichier du début de {@link #records}
+	 */
+	private long recordsStart;
+
+	/**
+	 * Position dans le fichier de la fin de {@link #records}
+	 */
+	private long recordsEnd;
+
+	/**
+	 * Nombre de figures lues
+	 */
+	private long count;
+
+	/**
+	 * Constructeur d'un lecteur de dessin indexé : projette le fichier en
+	 * mémoire, vérifie son en-tête et lit sa table des styles
+	 * @param path le chemin du fichier
+	 * @throws IOException si le fichier ne contient pas un dessin indexé
+	 * ou en cas d'erreur de lecture
+	 */
+	public IndexedDrawingReader(Path path) throws IOException
+	{
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			long fileSize = channel.size();
+			if (fileSize < DrawingFormat.HeaderSize)
+			{
+				throw new IOException("not a drawing");
+			}
+			ChannelInput header =
+			    new ChannelInput(map(0, DrawingFormat.HeaderSize), 0);
+			if (header.readInt() != DrawingFormat.Magic)
+			{
+				throw new IOException("not a drawing");
+			}
+			short version = header.readShort();
+			if (version != DrawingFormat.IndexedVersion)
+			{
+				throw new IOException("unsupported version " + version);
+			}
+			short flags = header.readShort();
+			size = header.readLong();
+			stylesOffset = header.readLong();
+			indexOffset = header.readLong();
+			if ((size < 0)
+			    || (stylesOffset < DrawingFormat.HeaderSize)
+			    || (indexOffset < stylesOffset)
+			    || (indexOffset + (size * DrawingFormat.IndexEntrySize) > fileSize))
+			{
+				throw new IOException("corrupted drawing header");
+			}
+
+			ChannelInput styles =
+			    new ChannelInput(map(stylesOffset, indexOffset - stylesOffset), 0);
+			paints = new Paint[styles.readInt()];
+			for (int i = 0; i < paints.length; i++)
+			{
+				paints[i] = PaintFactory.getPaint(new Color(styles.readInt(), true));
+			}
+			strokes = new BasicStroke[styles.readInt()];
+			for (int i = 0; i < strokes.length; i++)
+			{
+				strokes[i] = FigureCodec.readStroke(styles);
+			}
+
+			if ((flags & DrawingFormat.ChunkedFlag) != 0)
+			{
+				long tableOffset =
+				    indexOffset + (size * DrawingFormat.IndexEntrySize);
+				ChannelInput table =
+				    new ChannelInput(map(tableOffset, fileSize - tableOffset), 0);
+				chunks = new long[table.readInt()][];
+				long first = 0;
+				for (int i = 0; i < chunks.length; i++)
+				{
+					long offset = table.readLong();
+					long length = table.readInt() & 0xFFFFFFFFL;
+					long figures = table.readInt() & 0xFFFFFFFFL;
+					if ((offset < DrawingFormat.HeaderSize)
+					    || (offset + length > stylesOffset)
+					    || (length > SegmentSize))
+					{
+						throw new IOException("corrupted chunk " + i);
+					}
+					chunks[i] = new long[] {offset, length, first, figures};
+					first += figures;
+				}
+				if (first != size)
+				{
+					throw new IOException("expected " + size
+					    + " figures but chunks contain " + first);
+				}
+			}
+			else
+			{
+				chunks = null;
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+
+		indexSegment = null;
+		indexSegmentNumber = -1;
+		records = null;
+		recordsStart = 0;
+		recordsEnd = 0;
+		count = 0;
+	}
+
+	/**
+	 * Nombre de figures du dessin
+	 * @return le nombre de figures du dessin
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * Lecture de la figure suivante, dont la forme sera chargée à la demande
+	 * @return la figure suivante ou bien null si toutes les figures ont été
+	 * lues
+	 * @throws IOException si le contenu du dessin est invalide
+	 */
+	@Override
+	public Figure read() throws IOException
+	{
+		if (count >= size)
+		{
+			return null;
+		}
+
+		// position de l'enregistrement et de celui qui le suit
+		int entry = indexEntry(count);
+		long offset = indexSegment.getLong(entry);
+		long end = (count + 1 < size ?
+		    indexSegment.getLong(entry + DrawingFormat.IndexEntrySize) :
+		    stylesOffset);
+		if ((offset < DrawingFormat.HeaderSize) || (end < offset)
+		    || (end > stylesOffset) || (end - offset > SegmentSize))
+		{
+			throw new IOException("corrupted index entry " + count);
+		}
+
+		if ((offset < recordsStart) || (end > recordsEnd))
+		{
+			recordsStart = offset;
+			recordsEnd = Math.min(stylesOffset, offset + SegmentSize);
+			records = map(recordsStart, recordsEnd - recordsStart);
+		}
+		Figure figure = decode(records,
+		                       (int) (offset - recordsStart),
+		                       indexSegment,
+		                       entry);
+		count++;
+		return figure;
+	}
+
+	/**
+	 * Lecture de toutes les figures restantes. Lorsque le fichier contient
+	 * une table des blocs et qu'aucune figure n'a encore été lue, les blocs
+	 * sont décodés en parallèle puis assemblés dans l'ordre.
+	 * @return la liste des figures restantes dans l'ordre du dessin
+	 * @throws IOException si le contenu du dessin est invalide
+	 */
+	@Override
+	public List<Figure> readAll() throws IOException
+	{
+		if ((chunks == null) || (count > 0))
+		{
+			return FigureInput.super.readAll();
+		}
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<ForkJoinTask<Figure[]>> tasks = new ArrayList<ForkJoinTask<Figure[]>>();
+		for (long[] chunk : chunks)
+		{
+			tasks.add(pool.submit(() -> decodeChunk(chunk)));
+		}
+
+		List<Figure> figures = new ArrayList<Figure>((int) Math.min(size, Integer.MAX_VALUE));
+		for (ForkJoinTask<Figure[]> task : tasks)
+		{
+			figures.addAll(Arrays.asList(join(task)));
+		}
+		count = size;
+		return figures;
+	}
+
+	/**
+	 * Nombre de figures lues jusqu'à présent
+	 * @return le nombre de figures lues
+	 */
+	@Override
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Fermeture du canal : les segments déjà projetés restent valides
+	 * @throws IOException en cas d'erreur de fermeture
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	/**
+	 * Décodage des figures d'un bloc (éventuellement dans un autre fil
+	 * d'exécution) : le bloc et sa partie de l'index sont projetés dans leurs
+	 * propres segments
+	 * @param chunk l'entrée de la table des blocs : position et taille des
+	 * enregistrements, numéro de la première figure et nombre de figures
+	 * @return les figures du bloc
+	 * @throws IOException si le contenu du bloc est invalide
+	 */
+	private Figure[] decodeChunk(long[] chunk) throws IOException
+	{
+		long offset = chunk[0];
+		int length = (int) chunk[1];
+		Figure[] figures = new Figure[(int) chunk[3]];
+		ByteBuffer segment = map(offset, length);
+		ByteBuffer index =
+		    map(indexOffset + (chunk[2] * DrawingFormat.IndexEntrySize),
+		        (long) figures.length * DrawingFormat.IndexEntrySize);
+		for (int i = 0; i < figures.length; i++)
+		{
+			int entry = i * DrawingFormat.IndexEntrySize;
+			long position = index.getLong(entry) - offset;
+			if ((position < 0) || (position >= length))
+			{
+				throw new IOException("corrupted index entry " + (chunk[2] + i));
+			}
+			figures[i] = decode(segment, (int) position, index, entry);
+		}
+		return figures;
+	}
+
+	/**
+	 * Décodage d'une figure dont la forme sera chargée à la demande
+	 * @param segment le segment contenant l'enregistrement de la figure
+	 * @param position la position de l'enregistrement dans le segment
+	 * @param index le segment contenant l'entrée d'index de la figure
+	 * @param entry la position de l'entrée d'index dans son segment
+	 * @return la figure décodée
+	 * @throws IOException si l'enregistrement est invalide
+	 */
+	private Figure decode(ByteBuffer segment,
+	                      int position,
+	                      ByteBuffer index,
+	                      int entry)
+	    throws IOException
+	{
+		int shapeOffset = index.getInt(entry + 8);
+		Rectangle2D bounds =
+		    new Rectangle2D.Double(index.getDouble(entry + 12),
+		                           index.getDouble(entry + 20),
+		                           index.getDouble(entry + 28),
+		                           index.getDouble(entry + 36));
+
+		ChannelInput in = new ChannelInput(segment, position);
+		int typeIndex = in.readUnsignedByte();
+		FigureType[] types = FigureType.values();
+		if (typeIndex >= types.length)
+		{
+			throw new IOException("unknown figure type " + typeIndex);
+		}
+		Paint edge = style(paints, in.readInt());
+		Paint fill = style(paints, in.readInt());
+		BasicStroke stroke = style(strokes, in.readInt());
+		boolean selected = in.readBoolean();
+
+		Figure figure = types[typeIndex].getFigure(stroke,
+		                                           edge,
+		                                           fill,
+		                                           new Point2D.Double());
+		figure.setSelected(selected);
+		FigureCodec.readPlacement(figure,
+		                          in,
+		                          new MappedShapeSource(segment,
+		                                                position + shapeOffset),
+		                          bounds);
+		return figure;
+	}
+
+	/**
+	 * Attente du décodage d'un bloc
+	 * @param task la tâche de décodage
+	 * @return les figures du bloc
+	 * @throws IOException si le décodage a échoué
+	 */
+	private static Figure[] join(ForkJoinTask<Figure[]> task)
+	    throws IOException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Position de l'entrée d'une figure dans le segment d'index courant, en
+	 * projetant si besoin le segment d'index la contenant. Chaque segment
+	 * d'index contient aussi la première entrée du segment suivant afin que
+	 * la position de l'enregistrement suivant soit toujours accessible.
+	 * @param i le numéro de la figure
+	 * @return la position de l'entrée dans {@link #indexSegment}
+	 * @throws IOException en cas d'erreur de projection
+	 */
+	private int indexEntry(long i) throws IOException
+	{
+		long number = i / IndexEntriesPerSegment;
+		if (number != indexSegmentNumber)
+		{
+			long first = number * IndexEntriesPerSegment;
+			long entries = Math.min(size - first, IndexEntriesPerSegment + 1L);
+			indexSegment =
+			    map(indexOffset + (first * DrawingFormat.IndexEntrySize),
+			        entries * DrawingFormat.IndexEntrySize);
+			indexSegmentNumber = number;
+		}
+		return (int) (i - (number * IndexEntriesPerSegment))
+		    * DrawingFormat.IndexEntrySize;
+	}
+
+	/**
+	 * Projection en lecture seule d'une partie du fichier
+	 * @param position la position de la partie à projeter
+	 * @param length la taille de la partie à projeter
+	 * @return le segment projeté
+	 * @throws IOException en cas d'erreur de projection
+	 */
+	private MappedByteBuffer map(long position, long length) throws IOException
+	{
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	/**
+	 * Obtention d'un style à partir de son indice dans une table
+	 * @param table la table des styles
+	 * @param id l'indice du style
+	 * @return le style correspondant ou bien null pour
+	 * {@link DrawingFormat#NoStyle}
+	 * @throws IOException si l'indice n'est pas défini
+	 */
+	private static <T> T style(T[] table, int id) throws IOException
+	{
+		if (id == DrawingFormat.NoStyle)
+		{
+			return null;
+		}
+		if ((id < 0) || (id >= table.length))
+		{
+			throw new IOException("undefined style " + id);
+		}
+		return table[id];
+	}
+}
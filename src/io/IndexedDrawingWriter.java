@@ -0,0 +1,547 @@
+package io;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import figures.Drawing;
+import figures.Figure;
+import figures.FigureCodec;
+
+/**
+ * Ecriture en flux d'un dessin dans la version indexée du format décrit par
+ * {@link DrawingFormat} ({@link DrawingFormat#IndexedVersion}).
+ * Les figures sont regroupées en blocs de {@link #ChunkSize} figures
+ * codés en parallèle (sur le {@link ForkJoinPool} commun) puis écrits dans
+ * l'ordre par des écritures groupées
+ * ({@link GatheringByteChannel#write(ByteBuffer[])}). Seuls quelques blocs
+ * par fil d'exécution sont en attente à un moment donné et les entrées de
+ * l'index sont écrites dans un fichier temporaire recopié à la fin du
+ * fichier lors de la fermeture : la mémoire utilisée ne dépend pas du
+ * nombre de figures.
+ * Le fichier est d'abord écrit à côté du fichier de destination puis
+ * renommé, ce qui permet de remplacer un fichier actuellement projeté en
+ * mémoire par {@link IndexedDrawingReader}.
+ * @author davidroussel
+ */
+public class IndexedDrawingWriter implements Closeable
+{
+	/**
+	 * Nombre de figures par bloc
+	 */
+	public static final int ChunkSize = 4096;
+
+	/**
+	 * Le fichier de destination
+	 */
+	private final Path path;
+
+	/**
+	 * Le fichier en cours d'écriture
+	 */
+	private final Path tempPath;
+
+	/**
+	 * Le canal du fichier en cours d'écriture
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Position de la fin du fichier en cours d'écriture
+	 */
+	private long position;
+
+	/**
+	 * Le canal du fichier temporaire de l'index
+	 */
+	private final FileChannel indexChannel;
+
+	/**
+	 * Taille de l'index déjà écrit
+	 */
+	private long indexSize;
+
+	/**
+	 * Le pool d'exécution des codages de blocs
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Nombre de figures en attente au delà duquel elles sont codées et
+	 * écrites
+	 */
+	private final int window;
+
+	/**
+	 * Figures en attente de codage
+	 * @note les figures en attente ne doivent pas être modifiées avant
+	 * qu'elles ne soient écrites (au plus tard lors de la fermeture)
+	 */
+	private List<Figure> pending;
+
+	/**
+	 * Table des blocs écrits : position des enregistrements, taille des
+	 * enregistrements et nombre de figures de chaque bloc
+	 */
+	private final List<long[]> chunks;
+
+	/**
+	 * Indices des couleurs rencontrées
+	 */
+	private final Map<Paint, Integer> paintIds;
+
+	/**
+	 * Couleurs rencontrées dans l'ordre de leurs indices
+	 */
+	private final List<Paint> paints;
+
+	/**
+	 * Indices des traits rencontrés
+	 */
+	private final Map<BasicStroke, Integer> strokeIds;
+
+	/**
+	 * Traits rencontrés dans l'ordre de leurs indices
+	 */
+	private final List<BasicStroke> strokes;
+
+	/**
+	 * Nombre de figures écrites
+	 */
+	private long count;
+
+	/**
+	 * Indique qu'une écriture a échoué : le fichier de destination ne sera
+	 * alors pas remplacé
+	 */
+	private boolean failed;
+
+	/**
+	 * Constructeur d'un écrivain de dessin indexé
+	 * @param path le fichier de destination (remplacé lors de la fermeture
+	 * s'il existe déjà)
+	 * @throws IOException si les fichiers temporaires ne peuvent pas être
+	 * créés
+	 */
+	public IndexedDrawingWriter(Path path) throws IOException
+	{
+		this.path = path.toAbsolutePath();
+		tempPath = Files.createTempFile(this.path.getParent(),
+		                                this.path.getFileName().toString(),
+		                                ".tmp");
+		channel = FileChannel.open(tempPath,
+		                           StandardOpenOption.WRITE,
+		                           StandardOpenOption.TRUNCATE_EXISTING);
+		indexChannel = FileChannel.open(Files.createTempFile("drawing", ".index"),
+		                                StandardOpenOption.READ,
+		                                StandardOpenOption.WRITE,
+		                                StandardOpenOption.DELETE_ON_CLOSE);
+		indexSize = 0;
+		pool = ForkJoinPool.commonPool();
+		window = ChunkSize * 2 * Math.max(1, pool.getParallelism());
+		pending = new ArrayList<Figure>();
+		chunks = new ArrayList<long[]>();
+		paintIds = new IdentityHashMap<Paint, Integer>();
+		paints = new ArrayList<Paint>();
+		strokeIds = new IdentityHashMap<BasicStroke, Integer>();
+		strokes = new ArrayList<BasicStroke>();
+		count = 0;
+		failed = false;
+
+		// l'en-tête sera complété lors de la fermeture
+		writeFully(channel, new ByteBuffer[] {
+			ByteBuffer.allocate(DrawingFormat.HeaderSize)
+		});
+		position = DrawingFormat.HeaderSize;
+	}
+
+	/**
+	 * Ecriture d'une figure : la figure est mise en attente et sera codée
+	 * avec les autres figures de son bloc
+	 * @param figure la figure à écrire (qui ne doit plus être modifiée
+	 * avant la fermeture de cet écrivain)
+	 * @throws IOException en cas d'erreur d'écriture ou si l'une des couleurs
+	 * de la figure n'est pas une {@link Color}
+	 */
+	public void write(Figure figure) throws IOException
+	{
+		try
+		{
+			// les styles sont enregistrés ici afin que les tables des styles
+			// ne soient plus modifiées pendant le codage des blocs
+			paintId(figure.getEdgePaint());
+			paintId(figure.getFillPaint());
+			strokeId(figure.getStroke());
+			pending.add(figure);
+			count++;
+			if (pending.size() >= window)
+			{
+				flushChunks();
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			failed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Nombre de figures écrites jusqu'à présent
+	 * @return le nombre de figures écrites
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Ecriture des figures en attente, de la table des styles, de l'index,
+	 * de la table des blocs et de l'en-tête puis remplacement du fichier de
+	 * destination (sauf si une écriture a échoué auquel cas le fichier en
+	 * cours d'écriture est abandonné)
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			if (!failed)
+			{
+				flushChunks();
+				finish();
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			failed = true;
+			throw e;
+		}
+		finally
+		{
+			indexChannel.close();
+			channel.close();
+			if (failed)
+			{
+				Files.deleteIfExists(tempPath);
+			}
+		}
+		if (!failed)
+		{
+			Files.move(tempPath,
+			           path,
+			           StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Codage en parallèle des blocs de figures en attente puis écriture
+	 * groupée de leurs enregistrements (dans le fichier) et de leurs entrées
+	 * d'index (dans le fichier temporaire de l'index)
+	 * @throws IOException en cas d'erreur de codage ou d'écriture
+	 */
+	private void flushChunks() throws IOException
+	{
+		if (pending.isEmpty())
+		{
+			return;
+		}
+
+		List<ForkJoinTask<ByteBuffer[]>> tasks =
+		    new ArrayList<ForkJoinTask<ByteBuffer[]>>();
+		for (int from = 0; from < pending.size(); from += ChunkSize)
+		{
+			List<Figure> chunk =
+			    pending.subList(from, Math.min(from + ChunkSize, pending.size()));
+			tasks.add(pool.submit(() -> encode(chunk)));
+		}
+
+		ByteBuffer[] records = new ByteBuffer[tasks.size()];
+		ByteBuffer[] entries = new ByteBuffer[tasks.size()];
+		long offset = position;
+		for (int i = 0; i < tasks.size(); i++)
+		{
+			ByteBuffer[] encoded = join(tasks.get(i));
+			records[i] = encoded[0];
+			entries[i] = encoded[1];
+			int length = records[i].remaining();
+			int figures = entries[i].remaining() / DrawingFormat.IndexEntrySize;
+
+			// les positions des enregistrements deviennent absolues
+			for (int e = 0; e < entries[i].limit(); e += DrawingFormat.IndexEntrySize)
+			{
+				entries[i].putLong(e, entries[i].getLong(e) + offset);
+			}
+			chunks.add(new long[] {offset, length, figures});
+			offset += length;
+		}
+
+		position += writeFully(channel, records);
+		indexSize += writeFully(indexChannel, entries);
+		pending = new ArrayList<Figure>();
+	}
+
+	/**
+	 * Codage d'un bloc de figures (éventuellement dans un autre fil
+	 * d'exécution : les tables des styles ne sont alors que consultées)
+	 * @param figures les figures du bloc
+	 * @return les enregistrements des figures et leurs entrées d'index (dont
+	 * les positions sont relatives au début du bloc)
+	 * @throws IOException si une figure ne peut pas être codée ou si le bloc
+	 * est trop grand pour être projeté en mémoire d'un seul tenant
+	 */
+	private ByteBuffer[] encode(List<Figure> figures) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(figures.size() * 256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		ByteBuffer index =
+		    ByteBuffer.allocate(figures.size() * DrawingFormat.IndexEntrySize);
+
+		for (Figure figure : figures)
+		{
+			int offset = out.size();
+			out.writeByte(figure.getType().ordinal());
+			out.writeInt(paintIds.getOrDefault(figure.getEdgePaint(),
+			                                   DrawingFormat.NoStyle));
+			out.writeInt(paintIds.getOrDefault(figure.getFillPaint(),
+			                                   DrawingFormat.NoStyle));
+			out.writeInt(strokeIds.getOrDefault(figure.getStroke(),
+			                                    DrawingFormat.NoStyle));
+			out.writeBoolean(figure.isSelected());
+			FigureCodec.writePlacement(figure, out);
+			int shapeOffset = out.size() - offset;
+			FigureCodec.writeShape(figure, out);
+			if ((bytes.size() < 0) || (bytes.size() > IndexedDrawingReader.SegmentSize))
+			{
+				throw new IOException("chunk too large");
+			}
+
+			Rectangle2D bounds = figure.getBounds2D();
+			index.putLong(offset);
+			index.putInt(shapeOffset);
+			index.putDouble(bounds.getX());
+			index.putDouble(bounds.getY());
+			index.putDouble(bounds.getWidth());
+			index.putDouble(bounds.getHeight());
+		}
+		index.flip();
+
+		return new ByteBuffer[] {ByteBuffer.wrap(bytes.toByteArray()), index};
+	}
+
+	/**
+	 * Ecriture de la table des styles, de l'index, de la table des blocs et
+	 * de l'en-tête
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void finish() throws IOException
+	{
+		long stylesOffset = position;
+		ChannelOutput out = new ChannelOutput(channel);
+		out.writeInt(paints.size());
+		for (Paint paint : paints)
+		{
+			out.writeInt(((Color) paint).getRGB());
+		}
+		out.writeInt(strokes.size());
+		for (BasicStroke stroke : strokes)
+		{
+			FigureCodec.writeStroke(stroke, out);
+		}
+		out.flush();
+		long indexOffset = stylesOffset + out.position();
+
+		// recopie de l'index à la fin du fichier
+		indexChannel.position(0);
+		for (long done = 0; done < indexSize;)
+		{
+			done += channel.transferFrom(indexChannel,
+			                             indexOffset + done,
+			                             indexSize - done);
+		}
+
+		ByteBuffer table = ByteBuffer.allocate(Integer.BYTES
+		    + (chunks.size() * DrawingFormat.ChunkEntrySize));
+		table.putInt(chunks.size());
+		for (long[] chunk : chunks)
+		{
+			table.putLong(chunk[0]);
+			table.putInt((int) chunk[1]);
+			table.putInt((int) chunk[2]);
+		}
+		table.flip();
+		writeFully(table, indexOffset + indexSize);
+
+		ByteBuffer header = ByteBuffer.allocate(DrawingFormat.HeaderSize);
+		header.putInt(DrawingFormat.Magic);
+		header.putShort(DrawingFormat.IndexedVersion);
+		header.putShort(DrawingFormat.ChunkedFlag);
+		header.putLong(count);
+		header.putLong(stylesOffset);
+		header.putLong(indexOffset);
+		header.flip();
+		writeFully(header, 0);
+	}
+
+	/**
+	 * Ecriture groupée complète de plusieurs tampons
+	 * @param target le canal dans lequel écrire
+	 * @param buffers les tampons à écrire
+	 * @return le nombre d'octets écrits
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private static long writeFully(GatheringByteChannel target,
+	                               ByteBuffer[] buffers)
+	    throws IOException
+	{
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers)
+		{
+			remaining += buffer.remaining();
+		}
+		long written = 0;
+		while (written < remaining)
+		{
+			written += target.write(buffers);
+		}
+		return written;
+	}
+
+	/**
+	 * Ecriture complète d'un tampon à une position du fichier
+	 * @param buffer le tampon à écrire
+	 * @param at la position dans le fichier
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void writeFully(ByteBuffer buffer, long at) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			at += channel.write(buffer, at);
+		}
+	}
+
+	/**
+	 * Attente du codage d'un bloc
+	 * @param task la tâche de codage
+	 * @return le résultat du codage
+	 * @throws IOException si le codage a échoué
+	 */
+	private static ByteBuffer[] join(ForkJoinTask<ByteBuffer[]> task)
+	    throws IOException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Indice d'une couleur dans la table des styles, en l'y ajoutant si elle
+	 * n'y est pas encore
+	 * @param paint la couleur (éventuellement null)
+	 * @return l'indice de la couleur ou {@link DrawingFormat#NoStyle}
+	 * @throws IOException si la couleur n'est pas une {@link Color}
+	 */
+	private int paintId(Paint paint) throws IOException
+	{
+		if (paint == null)
+		{
+			return DrawingFormat.NoStyle;
+		}
+		Integer id = paintIds.get(paint);
+		if (id == null)
+		{
+			if (!(paint instanceof Color))
+			{
+				throw new IOException("unsupported paint " + paint);
+			}
+			id = Integer.valueOf(paints.size());
+			paintIds.put(paint, id);
+			paints.add(paint);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Indice d'un trait dans la table des styles, en l'y ajoutant s'il n'y
+	 * est pas encore
+	 * @param stroke le trait (éventuellement null)
+	 * @return l'indice du trait ou {@link DrawingFormat#NoStyle}
+	 */
+	private int strokeId(BasicStroke stroke)
+	{
+		if (stroke == null)
+		{
+			return DrawingFormat.NoStyle;
+		}
+		Integer id = strokeIds.get(stroke);
+		if (id == null)
+		{
+			id = Integer.valueOf(strokes.size());
+			strokeIds.put(stroke, id);
+			strokes.add(stroke);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Enregistrement de toutes les figures d'un dessin dans un fichier
+	 * indexé
+	 * @param drawing le dessin à enregistrer
+	 * @param path le chemin du fichier (remplacé s'il existe déjà)
+	 * @return le nombre de figures écrites
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	public static long save(Drawing drawing, Path path) throws IOException
+	{
+		try (IndexedDrawingWriter writer = new IndexedDrawingWriter(path))
+		{
+			for (Iterator<Figure> it = drawing.streamAll().iterator(); it.hasNext();)
+			{
+				writer.write(it.next());
+			}
+			return writer.getCount();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package io;
+
+/**
+ * Constantes du format binaire du journal des modifications d'un dessin
+ * (cf. {@link DrawingJournal}).
+ * Le journal est constitué d'une suite de segments numérotés
+ * ({@link #SegmentPrefix}n{@link #SegmentSuffix}) et d'instantanés
+ * ({@link #SnapshotPrefix}n{@link #SnapshotSuffix}, au format décrit par
+ * {@link DrawingFormat}) : l'instantané n contient l'état du dessin au début
+ * du segment n, et chaque segment contient les modifications effectuées
+ * depuis le début du segment. L'état du dessin est donc obtenu à partir du
+ * dernier instantané complet auquel sont appliqués les segments suivants
+ * dans l'ordre de leurs numéros.
+ * Un segment est constitué de :
+ * <ul>
+ * 	<li>un en-tête : le nombre magique {@link #Magic} (int), la version du
+ * 	format {@link #Version} (short), des drapeaux (short, cf.
+ * 	{@link #SnapshotRequired}) et le numéro du segment (long)</li>
+ * 	<li>une suite de trames, une par notification du dessin : la taille des
+ * 	enregistrements de la trame (int), leur somme de contrôle CRC32 (int)
+ * 	puis les enregistrements. Une trame incomplète ou corrompue (à la suite
+ * 	d'un arrêt brutal) termine le segment : les modifications d'une même
+ * 	notification sont donc rejouées entièrement ou pas du tout</li>
+ * </ul>
+ * Chaque enregistrement commence par un octet d'étiquette :
+ * <ul>
+ * 	<li>{@link DrawingFormat#PaintTag} et {@link DrawingFormat#StrokeTag} :
+ * 	une couleur ou un trait de la table des styles du segment (comme dans
+ * 	les fichiers de dessin)</li>
+ * 	<li>{@link #AddTag} : l'indice de la première figure ajoutée (int), le
+ * 	nombre de figures ajoutées (int) puis les figures (sans étiquette, comme
+ * 	les enregistrements {@link DrawingFormat#FigureTag})</li>
+ * 	<li>{@link #RemoveTag} : l'indice de la première figure retirée (int)
+ * 	et le nombre de figures retirées (int)</li>
+ * 	<li>{@link #OrderTag} : l'indice de la première figure réordonnée
+ * 	(int), le nombre n de figures réordonnées (int) puis, pour chacune des
+ * 	n nouvelles positions, la position précédente de la figure relativement
+ * 	à la première (n int)</li>
+ * 	<li>{@link #TransformTag} : l'indice de la figure (int) puis son
+ * 	placement (cf. {@link figures.FigureCodec#writePlacement})</li>
+ * 	<li>{@link #StyleTag} : l'indice de la figure (int) puis les indices de
+ * 	sa couleur de trait, de sa couleur de remplissage et de son trait dans
+ * 	la table des styles (int, {@link DrawingFormat#NoStyle} pour null)</li>
+ * 	<li>{@link #ShapeTag} : l'indice de la figure (int) puis sa géométrie
+ * 	(cf. {@link figures.FigureCodec#writeGeometry})</li>
+ * 	<li>{@link #SelectTag} : l'indice de la figure (int) puis son état de
+ * 	sélection (booléen)</li>
+ * </ul>
+ * Les indices des styles sont propres à chaque segment.
+ * Tous les nombres sont écrits en big endian (comme par
+ * {@link java.io.DataOutput}).
+ * @author davidroussel
+ */
+public final class JournalFormat
+{
+	/**
+	 * Nombre magique en tête des segments du journal ("JRNL")
+	 */
+	public static final int Magic = 0x4A524E4C;
+	/**
+	 * Version courante du format
+	 */
+	public static final short Version = 1;
+	/**
+	 * Taille de l'en-tête d'un segment
+	 */
+	public static final int HeaderSize = 16;
+	/**
+	 * Drapeau d'un segment qui ne peut être rejoué qu'à partir de son propre
+	 * instantané : le segment précédent ne contient pas les modifications
+	 * qui l'ont précédé (l'ouverture d'un gros dessin par exemple, dont les
+	 * figures ne sont écrites que dans l'instantané). Tant que cet
+	 * instantané n'est pas complet, le dessin est reconstruit tel qu'il
+	 * était à la fin du segment précédent.
+	 */
+	public static final short SnapshotRequired = 0x0001;
+	/**
+	 * Taille de l'en-tête d'une trame
+	 */
+	public static final int FrameHeaderSize = 8;
+	/**
+	 * Etiquette de figures ajoutées
+	 */
+	public static final byte AddTag = 3;
+	/**
+	 * Etiquette de figures retirées
+	 */
+	public static final byte RemoveTag = 4;
+	/**
+	 * Etiquette de figures réordonnées
+	 */
+	public static final byte OrderTag = 5;
+	/**
+	 * Etiquette d'une figure déplacée, tournée ou mise à l'échelle
+	 */
+	public static final byte TransformTag = 6;
+	/**
+	 * Etiquette d'une figure dont le style a changé
+	 */
+	public static final byte StyleTag = 7;
+	/**
+	 * Etiquette d'une figure dont la forme a changé
+	 */
+	public static final byte ShapeTag = 8;
+	/**
+	 * Etiquette d'une figure sélectionnée ou désélectionnée
+	 */
+	public static final byte SelectTag = 9;
+	/**
+	 * Préfixe des noms des fichiers des segments
+	 */
+	public static final String SegmentPrefix = "journal-";
+	/**
+	 * Suffixe des noms des fichiers des segments
+	 */
+	public static final String SegmentSuffix = ".log";
+	/**
+	 * Préfixe des noms des fichiers des instantanés
+	 */
+	public static final String SnapshotPrefix = "snapshot-";
+	/**
+	 * Suffixe des noms des fichiers des instantanés
+	 */
+	public static final String SnapshotSuffix = ".draw";
+	/**
+	 * Suffixe des fichiers des instantanés en cours d'écriture (renommés une
+	 * fois complets)
+	 */
+	public static final String PartialSuffix = ".tmp";
+
+	/**
+	 * Constructeur privé : classe de constantes
+	 */
+	private JournalFormat()
+	{
+	}
+}
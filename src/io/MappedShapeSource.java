@@ -0,0 +1,58 @@
+package io;
+
+import java.awt.Shape;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import figures.FigureCodec;
+import figures.ShapeSource;
+
+/**
+ * Source d'une forme écrite dans un fichier de dessin indexé projeté en
+ * mémoire : la forme est décodée à chaque fois qu'elle est demandée.
+ * Le segment projeté est partagé par toutes les figures qu'il contient.
+ * @author davidroussel
+ */
+class MappedShapeSource implements ShapeSource
+{
+	/**
+	 * Le segment du fichier contenant la forme
+	 */
+	private final ByteBuffer segment;
+
+	/**
+	 * La position de la forme dans le segment
+	 */
+	private final int position;
+
+	/**
+	 * Constructeur d'une source de forme
+	 * @param segment le segment du fichier contenant la forme
+	 * @param position la position de la forme dans le segment
+	 */
+	MappedShapeSource(ByteBuffer segment, int position)
+	{
+		this.segment = segment;
+		this.position = position;
+	}
+
+	/**
+	 * Décodage de la forme à partir du segment
+	 * @return une nouvelle instance de la forme
+	 * @throws UncheckedIOException si la forme ne peut pas être décodée
+	 * @see figures.ShapeSource#loadShape()
+	 */
+	@Override
+	public Shape loadShape()
+	{
+		try
+		{
+			return FigureCodec.readShape(new ChannelInput(segment, position));
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,453 @@
+package io;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import figures.Drawing;
+import figures.Figure;
+import rendering.OffscreenRenderer;
+
+/**
+ * Export d'un dessin dans une image PNG de taille quelconque (plus grande
+ * que le tas par exemple) : l'image n'est jamais construite en entier.
+ * La zone exportée est découpée en bandes horizontales, chaque bande est
+ * dessinée dans sa propre image (cf.
+ * {@link OffscreenRenderer#render(BufferedImage, int, List, Rectangle2D, double, Color, boolean)})
+ * avec les seules figures dont la zone dessinée intersecte la bande
+ * (obtenues par {@link Drawing#stream(Rectangle2D)}), puis ses lignes sont
+ * filtrées (filtre Paeth du format PNG) par une tâche d'un
+ * {@link ForkJoinPool}. Les bandes sont ensuite compressées et écrites dans
+ * l'ordre, ligne après ligne, pendant que les bandes suivantes sont
+ * dessinées : seules quelques bandes sont en cours à un instant donné, ce
+ * qui borne la mémoire utilisée quelle que soit la taille de l'image.
+ * @note Comme pour {@link rendering.TiledRenderer}, les figures de chaque
+ * bande sont obtenues dans le thread appelant, qui en profite pour mettre à
+ * jour les caches des figures : les tâches de rendu ne font alors que lire
+ * les figures (hormis le cache volatile des formes chargées à la demande).
+ * Le dessin ne doit pas être modifié pendant l'export.
+ * @author davidroussel
+ */
+public class PNGExporter
+{
+	/**
+	 * Nombre de pixels par défaut d'une bande
+	 */
+	public static final int DefaultBandPixels = 4 * 1024 * 1024;
+
+	/**
+	 * Signature des fichiers PNG
+	 */
+	private static final byte[] Signature =
+	    {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+	/**
+	 * Taille maximale des données d'un segment IDAT
+	 */
+	private static final int ChunkSize = 64 * 1024;
+
+	/**
+	 * Filtre PNG Sub (prédiction par le pixel de gauche)
+	 */
+	private static final int SubFilter = 1;
+
+	/**
+	 * Filtre PNG Paeth (prédiction par les pixels de gauche, du dessus et du
+	 * dessus à gauche)
+	 */
+	private static final int PaethFilter = 4;
+
+	/**
+	 * Une bande de l'image : ses lignes, les figures qui l'intersectent, son
+	 * image et ses lignes filtrées (réutilisées d'une bande à l'autre)
+	 */
+	private static class Band
+	{
+		BufferedImage image;
+		byte[] filtered;
+		int length;
+		int firstRow;
+		int rows;
+		List<Figure> figures;
+	}
+
+	/**
+	 * Le pool de threads dessinant les bandes
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Nombre (maximal) de pixels d'une bande
+	 */
+	private final int bandPixels;
+
+	/**
+	 * Niveau de compression (cf. {@link Deflater})
+	 */
+	private final int level;
+
+	/**
+	 * Constructeur d'un exporteur PNG utilisant le pool commun, la taille de
+	 * bandes et le niveau de compression par défaut
+	 */
+	public PNGExporter()
+	{
+		this(ForkJoinPool.commonPool(), DefaultBandPixels,
+		     Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Constructeur d'un exporteur PNG
+	 * @param pool le pool de threads dessinant les bandes
+	 * @param bandPixels le nombre (maximal) de pixels d'une bande (une bande
+	 * contient au moins une ligne)
+	 * @param level le niveau de compression (de 0 à 9 ou bien
+	 * {@link Deflater#DEFAULT_COMPRESSION})
+	 */
+	public PNGExporter(ForkJoinPool pool, int bandPixels, int level)
+	{
+		this.pool = pool;
+		this.bandPixels = Math.max(1, bandPixels);
+		this.level = level;
+	}
+
+	/**
+	 * Export de l'ensemble des figures (éventuellement filtrées) d'un dessin
+	 * dans un fichier PNG
+	 * @param drawing le dessin à exporter
+	 * @param scale le facteur d'échelle (nombre de pixels de l'image par
+	 * unité du dessin)
+	 * @param background la couleur de fond ou bien null pour un fond
+	 * transparent
+	 * @param path le chemin du fichier (remplacé s'il existe déjà)
+	 * @return le nombre d'octets écrits
+	 * @throws IOException en cas d'erreur d'écriture
+	 * @throws IllegalArgumentException si le facteur d'échelle n'est pas
+	 * strictement positif ou si l'image est trop grande
+	 */
+	public long export(Drawing drawing, double scale, Color background,
+	                   Path path)
+	    throws IOException, IllegalArgumentException
+	{
+		try (FileChannel channel = FileChannel.open(path,
+		                                            StandardOpenOption.CREATE,
+		                                            StandardOpenOption.WRITE,
+		                                            StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			return export(drawing, OffscreenRenderer.getBounds(drawing), scale,
+			              background, false, channel);
+		}
+	}
+
+	/**
+	 * Export d'une zone d'un dessin dans une image PNG
+	 * @param drawing le dessin à exporter
+	 * @param area la zone du dessin à exporter (en coordonnées du dessin)
+	 * @param scale le facteur d'échelle (nombre de pixels de l'image par
+	 * unité du dessin)
+	 * @param background la couleur de fond ou bien null pour un fond
+	 * transparent
+	 * @param selection indique s'il faut souligner les figures sélectionnées
+	 * @param channel le canal dans lequel écrire l'image (qui n'est pas
+	 * fermé)
+	 * @return le nombre d'octets écrits
+	 * @throws IOException en cas d'erreur d'écriture
+	 * @throws IllegalArgumentException si le facteur d'échelle n'est pas
+	 * strictement positif ou si l'image est trop grande
+	 */
+	public long export(Drawing drawing, Rectangle2D area, double scale,
+	                   Color background, boolean selection,
+	                   WritableByteChannel channel)
+	    throws IOException, IllegalArgumentException
+	{
+		if (!(scale > 0.0))
+		{
+			throw new IllegalArgumentException(getClass().getSimpleName()
+			    + "::export : invalid scale " + scale);
+		}
+		double w = Math.max(1.0, Math.ceil(area.getWidth() * scale));
+		double h = Math.max(1.0, Math.ceil(area.getHeight() * scale));
+		int channels = (background != null ? 3 : 4);
+		if ((h > Integer.MAX_VALUE)
+		    || ((w * channels + 1) > (Integer.MAX_VALUE - 8)))
+		{
+			throw new IllegalArgumentException(getClass().getSimpleName()
+			    + "::export : image too large " + w + " x " + h);
+		}
+		int width = (int) w;
+		int height = (int) h;
+		int bandRows = Math.max(1, bandPixels / width);
+		boolean outline = selection && drawing.hasSelection();
+		int window = pool.getParallelism() + 1;
+
+		ChannelOutput out = new ChannelOutput(channel);
+		out.write(Signature);
+		ByteBuffer header = ByteBuffer.allocate(13);
+		header.putInt(width);
+		header.putInt(height);
+		header.put((byte) 8); // bits par canal
+		header.put((byte) (background != null ? 2 : 6)); // RGB ou RGBA
+		header.put((byte) 0); // compression deflate
+		header.put((byte) 0); // filtrage adaptatif
+		header.put((byte) 0); // non entrelacé
+		writeChunk(out, "IHDR", header.array(), header.position());
+
+		Deflater deflater = new Deflater(level);
+		byte[] compressed = new byte[ChunkSize];
+		Deque<ForkJoinTask<Band>> pending = new ArrayDeque<ForkJoinTask<Band>>();
+		Deque<Band> free = new ArrayDeque<Band>();
+		try
+		{
+			for (int row = 0; row < height; row += bandRows)
+			{
+				if (pending.size() >= window)
+				{
+					Band done = join(pending.removeFirst());
+					write(done, deflater, compressed, out);
+					free.addLast(done);
+				}
+
+				// Sélection des figures de la bande (dans le thread appelant),
+				// avec une marge d'un pixel pour l'anticrénelage
+				Band band = (free.isEmpty() ? new Band() : free.removeFirst());
+				band.firstRow = row;
+				band.rows = Math.min(bandRows, height - row);
+				Rectangle2D bandArea = new Rectangle2D.Double(area.getX(),
+				    area.getY() + ((row - 1) / scale), area.getWidth(),
+				    (band.rows + 2) / scale);
+				band.figures =
+				    drawing.stream(bandArea).collect(Collectors.toList());
+				for (Figure f : band.figures)
+				{
+					f.getTransform();
+					f.getBounds2D();
+				}
+				pending.addLast(pool.submit(() -> render(band, width, area,
+				    scale, background, outline)));
+			}
+			while (!pending.isEmpty())
+			{
+				write(join(pending.removeFirst()), deflater, compressed, out);
+			}
+
+			deflater.finish();
+			while (!deflater.finished())
+			{
+				int n = deflater.deflate(compressed);
+				if (n > 0)
+				{
+					writeChunk(out, "IDAT", compressed, n);
+				}
+			}
+		}
+		finally
+		{
+			deflater.end();
+			for (ForkJoinTask<Band> task : pending)
+			{
+				task.cancel(false);
+			}
+		}
+
+		writeChunk(out, "IEND", new byte[0], 0);
+		out.flush();
+		return out.position();
+	}
+
+	/**
+	 * Dessin d'une bande puis filtrage de ses lignes (éventuellement dans un
+	 * autre fil d'exécution)
+	 * @param band la bande
+	 * @param width la largeur de l'image
+	 * @param area la zone du dessin exportée
+	 * @param scale le facteur d'échelle
+	 * @param background la couleur de fond ou bien null
+	 * @param selection indique s'il faut souligner les figures sélectionnées
+	 * @return la bande dessinée et filtrée
+	 */
+	private static Band render(Band band, int width, Rectangle2D area,
+	                           double scale, Color background,
+	                           boolean selection)
+	{
+		int type = (background != null ? BufferedImage.TYPE_INT_RGB
+		                               : BufferedImage.TYPE_INT_ARGB);
+		if ((band.image == null) || (band.image.getHeight() < band.rows)
+		    || (band.image.getType() != type))
+		{
+			band.image = new BufferedImage(width, band.rows, type);
+		}
+		OffscreenRenderer.render(band.image, band.firstRow, band.figures, area,
+		                         scale, background, selection);
+		band.figures = null;
+
+		int channels = (background != null ? 3 : 4);
+		int stride = width * channels;
+		band.length = band.rows * (stride + 1);
+		if ((band.filtered == null) || (band.filtered.length < band.length))
+		{
+			band.filtered = new byte[band.length];
+		}
+		int[] pixels =
+		    ((DataBufferInt) band.image.getRaster().getDataBuffer()).getData();
+		// La première ligne d'une bande ne dépend pas de la bande précédente
+		// (dessinée par une autre tâche) : elle est filtrée par le filtre Sub,
+		// qui est le filtre Paeth lorsque la ligne précédente est nulle
+		byte[] previous = new byte[stride];
+		byte[] current = new byte[stride];
+		int at = 0;
+		for (int r = 0; r < band.rows; r++)
+		{
+			unpack(pixels, r * width, width, channels, current);
+			band.filtered[at++] = (byte) (r == 0 ? SubFilter : PaethFilter);
+			paeth(current, previous, channels, band.filtered, at);
+			at += stride;
+			byte[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return band;
+	}
+
+	/**
+	 * Conversion d'une ligne de pixels (ARGB) en octets RGB ou RGBA
+	 * @param pixels les pixels de l'image
+	 * @param offset l'indice du premier pixel de la ligne
+	 * @param width le nombre de pixels de la ligne
+	 * @param channels le nombre de canaux (3 pour RGB, 4 pour RGBA)
+	 * @param row les octets de la ligne
+	 */
+	private static void unpack(int[] pixels, int offset, int width,
+	                           int channels, byte[] row)
+	{
+		int at = 0;
+		for (int i = offset; i < offset + width; i++)
+		{
+			int p = pixels[i];
+			row[at++] = (byte) (p >> 16);
+			row[at++] = (byte) (p >> 8);
+			row[at++] = (byte) p;
+			if (channels == 4)
+			{
+				row[at++] = (byte) (p >>> 24);
+			}
+		}
+	}
+
+	/**
+	 * Filtrage Paeth d'une ligne
+	 * @param row les octets de la ligne
+	 * @param previous les octets de la ligne précédente (nuls pour la
+	 * première ligne d'une bande)
+	 * @param channels le nombre d'octets par pixel
+	 * @param out le tableau des lignes filtrées
+	 * @param offset l'indice de la ligne filtrée dans out
+	 */
+	private static void paeth(byte[] row, byte[] previous, int channels,
+	                          byte[] out, int offset)
+	{
+		for (int i = 0; i < row.length; i++)
+		{
+			int a = (i >= channels ? row[i - channels] & 0xFF : 0);
+			int b = previous[i] & 0xFF;
+			int c = (i >= channels ? previous[i - channels] & 0xFF : 0);
+			int p = a + b - c;
+			int pa = Math.abs(p - a);
+			int pb = Math.abs(p - b);
+			int pc = Math.abs(p - c);
+			int predictor = ((pa <= pb) && (pa <= pc)) ? a : (pb <= pc ? b : c);
+			out[offset + i] = (byte) (row[i] - predictor);
+		}
+	}
+
+	/**
+	 * Compression des lignes filtrées d'une bande et écriture des segments
+	 * IDAT correspondants
+	 * @param band la bande filtrée
+	 * @param deflater le compresseur de toute l'image
+	 * @param compressed le tampon des données compressées
+	 * @param out le flux dans lequel écrire
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private static void write(Band band, Deflater deflater, byte[] compressed,
+	                          ChannelOutput out)
+	    throws IOException
+	{
+		deflater.setInput(band.filtered, 0, band.length);
+		while (!deflater.needsInput())
+		{
+			int n = deflater.deflate(compressed);
+			if (n > 0)
+			{
+				writeChunk(out, "IDAT", compressed, n);
+			}
+		}
+	}
+
+	/**
+	 * Ecriture d'un segment PNG : sa taille, son type, ses données et la
+	 * somme de contrôle de son type et de ses données
+	 * @param out le flux dans lequel écrire
+	 * @param type le type du segment
+	 * @param data les données du segment
+	 * @param length la taille des données
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private static void writeChunk(ChannelOutput out, String type, byte[] data,
+	                               int length)
+	    throws IOException
+	{
+		byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(name);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Attente du rendu d'une bande
+	 * @param task la tâche de rendu
+	 * @return la bande dessinée et filtrée
+	 * @throws IOException si le rendu a été interrompu
+	 */
+	private static Band join(ForkJoinTask<Band> task) throws IOException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+}
@@ -0,0 +1,491 @@
+package io;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RectangularShape;
+import java.awt.geom.RoundRectangle2D;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import figures.Drawing;
+import figures.Figure;
+
+/**
+ * Export en flux d'un dessin au format SVG.
+ * Les figures (éventuellement filtrées, cf. {@link Drawing#stream()}) sont
+ * écrites au fur et à mesure dans un {@link Writer}, chacune sous la forme
+ * de l'élément SVG natif correspondant à sa forme ({@code rect},
+ * {@code ellipse}, {@code circle}, {@code polygon} ou à défaut
+ * {@code path}) accompagné de sa transformation complète
+ * ({@link Figure#getTransform()}) dans l'attribut {@code transform}.
+ * Les couleurs et les traits étant des flyweights, ils sont indexés par
+ * identité et deviennent des classes CSS partagées : chaque nouvelle classe
+ * est déclarée (dans un élément {@code style}) juste avant la première
+ * figure qui l'utilise. La mémoire utilisée ne dépend donc que du nombre de
+ * styles différents et non du nombre de figures.
+ * @author davidroussel
+ */
+public class SVGExporter
+{
+	/**
+	 * Classe CSS des figures sans remplissage
+	 */
+	private static final String NoFillClass = "nf";
+
+	/**
+	 * Classe CSS des figures sans bordure
+	 */
+	private static final String NoEdgeClass = "ne";
+
+	/**
+	 * Le flux dans lequel écrire
+	 */
+	private final Writer out;
+
+	/**
+	 * Classes CSS des couleurs de remplissage déjà déclarées
+	 */
+	private final Map<Paint, String> fillClasses;
+
+	/**
+	 * Classes CSS des couleurs de bordure déjà déclarées
+	 */
+	private final Map<Paint, String> edgeClasses;
+
+	/**
+	 * Classes CSS des traits déjà déclarés
+	 */
+	private final Map<BasicStroke, String> strokeClasses;
+
+	/**
+	 * Déclarations CSS en attente d'écriture (avant la prochaine figure)
+	 */
+	private final StringBuilder pendingStyles;
+
+	/**
+	 * Tampon de construction des éléments
+	 */
+	private final StringBuilder element;
+
+	/**
+	 * Nombre de figures écrites
+	 */
+	private long count;
+
+	/**
+	 * Constructeur d'un exportateur SVG : écrit l'en-tête du document
+	 * @param out le flux dans lequel écrire (de préférence muni d'un tampon)
+	 * @param viewBox la zone du dessin à exporter
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	public SVGExporter(Writer out, Rectangle2D viewBox) throws IOException
+	{
+		this.out = out;
+		fillClasses = new IdentityHashMap<Paint, String>();
+		edgeClasses = new IdentityHashMap<Paint, String>();
+		strokeClasses = new IdentityHashMap<BasicStroke, String>();
+		pendingStyles = new StringBuilder();
+		element = new StringBuilder();
+		count = 0;
+
+		element.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		element.append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\"");
+		element.append(" width=\"").append(number(viewBox.getWidth()));
+		element.append("\" height=\"").append(number(viewBox.getHeight()));
+		element.append("\" viewBox=\"").append(number(viewBox.getX()));
+		element.append(' ').append(number(viewBox.getY()));
+		element.append(' ').append(number(viewBox.getWidth()));
+		element.append(' ').append(number(viewBox.getHeight()));
+		element.append("\">\n");
+		// les polygones des figures sont remplis selon la règle pair-impair
+		// (comme java.awt.Polygon)
+		element.append("<style>polygon{fill-rule:evenodd}");
+		element.append('.').append(NoFillClass).append("{fill:none}");
+		element.append('.').append(NoEdgeClass).append("{stroke:none}");
+		element.append("</style>\n");
+		flushElement();
+	}
+
+	/**
+	 * Ecriture d'une figure (précédée si besoin de la déclaration de ses
+	 * nouveaux styles)
+	 * @param figure la figure à écrire
+	 * @throws IOException en cas d'erreur d'écriture ou si l'une des couleurs
+	 * de la figure n'est pas une {@link Color}
+	 */
+	public void write(Figure figure) throws IOException
+	{
+		String classes = classesOf(figure);
+		if (pendingStyles.length() > 0)
+		{
+			out.write("<style>");
+			out.write(pendingStyles.toString());
+			out.write("</style>\n");
+			pendingStyles.setLength(0);
+		}
+
+		Shape shape = figure.getShape();
+		if (shape instanceof Ellipse2D)
+		{
+			Ellipse2D e = (Ellipse2D) shape;
+			if (e.getWidth() == e.getHeight())
+			{
+				element.append("<circle cx=\"").append(number(e.getCenterX()));
+				element.append("\" cy=\"").append(number(e.getCenterY()));
+				element.append("\" r=\"").append(number(Math.abs(e.getWidth()) / 2.0));
+			}
+			else
+			{
+				element.append("<ellipse cx=\"").append(number(e.getCenterX()));
+				element.append("\" cy=\"").append(number(e.getCenterY()));
+				element.append("\" rx=\"").append(number(Math.abs(e.getWidth()) / 2.0));
+				element.append("\" ry=\"").append(number(Math.abs(e.getHeight()) / 2.0));
+			}
+			element.append('"');
+		}
+		else if ((shape instanceof Rectangle2D) || (shape instanceof RoundRectangle2D))
+		{
+			// les dimensions négatives (rectangles tracés vers le haut ou la
+			// gauche) sont interdites en SVG
+			RectangularShape r = (RectangularShape) shape;
+			double w = r.getWidth();
+			double h = r.getHeight();
+			element.append("<rect x=\"").append(number(w < 0 ? r.getX() + w : r.getX()));
+			element.append("\" y=\"").append(number(h < 0 ? r.getY() + h : r.getY()));
+			element.append("\" width=\"").append(number(Math.abs(w)));
+			element.append("\" height=\"").append(number(Math.abs(h)));
+			element.append('"');
+			if (shape instanceof RoundRectangle2D)
+			{
+				RoundRectangle2D rr = (RoundRectangle2D) shape;
+				element.append(" rx=\"").append(number(rr.getArcWidth() / 2.0));
+				element.append("\" ry=\"").append(number(rr.getArcHeight() / 2.0));
+				element.append('"');
+			}
+		}
+		else if (shape instanceof java.awt.Polygon)
+		{
+			java.awt.Polygon p = (java.awt.Polygon) shape;
+			element.append("<polygon points=\"");
+			for (int i = 0; i < p.npoints; i++)
+			{
+				if (i > 0)
+				{
+					element.append(' ');
+				}
+				element.append(p.xpoints[i]).append(',').append(p.ypoints[i]);
+			}
+			element.append('"');
+		}
+		else if (shape != null)
+		{
+			appendPath(shape);
+		}
+		else
+		{
+			System.err.println(getClass().getSimpleName()
+			    + "::write : null shape in " + figure);
+			return;
+		}
+
+		AffineTransform t = figure.getTransform();
+		if (!t.isIdentity())
+		{
+			element.append(" transform=\"matrix(");
+			element.append(number(t.getScaleX())).append(' ');
+			element.append(number(t.getShearY())).append(' ');
+			element.append(number(t.getShearX())).append(' ');
+			element.append(number(t.getScaleY())).append(' ');
+			element.append(number(t.getTranslateX())).append(' ');
+			element.append(number(t.getTranslateY())).append(")\"");
+		}
+		element.append(" class=\"").append(classes).append("\"/>\n");
+		flushElement();
+		count++;
+	}
+
+	/**
+	 * Nombre de figures écrites jusqu'à présent
+	 * @return le nombre de figures écrites
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Ecriture de la fin du document (le flux n'est pas fermé)
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	public void finish() throws IOException
+	{
+		out.write("</svg>\n");
+		out.flush();
+	}
+
+	/**
+	 * Classes CSS d'une figure, en déclarant les nouvelles classes
+	 * @param figure la figure
+	 * @return la liste des classes de la figure séparées par des espaces
+	 * @throws IOException si l'une des couleurs n'est pas une {@link Color}
+	 */
+	private String classesOf(Figure figure) throws IOException
+	{
+		Paint fill = figure.getFillPaint();
+		Paint edge = figure.getEdgePaint();
+		BasicStroke stroke = figure.getStroke();
+
+		String fillClass = NoFillClass;
+		if (fill != null)
+		{
+			fillClass = fillClasses.get(fill);
+			if (fillClass == null)
+			{
+				fillClass = "f" + fillClasses.size();
+				fillClasses.put(fill, fillClass);
+				pendingStyles.append('.').append(fillClass).append('{');
+				appendColor("fill", fill);
+				pendingStyles.append('}');
+			}
+		}
+
+		if ((edge == null) || (stroke == null))
+		{
+			return fillClass + ' ' + NoEdgeClass;
+		}
+
+		String edgeClass = edgeClasses.get(edge);
+		if (edgeClass == null)
+		{
+			edgeClass = "e" + edgeClasses.size();
+			edgeClasses.put(edge, edgeClass);
+			pendingStyles.append('.').append(edgeClass).append('{');
+			appendColor("stroke", edge);
+			pendingStyles.append('}');
+		}
+
+		String strokeClass = strokeClasses.get(stroke);
+		if (strokeClass == null)
+		{
+			strokeClass = "s" + strokeClasses.size();
+			strokeClasses.put(stroke, strokeClass);
+			pendingStyles.append('.').append(strokeClass).append('{');
+			appendStroke(stroke);
+			pendingStyles.append('}');
+		}
+
+		return fillClass + ' ' + edgeClass + ' ' + strokeClass;
+	}
+
+	/**
+	 * Déclaration CSS d'une couleur
+	 * @param property la propriété CSS ("fill" ou "stroke")
+	 * @param paint la couleur
+	 * @throws IOException si la couleur n'est pas une {@link Color}
+	 */
+	private void appendColor(String property, Paint paint) throws IOException
+	{
+		if (!(paint instanceof Color))
+		{
+			throw new IOException("unsupported paint " + paint);
+		}
+		Color color = (Color) paint;
+		pendingStyles.append(property).append(':');
+		pendingStyles.append(String.format("#%06x", color.getRGB() & 0xFFFFFF));
+		if (color.getAlpha() < 255)
+		{
+			pendingStyles.append(';').append(property).append("-opacity:");
+			pendingStyles.append(number(color.getAlpha() / 255.0f));
+		}
+	}
+
+	/**
+	 * Déclaration CSS d'un trait
+	 * @param stroke le trait
+	 */
+	private void appendStroke(BasicStroke stroke)
+	{
+		pendingStyles.append("stroke-width:").append(number(stroke.getLineWidth()));
+		pendingStyles.append(";stroke-linecap:");
+		switch (stroke.getEndCap())
+		{
+			case BasicStroke.CAP_ROUND:
+				pendingStyles.append("round");
+				break;
+			case BasicStroke.CAP_SQUARE:
+				pendingStyles.append("square");
+				break;
+			default:
+				pendingStyles.append("butt");
+				break;
+		}
+		pendingStyles.append(";stroke-linejoin:");
+		switch (stroke.getLineJoin())
+		{
+			case BasicStroke.JOIN_ROUND:
+				pendingStyles.append("round");
+				break;
+			case BasicStroke.JOIN_BEVEL:
+				pendingStyles.append("bevel");
+				break;
+			default:
+				pendingStyles.append("miter");
+				break;
+		}
+		// la limite est toujours écrite afin de retrouver le même trait
+		// (cf. BasicStroke#hashCode()) lors d'un import
+		pendingStyles.append(";stroke-miterlimit:");
+		pendingStyles.append(number(stroke.getMiterLimit()));
+		float[] dash = stroke.getDashArray();
+		if (dash != null)
+		{
+			pendingStyles.append(";stroke-dasharray:");
+			for (int i = 0; i < dash.length; i++)
+			{
+				if (i > 0)
+				{
+					pendingStyles.append(',');
+				}
+				pendingStyles.append(number(dash[i]));
+			}
+			pendingStyles.append(";stroke-dashoffset:");
+			pendingStyles.append(number(stroke.getDashPhase()));
+		}
+	}
+
+	/**
+	 * Elément {@code path} d'une forme quelconque
+	 * @param shape la forme
+	 */
+	private void appendPath(Shape shape)
+	{
+		double[] coords = new double[6];
+		PathIterator it = shape.getPathIterator(null);
+		element.append("<path fill-rule=\"");
+		element.append(it.getWindingRule() == PathIterator.WIND_EVEN_ODD ?
+		    "evenodd" : "nonzero");
+		element.append("\" d=\"");
+		for (; !it.isDone(); it.next())
+		{
+			int type = it.currentSegment(coords);
+			int nbCoords = 0;
+			switch (type)
+			{
+				case PathIterator.SEG_MOVETO:
+					element.append('M');
+					nbCoords = 2;
+					break;
+				case PathIterator.SEG_LINETO:
+					element.append('L');
+					nbCoords = 2;
+					break;
+				case PathIterator.SEG_QUADTO:
+					element.append('Q');
+					nbCoords = 4;
+					break;
+				case PathIterator.SEG_CUBICTO:
+					element.append('C');
+					nbCoords = 6;
+					break;
+				default:
+					element.append('Z');
+					break;
+			}
+			for (int i = 0; i < nbCoords; i++)
+			{
+				element.append(i > 0 ? ' ' : "").append(number(coords[i]));
+			}
+		}
+		element.append('"');
+	}
+
+	/**
+	 * Ecriture de l'élément construit puis remise à zéro du tampon
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	private void flushElement() throws IOException
+	{
+		out.append(element);
+		element.setLength(0);
+	}
+
+	/**
+	 * Représentation compacte d'un nombre : entière lorsque c'est possible,
+	 * sinon la plus courte représentation exacte (afin qu'un document exporté
+	 * puisse être relu sans perte par {@link SVGImporter})
+	 * @param v le nombre
+	 * @return la représentation du nombre
+	 */
+	private static String number(double v)
+	{
+		if ((v == Math.rint(v)) && (Math.abs(v) < 1e15))
+		{
+			return Long.toString((long) v);
+		}
+		return Double.toString(v);
+	}
+
+	/**
+	 * Représentation compacte d'un nombre en simple précision (épaisseurs
+	 * des traits, opacités)
+	 * @param v le nombre
+	 * @return la représentation du nombre
+	 */
+	private static String number(float v)
+	{
+		if (v == Math.rint(v))
+		{
+			return Long.toString((long) v);
+		}
+		return Float.toString(v);
+	}
+
+	/**
+	 * Export des figures d'un dessin (filtrées si le filtrage est actif)
+	 * @param drawing le dessin à exporter
+	 * @param out le flux dans lequel écrire (qui n'est pas fermé)
+	 * @param viewBox la zone du dessin à exporter ou bien null pour exporter
+	 * la zone occupée par les figures (ce qui nécessite un premier parcours
+	 * des figures)
+	 * @return le nombre de figures écrites
+	 * @throws IOException en cas d'erreur d'écriture
+	 */
+	public static long export(Drawing drawing, Writer out, Rectangle2D viewBox)
+	    throws IOException
+	{
+		if (viewBox == null)
+		{
+			Rectangle2D area = new Rectangle2D.Double();
+			boolean[] empty = {true};
+			drawing.stream().forEach((Figure figure) -> {
+				if (empty[0])
+				{
+					area.setRect(figure.getPaintBounds());
+					empty[0] = false;
+				}
+				else
+				{
+					area.add(figure.getPaintBounds());
+				}
+			});
+			viewBox = area;
+		}
+
+		SVGExporter exporter = new SVGExporter(out, viewBox);
+		for (Iterator<Figure> it = drawing.stream().iterator(); it.hasNext();)
+		{
+			exporter.write(it.next());
+		}
+		exporter.finish();
+		return exporter.getCount();
+	}
+}
@@ -0,0 +1,1748 @@
+package io;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import figures.Drawing;
+import figures.Figure;
+import figures.FigureCodec;
+import figures.enums.FigureType;
+import utils.PaintFactory;
+import utils.StrokeFactory;
+
+/**
+ * Import en flux d'un document SVG sous forme de figures.
+ * Le document est lu avec un analyseur StAX : seuls les éléments en cours
+ * (groupes et transformations imbriqués) et les règles CSS rencontrées sont
+ * conservés pendant la lecture. Les éléments {@code rect}, {@code circle},
+ * {@code ellipse}, {@code line}, {@code polyline}, {@code polygon} et
+ * {@code path} deviennent des {@link figures.Rectangle} (ou
+ * {@link figures.RoundedRectangle} lorsque les coins sont arrondis),
+ * {@link figures.Circle}, {@link figures.Ellipse} et {@link figures.Polygon}
+ * (un par sous chemin pour les {@code path}, dont les courbes sont
+ * approchées par des segments).
+ * Les styles (attributs de présentation, règles CSS par nom d'élément ou
+ * par classe et attribut {@code style}) sont résolus pendant la lecture et
+ * les couleurs et les traits obtenus auprès de {@link PaintFactory} et
+ * {@link StrokeFactory}, qui ne sont pas synchronisées. Les figures sont en
+ * revanche construites en parallèle sur le {@link ForkJoinPool} commun par
+ * lots de {@link #BatchSize} éléments, puis assemblées dans l'ordre du
+ * document.
+ * Le {@code viewBox} du document est ignoré : les figures sont placées dans
+ * le repère utilisateur du document (ce qui permet de relire un document
+ * écrit par {@link SVGExporter} avec les mêmes couleurs, traits et
+ * transformations).
+ * @author davidroussel
+ */
+public class SVGImporter implements Closeable
+{
+	/**
+	 * Nombre d'éléments par lot de construction de figures
+	 */
+	public static final int BatchSize = 4096;
+
+	/**
+	 * Distance maximale entre les courbes et les segments qui les approchent
+	 */
+	private static final double Flatness = 0.25;
+
+	/**
+	 * Eléments dont le contenu n'est pas dessiné (et donc ignoré)
+	 */
+	private static final Set<String> IgnoredElements = new HashSet<String>(
+	    Arrays.asList("defs", "clipPath", "mask", "pattern", "marker",
+	                  "symbol", "linearGradient", "radialGradient",
+	                  "filter", "title", "desc", "metadata", "script",
+	                  "text"));
+
+	/**
+	 * Eléments correspondant à des figures
+	 */
+	private static final Set<String> ShapeElements = new HashSet<String>(
+	    Arrays.asList("rect", "circle", "ellipse", "line", "polyline",
+	                  "polygon", "path"));
+
+	/**
+	 * Couleurs nommées reconnues
+	 */
+	private static final Map<String, Color> NamedColors = fillNamedColors();
+
+	/**
+	 * L'analyseur du document
+	 */
+	private final XMLStreamReader reader;
+
+	/**
+	 * Règles CSS rencontrées : déclarations associées à chaque sélecteur
+	 * (nom d'élément ou bien ".classe")
+	 */
+	private final Map<String, Map<String, String>> rules;
+
+	/**
+	 * Styles des éléments englobant l'élément courant
+	 */
+	private final Deque<Style> styles;
+
+	/**
+	 * Transformations des éléments englobant l'élément courant
+	 */
+	private final Deque<AffineTransform> transforms;
+
+	/**
+	 * Styles déjà résolus : pour chaque style englobant, styles des éléments
+	 * indexés par leur nom et leurs attributs de style (la plupart des
+	 * éléments partageant les mêmes attributs de style, ceux-ci ne sont
+	 * résolus qu'une fois)
+	 */
+	private final Map<Style, Map<String, Style>> resolved;
+
+	/**
+	 * Nombre maximal de styles résolus conservés
+	 */
+	private static final int MaxResolvedStyles = 4096;
+
+	/**
+	 * Valeurs non reconnues déjà signalées (afin de ne les signaler qu'une
+	 * seule fois)
+	 */
+	private final Set<String> warnings;
+
+	/**
+	 * Nombre de figures lues
+	 */
+	private long count;
+
+	/**
+	 * Constructeur d'un importateur SVG
+	 * @param in le flux à partir duquel lire le document (qui n'est pas fermé
+	 * par cet importateur)
+	 * @throws IOException si le document ne peut pas être analysé
+	 */
+	public SVGImporter(InputStream in) throws IOException
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// les DTD et les entités externes ne sont jamais chargées
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+		                    Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		try
+		{
+			reader = factory.createXMLStreamReader(in);
+		}
+		catch (XMLStreamException e)
+		{
+			throw new IOException(e.getMessage(), e);
+		}
+		rules = new HashMap<String, Map<String, String>>();
+		styles = new ArrayDeque<Style>();
+		transforms = new ArrayDeque<AffineTransform>();
+		resolved = new IdentityHashMap<Style, Map<String, Style>>();
+		warnings = new HashSet<String>();
+		styles.push(new Style());
+		transforms.push(new AffineTransform());
+		count = 0;
+	}
+
+	/**
+	 * Lecture de toutes les figures du document
+	 * @return la liste des figures dans l'ordre du document
+	 * @throws IOException si le document est invalide ou en cas d'erreur de
+	 * lecture
+	 */
+	public List<Figure> readAll() throws IOException
+	{
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<ForkJoinTask<List<Figure>>> tasks =
+		    new ArrayList<ForkJoinTask<List<Figure>>>();
+		List<Element> batch = new ArrayList<Element>(BatchSize);
+		int skipped = 0;
+		try
+		{
+			while (reader.hasNext())
+			{
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					String name = reader.getLocalName();
+					if (name.equals("style"))
+					{
+						// Les règles s'appliquent à tout le document, même
+						// lorsqu'elles sont dans un élément ignoré (les
+						// éditeurs les placent dans defs). Avance jusqu'à
+						// la fin de l'élément style, dont la fin n'est donc
+						// pas lue par la boucle.
+						parseRules(reader.getElementText());
+					}
+					else if (skipped > 0)
+					{
+						skipped++;
+					}
+					else if (IgnoredElements.contains(name))
+					{
+						skipped = 1;
+					}
+					else
+					{
+						Style style = elementStyle(name);
+						if (style.hidden)
+						{
+							skipped = 1;
+							continue;
+						}
+						AffineTransform transform =
+						    new AffineTransform(transforms.peek());
+						String value = reader.getAttributeValue(null, "transform");
+						if (value != null)
+						{
+							transform.concatenate(parseTransform(value));
+						}
+						styles.push(style);
+						transforms.push(transform);
+
+						if (ShapeElements.contains(name))
+						{
+							batch.add(new Element(name, reader, transform, style));
+							if (batch.size() == BatchSize)
+							{
+								List<Element> elements = batch;
+								tasks.add(pool.submit(() -> build(elements)));
+								batch = new ArrayList<Element>(BatchSize);
+							}
+						}
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					if (skipped > 0)
+					{
+						skipped--;
+					}
+					else
+					{
+						styles.pop();
+						transforms.pop();
+					}
+				}
+			}
+		}
+		catch (XMLStreamException e)
+		{
+			throw new IOException(e.getMessage(), e);
+		}
+		if (!batch.isEmpty())
+		{
+			List<Element> elements = batch;
+			tasks.add(pool.submit(() -> build(elements)));
+		}
+
+		List<Figure> figures = new ArrayList<Figure>();
+		for (ForkJoinTask<List<Figure>> task : tasks)
+		{
+			figures.addAll(join(task));
+		}
+		count = figures.size();
+		return figures;
+	}
+
+	/**
+	 * Nombre de figures lues
+	 * @return le nombre de figures lues par {@link #readAll()}
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Fermeture de l'analyseur (le flux lu n'est pas fermé)
+	 * @throws IOException en cas d'erreur de fermeture
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			reader.close();
+		}
+		catch (XMLStreamException e)
+		{
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Import des figures d'un fichier SVG dans un dessin : les figures sont
+	 * ajoutées à celles du dessin dans une transaction du dessin, qui ne
+	 * produit qu'une seule notification (et une seule entrée d'historique).
+	 * Le dessin n'est pas modifié si le document est invalide.
+	 * @param drawing le dessin auquel ajouter les figures
+	 * @param path le chemin du fichier SVG
+	 * @return le nombre de figures importées
+	 * @throws IOException si le document est invalide ou en cas d'erreur de
+	 * lecture
+	 */
+	public static long load(Drawing drawing, Path path) throws IOException
+	{
+		List<Figure> figures;
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(path));
+		     SVGImporter importer = new SVGImporter(in))
+		{
+			figures = importer.readAll();
+		}
+
+		drawing.beginTransaction();
+		try
+		{
+			drawing.addFigures(figures);
+		}
+		catch (RuntimeException e)
+		{
+			drawing.rollback();
+			throw e;
+		}
+		drawing.commit();
+		return figures.size();
+	}
+
+	// ------------------------------------------------------------------------
+	// Styles
+	// ------------------------------------------------------------------------
+
+	/**
+	 * Style de l'élément courant : style hérité de l'élément englobant puis
+	 * attributs de présentation, règles CSS portant sur le nom de l'élément,
+	 * règles CSS portant sur ses classes et enfin attribut {@code style}
+	 * @param name le nom de l'élément courant
+	 * @return le style (résolu) de l'élément courant
+	 */
+	private Style elementStyle(String name)
+	{
+		Style parent = styles.peek();
+		StringBuilder key = new StringBuilder(name);
+		for (int i = 0; i < reader.getAttributeCount(); i++)
+		{
+			String attribute = reader.getAttributeLocalName(i);
+			if (Style.isProperty(attribute) || attribute.equals("class")
+			    || attribute.equals("style"))
+			{
+				key.append('\0').append(attribute);
+				key.append('=').append(reader.getAttributeValue(i));
+			}
+		}
+		Map<String, Style> children = resolved.get(parent);
+		if (children == null)
+		{
+			if (resolved.size() >= MaxResolvedStyles)
+			{
+				resolved.clear();
+			}
+			children = new HashMap<String, Style>();
+			resolved.put(parent, children);
+		}
+		Style style = children.get(key.toString());
+		if (style == null)
+		{
+			if (children.size() >= MaxResolvedStyles)
+			{
+				children.clear();
+			}
+			style = resolveStyle(name, parent);
+			children.put(key.toString(), style);
+		}
+		return style;
+	}
+
+	/**
+	 * Résolution du style de l'élément courant
+	 * @param name le nom de l'élément courant
+	 * @param parent le style de l'élément englobant
+	 * @return le style résolu de l'élément courant
+	 */
+	private Style resolveStyle(String name, Style parent)
+	{
+		Style style = new Style(parent);
+		for (int i = 0; i < reader.getAttributeCount(); i++)
+		{
+			String attribute = reader.getAttributeLocalName(i);
+			if (Style.isProperty(attribute))
+			{
+				apply(style, attribute, reader.getAttributeValue(i));
+			}
+		}
+		Map<String, String> declarations = rules.get(name);
+		if (declarations != null)
+		{
+			apply(style, declarations);
+		}
+		String classes = reader.getAttributeValue(null, "class");
+		if (classes != null)
+		{
+			for (String c : classes.trim().split("\\s+"))
+			{
+				declarations = rules.get("." + c);
+				if (declarations != null)
+				{
+					apply(style, declarations);
+				}
+			}
+		}
+		String inline = reader.getAttributeValue(null, "style");
+		if (inline != null)
+		{
+			apply(style, parseDeclarations(inline));
+		}
+		style.resolve();
+		return style;
+	}
+
+	/**
+	 * Application d'un ensemble de déclarations à un style
+	 * @param style le style à modifier
+	 * @param declarations les déclarations à appliquer
+	 */
+	private void apply(Style style, Map<String, String> declarations)
+	{
+		for (Map.Entry<String, String> declaration : declarations.entrySet())
+		{
+			apply(style, declaration.getKey(), declaration.getValue());
+		}
+	}
+
+	/**
+	 * Application d'une propriété à un style, les valeurs non reconnues
+	 * étant signalées puis ignorées
+	 * @param style le style à modifier
+	 * @param property le nom de la propriété
+	 * @param value la valeur de la propriété
+	 */
+	private void apply(Style style, String property, String value)
+	{
+		try
+		{
+			style.set(property, value.trim());
+		}
+		catch (IllegalArgumentException e)
+		{
+			warn(property + ":" + value);
+		}
+	}
+
+	/**
+	 * Lecture des règles d'un élément {@code style} (seuls les sélecteurs
+	 * simples par nom d'élément ou par classe sont pris en compte)
+	 * @param css le contenu de l'élément style
+	 */
+	private void parseRules(String css)
+	{
+		// les styles déjà résolus peuvent dépendre des règles modifiées
+		resolved.clear();
+		css = css.replaceAll("(?s)/\\*.*?\\*/", "");
+		int start = 0;
+		int open;
+		while ((open = css.indexOf('{', start)) >= 0)
+		{
+			int close = css.indexOf('}', open);
+			if (close < 0)
+			{
+				close = css.length();
+			}
+			Map<String, String> declarations =
+			    parseDeclarations(css.substring(open + 1, close));
+			for (String selector : css.substring(start, open).split(","))
+			{
+				selector = selector.trim();
+				if (selector.isEmpty())
+				{
+					continue;
+				}
+				Map<String, String> rule = rules.get(selector);
+				if (rule == null)
+				{
+					rule = new LinkedHashMap<String, String>();
+					rules.put(selector, rule);
+				}
+				rule.putAll(declarations);
+			}
+			start = close + 1;
+		}
+	}
+
+	/**
+	 * Lecture d'une liste de déclarations CSS "propriété:valeur;..."
+	 * @param text les déclarations
+	 * @return les déclarations dans leur ordre d'apparition
+	 */
+	private static Map<String, String> parseDeclarations(String text)
+	{
+		Map<String, String> declarations = new LinkedHashMap<String, String>();
+		for (String declaration : text.split(";"))
+		{
+			int colon = declaration.indexOf(':');
+			if (colon > 0)
+			{
+				declarations.put(declaration.substring(0, colon).trim(),
+				                 declaration.substring(colon + 1).trim());
+			}
+		}
+		return declarations;
+	}
+
+	/**
+	 * Signalement d'une valeur non reconnue (une seule fois par valeur)
+	 * @param value la valeur non reconnue
+	 */
+	private void warn(String value)
+	{
+		if (warnings.add(value))
+		{
+			System.err.println(getClass().getSimpleName()
+			    + " : unsupported value " + value + " ignored");
+		}
+	}
+
+	/**
+	 * Lecture d'une couleur
+	 * @param value la valeur de la couleur ("none", "#rgb", "#rrggbb",
+	 * "rgb(r,g,b)", "rgba(r,g,b,a)" ou bien un nom de couleur)
+	 * @return la couleur correspondante ou bien null pour "none"
+	 * @throws IllegalArgumentException si la couleur n'est pas reconnue
+	 */
+	private static Color parseColor(String value)
+	{
+		String v = value.toLowerCase();
+		if (v.equals("none") || v.equals("transparent"))
+		{
+			return null;
+		}
+		if (v.startsWith("#"))
+		{
+			if (v.length() == 4)
+			{
+				int rgb = Integer.parseInt(v.substring(1), 16);
+				return new Color(((rgb >> 8) & 0xF) * 0x11,
+				                 ((rgb >> 4) & 0xF) * 0x11,
+				                 (rgb & 0xF) * 0x11);
+			}
+			if (v.length() == 7)
+			{
+				return new Color(Integer.parseInt(v.substring(1), 16));
+			}
+		}
+		else if (v.startsWith("rgb(") || v.startsWith("rgba("))
+		{
+			String[] c = v.substring(v.indexOf('(') + 1, v.lastIndexOf(')'))
+			    .split("[,\\s/]+");
+			if ((c.length == 3) || (c.length == 4))
+			{
+				int[] rgba = {0, 0, 0, 255};
+				for (int i = 0; i < c.length; i++)
+				{
+					String s = c[i].trim();
+					double scale = (i < 3 ? 1.0 : 255.0);
+					if (s.endsWith("%"))
+					{
+						s = s.substring(0, s.length() - 1);
+						scale = 2.55;
+					}
+					rgba[i] = (int) Math.round(Math.max(0.0,
+					    Math.min(255.0, Double.parseDouble(s) * scale)));
+				}
+				return new Color(rgba[0], rgba[1], rgba[2], rgba[3]);
+			}
+		}
+		else
+		{
+			Color color = NamedColors.get(v);
+			if (color != null)
+			{
+				return color;
+			}
+		}
+		throw new IllegalArgumentException("unknown color " + value);
+	}
+
+	/**
+	 * Construction de la table des couleurs nommées reconnues
+	 * @return la table des couleurs nommées
+	 */
+	private static Map<String, Color> fillNamedColors()
+	{
+		Map<String, Color> map = new HashMap<String, Color>();
+		map.put("black", Color.black);
+		map.put("white", Color.white);
+		map.put("red", Color.red);
+		map.put("lime", Color.green);
+		map.put("green", new Color(0, 128, 0));
+		map.put("blue", Color.blue);
+		map.put("yellow", Color.yellow);
+		map.put("cyan", Color.cyan);
+		map.put("aqua", Color.cyan);
+		map.put("magenta", Color.magenta);
+		map.put("fuchsia", Color.magenta);
+		map.put("gray", new Color(128, 128, 128));
+		map.put("grey", new Color(128, 128, 128));
+		map.put("silver", new Color(192, 192, 192));
+		map.put("maroon", new Color(128, 0, 0));
+		map.put("olive", new Color(128, 128, 0));
+		map.put("navy", new Color(0, 0, 128));
+		map.put("purple", new Color(128, 0, 128));
+		map.put("teal", new Color(0, 128, 128));
+		map.put("orange", new Color(255, 165, 0));
+		map.put("pink", new Color(255, 192, 203));
+		map.put("brown", new Color(165, 42, 42));
+		return map;
+	}
+
+	/**
+	 * Lecture d'une longueur (en unités utilisateur)
+	 * @param value la valeur (éventuellement suivie de "px")
+	 * @return la longueur
+	 * @throws NumberFormatException si la valeur n'est pas un nombre
+	 */
+	private static double parseLength(String value)
+	{
+		String v = value.trim();
+		if (v.endsWith("px"))
+		{
+			v = v.substring(0, v.length() - 2).trim();
+		}
+		return Double.parseDouble(v);
+	}
+
+	/**
+	 * Style d'un élément. Les couleurs et le trait sont obtenus des
+	 * flyweights lorsque le style est figé par {@link #resolve()}
+	 */
+	private static final class Style
+	{
+		/**
+		 * Propriétés de présentation reconnues
+		 */
+		private static final Set<String> Properties = new HashSet<String>(
+		    Arrays.asList("fill", "fill-opacity", "stroke",
+		                  "stroke-opacity", "stroke-width",
+		                  "stroke-linecap", "stroke-linejoin",
+		                  "stroke-miterlimit", "stroke-dasharray",
+		                  "stroke-dashoffset", "opacity", "display"));
+
+		Color fill = Color.black;
+		float fillOpacity = 1.0f;
+		Color edge = null;
+		float edgeOpacity = 1.0f;
+		float opacity = 1.0f;
+		float width = 1.0f;
+		int cap = BasicStroke.CAP_BUTT;
+		int join = BasicStroke.JOIN_MITER;
+		float miterLimit = 4.0f;
+		float[] dash = null;
+		float dashOffset = 0.0f;
+		boolean hidden = false;
+
+		/**
+		 * Couleur de remplissage partagée (après {@link #resolve()})
+		 */
+		Paint fillPaint = null;
+
+		/**
+		 * Couleur du trait partagée (après {@link #resolve()})
+		 */
+		Paint edgePaint = null;
+
+		/**
+		 * Trait partagé (après {@link #resolve()})
+		 */
+		BasicStroke stroke = null;
+
+		/**
+		 * Style initial (valeurs par défaut de SVG)
+		 */
+		Style()
+		{
+		}
+
+		/**
+		 * Style hérité d'un élément englobant
+		 * @param parent le style de l'élément englobant
+		 */
+		Style(Style parent)
+		{
+			fill = parent.fill;
+			fillOpacity = parent.fillOpacity;
+			edge = parent.edge;
+			edgeOpacity = parent.edgeOpacity;
+			opacity = parent.opacity;
+			width = parent.width;
+			cap = parent.cap;
+			join = parent.join;
+			miterLimit = parent.miterLimit;
+			dash = parent.dash;
+			dashOffset = parent.dashOffset;
+		}
+
+		/**
+		 * Indique si un nom d'attribut est une propriété de présentation
+		 * reconnue
+		 * @param name le nom de l'attribut
+		 * @return true si l'attribut est une propriété reconnue
+		 */
+		static boolean isProperty(String name)
+		{
+			return Properties.contains(name);
+		}
+
+		/**
+		 * Mise en place d'une propriété (les propriétés inconnues sont
+		 * ignorées)
+		 * @param property le nom de la propriété
+		 * @param value la valeur de la propriété
+		 * @throws IllegalArgumentException si la valeur n'est pas reconnue
+		 */
+		void set(String property, String value)
+		{
+			switch (property)
+			{
+				case "fill":
+					fill = parseColor(value);
+					break;
+				case "fill-opacity":
+					fillOpacity = opacity(value);
+					break;
+				case "stroke":
+					edge = parseColor(value);
+					break;
+				case "stroke-opacity":
+					edgeOpacity = opacity(value);
+					break;
+				case "opacity":
+					// approximation : l'opacité d'un groupe s'applique à
+					// chacun de ses éléments
+					opacity *= opacity(value);
+					break;
+				case "stroke-width":
+					width = (float) parseLength(value);
+					break;
+				case "stroke-linecap":
+					cap = keyword(value, new String[] {"butt", "round", "square"},
+					              new int[] {BasicStroke.CAP_BUTT,
+					                         BasicStroke.CAP_ROUND,
+					                         BasicStroke.CAP_SQUARE});
+					break;
+				case "stroke-linejoin":
+					join = keyword(value, new String[] {"miter", "round", "bevel"},
+					               new int[] {BasicStroke.JOIN_MITER,
+					                          BasicStroke.JOIN_ROUND,
+					                          BasicStroke.JOIN_BEVEL});
+					break;
+				case "stroke-miterlimit":
+					miterLimit = Float.parseFloat(value);
+					break;
+				case "stroke-dasharray":
+					dash = dashes(value);
+					break;
+				case "stroke-dashoffset":
+					dashOffset = (float) parseLength(value);
+					break;
+				case "display":
+					hidden = value.equals("none");
+					break;
+				default:
+					break;
+			}
+		}
+
+		/**
+		 * Obtention des couleurs et du trait partagés correspondant à ce
+		 * style (qui ne doit plus être modifié ensuite)
+		 */
+		void resolve()
+		{
+			fillPaint = paint(fill, fillOpacity);
+			edgePaint = paint(edge, edgeOpacity);
+			if ((edgePaint == null) || !(width > 0.0f))
+			{
+				edgePaint = null;
+				stroke = null;
+				return;
+			}
+			stroke = StrokeFactory.getStroke(
+			    new BasicStroke(width,
+			                    cap,
+			                    join,
+			                    (join == BasicStroke.JOIN_MITER ?
+			                        Math.max(1.0f, miterLimit) : miterLimit),
+			                    dash,
+			                    dashOffset));
+		}
+
+		/**
+		 * Couleur partagée de {@link PaintFactory} avec son opacité
+		 * @param color la couleur
+		 * @param alpha l'opacité propre à la couleur
+		 * @return la couleur partagée ou bien null si elle est transparente
+		 */
+		private Paint paint(Color color, float alpha)
+		{
+			if (color == null)
+			{
+				return null;
+			}
+			int a = Math.round(color.getAlpha() * alpha * opacity);
+			if (a <= 0)
+			{
+				return null;
+			}
+			return PaintFactory.getPaint(new Color(color.getRed(),
+			                                       color.getGreen(),
+			                                       color.getBlue(),
+			                                       Math.min(a, 255)));
+		}
+
+		/**
+		 * Lecture d'une opacité
+		 * @param value la valeur entre 0 et 1 (ou en pourcentage)
+		 * @return l'opacité
+		 */
+		private static float opacity(String value)
+		{
+			float v = value.endsWith("%") ?
+			    Float.parseFloat(value.substring(0, value.length() - 1)) / 100.0f :
+			    Float.parseFloat(value);
+			return Math.max(0.0f, Math.min(1.0f, v));
+		}
+
+		/**
+		 * Lecture d'un mot clé
+		 * @param value la valeur
+		 * @param names les mots clés possibles
+		 * @param values les valeurs correspondantes
+		 * @return la valeur du mot clé
+		 * @throws IllegalArgumentException si le mot clé est inconnu
+		 */
+		private static int keyword(String value, String[] names, int[] values)
+		{
+			for (int i = 0; i < names.length; i++)
+			{
+				if (names[i].equals(value))
+				{
+					return values[i];
+				}
+			}
+			throw new IllegalArgumentException("unknown keyword " + value);
+		}
+
+		/**
+		 * Lecture des pointillés d'un trait
+		 * @param value la liste des longueurs ou bien "none"
+		 * @return les longueurs des pointillés ou bien null
+		 */
+		private static float[] dashes(String value)
+		{
+			if (value.equals("none"))
+			{
+				return null;
+			}
+			Numbers numbers = new Numbers(value);
+			List<Float> lengths = new ArrayList<Float>();
+			boolean empty = true;
+			while (numbers.hasNumber())
+			{
+				float length = (float) numbers.next();
+				if (length < 0.0f)
+				{
+					throw new IllegalArgumentException("negative dash " + value);
+				}
+				empty &= (length == 0.0f);
+				lengths.add(length);
+			}
+			if (empty)
+			{
+				return null;
+			}
+			// une liste de longueur impaire est répétée aussi bien en SVG que
+			// par BasicStroke
+			float[] dash = new float[lengths.size()];
+			for (int i = 0; i < dash.length; i++)
+			{
+				dash[i] = lengths.get(i);
+			}
+			return dash;
+		}
+	}
+
+	// ------------------------------------------------------------------------
+	// Géométrie
+	// ------------------------------------------------------------------------
+
+	/**
+	 * Elément SVG lu, en attente de la construction de sa (ou ses) figure(s)
+	 */
+	private static final class Element
+	{
+		/**
+		 * Nom de l'élément
+		 */
+		final String name;
+
+		/**
+		 * Attributs géométriques de l'élément
+		 */
+		final Map<String, String> attributes;
+
+		/**
+		 * Transformation complète de l'élément
+		 */
+		final AffineTransform transform;
+
+		/**
+		 * Couleur du trait partagée
+		 */
+		final Paint edge;
+
+		/**
+		 * Couleur de remplissage partagée
+		 */
+		final Paint fill;
+
+		/**
+		 * Trait partagé
+		 */
+		final BasicStroke stroke;
+
+		/**
+		 * Constructeur d'un élément lu
+		 * @param name le nom de l'élément
+		 * @param reader l'analyseur positionné sur le début de l'élément
+		 * @param transform la transformation complète de l'élément
+		 * @param style le style de l'élément
+		 */
+		Element(String name,
+		        XMLStreamReader reader,
+		        AffineTransform transform,
+		        Style style)
+		{
+			this.name = name;
+			attributes = new HashMap<String, String>();
+			for (int i = 0; i < reader.getAttributeCount(); i++)
+			{
+				attributes.put(reader.getAttributeLocalName(i),
+				               reader.getAttributeValue(i));
+			}
+			this.transform = transform;
+			stroke = style.stroke;
+			edge = style.edgePaint;
+			fill = style.fillPaint;
+		}
+
+		/**
+		 * Longueur d'un attribut
+		 * @param attribute le nom de l'attribut
+		 * @param defaultValue la valeur par défaut de l'attribut
+		 * @return la valeur de l'attribut
+		 * @throws NumberFormatException si la valeur n'est pas un nombre
+		 */
+		double length(String attribute, double defaultValue)
+		{
+			String value = attributes.get(attribute);
+			return value != null ? parseLength(value) : defaultValue;
+		}
+	}
+
+	/**
+	 * Construction des figures d'un lot d'éléments (éventuellement dans un
+	 * autre fil d'exécution). Les éléments invalides sont signalés puis
+	 * ignorés.
+	 * @param elements les éléments du lot
+	 * @return les figures du lot dans l'ordre des éléments
+	 */
+	private static List<Figure> build(List<Element> elements)
+	{
+		List<Figure> figures = new ArrayList<Figure>(elements.size());
+		for (Element element : elements)
+		{
+			try
+			{
+				build(element, figures);
+			}
+			catch (IllegalArgumentException e)
+			{
+				System.err.println(SVGImporter.class.getSimpleName()
+				    + "::build : invalid " + element.name + " : "
+				    + e.getLocalizedMessage());
+			}
+		}
+		return figures;
+	}
+
+	/**
+	 * Construction de la (ou des) figure(s) d'un élément
+	 * @param element l'élément
+	 * @param figures la liste à laquelle ajouter les figures construites
+	 * @throws IllegalArgumentException si la géométrie de l'élément est
+	 * invalide
+	 */
+	private static void build(Element element, List<Figure> figures)
+	{
+		switch (element.name)
+		{
+			case "rect":
+			{
+				double w = element.length("width", 0.0);
+				double h = element.length("height", 0.0);
+				if ((w <= 0.0) || (h <= 0.0))
+				{
+					return;
+				}
+				double x = element.length("x", 0.0);
+				double y = element.length("y", 0.0);
+				double rx = element.length("rx", -1.0);
+				double ry = element.length("ry", -1.0);
+				rx = (rx < 0.0 ? ry : rx);
+				ry = (ry < 0.0 ? rx : ry);
+				Shape shape;
+				FigureType type;
+				if (rx > 0.0)
+				{
+					rx = Math.min(rx, w / 2.0);
+					ry = Math.min(ry, h / 2.0);
+					shape = new RoundRectangle2D.Double(-w / 2.0, -h / 2.0, w, h,
+					                                    2.0 * rx, 2.0 * ry);
+					type = FigureType.ROUNDED_RECTANGLE;
+				}
+				else
+				{
+					shape = new Rectangle2D.Double(-w / 2.0, -h / 2.0, w, h);
+					type = FigureType.RECTANGLE;
+				}
+				add(element, type, shape, x + (w / 2.0), y + (h / 2.0), figures);
+				break;
+			}
+			case "circle":
+			{
+				double r = element.length("r", 0.0);
+				if (r <= 0.0)
+				{
+					return;
+				}
+				add(element,
+				    FigureType.CIRCLE,
+				    new Ellipse2D.Double(-r, -r, 2.0 * r, 2.0 * r),
+				    element.length("cx", 0.0),
+				    element.length("cy", 0.0),
+				    figures);
+				break;
+			}
+			case "ellipse":
+			{
+				double rx = element.length("rx", 0.0);
+				double ry = element.length("ry", 0.0);
+				if ((rx <= 0.0) || (ry <= 0.0))
+				{
+					return;
+				}
+				add(element,
+				    FigureType.ELLIPSE,
+				    new Ellipse2D.Double(-rx, -ry, 2.0 * rx, 2.0 * ry),
+				    element.length("cx", 0.0),
+				    element.length("cy", 0.0),
+				    figures);
+				break;
+			}
+			case "line":
+			{
+				double[] points = {
+					element.length("x1", 0.0), element.length("y1", 0.0),
+					element.length("x2", 0.0), element.length("y2", 0.0)
+				};
+				addPolygon(element, points, 4, figures);
+				break;
+			}
+			case "polyline":
+			case "polygon":
+			{
+				String value = element.attributes.get("points");
+				if (value == null)
+				{
+					return;
+				}
+				Numbers numbers = new Numbers(value);
+				double[] points = new double[16];
+				int n = 0;
+				while (numbers.hasNumber())
+				{
+					if (n == points.length)
+					{
+						points = Arrays.copyOf(points, n * 2);
+					}
+					points[n++] = numbers.next();
+				}
+				addPolygon(element, points, n - (n % 2), figures);
+				break;
+			}
+			case "path":
+			{
+				String value = element.attributes.get("d");
+				if (value != null)
+				{
+					addPath(element, parsePath(value), element.transform, figures);
+				}
+				break;
+			}
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Ajout d'une figure dont la forme est centrée sur l'origine
+	 * @param element l'élément à l'origine de la figure
+	 * @param type le type de la figure
+	 * @param shape la forme de la figure, centrée sur l'origine
+	 * @param cx l'abscisse du centre de la forme dans le repère de l'élément
+	 * @param cy l'ordonnée du centre de la forme dans le repère de l'élément
+	 * @param figures la liste à laquelle ajouter la figure
+	 */
+	private static void add(Element element,
+	                        FigureType type,
+	                        Shape shape,
+	                        double cx,
+	                        double cy,
+	                        List<Figure> figures)
+	{
+		AffineTransform transform = new AffineTransform(element.transform);
+		transform.translate(cx, cy);
+		if (!FigureCodec.isDecomposable(transform))
+		{
+			// transformation avec cisaillement : la forme transformée est
+			// approchée par un polygone
+			addPath(element, shape, transform, figures);
+			return;
+		}
+		Figure figure = type.getFigure(element.stroke,
+		                               element.edge,
+		                               element.fill,
+		                               new Point2D.Double());
+		FigureCodec.setGeometry(figure, shape, transform);
+		figures.add(figure);
+	}
+
+	/**
+	 * Ajout d'un polygone
+	 * @param element l'élément à l'origine du polygone
+	 * @param points les coordonnées des sommets dans le repère de l'élément
+	 * @param n le nombre de coordonnées utilisées dans points
+	 * @param figures la liste à laquelle ajouter le polygone
+	 */
+	private static void addPolygon(Element element,
+	                               double[] points,
+	                               int n,
+	                               List<Figure> figures)
+	{
+		addPolygon(element, points, n, element.transform, figures);
+	}
+
+	/**
+	 * Ajout d'un polygone (d'au moins deux sommets) dont les sommets sont
+	 * exprimés par rapport à leur barycentre arrondi (et arrondis comme ceux
+	 * d'un {@link java.awt.Polygon})
+	 * @param element l'élément à l'origine du polygone
+	 * @param points les coordonnées des sommets
+	 * @param n le nombre de coordonnées utilisées dans points
+	 * @param transform la transformation à appliquer aux sommets
+	 * @param figures la liste à laquelle ajouter le polygone
+	 */
+	private static void addPolygon(Element element,
+	                               double[] points,
+	                               int n,
+	                               AffineTransform transform,
+	                               List<Figure> figures)
+	{
+		int nbPoints = n / 2;
+		if (nbPoints < 2)
+		{
+			return;
+		}
+		if (!FigureCodec.isDecomposable(transform))
+		{
+			// transformation avec cisaillement : appliquée aux sommets
+			double[] transformed = new double[n];
+			transform.transform(points, 0, transformed, 0, nbPoints);
+			addPolygon(element, transformed, n, new AffineTransform(), figures);
+			return;
+		}
+		double cx = 0.0;
+		double cy = 0.0;
+		for (int i = 0; i < n; i += 2)
+		{
+			cx += points[i];
+			cy += points[i + 1];
+		}
+		// centre entier afin de ne pas déplacer des sommets entiers
+		cx = Math.rint(cx / nbPoints);
+		cy = Math.rint(cy / nbPoints);
+		int[] xs = new int[nbPoints];
+		int[] ys = new int[nbPoints];
+		for (int i = 0; i < nbPoints; i++)
+		{
+			xs[i] = (int) Math.round(points[2 * i] - cx);
+			ys[i] = (int) Math.round(points[(2 * i) + 1] - cy);
+		}
+		java.awt.Polygon polygon = new java.awt.Polygon(xs, ys, nbPoints);
+
+		AffineTransform t = new AffineTransform(transform);
+		t.translate(cx, cy);
+		Figure figure = FigureType.POLYGON.getFigure(element.stroke,
+		                                             element.edge,
+		                                             element.fill,
+		                                             new Point2D.Double());
+		FigureCodec.setGeometry(figure, polygon, t);
+		figures.add(figure);
+	}
+
+	/**
+	 * Ajout d'un polygone par sous chemin (d'au moins deux sommets) d'une
+	 * forme quelconque, dont les courbes sont approchées par des segments
+	 * @param element l'élément à l'origine de la forme
+	 * @param shape la forme
+	 * @param transform la transformation à appliquer à la forme
+	 * @param figures la liste à laquelle ajouter les polygones
+	 */
+	private static void addPath(Element element,
+	                            Shape shape,
+	                            AffineTransform transform,
+	                            List<Figure> figures)
+	{
+		// lorsque la transformation n'a pas de cisaillement elle est
+		// conservée par les polygones, sinon elle est appliquée aux sommets
+		AffineTransform flattening = null;
+		AffineTransform remaining = transform;
+		if (!FigureCodec.isDecomposable(transform))
+		{
+			flattening = transform;
+			remaining = new AffineTransform();
+		}
+
+		double[] coords = new double[6];
+		double[] points = new double[32];
+		int n = 0;
+		for (PathIterator it = shape.getPathIterator(flattening, Flatness);
+		     !it.isDone(); it.next())
+		{
+			int type = it.currentSegment(coords);
+			if ((type == PathIterator.SEG_MOVETO) || (type == PathIterator.SEG_CLOSE))
+			{
+				addPolygon(element, points, n, remaining, figures);
+				n = 0;
+			}
+			if (type != PathIterator.SEG_CLOSE)
+			{
+				if (n + 2 > points.length)
+				{
+					points = Arrays.copyOf(points, points.length * 2);
+				}
+				points[n++] = coords[0];
+				points[n++] = coords[1];
+			}
+		}
+		addPolygon(element, points, n, remaining, figures);
+	}
+
+	/**
+	 * Lecture d'un attribut {@code transform}
+	 * @param value la liste des transformations
+	 * @return la transformation correspondante
+	 */
+	private AffineTransform parseTransform(String value)
+	{
+		AffineTransform transform = new AffineTransform();
+		int start = 0;
+		int open;
+		try
+		{
+			while ((open = value.indexOf('(', start)) >= 0)
+			{
+				int close = value.indexOf(')', open);
+				String name = value.substring(start, open).replace(',', ' ').trim();
+				Numbers numbers = new Numbers(value.substring(open + 1, close));
+				double[] v = new double[6];
+				int n = 0;
+				while (numbers.hasNumber() && (n < v.length))
+				{
+					v[n++] = numbers.next();
+				}
+				switch (name)
+				{
+					case "matrix":
+						transform.concatenate(new AffineTransform(v));
+						break;
+					case "translate":
+						transform.translate(v[0], n > 1 ? v[1] : 0.0);
+						break;
+					case "scale":
+						transform.scale(v[0], n > 1 ? v[1] : v[0]);
+						break;
+					case "rotate":
+						transform.rotate(Math.toRadians(v[0]),
+						                 n > 2 ? v[1] : 0.0,
+						                 n > 2 ? v[2] : 0.0);
+						break;
+					case "skewX":
+						transform.shear(Math.tan(Math.toRadians(v[0])), 0.0);
+						break;
+					case "skewY":
+						transform.shear(0.0, Math.tan(Math.toRadians(v[0])));
+						break;
+					default:
+						warn("transform " + name);
+						break;
+				}
+				start = close + 1;
+			}
+		}
+		catch (RuntimeException e)
+		{
+			warn("transform " + value);
+		}
+		return transform;
+	}
+
+	/**
+	 * Lecture des données d'un chemin (attribut {@code d}). La lecture
+	 * s'arrête à la première erreur (comme le prévoit SVG).
+	 * @param data les commandes du chemin
+	 * @return le chemin correspondant
+	 */
+	private static Path2D parsePath(String data)
+	{
+		Path2D.Double path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+		Numbers numbers = new Numbers(data);
+		double x = 0.0;
+		double y = 0.0;
+		double startX = 0.0;
+		double startY = 0.0;
+		// dernier point de contrôle (pour les commandes S et T)
+		double ctrlX = 0.0;
+		double ctrlY = 0.0;
+		char previous = ' ';
+		char command = ' ';
+		try
+		{
+			while (numbers.hasMore())
+			{
+				if (numbers.hasCommand())
+				{
+					command = numbers.command();
+				}
+				else if ((command == 'M') || (command == 'm'))
+				{
+					// les coordonnées qui suivent un M sont des L implicites
+					command = (command == 'M' ? 'L' : 'l');
+				}
+				else if ((command == ' ') || (command == 'Z') || (command == 'z'))
+				{
+					break;
+				}
+				boolean relative = Character.isLowerCase(command);
+				double ox = relative ? x : 0.0;
+				double oy = relative ? y : 0.0;
+				switch (Character.toUpperCase(command))
+				{
+					case 'M':
+						x = ox + numbers.next();
+						y = oy + numbers.next();
+						path.moveTo(x, y);
+						startX = x;
+						startY = y;
+						break;
+					case 'L':
+						x = ox + numbers.next();
+						y = oy + numbers.next();
+						path.lineTo(x, y);
+						break;
+					case 'H':
+						x = ox + numbers.next();
+						path.lineTo(x, y);
+						break;
+					case 'V':
+						y = oy + numbers.next();
+						path.lineTo(x, y);
+						break;
+					case 'C':
+					{
+						double x1 = ox + numbers.next();
+						double y1 = oy + numbers.next();
+						ctrlX = ox + numbers.next();
+						ctrlY = oy + numbers.next();
+						x = ox + numbers.next();
+						y = oy + numbers.next();
+						path.curveTo(x1, y1, ctrlX, ctrlY, x, y);
+						break;
+					}
+					case 'S':
+					{
+						boolean smooth = "CcSs".indexOf(previous) >= 0;
+						double x1 = smooth ? (2.0 * x) - ctrlX : x;
+						double y1 = smooth ? (2.0 * y) - ctrlY : y;
+						ctrlX = ox + numbers.next();
+						ctrlY = oy + numbers.next();
+						x = ox + numbers.next();
+						y = oy + numbers.next();
+						path.curveTo(x1, y1, ctrlX, ctrlY, x, y);
+						break;
+					}
+					case 'Q':
+						ctrlX = ox + numbers.next();
+						ctrlY = oy + numbers.next();
+						x = ox + numbers.next();
+						y = oy + numbers.next();
+						path.quadTo(ctrlX, ctrlY, x, y);
+						break;
+					case 'T':
+					{
+						boolean smooth = "QqTt".indexOf(previous) >= 0;
+						ctrlX = smooth ? (2.0 * x) - ctrlX : x;
+						ctrlY = smooth ? (2.0 * y) - ctrlY : y;
+						x = ox + numbers.next();
+						y = oy + numbers.next();
+						path.quadTo(ctrlX, ctrlY, x, y);
+						break;
+					}
+					case 'A':
+					{
+						double rx = numbers.next();
+						double ry = numbers.next();
+						double phi = numbers.next();
+						boolean large = numbers.flag();
+						boolean sweep = numbers.flag();
+						double x0 = x;
+						double y0 = y;
+						x = ox + numbers.next();
+						y = oy + numbers.next();
+						arcTo(path, x0, y0, rx, ry, phi, large, sweep, x, y);
+						break;
+					}
+					case 'Z':
+						path.closePath();
+						x = startX;
+						y = startY;
+						break;
+					default:
+						throw new IllegalArgumentException("unknown command "
+						    + command);
+				}
+				previous = command;
+			}
+		}
+		catch (IllegalArgumentException | IllegalStateException e)
+		{
+			System.err.println(SVGImporter.class.getSimpleName()
+			    + "::parsePath : " + e.getLocalizedMessage());
+		}
+		return path;
+	}
+
+	/**
+	 * Ajout d'un arc d'ellipse SVG (défini par ses extrémités) à un chemin
+	 * @param path le chemin
+	 * @param x0 l'abscisse du point de départ
+	 * @param y0 l'ordonnée du point de départ
+	 * @param rx le rayon horizontal de l'ellipse
+	 * @param ry le rayon vertical de l'ellipse
+	 * @param phi l'angle de l'ellipse (en degrés)
+	 * @param large indique s'il faut prendre le plus grand des arcs
+	 * @param sweep indique si l'arc est parcouru dans le sens des angles
+	 * positifs
+	 * @param x l'abscisse du point d'arrivée
+	 * @param y l'ordonnée du point d'arrivée
+	 */
+	private static void arcTo(Path2D path,
+	                          double x0,
+	                          double y0,
+	                          double rx,
+	                          double ry,
+	                          double phi,
+	                          boolean large,
+	                          boolean sweep,
+	                          double x,
+	                          double y)
+	{
+		rx = Math.abs(rx);
+		ry = Math.abs(ry);
+		if ((rx == 0.0) || (ry == 0.0) || ((x0 == x) && (y0 == y)))
+		{
+			path.lineTo(x, y);
+			return;
+		}
+		double angle = Math.toRadians(phi);
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		double dx = (x0 - x) / 2.0;
+		double dy = (y0 - y) / 2.0;
+		double x1 = (cos * dx) + (sin * dy);
+		double y1 = (-sin * dx) + (cos * dy);
+		// agrandissement des rayons trop petits
+		double lambda = ((x1 * x1) / (rx * rx)) + ((y1 * y1) / (ry * ry));
+		if (lambda > 1.0)
+		{
+			rx *= Math.sqrt(lambda);
+			ry *= Math.sqrt(lambda);
+		}
+		double num = (rx * rx * ry * ry) - (rx * rx * y1 * y1) - (ry * ry * x1 * x1);
+		double den = (rx * rx * y1 * y1) + (ry * ry * x1 * x1);
+		double coef = Math.sqrt(Math.max(0.0, num / den)) * (large == sweep ? -1.0 : 1.0);
+		double cx1 = coef * ((rx * y1) / ry);
+		double cy1 = coef * (-(ry * x1) / rx);
+		double cx = (cos * cx1) - (sin * cy1) + ((x0 + x) / 2.0);
+		double cy = (sin * cx1) + (cos * cy1) + ((y0 + y) / 2.0);
+		double theta = Math.atan2((y1 - cy1) / ry, (x1 - cx1) / rx);
+		double delta = Math.atan2((-y1 - cy1) / ry, (-x1 - cx1) / rx) - theta;
+		if (sweep && (delta < 0.0))
+		{
+			delta += 2.0 * Math.PI;
+		}
+		else if (!sweep && (delta > 0.0))
+		{
+			delta -= 2.0 * Math.PI;
+		}
+		// les angles de Arc2D sont comptés dans le sens inverse de ceux de SVG
+		Arc2D arc = new Arc2D.Double(-rx, -ry, 2.0 * rx, 2.0 * ry,
+		                             -Math.toDegrees(theta),
+		                             -Math.toDegrees(delta),
+		                             Arc2D.OPEN);
+		AffineTransform t = AffineTransform.getTranslateInstance(cx, cy);
+		t.rotate(angle);
+		path.append(arc.getPathIterator(t), true);
+	}
+
+	/**
+	 * Attente de la construction d'un lot de figures
+	 * @param task la tâche de construction
+	 * @return les figures du lot
+	 * @throws IOException si la construction a échoué
+	 */
+	private static List<Figure> join(ForkJoinTask<List<Figure>> task)
+	    throws IOException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Lecteur des nombres (et des commandes de chemins) d'une valeur
+	 * d'attribut SVG, séparés par des blancs et/ou une virgule
+	 */
+	private static final class Numbers
+	{
+		/**
+		 * La valeur lue
+		 */
+		private final String text;
+
+		/**
+		 * Position courante dans la valeur
+		 */
+		private int position;
+
+		/**
+		 * Constructeur d'un lecteur de nombres
+		 * @param text la valeur à lire
+		 */
+		Numbers(String text)
+		{
+			this.text = text;
+			position = 0;
+		}
+
+		/**
+		 * Saut des séparateurs (blancs et au plus une virgule)
+		 */
+		private void skipSeparators()
+		{
+			boolean comma = false;
+			while (position < text.length())
+			{
+				char c = text.charAt(position);
+				if (Character.isWhitespace(c) || ((c == ',') && !comma))
+				{
+					comma |= (c == ',');
+					position++;
+				}
+				else
+				{
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Indique s'il reste quelque chose à lire
+		 * @return true s'il reste quelque chose à lire
+		 */
+		boolean hasMore()
+		{
+			skipSeparators();
+			return position < text.length();
+		}
+
+		/**
+		 * Indique si la prochaine valeur est une commande de chemin
+		 * @return true si la prochaine valeur est une lettre
+		 */
+		boolean hasCommand()
+		{
+			return hasMore() && Character.isLetter(text.charAt(position))
+			    && (Character.toLowerCase(text.charAt(position)) != 'e');
+		}
+
+		/**
+		 * Indique si la prochaine valeur est un nombre
+		 * @return true si la prochaine valeur commence comme un nombre
+		 */
+		boolean hasNumber()
+		{
+			if (!hasMore())
+			{
+				return false;
+			}
+			char c = text.charAt(position);
+			return Character.isDigit(c) || (c == '.') || (c == '-') || (c == '+');
+		}
+
+		/**
+		 * Lecture d'une commande de chemin
+		 * @return la commande lue
+		 */
+		char command()
+		{
+			return text.charAt(position++);
+		}
+
+		/**
+		 * Lecture d'un drapeau d'arc (un seul chiffre 0 ou 1)
+		 * @return la valeur du drapeau
+		 * @throws IllegalArgumentException si le drapeau est invalide
+		 */
+		boolean flag()
+		{
+			if (hasMore())
+			{
+				char c = text.charAt(position);
+				if ((c == '0') || (c == '1'))
+				{
+					position++;
+					return c == '1';
+				}
+			}
+			throw new IllegalArgumentException("invalid arc flag in " + text);
+		}
+
+		/**
+		 * Lecture d'un nombre (éventuellement collé au précédent comme dans
+		 * "10-5" ou ".5.5")
+		 * @return le nombre lu
+		 * @throws NumberFormatException s'il n'y a pas de nombre à lire
+		 */
+		double next()
+		{
+			if (!hasNumber())
+			{
+				throw new NumberFormatException("number expected in " + text);
+			}
+			int start = position;
+			int length = text.length();
+			if ((text.charAt(position) == '-') || (text.charAt(position) == '+'))
+			{
+				position++;
+			}
+			boolean dot = false;
+			while (position < length)
+			{
+				char c = text.charAt(position);
+				if (Character.isDigit(c))
+				{
+					position++;
+				}
+				else if ((c == '.') && !dot)
+				{
+					dot = true;
+					position++;
+				}
+				else
+				{
+					break;
+				}
+			}
+			if ((position < length)
+			    && (Character.toLowerCase(text.charAt(position)) == 'e'))
+			{
+				int exponent = position + 1;
+				if ((exponent < length) && ((text.charAt(exponent) == '-')
+				    || (text.charAt(exponent) == '+')))
+				{
+					exponent++;
+				}
+				if ((exponent < length) && Character.isDigit(text.charAt(exponent)))
+				{
+					position = exponent;
+					while ((position < length)
+					    && Character.isDigit(text.charAt(position)))
+					{
+						position++;
+					}
+				}
+			}
+			return Double.parseDouble(text.substring(start, position));
+		}
+	}
+}
@@ -0,0 +1,22 @@
+/**
+ * Package contenant l'enregistrement et le chargement des dessins
+ * <ul>
+ * 	<li>le format binaire des dessins : {@link io.DrawingFormat}</li>
+ * 	<li>l'écriture d'un dessin : {@link io.DrawingWriter}</li>
+ * 	<li>la lecture d'un dessin : {@link io.DrawingReader}</li>
+ * 	<li>l'écriture d'un dessin indexé : {@link io.IndexedDrawingWriter}</li>
+ * 	<li>la lecture d'un dessin indexé projeté en mémoire dont les formes
+ * 	sont chargées à la demande : {@link io.IndexedDrawingReader}</li>
+ * 	<li>l'export en flux d'un dessin au format SVG :
+ * 	{@link io.SVGExporter}</li>
+ * 	<li>l'import en flux d'un document SVG : {@link io.SVGImporter}</li>
+ * 	<li>l'export par bandes d'un dessin dans une image PNG :
+ * 	{@link io.PNGExporter}</li>
+ * 	<li>le journal des modifications d'un dessin permettant de le
+ * 	reconstruire après un arrêt brutal : {@link io.DrawingJournal} (au
+ * 	format décrit par {@link io.JournalFormat})</li>
+ * 	<li>les flux de données sur des canaux NIO : {@link io.ChannelOutput} et
+ * 	{@link io.ChannelInput}</li>
+ * </ul>
+ */
+package io;
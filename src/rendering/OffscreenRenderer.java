@@ -0,0 +1,201 @@
+package rendering;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import figures.Drawing;
+import figures.Figure;
+
+/**
+ * Rendu hors écran des figures d'un modèle de dessin dans une
+ * {@link BufferedImage}, sans aucun composant graphique (utilisable avec
+ * {@code java.awt.headless=true}, pour des exports par lots par exemple).
+ * Les figures sont dessinées avec {@link Figure#draw(Graphics2D)} puis
+ * éventuellement soulignées avec {@link Figure#drawSelection(Graphics2D)},
+ * comme dans {@link widgets.DrawingPanel}.
+ * @note Ce moteur de rendu ne possède aucun état : le rendu de modèles de
+ * dessin distincts peut être effectué simultanément dans plusieurs threads.
+ * En revanche un même modèle ne doit pas être modifié pendant son rendu.
+ * @author davidroussel
+ */
+public final class OffscreenRenderer
+{
+	/**
+	 * Constructeur privé : classe utilitaire non instanciable
+	 */
+	private OffscreenRenderer()
+	{
+	}
+
+	/**
+	 * Zone occupée par l'ensemble des figures (éventuellement filtrées) d'un
+	 * modèle de dessin
+	 * @param drawing le modèle de dessin
+	 * @return l'union des zones dessinées par les figures ou bien un
+	 * rectangle vide s'il n'y a aucune figure
+	 */
+	public static Rectangle2D getBounds(Drawing drawing)
+	{
+		Rectangle2D bounds = null;
+		for (Figure f : drawing.stream().collect(Collectors.toList()))
+		{
+			if (bounds == null)
+			{
+				bounds = f.getPaintBounds();
+			}
+			else
+			{
+				bounds.add(f.getPaintBounds());
+			}
+		}
+		return (bounds != null ? bounds : new Rectangle2D.Double());
+	}
+
+	/**
+	 * Rendu de la zone [0, 0, width, height] d'un modèle de dessin à
+	 * l'échelle 1
+	 * @param drawing le modèle de dessin
+	 * @param width la largeur de l'image
+	 * @param height la hauteur de l'image
+	 * @param background la couleur de fond ou bien null pour un fond
+	 * transparent
+	 * @return une nouvelle image contenant le rendu du dessin
+	 */
+	public static BufferedImage render(Drawing drawing, int width, int height,
+	                                   Color background)
+	{
+		return render(drawing, new Rectangle2D.Double(0, 0, width, height),
+		              1.0, background, false);
+	}
+
+	/**
+	 * Rendu de l'ensemble des figures d'un modèle de dessin à une certaine
+	 * échelle
+	 * @param drawing le modèle de dessin
+	 * @param scale le facteur d'échelle (nombre de pixels de l'image par
+	 * unité du dessin)
+	 * @param background la couleur de fond ou bien null pour un fond
+	 * transparent
+	 * @return une nouvelle image contenant le rendu de toutes les figures
+	 * (ou bien une image d'un pixel si le dessin est vide)
+	 */
+	public static BufferedImage render(Drawing drawing, double scale,
+	                                   Color background)
+	{
+		return render(drawing, getBounds(drawing), scale, background, false);
+	}
+
+	/**
+	 * Rendu d'une zone d'un modèle de dessin à une certaine échelle
+	 * @param drawing le modèle de dessin
+	 * @param area la zone du dessin à rendre (en coordonnées du dessin)
+	 * @param scale le facteur d'échelle (nombre de pixels de l'image par
+	 * unité du dessin)
+	 * @param background la couleur de fond ou bien null pour un fond
+	 * transparent
+	 * @param selection indique s'il faut souligner les figures sélectionnées
+	 * @return une nouvelle image de taille (area.width * scale) x
+	 * (area.height * scale) contenant le rendu des figures de la zone
+	 * @throws IllegalArgumentException si le facteur d'échelle n'est pas
+	 * strictement positif
+	 */
+	public static BufferedImage render(Drawing drawing, Rectangle2D area,
+	                                   double scale, Color background,
+	                                   boolean selection)
+	    throws IllegalArgumentException
+	{
+		if (!(scale > 0.0))
+		{
+			throw new IllegalArgumentException("OffscreenRenderer::render : "
+			    + "invalid scale " + scale);
+		}
+
+		int width = Math.max(1, (int) Math.ceil(area.getWidth() * scale));
+		int height = Math.max(1, (int) Math.ceil(area.getHeight() * scale));
+		BufferedImage image = new BufferedImage(width, height,
+		    (background != null ? BufferedImage.TYPE_INT_RGB
+		                        : BufferedImage.TYPE_INT_ARGB));
+
+		// Seules les figures présentes dans la zone sont dessinées
+		List<Figure> figures = drawing.stream(area).collect(Collectors.toList());
+		render(image, 0, figures, area, scale, background,
+		       selection && drawing.hasSelection());
+
+		return image;
+	}
+
+	/**
+	 * Rendu de figures dans une image existante représentant une bande
+	 * horizontale (à partir d'une certaine ligne) de l'image d'une zone d'un
+	 * dessin à une certaine échelle : les bandes successives d'une même zone
+	 * se raccordent exactement (cf. {@link io.PNGExporter}).
+	 * L'image est entièrement effacée avant le rendu, elle peut donc être
+	 * réutilisée d'une bande à l'autre.
+	 * @param image l'image de la bande
+	 * @param row l'indice, dans l'image de toute la zone, de la première
+	 * ligne de la bande
+	 * @param figures les figures à dessiner (dans l'ordre de dessin) dont les
+	 * caches (transformations et rectangles englobants) sont à jour si le
+	 * rendu est effectué en dehors du thread qui modifie le dessin
+	 * @param area la zone du dessin (en coordonnées du dessin)
+	 * @param scale le facteur d'échelle (nombre de pixels de l'image par
+	 * unité du dessin)
+	 * @param background la couleur de fond ou bien null pour un fond
+	 * transparent
+	 * @param selection indique s'il faut souligner les figures sélectionnées
+	 */
+	public static void render(BufferedImage image, int row,
+	                          List<Figure> figures, Rectangle2D area,
+	                          double scale, Color background, boolean selection)
+	{
+		Graphics2D g2D = image.createGraphics();
+		try
+		{
+			if (background != null)
+			{
+				g2D.setColor(background);
+			}
+			else
+			{
+				g2D.setComposite(AlphaComposite.Src);
+				g2D.setColor(new Color(0, 0, 0, 0));
+			}
+			g2D.fillRect(0, 0, image.getWidth(), image.getHeight());
+			g2D.setComposite(AlphaComposite.SrcOver);
+			g2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+			                     RenderingHints.VALUE_ANTIALIAS_ON);
+			g2D.setRenderingHint(RenderingHints.KEY_RENDERING,
+			                     RenderingHints.VALUE_RENDER_QUALITY);
+			// sans normalisation des traits (qui les aligne sur les pixels
+			// d'après leurs coordonnées dans l'image de la bande) les bandes
+			// sont identiques aux mêmes lignes d'une image d'un seul tenant
+			g2D.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+			                     RenderingHints.VALUE_STROKE_PURE);
+			g2D.translate(0, -row);
+			g2D.scale(scale, scale);
+			g2D.translate(-area.getX(), -area.getY());
+
+			for (Figure f : figures)
+			{
+				f.draw(g2D);
+			}
+			if (selection)
+			{
+				for (Figure f : figures)
+				{
+					f.drawSelection(g2D);
+				}
+			}
+		}
+		finally
+		{
+			g2D.dispose();
+		}
+	}
+}
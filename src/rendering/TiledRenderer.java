@@ -0,0 +1,234 @@
+package rendering;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import figures.Drawing;
+import figures.Figure;
+
+/**
+ * Rendu parallèle des figures d'un modèle de dessin par tuiles.
+ * La zone à dessiner est découpée en tuiles carrées, chaque tuile est
+ * dessinée dans sa propre image par une tâche d'un {@link ForkJoinPool} avec
+ * les seules figures dont la zone dessinée intersecte la tuile (obtenues par
+ * {@link Drawing#stream(java.awt.geom.Rectangle2D)}, dans l'ordre de dessin),
+ * puis les tuiles sont recopiées dans le contexte graphique cible.
+ * @note La liste des figures de chaque tuile est établie dans le thread
+ * appelant (typiquement l'EDT), qui en profite pour mettre à jour les caches
+ * des figures (transformations et rectangles englobants) : les tâches de
+ * rendu ne font alors que lire les figures, à l'exception du cache
+ * (volatile) des formes chargées à la demande (cf.
+ * {@link figures.Figure#getShape()}).
+ * @author davidroussel
+ */
+public class TiledRenderer
+{
+	/**
+	 * Taille par défaut (en pixels) du côté des tuiles
+	 */
+	public static final int DefaultTileSize = 256;
+
+	/**
+	 * Le pool de threads dessinant les tuiles
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * Taille (en pixels) du côté des tuiles
+	 */
+	private int tileSize;
+
+	/**
+	 * Images des tuiles réutilisées d'un rendu à l'autre
+	 */
+	private List<BufferedImage> tileImages;
+
+	/**
+	 * Constructeur d'un moteur de rendu par tuiles utilisant le pool commun
+	 * et la taille de tuiles par défaut
+	 */
+	public TiledRenderer()
+	{
+		this(ForkJoinPool.commonPool(), DefaultTileSize);
+	}
+
+	/**
+	 * Constructeur d'un moteur de rendu par tuiles
+	 * @param pool le pool de threads dessinant les tuiles
+	 * @param tileSize la taille (en pixels) du côté des tuiles
+	 */
+	public TiledRenderer(ForkJoinPool pool, int tileSize)
+	{
+		this.pool = pool;
+		this.tileSize = Math.max(16, tileSize);
+		tileImages = new ArrayList<BufferedImage>();
+	}
+
+	/**
+	 * Accesseur de la taille des tuiles
+	 * @return la taille (en pixels) du côté des tuiles
+	 */
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+
+	/**
+	 * Une tuile à dessiner : sa zone (en coordonnées du dessin) et les figures
+	 * qui l'intersectent dans l'ordre de dessin
+	 */
+	private static class Tile
+	{
+		final Rectangle area;
+		final List<Figure> figures;
+		BufferedImage image;
+
+		Tile(Rectangle area, List<Figure> figures)
+		{
+			this.area = area;
+			this.figures = figures;
+			image = null;
+		}
+	}
+
+	/**
+	 * Rendu des figures d'un modèle de dessin dans une zone d'un contexte
+	 * graphique
+	 * @param g2D le contexte graphique cible
+	 * @param drawing le modèle de dessin
+	 * @param area la zone à dessiner (en coordonnées du dessin)
+	 * @param background la couleur de fond
+	 */
+	public void render(Graphics2D g2D, Drawing drawing, Rectangle area,
+	                   Color background)
+	{
+		// Les tuiles sont dessinées à la résolution du périphérique
+		AffineTransform device = g2D.getTransform();
+		double scaleX = device.getScaleX();
+		double scaleY = device.getScaleY();
+		boolean selection = drawing.hasSelection();
+
+		// Découpage en tuiles et sélection des figures (dans le thread
+		// appelant)
+		List<Tile> tiles = new ArrayList<Tile>();
+		for (int y = area.y; y < area.y + area.height; y += tileSize)
+		{
+			for (int x = area.x; x < area.x + area.width; x += tileSize)
+			{
+				Rectangle tileArea = new Rectangle(x, y,
+				    Math.min(tileSize, area.x + area.width - x),
+				    Math.min(tileSize, area.y + area.height - y));
+				List<Figure> figures =
+				    drawing.stream(tileArea).collect(Collectors.toList());
+				if (figures.isEmpty())
+				{
+					g2D.setColor(background);
+					g2D.fill(tileArea);
+				}
+				else
+				{
+					for (Figure f : figures)
+					{
+						f.getTransform();
+						f.getBounds2D();
+					}
+					tiles.add(new Tile(tileArea, figures));
+				}
+			}
+		}
+
+		int imageSize = (int) Math.ceil(tileSize * Math.max(scaleX, scaleY));
+		while (tileImages.size() < tiles.size())
+		{
+			tileImages.add(null);
+		}
+		for (int i = 0; i < tiles.size(); i++)
+		{
+			BufferedImage image = tileImages.get(i);
+			if ((image == null) || (image.getWidth() != imageSize))
+			{
+				image = new BufferedImage(imageSize, imageSize,
+				                          BufferedImage.TYPE_INT_RGB);
+				tileImages.set(i, image);
+			}
+			tiles.get(i).image = image;
+		}
+
+		// Dessin parallèle des tuiles
+		List<Callable<Tile>> tasks = new ArrayList<Callable<Tile>>(tiles.size());
+		for (Tile tile : tiles)
+		{
+			tasks.add(() -> renderTile(tile, background, scaleX, scaleY,
+			                           selection));
+		}
+
+		List<Future<Tile>> results = pool.invokeAll(tasks);
+
+		// Recopie des tuiles
+		for (Future<Tile> result : results)
+		{
+			try
+			{
+				Tile tile = result.get();
+				int w = (int) Math.ceil(tile.area.width * scaleX);
+				int h = (int) Math.ceil(tile.area.height * scaleY);
+				g2D.drawImage(tile.image, tile.area.x, tile.area.y,
+				              tile.area.x + tile.area.width,
+				              tile.area.y + tile.area.height,
+				              0, 0, w, h, null);
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				System.err.println(getClass().getSimpleName()
+				    + "::render : tile failed " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Dessin d'une tuile dans son image
+	 * @param tile la tuile à dessiner
+	 * @param background la couleur de fond
+	 * @param scaleX le facteur d'échelle horizontal du périphérique
+	 * @param scaleY le facteur d'échelle vertical du périphérique
+	 * @param selection indique s'il faut dessiner le soulignement des figures
+	 * sélectionnées
+	 * @return la tuile dessinée
+	 */
+	private static Tile renderTile(Tile tile, Color background, double scaleX,
+	                               double scaleY, boolean selection)
+	{
+		Graphics2D g2D = tile.image.createGraphics();
+		g2D.setColor(background);
+		g2D.fillRect(0, 0, tile.image.getWidth(), tile.image.getHeight());
+		g2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+		                     RenderingHints.VALUE_ANTIALIAS_ON);
+		g2D.scale(scaleX, scaleY);
+		g2D.translate(-tile.area.x, -tile.area.y);
+
+		for (Figure f : tile.figures)
+		{
+			f.draw(g2D);
+		}
+		if (selection)
+		{
+			for (Figure f : tile.figures)
+			{
+				f.drawSelection(g2D);
+			}
+		}
+		g2D.dispose();
+		return tile;
+	}
+}
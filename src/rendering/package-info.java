@@ -0,0 +1,12 @@
+/**
+ * Package contenant les moteurs de rendu des figures d'un modèle de dessin
+ * ({@link figures.Drawing}) utilisables en dehors du simple parcours séquentiel
+ * des figures :
+ * <ul>
+ * 	<li>un rendu parallèle par tuiles : {@link rendering.TiledRenderer}</li>
+ * 	<li>un rendu hors écran dans une image :
+ * 	{@link rendering.OffscreenRenderer}</li>
+ * </ul>
+ * @author davidroussel
+ */
+package rendering;
@@ -1,6 +1,7 @@
 package utils;
 
 import java.awt.Color;
+import java.awt.Paint;
 import java.awt.color.ColorSpace;
 
 /**
@@ -115,6 +116,25 @@ public class CColor extends Color implements Comparable<CColor>
 		super(r, g, b, a);
 	}
 
+	/**
+	 * Couleur comparable correspondant à un {@link Paint}
+	 * @param paint le paint à convertir (éventuellement null)
+	 * @return la couleur comparable correspondant au paint ou bien
+	 * {@link #NoColor} si le paint est null ou n'est pas une couleur
+	 */
+	public static CColor fromPaint(Paint paint)
+	{
+		if (paint instanceof CColor)
+		{
+			return (CColor) paint;
+		}
+		if (paint instanceof Color)
+		{
+			return new CColor((Color) paint);
+		}
+		return NoColor;
+	}
+
 	@Override
 	public int compareTo(CColor o)
 	{
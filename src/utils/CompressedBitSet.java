@@ -0,0 +1,817 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Ensemble compressé d'entiers positifs (typiquement des positions de
+ * figures), à la manière des "Roaring bitmaps".
+ * Les entiers sont répartis en tranches de 65536 valeurs consécutives et
+ * seules les tranches non vides sont stockées. Chaque tranche est
+ * représentée :
+ * <ul>
+ * 	<li>par le tableau trié de ses valeurs (16 bits chacune) lorsqu'elle en
+ * 	contient peu ({@link #ArrayLimit} au plus)</li>
+ * 	<li>par une table de bits (8 Ko) sinon</li>
+ * </ul>
+ * Un ensemble d'éléments épars n'occupe donc que deux octets par élément
+ * (contrairement à un {@link java.util.BitSet} dont la taille dépend du plus
+ * grand élément) alors qu'un ensemble dense occupe un bit par élément.
+ * Les intersections et les unions sont calculées tranche par tranche.
+ * @author davidroussel
+ */
+public class CompressedBitSet
+{
+	/**
+	 * Nombre de bits des éléments désignant leur tranche
+	 */
+	private static final int ChunkShift = 16;
+
+	/**
+	 * Masque de la partie des éléments propre à leur tranche
+	 */
+	private static final int ChunkMask = (1 << ChunkShift) - 1;
+
+	/**
+	 * Nombre maximum de valeurs d'une tranche représentée par un tableau
+	 * (au delà la table de bits est plus compacte)
+	 */
+	private static final int ArrayLimit = 4096;
+
+	/**
+	 * Nombre de mots d'une table de bits
+	 */
+	private static final int BitmapWords = 1 << (ChunkShift - 6);
+
+	/**
+	 * Tranche de l'ensemble
+	 */
+	private static final class Chunk
+	{
+		/**
+		 * Numéro de la tranche (bits de poids fort de ses éléments)
+		 */
+		final int key;
+
+		/**
+		 * Valeurs triées de la tranche (bits de poids faible de ses éléments)
+		 * ou null si la tranche est représentée par {@link #words}
+		 */
+		char[] values;
+
+		/**
+		 * Table de bits de la tranche ou null si la tranche est représentée
+		 * par {@link #values}
+		 */
+		long[] words;
+
+		/**
+		 * Nombre d'éléments de la tranche
+		 */
+		int cardinality;
+
+		/**
+		 * Constructeur d'une tranche vide
+		 * @param key le numéro de la tranche
+		 */
+		Chunk(int key)
+		{
+			this.key = key;
+			values = new char[4];
+			words = null;
+			cardinality = 0;
+		}
+
+		/**
+		 * Copie de la tranche
+		 * @return une copie indépendante de cette tranche
+		 */
+		Chunk copy()
+		{
+			Chunk chunk = new Chunk(key);
+			chunk.values = values == null ? null : values.clone();
+			chunk.words = words == null ? null : words.clone();
+			chunk.cardinality = cardinality;
+			return chunk;
+		}
+
+		/**
+		 * Test d'appartenance d'une valeur
+		 * @param low la valeur (sur 16 bits)
+		 * @return true si la valeur appartient à la tranche
+		 */
+		boolean contains(int low)
+		{
+			if (words != null)
+			{
+				return (words[low >>> 6] & (1L << low)) != 0;
+			}
+			return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+		}
+
+		/**
+		 * Ajout d'une valeur
+		 * @param low la valeur (sur 16 bits)
+		 * @return true si la valeur a été ajoutée (et n'était donc pas déjà
+		 * présente)
+		 */
+		boolean add(int low)
+		{
+			if (words != null)
+			{
+				long bit = 1L << low;
+				if ((words[low >>> 6] & bit) != 0)
+				{
+					return false;
+				}
+				words[low >>> 6] |= bit;
+				cardinality++;
+				return true;
+			}
+
+			int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+			if (index >= 0)
+			{
+				return false;
+			}
+			if (cardinality == ArrayLimit)
+			{
+				toBitmap();
+				return add(low);
+			}
+			index = -index - 1;
+			if (cardinality == values.length)
+			{
+				values = Arrays.copyOf(values,
+				                       Math.min(ArrayLimit, cardinality * 2));
+			}
+			System.arraycopy(values, index, values, index + 1,
+			                 cardinality - index);
+			values[index] = (char) low;
+			cardinality++;
+			return true;
+		}
+
+		/**
+		 * Retrait d'une valeur
+		 * @param low la valeur (sur 16 bits)
+		 * @return true si la valeur était présente et a été retirée
+		 */
+		boolean remove(int low)
+		{
+			if (words != null)
+			{
+				long bit = 1L << low;
+				if ((words[low >>> 6] & bit) == 0)
+				{
+					return false;
+				}
+				words[low >>> 6] &= ~bit;
+				if (--cardinality <= ArrayLimit / 2)
+				{
+					toArray();
+				}
+				return true;
+			}
+
+			int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+			if (index < 0)
+			{
+				return false;
+			}
+			System.arraycopy(values, index + 1, values, index,
+			                 cardinality - index - 1);
+			cardinality--;
+			return true;
+		}
+
+		/**
+		 * Retrait de toutes les valeurs supérieures ou égales à une valeur
+		 * @param low la valeur (sur 16 bits)
+		 */
+		void clearFrom(int low)
+		{
+			if (words != null)
+			{
+				int word = low >>> 6;
+				words[word] &= ~(-1L << low);
+				Arrays.fill(words, word + 1, BitmapWords, 0L);
+				cardinality = count(words);
+				if (cardinality <= ArrayLimit / 2)
+				{
+					toArray();
+				}
+			}
+			else
+			{
+				int index = Arrays.binarySearch(values, 0, cardinality,
+				                                (char) low);
+				cardinality = index >= 0 ? index : -index - 1;
+			}
+		}
+
+		/**
+		 * Plus petite valeur supérieure ou égale à une valeur
+		 * @param low la valeur (sur 16 bits)
+		 * @return la plus petite valeur de la tranche supérieure ou égale à
+		 * low ou bien -1 s'il n'y en a pas
+		 */
+		int next(int low)
+		{
+			if (words != null)
+			{
+				int word = low >>> 6;
+				long bits = words[word] & (-1L << low);
+				while (bits == 0)
+				{
+					if (++word == BitmapWords)
+					{
+						return -1;
+					}
+					bits = words[word];
+				}
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+
+			int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+			if (index < 0)
+			{
+				index = -index - 1;
+			}
+			return index < cardinality ? values[index] : -1;
+		}
+
+		/**
+		 * Passage à la représentation par une table de bits
+		 */
+		void toBitmap()
+		{
+			words = new long[BitmapWords];
+			for (int i = 0; i < cardinality; i++)
+			{
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+			values = null;
+		}
+
+		/**
+		 * Passage à la représentation par un tableau de valeurs
+		 */
+		void toArray()
+		{
+			values = new char[Math.max(4, cardinality)];
+			int n = 0;
+			for (int word = 0; word < BitmapWords; word++)
+			{
+				long bits = words[word];
+				while (bits != 0)
+				{
+					values[n++] = (char) ((word << 6)
+					    + Long.numberOfTrailingZeros(bits));
+					bits &= bits - 1;
+				}
+			}
+			words = null;
+		}
+
+		/**
+		 * Représentation adaptée au nombre de valeurs d'une tranche obtenue
+		 * par une opération sur des tables de bits
+		 * @return cette tranche ou bien null si elle est vide
+		 */
+		Chunk compact()
+		{
+			if (cardinality == 0)
+			{
+				return null;
+			}
+			if ((words != null) && (cardinality <= ArrayLimit))
+			{
+				toArray();
+			}
+			return this;
+		}
+
+		/**
+		 * Intersection de deux tranches de même numéro
+		 * @param other l'autre tranche
+		 * @return une nouvelle tranche contenant les valeurs communes aux
+		 * deux tranches ou bien null si elle est vide
+		 */
+		Chunk and(Chunk other)
+		{
+			Chunk result = new Chunk(key);
+			if ((words != null) && (other.words != null))
+			{
+				result.values = null;
+				result.words = new long[BitmapWords];
+				for (int i = 0; i < BitmapWords; i++)
+				{
+					result.words[i] = words[i] & other.words[i];
+				}
+				result.cardinality = count(result.words);
+				return result.compact();
+			}
+
+			Chunk small = words == null ? this : other;
+			Chunk large = small == this ? other : this;
+			result.values = new char[Math.max(4, small.cardinality)];
+			for (int i = 0; i < small.cardinality; i++)
+			{
+				if (large.contains(small.values[i]))
+				{
+					result.values[result.cardinality++] = small.values[i];
+				}
+			}
+			return result.cardinality == 0 ? null : result;
+		}
+
+		/**
+		 * Union de deux tranches de même numéro
+		 * @param other l'autre tranche
+		 * @return une nouvelle tranche contenant les valeurs de l'une ou
+		 * l'autre des tranches
+		 */
+		Chunk or(Chunk other)
+		{
+			Chunk result = new Chunk(key);
+			if ((words == null) && (other.words == null)
+			    && ((cardinality + other.cardinality) <= ArrayLimit))
+			{
+				// fusion des tableaux triés
+				result.values = new char[Math.max(4, cardinality
+				    + other.cardinality)];
+				int i = 0;
+				int j = 0;
+				while ((i < cardinality) || (j < other.cardinality))
+				{
+					char value;
+					if (j == other.cardinality)
+					{
+						value = values[i++];
+					}
+					else if (i == cardinality)
+					{
+						value = other.values[j++];
+					}
+					else if (values[i] < other.values[j])
+					{
+						value = values[i++];
+					}
+					else if (values[i] > other.values[j])
+					{
+						value = other.values[j++];
+					}
+					else
+					{
+						value = values[i++];
+						j++;
+					}
+					result.values[result.cardinality++] = value;
+				}
+				return result;
+			}
+
+			result.values = null;
+			result.words = new long[BitmapWords];
+			orInto(result.words);
+			other.orInto(result.words);
+			result.cardinality = count(result.words);
+			return result.compact();
+		}
+
+		/**
+		 * Ajout des valeurs de cette tranche à une table de bits
+		 * @param target la table de bits à compléter
+		 */
+		void orInto(long[] target)
+		{
+			if (words != null)
+			{
+				for (int i = 0; i < BitmapWords; i++)
+				{
+					target[i] |= words[i];
+				}
+			}
+			else
+			{
+				for (int i = 0; i < cardinality; i++)
+				{
+					target[values[i] >>> 6] |= 1L << values[i];
+				}
+			}
+		}
+
+		/**
+		 * Nombre de bits à 1 d'une table de bits
+		 * @param words la table de bits
+		 * @return le nombre de bits à 1
+		 */
+		static int count(long[] words)
+		{
+			int count = 0;
+			for (long word : words)
+			{
+				count += Long.bitCount(word);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Tranches non vides de l'ensemble triées par numéro
+	 */
+	private Chunk[] chunks;
+
+	/**
+	 * Nombre de tranches non vides
+	 */
+	private int size;
+
+	/**
+	 * Constructeur d'un ensemble vide
+	 */
+	public CompressedBitSet()
+	{
+		chunks = new Chunk[4];
+		size = 0;
+	}
+
+	/**
+	 * Constructeur de copie
+	 * @param other l'ensemble à copier
+	 */
+	public CompressedBitSet(CompressedBitSet other)
+	{
+		chunks = new Chunk[Math.max(4, other.size)];
+		size = other.size;
+		for (int i = 0; i < size; i++)
+		{
+			chunks[i] = other.chunks[i].copy();
+		}
+	}
+
+	/**
+	 * Ensemble de tous les entiers d'un intervalle
+	 * @param from le premier entier de l'intervalle
+	 * @param to l'entier suivant le dernier entier de l'intervalle
+	 * @return un nouvel ensemble contenant les entiers de [from, to[
+	 */
+	public static CompressedBitSet range(int from, int to)
+	{
+		CompressedBitSet set = new CompressedBitSet();
+		for (int i = from; i < to; i++)
+		{
+			set.add(i);
+		}
+		return set;
+	}
+
+	/**
+	 * Recherche d'une tranche
+	 * @param key le numéro de la tranche
+	 * @return l'indice de la tranche dans {@link #chunks} ou bien
+	 * -(point d'insertion) - 1 si elle n'est pas présente
+	 */
+	private int find(int key)
+	{
+		// ajouts le plus souvent à la fin (nouvelles figures)
+		if ((size > 0) && (chunks[size - 1].key == key))
+		{
+			return size - 1;
+		}
+		int low = 0;
+		int high = size - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int midKey = chunks[mid].key;
+			if (midKey < key)
+			{
+				low = mid + 1;
+			}
+			else if (midKey > key)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Ajout d'une tranche à la fin de l'ensemble (lors de la construction
+	 * du résultat d'une opération)
+	 * @param chunk la tranche à ajouter (ignorée si null)
+	 */
+	private void append(Chunk chunk)
+	{
+		if (chunk != null)
+		{
+			if (size == chunks.length)
+			{
+				chunks = Arrays.copyOf(chunks, size * 2);
+			}
+			chunks[size++] = chunk;
+		}
+	}
+
+	/**
+	 * Test d'appartenance d'un entier
+	 * @param value l'entier recherché
+	 * @return true si l'entier appartient à l'ensemble
+	 */
+	public boolean contains(int value)
+	{
+		int index = find(value >>> ChunkShift);
+		return (index >= 0) && chunks[index].contains(value & ChunkMask);
+	}
+
+	/**
+	 * Ajout d'un entier
+	 * @param value l'entier (positif) à ajouter
+	 * @return true si l'entier a été ajouté (et n'était donc pas déjà
+	 * présent)
+	 * @throws IndexOutOfBoundsException si l'entier est négatif
+	 */
+	public boolean add(int value) throws IndexOutOfBoundsException
+	{
+		if (value < 0)
+		{
+			throw new IndexOutOfBoundsException("negative value " + value);
+		}
+		int key = value >>> ChunkShift;
+		int index = find(key);
+		if (index < 0)
+		{
+			index = -index - 1;
+			if (size == chunks.length)
+			{
+				chunks = Arrays.copyOf(chunks, size * 2);
+			}
+			System.arraycopy(chunks, index, chunks, index + 1, size - index);
+			chunks[index] = new Chunk(key);
+			size++;
+		}
+		return chunks[index].add(value & ChunkMask);
+	}
+
+	/**
+	 * Retrait d'un entier
+	 * @param value l'entier à retirer
+	 * @return true si l'entier était présent et a été retiré
+	 */
+	public boolean remove(int value)
+	{
+		int index = find(value >>> ChunkShift);
+		if ((index < 0) || !chunks[index].remove(value & ChunkMask))
+		{
+			return false;
+		}
+		if (chunks[index].cardinality == 0)
+		{
+			removeChunk(index);
+		}
+		return true;
+	}
+
+	/**
+	 * Retrait de tous les entiers supérieurs ou égaux à un entier
+	 * @param from le plus petit entier retiré
+	 */
+	public void clearFrom(int from)
+	{
+		int from0 = Math.max(from, 0);
+		int index = find(from0 >>> ChunkShift);
+		int keep;
+		if (index >= 0)
+		{
+			chunks[index].clearFrom(from0 & ChunkMask);
+			keep = chunks[index].cardinality == 0 ? index : index + 1;
+		}
+		else
+		{
+			keep = -index - 1;
+		}
+		Arrays.fill(chunks, keep, size, null);
+		size = keep;
+	}
+
+	/**
+	 * Retrait de tous les entiers
+	 */
+	public void clear()
+	{
+		Arrays.fill(chunks, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Retrait d'une tranche
+	 * @param index l'indice de la tranche dans {@link #chunks}
+	 */
+	private void removeChunk(int index)
+	{
+		System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+		chunks[--size] = null;
+	}
+
+	/**
+	 * Nombre d'entiers de l'ensemble
+	 * @return le nombre d'entiers de l'ensemble
+	 */
+	public int cardinality()
+	{
+		int cardinality = 0;
+		for (int i = 0; i < size; i++)
+		{
+			cardinality += chunks[i].cardinality;
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Indique si l'ensemble est vide
+	 * @return true si l'ensemble ne contient aucun entier
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Plus petit entier de l'ensemble supérieur ou égal à un entier
+	 * @param from l'entier de départ
+	 * @return le plus petit entier de l'ensemble supérieur ou égal à from ou
+	 * bien -1 s'il n'y en a pas
+	 */
+	public int nextSetBit(int from)
+	{
+		int from0 = Math.max(from, 0);
+		int index = find(from0 >>> ChunkShift);
+		int low = from0 & ChunkMask;
+		if (index < 0)
+		{
+			index = -index - 1;
+			low = 0;
+		}
+		for (; index < size; index++, low = 0)
+		{
+			int next = chunks[index].next(low);
+			if (next >= 0)
+			{
+				return (chunks[index].key << ChunkShift) | next;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Intersection avec un autre ensemble
+	 * @param other l'autre ensemble
+	 * @return un nouvel ensemble contenant les entiers présents dans les
+	 * deux ensembles
+	 */
+	public CompressedBitSet and(CompressedBitSet other)
+	{
+		CompressedBitSet result = new CompressedBitSet();
+		int i = 0;
+		int j = 0;
+		while ((i < size) && (j < other.size))
+		{
+			int key = chunks[i].key;
+			int otherKey = other.chunks[j].key;
+			if (key < otherKey)
+			{
+				i++;
+			}
+			else if (key > otherKey)
+			{
+				j++;
+			}
+			else
+			{
+				result.append(chunks[i++].and(other.chunks[j++]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Union avec un autre ensemble
+	 * @param other l'autre ensemble
+	 * @return un nouvel ensemble contenant les entiers présents dans l'un ou
+	 * l'autre des ensembles
+	 */
+	public CompressedBitSet or(CompressedBitSet other)
+	{
+		CompressedBitSet result = new CompressedBitSet();
+		int i = 0;
+		int j = 0;
+		while ((i < size) || (j < other.size))
+		{
+			if (j == other.size)
+			{
+				result.append(chunks[i++].copy());
+			}
+			else if (i == size)
+			{
+				result.append(other.chunks[j++].copy());
+			}
+			else if (chunks[i].key < other.chunks[j].key)
+			{
+				result.append(chunks[i++].copy());
+			}
+			else if (chunks[i].key > other.chunks[j].key)
+			{
+				result.append(other.chunks[j++].copy());
+			}
+			else
+			{
+				result.append(chunks[i++].or(other.chunks[j++]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Application d'une action à chaque entier de l'ensemble dans l'ordre
+	 * croissant
+	 * @param action l'action à appliquer
+	 */
+	public void forEach(IntConsumer action)
+	{
+		for (PrimitiveIterator.OfInt it = iterator(); it.hasNext();)
+		{
+			action.accept(it.nextInt());
+		}
+	}
+
+	/**
+	 * Itérateur sur les entiers de l'ensemble dans l'ordre croissant
+	 * @return un itérateur sur les entiers de l'ensemble
+	 * @note l'ensemble ne doit pas être modifié pendant l'itération
+	 */
+	public PrimitiveIterator.OfInt iterator()
+	{
+		return new PrimitiveIterator.OfInt()
+		{
+			private int next = nextSetBit(0);
+
+			@Override
+			public boolean hasNext()
+			{
+				return next >= 0;
+			}
+
+			@Override
+			public int nextInt()
+			{
+				if (next < 0)
+				{
+					throw new NoSuchElementException();
+				}
+				int current = next;
+				next = current == Integer.MAX_VALUE ? -1 : nextSetBit(current + 1);
+				return current;
+			}
+		};
+	}
+
+	/**
+	 * Flux des entiers de l'ensemble dans l'ordre croissant
+	 * @return le flux (séquentiel) des entiers de l'ensemble
+	 * @note l'ensemble ne doit pas être modifié pendant le parcours du flux
+	 */
+	public IntStream stream()
+	{
+		return StreamSupport.intStream(
+		    Spliterators.spliterator(iterator(), cardinality(),
+		                             Spliterator.ORDERED
+		                                 | Spliterator.SORTED
+		                                 | Spliterator.DISTINCT
+		                                 | Spliterator.NONNULL),
+		    false);
+	}
+
+	/**
+	 * Représentation de l'ensemble
+	 * @return une chaine de caractères représentant le nombre d'entiers et
+	 * de tranches de l'ensemble
+	 */
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[" + cardinality() + " in "
+		    + size + " chunks]";
+	}
+}
@@ -0,0 +1,787 @@
+package utils;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Index spatial (R-Tree de Guttman à découpage quadratique) d'éléments
+ * associés à un rectangle englobant et à un ordre (typiquement l'ordre
+ * d'empilement des figures).
+ * Chaque noeud conserve, en plus de son rectangle englobant, l'ordre maximum
+ * des éléments qu'il contient, ce qui permet de rechercher l'élément le plus
+ * "haut" sous un point sans parcourir tout l'arbre.
+ * @note les éléments sont identifiés par leur référence (et non par equals)
+ * @param <E> le type des éléments indexés
+ * @author davidroussel
+ */
+public class RTree<E>
+{
+	/**
+	 * Nombre maximum de fils d'un noeud
+	 */
+	private static final int MaxChildren = 16;
+
+	/**
+	 * Nombre minimum de fils d'un noeud (sauf la racine)
+	 */
+	private static final int MinChildren = 6;
+
+	/**
+	 * Rectangle englobant et ordre maximum communs aux noeuds et aux entrées
+	 */
+	private static abstract class Box
+	{
+		double minX, minY, maxX, maxY;
+		long maxOrder;
+		Node parent;
+
+		boolean contains(double x, double y)
+		{
+			return (x >= minX) && (x <= maxX) && (y >= minY) && (y <= maxY);
+		}
+
+		boolean intersects(double x0, double y0, double x1, double y1)
+		{
+			return (x0 <= maxX) && (x1 >= minX) && (y0 <= maxY) && (y1 >= minY);
+		}
+
+		boolean encloses(double x0, double y0, double x1, double y1)
+		{
+			return (x0 >= minX) && (x1 <= maxX) && (y0 >= minY) && (y1 <= maxY);
+		}
+
+		double area()
+		{
+			return (maxX - minX) * (maxY - minY);
+		}
+	}
+
+	/**
+	 * Entrée d'une feuille : un élément, son rectangle et son ordre
+	 */
+	private static class Entry<E> extends Box
+	{
+		E element;
+	}
+
+	/**
+	 * Noeud de l'arbre : ses fils sont des {@link Entry} s'il s'agit d'une
+	 * feuille, des {@link Node} sinon
+	 */
+	private static class Node extends Box
+	{
+		final boolean leaf;
+		final List<Box> children;
+
+		Node(boolean leaf)
+		{
+			this.leaf = leaf;
+			children = new ArrayList<Box>(MaxChildren + 1);
+			recompute();
+		}
+
+		void add(Box child)
+		{
+			children.add(child);
+			child.parent = this;
+		}
+
+		/**
+		 * Recalcul du rectangle englobant et de l'ordre maximum d'après les fils
+		 */
+		void recompute()
+		{
+			minX = minY = Double.POSITIVE_INFINITY;
+			maxX = maxY = Double.NEGATIVE_INFINITY;
+			maxOrder = Long.MIN_VALUE;
+			for (Box b : children)
+			{
+				minX = Math.min(minX, b.minX);
+				minY = Math.min(minY, b.minY);
+				maxX = Math.max(maxX, b.maxX);
+				maxY = Math.max(maxY, b.maxY);
+				maxOrder = Math.max(maxOrder, b.maxOrder);
+			}
+		}
+	}
+
+	/**
+	 * Comparateur plaçant les boîtes d'ordre maximum le plus élevé en premier
+	 */
+	private static final Comparator<Box> topFirst =
+	    (Box b1, Box b2) -> Long.compare(b2.maxOrder, b1.maxOrder);
+
+	/**
+	 * La racine de l'arbre
+	 */
+	private Node root;
+
+	/**
+	 * Accès direct aux entrées à partir des éléments (par référence)
+	 */
+	private Map<E, Entry<E>> entries;
+
+	/**
+	 * Constructeur d'un index vide
+	 */
+	public RTree()
+	{
+		root = new Node(true);
+		entries = new IdentityHashMap<E, Entry<E>>();
+	}
+
+	/**
+	 * Nombre d'éléments indexés
+	 * @return le nombre d'éléments indexés
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Teste si un élément est indexé
+	 * @param element l'élément recherché
+	 * @return true si l'élément (cette référence) est indexé
+	 */
+	public boolean contains(E element)
+	{
+		return entries.containsKey(element);
+	}
+
+	/**
+	 * Effacement de l'index
+	 */
+	public void clear()
+	{
+		root = new Node(true);
+		entries.clear();
+	}
+
+	/**
+	 * Ajout d'un élément à l'index. Si l'élément est déjà indexé il est
+	 * simplement mis à jour.
+	 * @param element l'élément à indexer
+	 * @param bounds le rectangle englobant de l'élément
+	 * @param order l'ordre de l'élément (le plus grand est au dessus)
+	 */
+	public void insert(E element, Rectangle2D bounds, long order)
+	{
+		if (entries.containsKey(element))
+		{
+			update(element, bounds, order);
+			return;
+		}
+
+		Entry<E> entry = new Entry<E>();
+		entry.element = element;
+		set(entry, bounds, order);
+		entries.put(element, entry);
+		insert(entry);
+	}
+
+	/**
+	 * Mise à jour du rectangle englobant d'un élément (son ordre est conservé)
+	 * @param element l'élément à mettre à jour
+	 * @param bounds le nouveau rectangle englobant de l'élément
+	 * @return true si l'élément était indexé et a été mis à jour
+	 */
+	public boolean update(E element, Rectangle2D bounds)
+	{
+		Entry<E> entry = entries.get(element);
+		if (entry != null)
+		{
+			update(element, bounds, entry.maxOrder);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Mise à jour du rectangle englobant et de l'ordre d'un élément
+	 * @param element l'élément à mettre à jour
+	 * @param bounds le nouveau rectangle englobant de l'élément
+	 * @param order le nouvel ordre de l'élément
+	 * @return true si l'élément était indexé et a été mis à jour
+	 */
+	public boolean update(E element, Rectangle2D bounds, long order)
+	{
+		Entry<E> entry = entries.get(element);
+		if (entry == null)
+		{
+			return false;
+		}
+
+		Node leaf = entry.parent;
+		if (leaf.encloses(bounds.getMinX(), bounds.getMinY(),
+		                  bounds.getMaxX(), bounds.getMaxY()))
+		{
+			// La feuille contient toujours l'élément : on remonte les
+			// modifications sans restructurer l'arbre
+			set(entry, bounds, order);
+			for (Node n = leaf; n != null; n = n.parent)
+			{
+				n.recompute();
+			}
+		}
+		else
+		{
+			remove(entry);
+			set(entry, bounds, order);
+			insert(entry);
+		}
+		return true;
+	}
+
+	/**
+	 * Retrait d'un élément de l'index
+	 * @param element l'élément à retirer
+	 * @return true si l'élément était indexé et a été retiré
+	 */
+	public boolean remove(E element)
+	{
+		Entry<E> entry = entries.remove(element);
+		if (entry != null)
+		{
+			remove(entry);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * (Re)construction complète de l'index à partir d'une liste d'éléments
+	 * (algorithme Sort-Tile-Recursive). L'ordre de chaque élément est son
+	 * index dans la liste.
+	 * @param elements les éléments à indexer
+	 * @param boundsOf la fonction fournissant le rectangle englobant de
+	 * chaque élément
+	 */
+	public void load(List<? extends E> elements,
+	                 Function<? super E, Rectangle2D> boundsOf)
+	{
+		load(elements, boundsOf, 1);
+	}
+
+	/**
+	 * (Re)construction complète de l'index à partir d'une liste d'éléments
+	 * (algorithme Sort-Tile-Recursive). L'ordre de chaque élément est son
+	 * index dans la liste multiplié par un espacement, ce qui permet
+	 * d'insérer ensuite des éléments entre deux éléments existants.
+	 * @param elements les éléments à indexer
+	 * @param boundsOf la fonction fournissant le rectangle englobant de
+	 * chaque élément
+	 * @param spacing l'écart entre les ordres de deux éléments consécutifs
+	 */
+	public void load(List<? extends E> elements,
+	                 Function<? super E, Rectangle2D> boundsOf, long spacing)
+	{
+		clear();
+		List<Box> level = new ArrayList<Box>(elements.size());
+		long order = 0;
+		for (E element : elements)
+		{
+			Entry<E> entry = new Entry<E>();
+			entry.element = element;
+			set(entry, boundsOf.apply(element), order);
+			order += spacing;
+			entries.put(element, entry);
+			level.add(entry);
+		}
+
+		if (level.isEmpty())
+		{
+			return;
+		}
+
+		boolean leaves = true;
+		do
+		{
+			level = pack(level, leaves);
+			leaves = false;
+		}
+		while (level.size() > 1);
+
+		root = (Node) level.get(0);
+		root.parent = null;
+	}
+
+	/**
+	 * Recherche de l'élément d'ordre le plus élevé dont le rectangle englobant
+	 * contient le point (x, y) et qui satisfait un prédicat.
+	 * Les sous-arbres sont explorés par ordre maximum décroissant et ceux dont
+	 * l'ordre maximum est inférieur au meilleur candidat sont ignorés.
+	 * @param x l'abcisse du point
+	 * @param y l'ordonnée du point
+	 * @param accept le prédicat que doit satisfaire l'élément (test exact de
+	 * contenance, filtres, etc.)
+	 * @return l'élément le plus haut sous le point ou bien null s'il n'y en a
+	 * aucun
+	 */
+	public E top(double x, double y, Predicate<? super E> accept)
+	{
+		Entry<E> best = top(root, x, y, accept, null);
+		return best != null ? best.element : null;
+	}
+
+	/**
+	 * Recherche de tous les éléments dont le rectangle englobant intersecte
+	 * une zone
+	 * @param area la zone de recherche
+	 * @param action l'action à appliquer à chaque élément trouvé (dans un
+	 * ordre quelconque)
+	 */
+	public void search(Rectangle2D area, Consumer<? super E> action)
+	{
+		search(root, area.getMinX(), area.getMinY(), area.getMaxX(),
+		       area.getMaxY(), action);
+	}
+
+	/**
+	 * Recherche de tous les éléments dont le rectangle englobant intersecte
+	 * une zone
+	 * @param area la zone de recherche
+	 * @return la liste des éléments trouvés triée par ordre croissant
+	 */
+	public List<E> search(Rectangle2D area)
+	{
+		List<Entry<E>> found = new ArrayList<Entry<E>>();
+		searchEntries(root, area.getMinX(), area.getMinY(), area.getMaxX(),
+		              area.getMaxY(), found);
+		Collections.sort(found, (Entry<E> e1, Entry<E> e2) ->
+		    Long.compare(e1.maxOrder, e2.maxOrder));
+
+		List<E> result = new ArrayList<E>(found.size());
+		for (Entry<E> e : found)
+		{
+			result.add(e.element);
+		}
+		return result;
+	}
+
+	/**
+	 * Rectangle englobant d'un élément tel qu'il est enregistré dans l'index
+	 * @param element l'élément recherché
+	 * @return une copie du rectangle englobant de l'élément dans l'index ou
+	 * bien null si l'élément n'est pas indexé
+	 */
+	public Rectangle2D boundsOf(E element)
+	{
+		Entry<E> entry = entries.get(element);
+		if (entry != null)
+		{
+			return new Rectangle2D.Double(entry.minX, entry.minY,
+			                              entry.maxX - entry.minX,
+			                              entry.maxY - entry.minY);
+		}
+		return null;
+	}
+
+	/**
+	 * Ordre courant d'un élément
+	 * @param element l'élément recherché
+	 * @return l'ordre de l'élément ou bien {@link Long#MIN_VALUE} si
+	 * l'élément n'est pas indexé
+	 */
+	public long orderOf(E element)
+	{
+		Entry<E> entry = entries.get(element);
+		return entry != null ? entry.maxOrder : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Copie d'un rectangle et d'un ordre dans une entrée
+	 */
+	private static void set(Box entry, Rectangle2D bounds, long order)
+	{
+		entry.minX = bounds.getMinX();
+		entry.minY = bounds.getMinY();
+		entry.maxX = bounds.getMaxX();
+		entry.maxY = bounds.getMaxY();
+		entry.maxOrder = order;
+	}
+
+	/**
+	 * Insertion d'une entrée dans la feuille nécessitant le moins
+	 * d'agrandissement puis remontée des éventuels découpages
+	 */
+	private void insert(Entry<E> entry)
+	{
+		Node node = root;
+		while (!node.leaf)
+		{
+			node = chooseChild(node, entry);
+		}
+
+		node.add(entry);
+
+		Node split = null;
+		while (true)
+		{
+			if (node.children.size() > MaxChildren)
+			{
+				split = split(node);
+			}
+			else
+			{
+				node.recompute();
+				split = null;
+			}
+
+			Node parent = node.parent;
+			if (parent == null)
+			{
+				if (split != null)
+				{
+					Node newRoot = new Node(false);
+					newRoot.add(node);
+					newRoot.add(split);
+					newRoot.recompute();
+					root = newRoot;
+				}
+				break;
+			}
+
+			if (split != null)
+			{
+				parent.add(split);
+			}
+			node = parent;
+		}
+	}
+
+	/**
+	 * Choix du fils nécessitant le plus petit agrandissement pour contenir
+	 * une boîte (à agrandissement égal, celui de plus petite aire)
+	 */
+	private static Node chooseChild(Node node, Box box)
+	{
+		Node best = null;
+		double bestEnlargement = Double.POSITIVE_INFINITY;
+		double bestArea = Double.POSITIVE_INFINITY;
+		for (Box b : node.children)
+		{
+			double area = b.area();
+			double enlargement = unionArea(b, box) - area;
+			if ((enlargement < bestEnlargement) ||
+			    ((enlargement == bestEnlargement) && (area < bestArea)))
+			{
+				best = (Node) b;
+				bestEnlargement = enlargement;
+				bestArea = area;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Aire du rectangle englobant deux boîtes
+	 */
+	private static double unionArea(Box b1, Box b2)
+	{
+		return (Math.max(b1.maxX, b2.maxX) - Math.min(b1.minX, b2.minX)) *
+		       (Math.max(b1.maxY, b2.maxY) - Math.min(b1.minY, b2.minY));
+	}
+
+	/**
+	 * Découpage quadratique d'un noeud trop plein.
+	 * @param node le noeud à découper, qui conserve une partie de ses fils
+	 * @return le nouveau noeud contenant l'autre partie des fils
+	 */
+	private static Node split(Node node)
+	{
+		List<Box> remaining = new ArrayList<Box>(node.children);
+		node.children.clear();
+		Node sibling = new Node(node.leaf);
+
+		// Choix des deux germes gaspillant le plus de surface
+		int seed1 = 0, seed2 = 1;
+		double worst = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < remaining.size(); i++)
+		{
+			for (int j = i + 1; j < remaining.size(); j++)
+			{
+				Box bi = remaining.get(i);
+				Box bj = remaining.get(j);
+				double waste = unionArea(bi, bj) - bi.area() - bj.area();
+				if (waste > worst)
+				{
+					worst = waste;
+					seed1 = i;
+					seed2 = j;
+				}
+			}
+		}
+
+		node.add(remaining.get(seed1));
+		sibling.add(remaining.get(seed2));
+		remaining.remove(seed2);
+		remaining.remove(seed1);
+		node.recompute();
+		sibling.recompute();
+
+		while (!remaining.isEmpty())
+		{
+			// Si l'un des groupes doit prendre tous les restants pour
+			// atteindre le minimum de fils
+			if (node.children.size() + remaining.size() == MinChildren)
+			{
+				for (Box b : remaining)
+				{
+					node.add(b);
+				}
+				break;
+			}
+			if (sibling.children.size() + remaining.size() == MinChildren)
+			{
+				for (Box b : remaining)
+				{
+					sibling.add(b);
+				}
+				break;
+			}
+
+			// Choix de la boîte ayant la plus forte préférence pour un groupe
+			int next = 0;
+			double maxDiff = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < remaining.size(); i++)
+			{
+				Box b = remaining.get(i);
+				double d1 = unionArea(node, b) - node.area();
+				double d2 = unionArea(sibling, b) - sibling.area();
+				double diff = Math.abs(d1 - d2);
+				if (diff > maxDiff)
+				{
+					maxDiff = diff;
+					next = i;
+				}
+			}
+
+			Box b = remaining.remove(next);
+			double d1 = unionArea(node, b) - node.area();
+			double d2 = unionArea(sibling, b) - sibling.area();
+			Node target;
+			if (d1 != d2)
+			{
+				target = (d1 < d2 ? node : sibling);
+			}
+			else
+			{
+				target = (node.children.size() <= sibling.children.size() ?
+				    node : sibling);
+			}
+			target.add(b);
+			target.recompute();
+		}
+
+		node.recompute();
+		sibling.recompute();
+		return sibling;
+	}
+
+	/**
+	 * Retrait d'une entrée de sa feuille puis condensation de l'arbre : les
+	 * noeuds devenus trop petits sont retirés et leurs entrées réinsérées
+	 */
+	private void remove(Entry<E> entry)
+	{
+		Node node = entry.parent;
+		node.children.remove(entry);
+		entry.parent = null;
+
+		List<Entry<E>> orphans = new ArrayList<Entry<E>>();
+		while (node != root)
+		{
+			Node parent = node.parent;
+			if (node.children.size() < MinChildren)
+			{
+				parent.children.remove(node);
+				collect(node, orphans);
+			}
+			else
+			{
+				node.recompute();
+			}
+			node = parent;
+		}
+		root.recompute();
+
+		if (!root.leaf && (root.children.size() == 1))
+		{
+			root = (Node) root.children.get(0);
+			root.parent = null;
+		}
+		else if (!root.leaf && root.children.isEmpty())
+		{
+			root = new Node(true);
+		}
+
+		for (Entry<E> orphan : orphans)
+		{
+			insert(orphan);
+		}
+	}
+
+	/**
+	 * Collecte de toutes les entrées d'un sous-arbre
+	 */
+	@SuppressWarnings("unchecked")
+	private void collect(Node node, List<Entry<E>> result)
+	{
+		for (Box b : node.children)
+		{
+			if (node.leaf)
+			{
+				result.add((Entry<E>) b);
+			}
+			else
+			{
+				collect((Node) b, result);
+			}
+		}
+	}
+
+	/**
+	 * Regroupement d'un niveau de boîtes en noeuds (Sort-Tile-Recursive)
+	 * @param boxes les boîtes à regrouper
+	 * @param leaves true si les noeuds créés sont des feuilles
+	 * @return les noeuds du niveau supérieur
+	 */
+	private static List<Box> pack(List<Box> boxes, boolean leaves)
+	{
+		int nbNodes = (boxes.size() + MaxChildren - 1) / MaxChildren;
+		int nbSlices = (int) Math.ceil(Math.sqrt(nbNodes));
+		int sliceSize = nbSlices * MaxChildren;
+
+		Collections.sort(boxes, (Box b1, Box b2) ->
+		    Double.compare(b1.minX + b1.maxX, b2.minX + b2.maxX));
+
+		List<Box> result = new ArrayList<Box>(nbNodes);
+		for (int s = 0; s < boxes.size(); s += sliceSize)
+		{
+			List<Box> slice =
+			    boxes.subList(s, Math.min(s + sliceSize, boxes.size()));
+			Collections.sort(slice, (Box b1, Box b2) ->
+			    Double.compare(b1.minY + b1.maxY, b2.minY + b2.maxY));
+
+			for (int i = 0; i < slice.size(); i += MaxChildren)
+			{
+				Node node = new Node(leaves);
+				for (Box b : slice.subList(i, Math.min(i + MaxChildren,
+				                                         slice.size())))
+				{
+					node.add(b);
+				}
+				node.recompute();
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Recherche récursive de l'entrée la plus haute sous un point
+	 * @return la meilleure entrée trouvée dans le noeud ou bien best si le
+	 * noeud n'en contient pas de plus haute
+	 */
+	@SuppressWarnings("unchecked")
+	private Entry<E> top(Node node, double x, double y,
+	                     Predicate<? super E> accept, Entry<E> best)
+	{
+		if (node.children.isEmpty() || !node.contains(x, y))
+		{
+			return best;
+		}
+
+		if (node.leaf)
+		{
+			for (Box b : node.children)
+			{
+				Entry<E> e = (Entry<E>) b;
+				if (((best == null) || (e.maxOrder > best.maxOrder))
+				    && e.contains(x, y) && accept.test(e.element))
+				{
+					best = e;
+				}
+			}
+		}
+		else
+		{
+			List<Box> sorted = new ArrayList<Box>(node.children);
+			Collections.sort(sorted, topFirst);
+			for (Box b : sorted)
+			{
+				if ((best != null) && (b.maxOrder <= best.maxOrder))
+				{
+					break; // les suivants sont tous plus bas
+				}
+				best = top((Node) b, x, y, accept, best);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Recherche récursive des entrées intersectant une zone
+	 */
+	@SuppressWarnings("unchecked")
+	private void searchEntries(Node node, double x0, double y0, double x1,
+	                           double y1, List<Entry<E>> result)
+	{
+		if (node.children.isEmpty() || !node.intersects(x0, y0, x1, y1))
+		{
+			return;
+		}
+
+		for (Box b : node.children)
+		{
+			if (b.intersects(x0, y0, x1, y1))
+			{
+				if (node.leaf)
+				{
+					result.add((Entry<E>) b);
+				}
+				else
+				{
+					searchEntries((Node) b, x0, y0, x1, y1, result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recherche récursive des éléments intersectant une zone
+	 */
+	@SuppressWarnings("unchecked")
+	private void search(Node node, double x0, double y0, double x1, double y1,
+	                    Consumer<? super E> action)
+	{
+		if (node.children.isEmpty() || !node.intersects(x0, y0, x1, y1))
+		{
+			return;
+		}
+
+		for (Box b : node.children)
+		{
+			if (b.intersects(x0, y0, x1, y1))
+			{
+				if (node.leaf)
+				{
+					action.accept(((Entry<E>) b).element);
+				}
+				else
+				{
+					search((Node) b, x0, y0, x1, y1, action);
+				}
+			}
+		}
+	}
+}
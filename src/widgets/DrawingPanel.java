@@ -1,29 +1,38 @@
 package widgets;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.text.DecimalFormat;
 import java.util.Observable;
+import java.util.List;
 import java.util.Observer;
+import java.util.stream.Collectors;
 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import figures.Drawing;
+import figures.DrawingChange;
 import figures.Figure;
 import figures.listeners.AbstractFigureListener;
 import figures.listeners.creation.AbstractCreationListener;
+import rendering.TiledRenderer;
 
 /**
  * Panel de dessin des figures (Vue): mis à jour par modèle des figures (
@@ -112,6 +121,54 @@ public class DrawingPanel extends JPanel implements Observer, MouseListener,
 	 */
 	private boolean sendInfoState;
 
+	/**
+	 * Mode de rendu par calques : lorsqu'une figure est en cours d'édition
+	 * interactive ({@link Drawing#getActiveFigure()}) les figures situées en
+	 * dessous et au dessus de celle-ci sont conservées dans des images
+	 * ({@link #belowLayer} et {@link #aboveLayer}) et seule la figure éditée
+	 * est redessinée à chaque image.
+	 */
+	private boolean layered;
+
+	/**
+	 * Calque (opaque) contenant le fond et les figures situées sous la figure
+	 * en cours d'édition
+	 */
+	private BufferedImage belowLayer;
+
+	/**
+	 * Calque (transparent) contenant les figures situées au dessus de la
+	 * figure en cours d'édition ainsi que le soulignement des autres figures
+	 * sélectionnées
+	 */
+	private BufferedImage aboveLayer;
+
+	/**
+	 * La figure en cours d'édition pour laquelle les calques ont été
+	 * construits
+	 */
+	private Figure layersFigure;
+
+	/**
+	 * Indique si la figure en cours d'édition fait partie des figures
+	 * dessinées (elle peut être écartée par les filtres)
+	 */
+	private boolean layersFigureVisible;
+
+	/**
+	 * Indique si les calques sont à jour vis à vis du modèle. Ils deviennent
+	 * invalides dès que le modèle change pour une autre raison que la
+	 * modification de la figure en cours d'édition.
+	 */
+	private boolean layersValid;
+
+	/**
+	 * Moteur de rendu parallèle par tuiles utilisé en dehors des éditions
+	 * interactives, ou bien null pour dessiner directement les figures dans
+	 * le contexte graphique du panel
+	 */
+	private TiledRenderer tiledRenderer;
+
 	/**
 	 * Constructeur de la zone de dessin à partir d'un modèle de dessin.
 	 *
@@ -133,6 +190,17 @@ public class DrawingPanel extends JPanel implements Observer, MouseListener,
 		setLayout(null);
 		setDoubleBuffered(true);
 
+		layered = true;
+		belowLayer = null;
+		aboveLayer = null;
+		layersFigure = null;
+		layersFigureVisible = false;
+		layersValid = false;
+
+		// Le rendu par tuiles n'a d'intérêt qu'avec plusieurs processeurs
+		tiledRenderer = (Runtime.getRuntime().availableProcessors() > 1 ?
+		    new TiledRenderer() : null);
+
 		drawingModel = drawing;
 		if (drawing != null)
 		{
@@ -237,8 +305,61 @@ public class DrawingPanel extends JPanel implements Observer, MouseListener,
 		this.infoPanel = infoPanel;
 	}
 
+	/**
+	 * Indique si le rendu par calques est utilisé durant les éditions
+	 * interactives
+	 * @return true si le rendu par calques est actif
+	 */
+	public boolean isLayered()
+	{
+		return layered;
+	}
+
+	/**
+	 * (Dés)activation du rendu par calques durant les éditions interactives
+	 * @param layered le nouvel état du rendu par calques
+	 */
+	public void setLayered(boolean layered)
+	{
+		this.layered = layered;
+		if (!layered)
+		{
+			belowLayer = null;
+			aboveLayer = null;
+			layersFigure = null;
+		}
+		layersValid = false;
+		repaint();
+	}
+
+	/**
+	 * Indique si le rendu parallèle par tuiles est utilisé
+	 * @return true si le rendu par tuiles est actif, false si les figures
+	 * sont directement dessinées dans le panel
+	 */
+	public boolean isTiled()
+	{
+		return tiledRenderer != null;
+	}
+
+	/**
+	 * (Dés)activation du rendu parallèle par tuiles
+	 * @param tiled true pour dessiner les figures par tuiles en parallèle,
+	 * false pour revenir au dessin direct des figures dans le panel
+	 */
+	public void setTiled(boolean tiled)
+	{
+		if (tiled != isTiled())
+		{
+			tiledRenderer = (tiled ? new TiledRenderer() : null);
+			repaint();
+		}
+	}
+
 	/**
 	 * Dessin du panel. Effacement ce celui-ci puis dessin des figures.
+	 * Seules les figures intersectant la zone de clip (la zone à redessiner)
+	 * sont dessinées.
 	 * @param g le contexte graphique
 	 * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
 	 */
@@ -252,21 +373,38 @@ public class DrawingPanel extends JPanel implements Observer, MouseListener,
 		g2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
 		                     RenderingHints.VALUE_ANTIALIAS_ON);
 
-		// taille de la zone de dessin
-		Dimension d = getSize();
+		// zone à redessiner (par défaut toute la zone de dessin)
+		Rectangle clip = g2D.getClipBounds();
+		if (clip == null)
+		{
+			Dimension d = getSize();
+			clip = new Rectangle(0, 0, d.width, d.height);
+		}
 		// on commence par effacer le fond
 		g2D.setColor(getBackground());
-		g2D.fillRect(0, 0, d.width, d.height);
+		g2D.fillRect(clip.x, clip.y, clip.width, clip.height);
 
-		// Puis on dessine l'ensemble des figures
-		if (drawingModel != null)
+		// Puis on dessine les figures présentes dans la zone à redessiner
+		if ((drawingModel != null) && layered
+		    && (drawingModel.getActiveFigure() != null))
+		{
+			paintLayers(g2D, drawingModel.getActiveFigure());
+		}
+		else if ((drawingModel != null) && (tiledRenderer != null))
+		{
+			tiledRenderer.render(g2D, drawingModel, clip, getBackground());
+		}
+		else if (drawingModel != null)
 		{
+			List<Figure> visibles =
+			    drawingModel.stream(clip).collect(Collectors.toList());
+
 			/*
 			 * Application d'un Consumer<Figure> en tant que lambda expression
-			 * sur le flux (éventuellement filtré) des figures permettant
-			 * de dessiner les figures
+			 * sur la liste (éventuellement filtrée) des figures visibles
+			 * permettant de dessiner les figures
 			 */
-			drawingModel.stream().forEach((Figure f) -> f.draw(g2D));
+			visibles.forEach((Figure f) -> f.draw(g2D));
 
 			/*
 			 * Soulignement des figures sélectionnées (s'il y en a).
@@ -275,7 +413,7 @@ public class DrawingPanel extends JPanel implements Observer, MouseListener,
 			 */
 			if (drawingModel.hasSelection())
 			{
-				drawingModel.stream().forEach((Figure f) -> f.drawSelection(g2D));
+				visibles.forEach((Figure f) -> f.drawSelection(g2D));
 			}
 		}
 		else
@@ -284,6 +422,145 @@ public class DrawingPanel extends JPanel implements Observer, MouseListener,
 		}
 	}
 
+	/**
+	 * Dessin du panel par calques durant l'édition interactive d'une figure :
+	 * le calque inférieur, puis la figure éditée, puis le calque supérieur et
+	 * enfin le soulignement de la figure éditée. Les calques ne sont
+	 * (re)construits que s'ils sont invalides.
+	 * @param g2D le contexte graphique
+	 * @param active la figure en cours d'édition
+	 */
+	private void paintLayers(Graphics2D g2D, Figure active)
+	{
+		// Les calques sont à la résolution du périphérique
+		AffineTransform device = g2D.getTransform();
+		int width = getWidth();
+		int height = getHeight();
+		int layerWidth = Math.max(1, (int) Math.ceil(width * device.getScaleX()));
+		int layerHeight = Math.max(1, (int) Math.ceil(height * device.getScaleY()));
+
+		if (!layersValid || (layersFigure != active) || (belowLayer == null)
+		    || (belowLayer.getWidth() != layerWidth)
+		    || (belowLayer.getHeight() != layerHeight))
+		{
+			buildLayers(active, layerWidth, layerHeight, device.getScaleX(),
+			            device.getScaleY());
+		}
+
+		g2D.drawImage(belowLayer, 0, 0, width, height, null);
+		if (layersFigureVisible)
+		{
+			active.draw(g2D);
+		}
+		g2D.drawImage(aboveLayer, 0, 0, width, height, null);
+		if (layersFigureVisible)
+		{
+			active.drawSelection(g2D);
+		}
+	}
+
+	/**
+	 * Construction des calques situés sous et au dessus de la figure en cours
+	 * d'édition
+	 * @param active la figure en cours d'édition
+	 * @param layerWidth la largeur des calques (en pixels du périphérique)
+	 * @param layerHeight la hauteur des calques (en pixels du périphérique)
+	 * @param scaleX le facteur d'échelle horizontal du périphérique
+	 * @param scaleY le facteur d'échelle vertical du périphérique
+	 */
+	private void buildLayers(Figure active, int layerWidth, int layerHeight,
+	                         double scaleX, double scaleY)
+	{
+		List<Figure> all = drawingModel.stream().collect(Collectors.toList());
+		int activeIndex = -1;
+		for (int i = 0; (i < all.size()) && (activeIndex < 0); i++)
+		{
+			if (all.get(i) == active)
+			{
+				activeIndex = i;
+			}
+		}
+		int split = (activeIndex < 0 ? all.size() : activeIndex);
+
+		// Calque inférieur : fond + figures sous la figure éditée
+		if ((belowLayer == null) || (belowLayer.getWidth() != layerWidth)
+		    || (belowLayer.getHeight() != layerHeight))
+		{
+			belowLayer = new BufferedImage(layerWidth, layerHeight,
+			                               BufferedImage.TYPE_INT_RGB);
+			aboveLayer = new BufferedImage(layerWidth, layerHeight,
+			                               BufferedImage.TYPE_INT_ARGB);
+		}
+
+		Graphics2D below = belowLayer.createGraphics();
+		below.setColor(getBackground());
+		below.fillRect(0, 0, layerWidth, layerHeight);
+		below.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+		                       RenderingHints.VALUE_ANTIALIAS_ON);
+		below.scale(scaleX, scaleY);
+		for (Figure f : all.subList(0, split))
+		{
+			f.draw(below);
+		}
+		below.dispose();
+
+		// Calque supérieur : figures au dessus de la figure éditée +
+		// soulignement des autres figures sélectionnées
+		Graphics2D above = aboveLayer.createGraphics();
+		above.setComposite(AlphaComposite.Clear);
+		above.fillRect(0, 0, layerWidth, layerHeight);
+		above.setComposite(AlphaComposite.SrcOver);
+		above.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+		                       RenderingHints.VALUE_ANTIALIAS_ON);
+		above.scale(scaleX, scaleY);
+		if (activeIndex >= 0)
+		{
+			for (Figure f : all.subList(activeIndex + 1, all.size()))
+			{
+				f.draw(above);
+			}
+		}
+		if (drawingModel.hasSelection())
+		{
+			for (Figure f : all)
+			{
+				if (f != active)
+				{
+					f.drawSelection(above);
+				}
+			}
+		}
+		above.dispose();
+
+		layersFigure = active;
+		layersFigureVisible = activeIndex >= 0;
+		layersValid = true;
+	}
+
+	/**
+	 * Indique si un changement du modèle ne concerne que la figure en cours
+	 * d'édition (auquel cas les calques restent valides)
+	 * @param change le changement du modèle
+	 * @param active la figure en cours d'édition
+	 * @return true si toutes les figures du changement sont la figure
+	 * en cours d'édition
+	 */
+	private static boolean onlyConcerns(DrawingChange change, Figure active)
+	{
+		if ((active == null) || change.isEmpty())
+		{
+			return false;
+		}
+		for (Figure f : change.getFigures())
+		{
+			if (f != active)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Mise en place d'un nouveau listener de figure
 	 *
@@ -322,9 +599,15 @@ public class DrawingPanel extends JPanel implements Observer, MouseListener,
 	 * Mise à jour déclenchée par un {@link Observable#notifyObservers()} : en
 	 * l'occurence le modèle de dessin ({@link Drawing}) lorsque celui ci est
 	 * modifié. Cette mise à jour déclenche une requête de redessin du panel.
+	 * Si le modèle précise les figures modifiées (au travers d'un
+	 * {@link DrawingChange}) seule la zone endommagée est redessinée, sinon
+	 * c'est l'ensemble du panel qui est redessiné. Les calques du rendu par
+	 * calques sont invalidés sauf si seule la figure en cours d'édition a
+	 * changé.
 	 *
 	 * @param observable l'observable ayant déclenché cette MAJ
-	 * @param data les données (evt) transmises par l'observable [non utilisé ici]
+	 * @param data les données (evt) transmises par l'observable : un
+	 * {@link DrawingChange} ou bien null
 	 * @see java.util.Observer#update(java.util.Observable, java.lang.Object)
 	 */
 	@Override
@@ -332,8 +615,29 @@ public class DrawingPanel extends JPanel implements Observer, MouseListener,
 	{
 		if (observable instanceof Drawing)
 		{
-			// Le modèle à changé il faut redessiner les figures
-			repaint();
+			if (data instanceof DrawingChange)
+			{
+				// Les calques restent valides si seule la figure en cours
+				// d'édition a changé
+				if (!onlyConcerns((DrawingChange) data,
+				                  ((Drawing) observable).getActiveFigure()))
+				{
+					layersValid = false;
+				}
+
+				// Seule la zone endommagée doit être redessinée
+				Rectangle2D damage = ((DrawingChange) data).getDamagedArea();
+				if (damage != null)
+				{
+					repaint(damage.getBounds());
+				}
+			}
+			else
+			{
+				// Le modèle à changé il faut redessiner les figures
+				layersValid = false;
+				repaint();
+			}
 		}
 	}
 
@@ -13,6 +13,13 @@ import java.awt.event.InputEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.EventObject;
 import java.util.Iterator;
@@ -29,6 +36,7 @@ import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JColorChooser;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -49,6 +57,7 @@ import javax.swing.event.ChangeListener;
 
 import figures.Drawing;
 import figures.Figure;
+import figures.FigureCodec;
 import figures.enums.FigureType;
 import figures.enums.LineType;
 import figures.enums.PaintToType;
@@ -64,7 +73,14 @@ import filters.FillColorFilter;
 import filters.LineFilter;
 import filters.ShapeFilter;
 import history.HistoryManager;
+import history.MappedHistoryStore;
 import history.Memento;
+import io.DrawingJournal;
+import io.DrawingReader;
+import io.IndexedDrawingWriter;
+import io.PNGExporter;
+import io.SVGExporter;
+import io.SVGImporter;
 import utils.IconFactory;
 import utils.PaintFactory;
 import widgets.enums.OperationMode;
@@ -97,9 +113,30 @@ public class EditorFrame extends JFrame
 	protected HistoryManager<Figure> history;
 
 	/**
-	 * Taille de l'historique
+	 * Budget mémoire de l'historique (en octets)
 	 */
-	protected static final int historyLength = 32;
+	protected static final long historyBudget = 64L * 1024L * 1024L;
+
+	/**
+	 * Répertoire du journal des modifications du dessin permettant de le
+	 * reconstruire au démarrage après un arrêt brutal
+	 */
+	protected static final Path journalDirectory =
+	    Paths.get(System.getProperty("user.home"), ".figure-editor", "journal");
+
+	/**
+	 * Répertoire du fichier dans lequel sont déplacées les entrées les plus
+	 * anciennes de l'historique (sur disque plutôt que dans
+	 * {@code java.io.tmpdir} qui est souvent en mémoire)
+	 */
+	protected static final Path historyDirectory =
+	    Paths.get(System.getProperty("user.home"), ".figure-editor", "history");
+
+	/**
+	 * Le journal des modifications du dessin (ou bien null s'il n'a pas pu
+	 * être créé)
+	 */
+	protected DrawingJournal journal;
 
 	/**
 	 * Indique si l'éditeur est en mode Création de figures ou édition
@@ -270,6 +307,38 @@ public class EditorFrame extends JFrame
 	 */
 	private final Action clearAction = new ClearAction();
 
+	/**
+	 * Action déclenchée lorsque l'on clique sur l'item de menu open
+	 */
+	private final Action openAction = new OpenAction();
+
+	/**
+	 * Action déclenchée lorsque l'on clique sur l'item de menu save
+	 */
+	private final Action saveAction = new SaveAction();
+
+	/**
+	 * Action déclenchée lorsque l'on clique sur l'item de menu export SVG
+	 */
+	private final Action exportSVGAction = new ExportSVGAction();
+
+	/**
+	 * Action déclenchée lorsque l'on clique sur l'item de menu export PNG
+	 */
+	private final Action exportPNGAction = new ExportPNGAction();
+
+	/**
+	 * Action déclenchée lorsque l'on clique sur l'item de menu import SVG
+	 */
+	private final Action importSVGAction = new ImportSVGAction();
+
+	/**
+	 * Sélecteur de fichiers partagé par les actions open et save afin de
+	 * conserver le dernier répertoire utilisé
+	 */
+	private final JFileChooser fileChooser =
+	    new JFileChooser(System.getProperty("user.dir"));
+
 	/**
 	 * Action déclenchée lorsque l'on clique sur le bouton about ou sur l'item
 	 * de menu about
@@ -394,7 +463,44 @@ public class EditorFrame extends JFrame
 	public EditorFrame() throws HeadlessException
 	{
 		drawingModel = new Drawing();
-		history = new HistoryManager<Figure>(drawingModel, historyLength);
+
+		// Reconstruction du dessin de la session précédente (avant la mise
+		// en place de l'historique : elle ne peut pas être annulée)
+		try
+		{
+			long frames = DrawingJournal.recover(drawingModel,
+			                                     journalDirectory);
+			if (frames >= 0)
+			{
+				System.out.println(getClass().getSimpleName() + " : recovered "
+				    + drawingModel.getFigures().size() + " figures ("
+				    + frames + " journal frames)");
+			}
+			// le dessin reconstruit est le point de départ de l'historique
+			drawingModel.checkpoint();
+			journal = new DrawingJournal(drawingModel, journalDirectory);
+		}
+		catch (IOException e)
+		{
+			System.err.println(getClass().getSimpleName()
+			    + " : no journal : " + e.getMessage());
+			journal = null;
+		}
+
+		MappedHistoryStore historyStore = null;
+		try
+		{
+			historyStore = MappedHistoryStore.createTemporary(historyDirectory);
+		}
+		catch (IOException e)
+		{
+			// l'historique reste entièrement dans le tas
+			System.err.println(getClass().getSimpleName()
+			    + " : no history file : " + e.getMessage());
+		}
+		history = new HistoryManager<Figure>(drawingModel, historyBudget,
+		                                       new FigureCodec(), historyStore);
+		drawingModel.setHistory(history);
 		operationMode = OperationMode.CREATION;
 
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -601,6 +707,26 @@ public class EditorFrame extends JFrame
 		JMenuItem mntmClear = new JMenuItem("Clear");
 		mntmClear.setAction(clearAction);
 		mnFile.add(mntmClear);
+
+		JMenuItem mntmOpen = new JMenuItem("Open");
+		mntmOpen.setAction(openAction);
+		mnFile.add(mntmOpen);
+
+		JMenuItem mntmSave = new JMenuItem("Save");
+		mntmSave.setAction(saveAction);
+		mnFile.add(mntmSave);
+
+		JMenuItem mntmExportSVG = new JMenuItem("Export SVG");
+		mntmExportSVG.setAction(exportSVGAction);
+		mnFile.add(mntmExportSVG);
+
+		JMenuItem mntmExportPNG = new JMenuItem("Export PNG");
+		mntmExportPNG.setAction(exportPNGAction);
+		mnFile.add(mntmExportPNG);
+
+		JMenuItem mntmImportSVG = new JMenuItem("Import SVG");
+		mntmImportSVG.setAction(importSVGAction);
+		mnFile.add(mntmImportSVG);
 		
 		JMenuItem mntmQuit = new JMenuItem("Quit");
 		mntmQuit.setAction(quitAction);
@@ -750,7 +876,20 @@ public class EditorFrame extends JFrame
 			/*
 			 * Action à effectuer lorsque l'action "undo" est cliquée :
 			 * sortir avec un System.exit() (pas très propre, mais fonctionne)
+			 * après avoir fermé le journal
 			 */
+			if (journal != null)
+			{
+				try
+				{
+					journal.close();
+				}
+				catch (IOException ex)
+				{
+					System.err.println(getClass().getSimpleName()
+					    + "::doQuit : " + ex.getMessage());
+				}
+			}
 			System.exit(0);
 		}
 	}
@@ -860,6 +999,279 @@ public class EditorFrame extends JFrame
 		}
 	}
 
+	/**
+	 * Action réalisée pour charger un dessin à partir d'un fichier
+	 */
+	private class OpenAction extends AbstractAction
+	{
+		/**
+		 * Constructeur de l'action pour charger un dessin.
+		 * Met en place le raccourci clavier et la description de l'action
+		 */
+		public OpenAction()
+		{
+			putValue(NAME, "Open");
+			putValue(ACCELERATOR_KEY,
+			         KeyStroke.getKeyStroke(KeyEvent.VK_O,
+			                                Toolkit.getDefaultToolkit()
+			                                    .getMenuShortcutKeyMask()));
+			putValue(SHORT_DESCRIPTION, "Load drawing from file");
+		}
+
+		/**
+		 * Opérations réalisées par l'action : choix d'un fichier puis
+		 * remplacement du dessin par son contenu (qui peut être annulé)
+		 * @param e l'évènement déclenchant l'action. Peut provenir d'un bouton
+		 * ou d'un item de menu
+		 */
+		@Override
+		public void actionPerformed(ActionEvent e)
+		{
+			if (fileChooser.showOpenDialog(EditorFrame.this) ==
+			    JFileChooser.APPROVE_OPTION)
+			{
+				File file = fileChooser.getSelectedFile();
+				try
+				{
+					long count = DrawingReader.load(drawingModel, file.toPath());
+					infoLabel.setText(count + " figures loaded from "
+					    + file.getName());
+				}
+				catch (IOException ex)
+				{
+					System.err.println(getClass().getSimpleName()
+					    + "::actionPerformed : unable to load " + file + " : "
+					    + ex.getLocalizedMessage());
+					JOptionPane.showMessageDialog(EditorFrame.this,
+					                              ex.getLocalizedMessage(),
+					                              "Open ...",
+					                              JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Action réalisée pour enregistrer le dessin dans un fichier
+	 */
+	private class SaveAction extends AbstractAction
+	{
+		/**
+		 * Constructeur de l'action pour enregistrer le dessin.
+		 * Met en place le raccourci clavier et la description de l'action
+		 */
+		public SaveAction()
+		{
+			putValue(NAME, "Save");
+			putValue(ACCELERATOR_KEY,
+			         KeyStroke.getKeyStroke(KeyEvent.VK_S,
+			                                Toolkit.getDefaultToolkit()
+			                                    .getMenuShortcutKeyMask()));
+			putValue(SHORT_DESCRIPTION, "Save drawing to file");
+		}
+
+		/**
+		 * Opérations réalisées par l'action : choix d'un fichier puis
+		 * enregistrement de toutes les figures du dessin
+		 * @param e l'évènement déclenchant l'action. Peut provenir d'un bouton
+		 * ou d'un item de menu
+		 */
+		@Override
+		public void actionPerformed(ActionEvent e)
+		{
+			if (fileChooser.showSaveDialog(EditorFrame.this) ==
+			    JFileChooser.APPROVE_OPTION)
+			{
+				File file = fileChooser.getSelectedFile();
+				try
+				{
+					long count = IndexedDrawingWriter.save(drawingModel, file.toPath());
+					infoLabel.setText(count + " figures saved to "
+					    + file.getName());
+				}
+				catch (IOException ex)
+				{
+					System.err.println(getClass().getSimpleName()
+					    + "::actionPerformed : unable to save " + file + " : "
+					    + ex.getLocalizedMessage());
+					JOptionPane.showMessageDialog(EditorFrame.this,
+					                              ex.getLocalizedMessage(),
+					                              "Save ...",
+					                              JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Action réalisée pour exporter les figures (filtrées) du dessin dans un
+	 * fichier SVG
+	 */
+	private class ExportSVGAction extends AbstractAction
+	{
+		/**
+		 * Constructeur de l'action pour exporter le dessin en SVG.
+		 * Met en place le raccourci clavier et la description de l'action
+		 */
+		public ExportSVGAction()
+		{
+			putValue(NAME, "Export SVG");
+			putValue(ACCELERATOR_KEY,
+			         KeyStroke.getKeyStroke(KeyEvent.VK_E,
+			                                Toolkit.getDefaultToolkit()
+			                                    .getMenuShortcutKeyMask()));
+			putValue(SHORT_DESCRIPTION, "Export drawing to SVG file");
+		}
+
+		/**
+		 * Opérations réalisées par l'action : choix d'un fichier puis
+		 * export des figures du dessin (éventuellement filtrées) dans la
+		 * zone qu'elles occupent
+		 * @param e l'évènement déclenchant l'action. Peut provenir d'un bouton
+		 * ou d'un item de menu
+		 */
+		@Override
+		public void actionPerformed(ActionEvent e)
+		{
+			if (fileChooser.showSaveDialog(EditorFrame.this) ==
+			    JFileChooser.APPROVE_OPTION)
+			{
+				File file = fileChooser.getSelectedFile();
+				try (Writer out = Files.newBufferedWriter(file.toPath(),
+				                                          StandardCharsets.UTF_8))
+				{
+					long count = SVGExporter.export(drawingModel, out, null);
+					infoLabel.setText(count + " figures exported to "
+					    + file.getName());
+				}
+				catch (IOException ex)
+				{
+					System.err.println(getClass().getSimpleName()
+					    + "::actionPerformed : unable to export " + file + " : "
+					    + ex.getLocalizedMessage());
+					JOptionPane.showMessageDialog(EditorFrame.this,
+					                              ex.getLocalizedMessage(),
+					                              "Export SVG ...",
+					                              JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Action réalisée pour exporter le dessin dans une image PNG (construite
+	 * et compressée par bandes, sans créer l'image entière en mémoire)
+	 */
+	private class ExportPNGAction extends AbstractAction
+	{
+		/**
+		 * Exporteur partagé par les exports successifs
+		 */
+		private final PNGExporter exporter = new PNGExporter();
+
+		/**
+		 * Constructeur de l'action pour exporter le dessin en PNG.
+		 * Met en place le raccourci clavier et la description de l'action
+		 */
+		public ExportPNGAction()
+		{
+			putValue(NAME, "Export PNG");
+			putValue(ACCELERATOR_KEY,
+			         KeyStroke.getKeyStroke(KeyEvent.VK_E,
+			                                Toolkit.getDefaultToolkit()
+			                                    .getMenuShortcutKeyMask()
+			                                | InputEvent.SHIFT_MASK));
+			putValue(SHORT_DESCRIPTION, "Export drawing to PNG image");
+		}
+
+		/**
+		 * Opérations réalisées par l'action : choix d'un fichier puis
+		 * export de l'ensemble des figures du dessin à l'échelle 1 sur un
+		 * fond blanc
+		 * @param e l'évènement déclenchant l'action. Peut provenir d'un bouton
+		 * ou d'un item de menu
+		 */
+		@Override
+		public void actionPerformed(ActionEvent e)
+		{
+			if (fileChooser.showSaveDialog(EditorFrame.this) ==
+			    JFileChooser.APPROVE_OPTION)
+			{
+				File file = fileChooser.getSelectedFile();
+				try
+				{
+					long size = exporter.export(drawingModel, 1.0, Color.white,
+					                            file.toPath());
+					infoLabel.setText(size + " bytes exported to "
+					    + file.getName());
+				}
+				catch (IOException | IllegalArgumentException ex)
+				{
+					System.err.println(getClass().getSimpleName()
+					    + "::actionPerformed : unable to export " + file + " : "
+					    + ex.getLocalizedMessage());
+					JOptionPane.showMessageDialog(EditorFrame.this,
+					                              ex.getLocalizedMessage(),
+					                              "Export PNG ...",
+					                              JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Action réalisée pour ajouter au dessin les figures d'un fichier SVG
+	 */
+	private class ImportSVGAction extends AbstractAction
+	{
+		/**
+		 * Constructeur de l'action pour importer un fichier SVG.
+		 * Met en place le raccourci clavier et la description de l'action
+		 */
+		public ImportSVGAction()
+		{
+			putValue(NAME, "Import SVG");
+			putValue(ACCELERATOR_KEY,
+			         KeyStroke.getKeyStroke(KeyEvent.VK_O,
+			                                Toolkit.getDefaultToolkit()
+			                                    .getMenuShortcutKeyMask()
+			                                | InputEvent.SHIFT_MASK));
+			putValue(SHORT_DESCRIPTION, "Import figures from SVG file");
+		}
+
+		/**
+		 * Opérations réalisées par l'action : choix d'un fichier puis
+		 * ajout de ses figures à celles du dessin
+		 * @param e l'évènement déclenchant l'action. Peut provenir d'un bouton
+		 * ou d'un item de menu
+		 */
+		@Override
+		public void actionPerformed(ActionEvent e)
+		{
+			if (fileChooser.showOpenDialog(EditorFrame.this) ==
+			    JFileChooser.APPROVE_OPTION)
+			{
+				File file = fileChooser.getSelectedFile();
+				try
+				{
+					long count = SVGImporter.load(drawingModel, file.toPath());
+					infoLabel.setText(count + " figures imported from "
+					    + file.getName());
+				}
+				catch (IOException ex)
+				{
+					System.err.println(getClass().getSimpleName()
+					    + "::actionPerformed : unable to import " + file + " : "
+					    + ex.getLocalizedMessage());
+					JOptionPane.showMessageDialog(EditorFrame.this,
+					                              ex.getLocalizedMessage(),
+					                              "Import SVG ...",
+					                              JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Action réalisée pour afficher la boite de dialogue "A propos ..."
 	 */